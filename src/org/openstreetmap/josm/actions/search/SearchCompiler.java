@@ -1118,7 +1118,7 @@ public class SearchCompiler {
 
         @Override
         protected Bounds getBounds() {
-            return new Bounds(Main.main.getCurrentDataSet().getDataSourceArea().getBounds2D());
+            return Main.main.getCurrentDataSet().getDataSourceAreaIndex().getExtent();
         }
     }
 
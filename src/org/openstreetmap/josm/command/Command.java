@@ -15,6 +15,10 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
 import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSourceAreaIndex;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.PrimitiveData;
@@ -157,6 +161,53 @@ abstract public class Command extends PseudoCommand {
         return cloneMap.keySet();
     }
 
+    /**
+     * Moves nodes to new projected positions at once, see {@link DataSet#setEastNorths(Map)}.
+     * Nodes that do not all belong to the same dataset are moved one by one.
+     *
+     * @param positions the new positions of the nodes
+     */
+    protected static void setEastNorths(Map<Node, EastNorth> positions) {
+        DataSet ds = getDataSet(positions.keySet());
+        if (ds != null) {
+            ds.setEastNorths(positions);
+        } else {
+            for (Entry<Node, EastNorth> e : positions.entrySet()) {
+                e.getKey().setEastNorth(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Moves nodes to new coordinates at once, see {@link DataSet#setCoors(Map)}.
+     * Nodes that do not all belong to the same dataset are moved one by one.
+     *
+     * @param coors the new coordinates of the nodes
+     */
+    protected static void setCoors(Map<Node, LatLon> coors) {
+        DataSet ds = getDataSet(coors.keySet());
+        if (ds != null) {
+            ds.setCoors(coors);
+        } else {
+            for (Entry<Node, LatLon> e : coors.entrySet()) {
+                e.getKey().setCoor(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Replies the dataset all nodes belong to, or null if there is none.
+     */
+    private static DataSet getDataSet(Collection<Node> nodes) {
+        DataSet ds = null;
+        for (Node node : nodes) {
+            if (node.getDataSet() == null || (ds != null && node.getDataSet() != ds))
+                return null;
+            ds = node.getDataSet();
+        }
+        return ds;
+    }
+
     /**
      * Check whether user is about to operate on data outside of the download area.
      * Request confirmation if he is.
@@ -184,6 +235,42 @@ abstract public class Command extends PseudoCommand {
                 outside = true;
             }
         }
+        return confirmOutlyingOperation(operation, dialogTitle, outsideDialogMessage, incompleteDialogMessage, outside, incomplete);
+    }
+
+    /**
+     * Check whether user is about to operate on data outside of the download area.
+     * Request confirmation if he is.
+     *
+     * @param operation the operation name which is used for setting some preferences
+     * @param dialogTitle the title of the dialog being displayed
+     * @param outsideDialogMessage the message text to be displayed when data is outside of the download area
+     * @param incompleteDialogMessage the message text to be displayed when data is incomplete
+     * @param area the area used to determine whether data is outlying, no data is outlying if it is empty
+     * @param primitives the primitives to operate on
+     * @param ignore {@code null} or a primitive to be ignored
+     * @return true, if operating on outlying primitives is OK; false, otherwise
+     */
+    public static boolean checkAndConfirmOutlyingOperation(String operation,
+            String dialogTitle, String outsideDialogMessage, String incompleteDialogMessage,
+            DataSourceAreaIndex area, Collection<? extends OsmPrimitive> primitives,
+            Collection<? extends OsmPrimitive> ignore) {
+        boolean outside = false;
+        boolean incomplete = false;
+        for (OsmPrimitive osm : primitives) {
+            if (osm.isIncomplete()) {
+                incomplete = true;
+            } else if (!area.isEmpty() && isOutlying(osm, area)
+                    && (ignore == null || !ignore.contains(osm))) {
+                outside = true;
+            }
+        }
+        return confirmOutlyingOperation(operation, dialogTitle, outsideDialogMessage, incompleteDialogMessage, outside, incomplete);
+    }
+
+    private static boolean confirmOutlyingOperation(String operation,
+            String dialogTitle, String outsideDialogMessage, String incompleteDialogMessage,
+            boolean outside, boolean incomplete) {
         if (outside) {
             JPanel msg = new JPanel(new GridBagLayout());
             msg.add(new JLabel("<html>" + outsideDialogMessage + "</html>"));
@@ -215,6 +302,20 @@ abstract public class Command extends PseudoCommand {
         return true;
     }
 
+    private static boolean isOutlying(OsmPrimitive osm, DataSourceAreaIndex area) {
+        if (osm instanceof Node) {
+            return !osm.isNewOrUndeleted() && !area.contains(((Node) osm).getCoor());
+        } else if (osm instanceof Way) {
+            for (Node n : ((Way) osm).getNodes()) {
+                if (isOutlying(n, area)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return false;
+    }
+
     private static boolean isOutlying(OsmPrimitive osm, Area area) {
         if (osm instanceof Node) {
             return !osm.isNewOrUndeleted() && !area.contains(((Node) osm).getCoor());
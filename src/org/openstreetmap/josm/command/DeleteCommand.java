@@ -26,6 +26,7 @@ import javax.swing.JPanel;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.SplitWayAction;
+import org.openstreetmap.josm.data.osm.DataSourceAreaIndex;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
@@ -452,24 +453,36 @@ public class DeleteCommand extends Command {
     }
 
     public static boolean checkAndConfirmOutlyingDelete(OsmDataLayer layer, Collection<? extends OsmPrimitive> primitives, Collection<? extends OsmPrimitive> ignore) {
-        return checkAndConfirmOutlyingDelete(layer.data.getDataSourceArea(), primitives, ignore);
+        return checkAndConfirmOutlyingDelete(layer.data.getDataSourceAreaIndex(), primitives, ignore);
     }
 
     public static boolean checkAndConfirmOutlyingDelete(Area area, Collection<? extends OsmPrimitive> primitives, Collection<? extends OsmPrimitive> ignore) {
         return Command.checkAndConfirmOutlyingOperation("delete",
-                tr("Delete confirmation"),
-                tr("You are about to delete nodes outside of the area you have downloaded."
-                        + "<br>"
-                        + "This can cause problems because other objects (that you do not see) might use them."
-                        + "<br>"
-                        + "Do you really want to delete?"),
-                tr("You are about to delete incomplete objects."
-                        + "<br>"
-                        + "This will cause problems because you don''t see the real object."
-                        + "<br>" + "Do you really want to delete?"),
+                tr("Delete confirmation"), getOutlyingDeleteMessage(), getIncompleteDeleteMessage(),
                 area, primitives, ignore);
     }
 
+    public static boolean checkAndConfirmOutlyingDelete(DataSourceAreaIndex area, Collection<? extends OsmPrimitive> primitives, Collection<? extends OsmPrimitive> ignore) {
+        return Command.checkAndConfirmOutlyingOperation("delete",
+                tr("Delete confirmation"), getOutlyingDeleteMessage(), getIncompleteDeleteMessage(),
+                area, primitives, ignore);
+    }
+
+    private static String getOutlyingDeleteMessage() {
+        return tr("You are about to delete nodes outside of the area you have downloaded."
+                + "<br>"
+                + "This can cause problems because other objects (that you do not see) might use them."
+                + "<br>"
+                + "Do you really want to delete?");
+    }
+
+    private static String getIncompleteDeleteMessage() {
+        return tr("You are about to delete incomplete objects."
+                + "<br>"
+                + "This will cause problems because you don''t see the real object."
+                + "<br>" + "Do you really want to delete?");
+    }
+
     private static boolean confirmRelationDeletion(Collection<Relation> relations) {
         JPanel msg = new JPanel(new GridBagLayout());
         msg.add(new JLabel("<html>" + trn(
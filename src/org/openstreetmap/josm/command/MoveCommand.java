@@ -5,9 +5,11 @@ import static org.openstreetmap.josm.tools.I18n.trn;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import javax.swing.Icon;
 
 import org.openstreetmap.josm.data.coor.EastNorth;
@@ -111,9 +113,11 @@ public class MoveCommand extends Command {
      * the original position the objects had before first moving.
      */
     public void moveAgain(double x, double y) {
+        Map<Node, EastNorth> positions = new HashMap<Node, EastNorth>(nodes.size() * 2);
         for (Node n : nodes) {
-            n.setEastNorth(n.getEastNorth().add(x, y));
+            positions.put(n, n.getEastNorth().add(x, y));
         }
+        setEastNorths(positions);
         this.x += x;
         this.y += y;
     }
@@ -160,14 +164,17 @@ public class MoveCommand extends Command {
     }
 
     private void updateCoordinates() {
+        Map<Node, EastNorth> positions = new HashMap<Node, EastNorth>(nodes.size() * 2);
         Iterator<OldState> it = oldState.iterator();
         for (Node n : nodes) {
             OldState os = it.next();
-            n.setEastNorth(os.en.add(x, y));
+            positions.put(n, os.en.add(x, y));
         }
+        setEastNorths(positions);
     }
 
     @Override public boolean executeCommand() {
+        Map<Node, EastNorth> positions = new HashMap<Node, EastNorth>(nodes.size() * 2);
         for (Node n : nodes) {
             // in case #3892 happens again
             if (n == null)
@@ -175,19 +182,24 @@ public class MoveCommand extends Command {
             if (n.getEastNorth() == null)
                 throw new AssertionError("null coordinates detected in node list");
 
-            n.setEastNorth(n.getEastNorth().add(x, y));
+            positions.put(n, n.getEastNorth().add(x, y));
+        }
+        setEastNorths(positions);
+        for (Node n : nodes) {
             n.setModified(true);
         }
         return true;
     }
 
     @Override public void undoCommand() {
+        Map<Node, LatLon> coors = new HashMap<Node, LatLon>(nodes.size() * 2);
         Iterator<OldState> it = oldState.iterator();
         for (Node n : nodes) {
             OldState os = it.next();
-            n.setCoor(os.latlon);
+            coors.put(n, os.latlon);
             n.setModified(os.modified);
         }
+        setCoors(coors);
     }
 
     @Override public void fillModifiedData(Collection<OsmPrimitive> modified, Collection<OsmPrimitive> deleted, Collection<OsmPrimitive> added) {
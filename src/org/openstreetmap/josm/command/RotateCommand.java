@@ -4,6 +4,8 @@ package org.openstreetmap.josm.command;
 import static org.openstreetmap.josm.tools.I18n.trn;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.swing.Icon;
 
@@ -85,16 +87,18 @@ public class RotateCommand extends TransformNodesCommand {
      */
     @Override
     protected void transformNodes() {
+        double cosPhi = Math.cos(rotationAngle);
+        double sinPhi = Math.sin(rotationAngle);
+        Map<Node, EastNorth> positions = new HashMap<Node, EastNorth>(nodes.size() * 2);
         for (Node n : nodes) {
-            double cosPhi = Math.cos(rotationAngle);
-            double sinPhi = Math.sin(rotationAngle);
             EastNorth oldEastNorth = oldStates.get(n).eastNorth;
             double x = oldEastNorth.east() - pivot.east();
             double y = oldEastNorth.north() - pivot.north();
             double nx =  cosPhi * x + sinPhi * y + pivot.east();
             double ny = -sinPhi * x + cosPhi * y + pivot.north();
-            n.setEastNorth(new EastNorth(nx, ny));
+            positions.put(n, new EastNorth(nx, ny));
         }
+        setEastNorths(positions);
     }
 
     @Override
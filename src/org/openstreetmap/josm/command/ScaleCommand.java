@@ -4,6 +4,8 @@ package org.openstreetmap.josm.command;
 import static org.openstreetmap.josm.tools.I18n.trn;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.swing.Icon;
 
@@ -69,14 +71,16 @@ public class ScaleCommand extends TransformNodesCommand {
     @Override
     protected void transformNodes() {
         // scalingFactor = 2.0;
+        Map<Node, EastNorth> positions = new HashMap<Node, EastNorth>(nodes.size() * 2);
         for (Node n : nodes) {
             EastNorth oldEastNorth = oldStates.get(n).eastNorth;
             double dx = oldEastNorth.east() - pivot.east();
             double dy = oldEastNorth.north() - pivot.north();
             double nx = pivot.east() + scalingFactor * dx;
             double ny = pivot.north() + scalingFactor * dy;
-            n.setEastNorth(new EastNorth(nx, ny));
+            positions.put(n, new EastNorth(nx, ny));
         }
+        setEastNorths(positions);
     }
 
     @Override
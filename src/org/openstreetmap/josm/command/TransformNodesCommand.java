@@ -105,11 +105,13 @@ public abstract class TransformNodesCommand extends Command {
      */
     @Override
     public void undoCommand() {
+        Map<Node, LatLon> coors = new HashMap<Node, LatLon>(nodes.size() * 2);
         for (Node n : nodes) {
             OldState os = oldStates.get(n);
-            n.setCoor(os.latlon);
+            coors.put(n, os.latlon);
             n.setModified(os.modified);
         }
+        setCoors(coors);
     }
 
     @Override
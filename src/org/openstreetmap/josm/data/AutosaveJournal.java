@@ -0,0 +1,596 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.IPrimitive;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.NodeData;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.PrimitiveData;
+import org.openstreetmap.josm.data.osm.PrimitiveId;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationData;
+import org.openstreetmap.josm.data.osm.RelationMemberData;
+import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
+import org.openstreetmap.josm.data.osm.User;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.WayData;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DatasetChanges;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.IllegalDataException;
+import org.openstreetmap.josm.io.OsmReader;
+import org.openstreetmap.josm.io.OsmWriter;
+import org.openstreetmap.josm.io.OsmWriterFactory;
+
+/**
+ * The change journal of an autosaved layer.
+ *
+ * Between two full snapshots of a layer (written as .osm file), only the primitives changed
+ * since the last autosave are appended to a journal file next to the snapshot. The journal
+ * tracks the changed primitives through the dataset events, so an autosave of a large layer
+ * costs as much as the changes since the last one.
+ *
+ * The journal is a sequence of chunks, one per autosave, each protected by a checksum, so
+ * a chunk which was written incompletely during a crash is ignored. Each chunk holds the
+ * current state of the changed primitives, the ids of the removed ones and the new ids of
+ * uploaded primitives. Ids are the ids of the dataset, which are also used in the snapshot,
+ * including the negative ids of new primitives.
+ *
+ * {@link #replay(File, File)} merges the journal into the snapshot, so the recovered
+ * file can be opened as usual.
+ */
+class AutosaveJournal {
+
+    private static final int MAGIC = 0x4a4f534a; // "JOSJ"
+    private static final int VERSION = 1;
+
+    private static final byte REMOVED = 0;
+    private static final byte NODE = 1;
+    private static final byte WAY = 2;
+    private static final byte RELATION = 3;
+    private static final byte RENAMED = 4;
+
+    private static final int FLAG_MODIFIED = 1;
+    private static final int FLAG_DELETED = 2;
+    private static final int FLAG_INCOMPLETE = 4;
+    private static final int FLAG_INVISIBLE = 8;
+
+    private static final byte USER_NONE = 0;
+    private static final byte USER_OSM = 1;
+    private static final byte USER_LOCAL = 2;
+
+    /**
+     * The changes collected for one chunk of the journal.
+     */
+    static class Changes {
+        final List<PrimitiveData> changed = new ArrayList<PrimitiveData>();
+        final List<PrimitiveId> removed = new ArrayList<PrimitiveId>();
+        /** the old and the new ids of primitives which got an id from the server */
+        final List<PrimitiveId[]> renamed = new ArrayList<PrimitiveId[]>();
+
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        public int size() {
+            return changed.size() + removed.size() + renamed.size();
+        }
+    }
+
+    /** the primitives changed since the last autosave */
+    private Set<OsmPrimitive> touched = newIdentitySet();
+    /** the ids new primitives had when they were saved the last time, to notice id changes on upload */
+    private final Map<OsmPrimitive, Long> newIds = new IdentityHashMap<OsmPrimitive, Long>();
+    private boolean snapshotRequired = true;
+    /** the number of primitives written to the journal since the last snapshot */
+    private int journalled;
+
+    private static Set<OsmPrimitive> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<OsmPrimitive, Boolean>());
+    }
+
+    /**
+     * Remembers the primitives changed by a dataset event.
+     *
+     * @param event the event
+     */
+    public synchronized void record(AbstractDatasetChangedEvent event) {
+        if (snapshotRequired)
+            return;
+        DatasetChanges changes = DatasetChanges.of(event);
+        if (changes == null) {
+            // the dataset was changed completely, write everything
+            requestSnapshot();
+        } else {
+            touched.addAll(changes.getPrimitives());
+        }
+    }
+
+    /**
+     * Remembers primitives changed without a dataset event, e.g. by the cleanup after an upload
+     * which resets the modified flags and purges the deleted primitives.
+     *
+     * @param primitives the changed primitives
+     */
+    public synchronized void touch(Collection<? extends IPrimitive> primitives) {
+        if (snapshotRequired)
+            return;
+        for (IPrimitive p : primitives) {
+            if (p instanceof OsmPrimitive) {
+                touched.add((OsmPrimitive) p);
+            }
+        }
+    }
+
+    /**
+     * Makes the next autosave write a full snapshot.
+     */
+    public synchronized void requestSnapshot() {
+        snapshotRequired = true;
+        touched = newIdentitySet();
+    }
+
+    /**
+     * Replies true if the next autosave has to write a full snapshot, either because
+     * it was requested or because the journal has grown too large.
+     *
+     * @param maxJournalled the maximum number of primitives in the journal
+     * @return true if a snapshot is required
+     */
+    public synchronized boolean isSnapshotRequired(int maxJournalled) {
+        return snapshotRequired || journalled > maxJournalled;
+    }
+
+    /**
+     * Replies true if primitives have been changed since the last autosave.
+     *
+     * @return true if primitives have been changed since the last autosave
+     */
+    public synchronized boolean hasChanges() {
+        return !touched.isEmpty();
+    }
+
+    /**
+     * Resets the journal before a snapshot is written. Must be called with the read lock of
+     * the dataset held during the whole snapshot.
+     *
+     * @param ds the dataset of the layer
+     */
+    public void startSnapshot(DataSet ds) {
+        synchronized (this) {
+            touched = newIdentitySet();
+            snapshotRequired = false;
+            journalled = 0;
+        }
+        newIds.clear();
+        for (OsmPrimitive p : ds.allPrimitives()) {
+            if (p.isNew()) {
+                newIds.put(p, p.getUniqueId());
+            }
+        }
+    }
+
+    /**
+     * Collects the changes since the last autosave. Must be called with the read lock of the
+     * dataset held, the changes can be written afterwards without it.
+     *
+     * @param ds the dataset of the layer
+     * @return the changes
+     */
+    public Changes collect(DataSet ds) {
+        Set<OsmPrimitive> primitives;
+        synchronized (this) {
+            primitives = touched;
+            touched = newIdentitySet();
+        }
+        // new primitives which got an id from the server
+        for (Map.Entry<OsmPrimitive, Long> e : newIds.entrySet()) {
+            if (e.getKey().getUniqueId() != e.getValue()) {
+                primitives.add(e.getKey());
+            }
+        }
+        Changes changes = new Changes();
+        for (OsmPrimitive p : primitives) {
+            Long oldId = newIds.remove(p);
+            if (p.getDataSet() != ds) {
+                addRemoved(changes, ds, new SimplePrimitiveId(oldId != null ? oldId : p.getUniqueId(), p.getType()));
+                continue;
+            }
+            if (oldId != null && oldId != p.getUniqueId()) {
+                changes.renamed.add(new PrimitiveId[] {new SimplePrimitiveId(oldId, p.getType()), p.getPrimitiveId()});
+            }
+            changes.changed.add(p.save());
+            if (p.isNew()) {
+                newIds.put(p, p.getUniqueId());
+            }
+        }
+        synchronized (this) {
+            journalled += changes.size();
+        }
+        return changes;
+    }
+
+    private static void addRemoved(Changes changes, DataSet ds, PrimitiveId id) {
+        // another primitive with the same id may have been added since
+        if (ds.getPrimitiveById(id) == null) {
+            changes.removed.add(id);
+        }
+    }
+
+    /**
+     * Creates an empty journal file.
+     *
+     * @param file the journal file
+     * @throws IOException if an I/O error occurs
+     */
+    public static void create(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Appends a chunk of changes to a journal file.
+     *
+     * @param file the journal file, created by {@link #create(File)}
+     * @param changes the changes
+     * @throws IOException if an I/O error occurs
+     */
+    public static void append(File file, Changes changes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream chunk = new DataOutputStream(bytes);
+        chunk.writeInt(changes.size());
+        for (PrimitiveId[] ids : changes.renamed) {
+            chunk.writeByte(RENAMED);
+            chunk.writeByte(ids[0].getType().ordinal());
+            chunk.writeLong(ids[0].getUniqueId());
+            chunk.writeLong(ids[1].getUniqueId());
+        }
+        // nodes before ways before relations, so members exist when they are referred to
+        for (OsmPrimitiveType type : new OsmPrimitiveType[] {OsmPrimitiveType.NODE, OsmPrimitiveType.WAY, OsmPrimitiveType.RELATION}) {
+            for (PrimitiveData data : changes.changed) {
+                if (data.getType() == type) {
+                    writePrimitive(chunk, data);
+                }
+            }
+        }
+        for (PrimitiveId id : changes.removed) {
+            chunk.writeByte(REMOVED);
+            chunk.writeByte(id.getType().ordinal());
+            chunk.writeLong(id.getUniqueId());
+        }
+        chunk.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true));
+        try {
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.writeLong(crc.getValue());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writePrimitive(DataOutputStream out, PrimitiveData data) throws IOException {
+        if (data instanceof NodeData) {
+            out.writeByte(NODE);
+        } else if (data instanceof WayData) {
+            out.writeByte(WAY);
+        } else {
+            out.writeByte(RELATION);
+        }
+        out.writeLong(data.getUniqueId());
+        out.writeInt(data.getVersion());
+        out.writeInt(data.getChangesetId());
+        out.writeInt(data.isTimestampEmpty() ? 0 : (int) (data.getTimestamp().getTime() / 1000));
+        int flags = (data.isModified() ? FLAG_MODIFIED : 0)
+                | (data.isDeleted() ? FLAG_DELETED : 0)
+                | (data.isIncomplete() ? FLAG_INCOMPLETE : 0)
+                | (data.isVisible() ? 0 : FLAG_INVISIBLE);
+        out.writeByte(flags);
+        User user = data.getUser();
+        if (user == null) {
+            out.writeByte(USER_NONE);
+        } else if (user.isOsmUser()) {
+            out.writeByte(USER_OSM);
+            out.writeLong(user.getId());
+            out.writeUTF(user.getName());
+        } else {
+            out.writeByte(USER_LOCAL);
+            out.writeUTF(user.getName());
+        }
+        Map<String, String> keys = data.getKeys();
+        out.writeInt(keys.size());
+        for (Map.Entry<String, String> e : keys.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+        if (data instanceof NodeData) {
+            LatLon coor = ((NodeData) data).getCoor();
+            out.writeBoolean(coor != null);
+            if (coor != null) {
+                out.writeDouble(coor.lat());
+                out.writeDouble(coor.lon());
+            }
+        } else if (data instanceof WayData) {
+            List<Long> nodes = ((WayData) data).getNodes();
+            out.writeInt(nodes.size());
+            for (Long id : nodes) {
+                out.writeLong(id);
+            }
+        } else {
+            List<RelationMemberData> members = ((RelationData) data).getMembers();
+            out.writeInt(members.size());
+            for (RelationMemberData m : members) {
+                out.writeByte(m.getMemberType().ordinal());
+                out.writeLong(m.getMemberId());
+                out.writeUTF(m.getRole());
+            }
+        }
+    }
+
+    private static PrimitiveData readPrimitive(DataInputStream in, byte kind) throws IOException {
+        PrimitiveData data = kind == NODE ? new NodeData() : kind == WAY ? new WayData() : new RelationData();
+        data.setId(in.readLong());
+        data.setVersion(in.readInt());
+        data.setChangesetId(in.readInt());
+        int timestamp = in.readInt();
+        if (timestamp != 0) {
+            data.setTimestamp(new Date(timestamp * 1000L));
+        }
+        int flags = in.readByte();
+        data.setModified((flags & FLAG_MODIFIED) != 0);
+        data.setDeleted((flags & FLAG_DELETED) != 0);
+        data.setIncomplete((flags & FLAG_INCOMPLETE) != 0);
+        data.setVisible((flags & FLAG_INVISIBLE) == 0);
+        byte userKind = in.readByte();
+        if (userKind == USER_OSM) {
+            long uid = in.readLong();
+            data.setUser(User.createOsmUser(uid, in.readUTF()));
+        } else if (userKind == USER_LOCAL) {
+            data.setUser(User.createLocalUser(in.readUTF()));
+        }
+        int n = in.readInt();
+        Map<String, String> keys = new HashMap<String, String>();
+        for (int i = 0; i < n; i++) {
+            keys.put(in.readUTF(), in.readUTF());
+        }
+        data.setKeys(keys);
+        if (kind == NODE) {
+            if (in.readBoolean()) {
+                ((NodeData) data).setCoor(new LatLon(in.readDouble(), in.readDouble()));
+            }
+        } else if (kind == WAY) {
+            n = in.readInt();
+            List<Long> nodes = new ArrayList<Long>(n);
+            for (int i = 0; i < n; i++) {
+                nodes.add(in.readLong());
+            }
+            ((WayData) data).setNodes(nodes);
+        } else {
+            n = in.readInt();
+            List<RelationMemberData> members = new ArrayList<RelationMemberData>(n);
+            for (int i = 0; i < n; i++) {
+                OsmPrimitiveType type = OsmPrimitiveType.values()[in.readByte()];
+                long id = in.readLong();
+                members.add(new RelationMemberData(in.readUTF(), type, id));
+            }
+            ((RelationData) data).setMembers(members);
+        }
+        return data;
+    }
+
+    /**
+     * Reads an .osm file and remembers which primitive was read for which id of the file.
+     */
+    private static class SnapshotReader extends OsmReader {
+        public DataSet read(InputStream in) throws IllegalDataException {
+            return doParseDataSet(in, NullProgressMonitor.INSTANCE);
+        }
+
+        public Map<PrimitiveId, OsmPrimitive> getIdMap() {
+            return externalIdMap;
+        }
+    }
+
+    /**
+     * Applies the journal to a dataset.
+     */
+    private static class Replay {
+        final DataSet ds;
+        final Map<PrimitiveId, OsmPrimitive> ids;
+
+        Replay(DataSet ds, Map<PrimitiveId, OsmPrimitive> ids) {
+            this.ds = ds;
+            this.ids = new HashMap<PrimitiveId, OsmPrimitive>(ids);
+        }
+
+        /**
+         * Replies the primitive for an id of the journal, created if it is not known yet.
+         *
+         * @param data the data the primitive is created for, or null if it is only referred to
+         */
+        OsmPrimitive get(long id, OsmPrimitiveType type, PrimitiveData data) {
+            PrimitiveId key = new SimplePrimitiveId(id, type);
+            OsmPrimitive p = ids.get(key);
+            if (p == null) {
+                // new primitives get a new id in this dataset
+                if (type == OsmPrimitiveType.NODE) {
+                    // a new node cannot be added without coordinates
+                    LatLon coor = data instanceof NodeData ? ((NodeData) data).getCoor() : null;
+                    p = id > 0 ? new Node(id) : new Node(coor != null ? coor : new LatLon(0, 0));
+                } else if (type == OsmPrimitiveType.WAY) {
+                    p = id > 0 ? new Way(id) : new Way();
+                } else {
+                    p = id > 0 ? new Relation(id) : new Relation();
+                }
+                ds.addPrimitive(p);
+                ids.put(key, p);
+            }
+            return p;
+        }
+
+        void change(PrimitiveData data) {
+            OsmPrimitive p = get(data.getUniqueId(), data.getType(), data);
+            if (data instanceof WayData) {
+                List<Long> nodes = new ArrayList<Long>();
+                for (Long id : ((WayData) data).getNodes()) {
+                    nodes.add(get(id, OsmPrimitiveType.NODE, null).getUniqueId());
+                }
+                ((WayData) data).setNodes(nodes);
+            } else if (data instanceof RelationData) {
+                List<RelationMemberData> members = new ArrayList<RelationMemberData>();
+                for (RelationMemberData m : ((RelationData) data).getMembers()) {
+                    OsmPrimitive member = get(m.getMemberId(), m.getMemberType(), null);
+                    members.add(new RelationMemberData(m.getRole(), m.getMemberType(), member.getUniqueId()));
+                }
+                ((RelationData) data).setMembers(members);
+            }
+            p.load(data);
+            if (!p.isNew()) {
+                p.setVisible(data.isVisible());
+            }
+        }
+
+        void rename(PrimitiveId oldId, PrimitiveId newId) {
+            OsmPrimitive p = ids.remove(oldId);
+            if (p == null || p.getDataSet() != ds)
+                return;
+            if (p.isNew()) {
+                // the version is set by the following change
+                p.setOsmId(newId.getUniqueId(), 1);
+            }
+            ids.put(newId, p);
+        }
+
+        void remove(PrimitiveId id) {
+            OsmPrimitive p = ids.remove(id);
+            if (p == null || p.getDataSet() != ds)
+                return;
+            if (!p.getReferrers().isEmpty()) {
+                System.err.println("Warning: autosave journal removes referred primitive "+id);
+                return;
+            }
+            if (p instanceof Way) {
+                ((Way) p).setNodes(null);
+            } else if (p instanceof Relation) {
+                ((Relation) p).setMembers(null);
+            }
+            ds.removePrimitive(p);
+        }
+    }
+
+    /**
+     * Merges a journal into its snapshot and deletes the journal. Chunks which have not been
+     * written completely are ignored.
+     *
+     * @param snapshot the .osm file of the snapshot
+     * @param journal the journal file
+     * @return the number of chunks merged
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalDataException if the snapshot cannot be read
+     */
+    public static int replay(File snapshot, File journal) throws IOException, IllegalDataException {
+        SnapshotReader reader = new SnapshotReader();
+        DataSet ds;
+        InputStream in = new FileInputStream(snapshot);
+        try {
+            ds = reader.read(in);
+        } finally {
+            in.close();
+        }
+
+        Replay replay = new Replay(ds, reader.getIdMap());
+        int chunks = 0;
+        DataInputStream jin = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+        try {
+            if (jin.readInt() != MAGIC || jin.readInt() != VERSION)
+                throw new IOException("Unknown journal format: " + journal);
+            while (true) {
+                byte[] chunk;
+                try {
+                    int length = jin.readInt();
+                    if (length < 0)
+                        break;
+                    chunk = new byte[length];
+                    jin.readFully(chunk);
+                    CRC32 crc = new CRC32();
+                    crc.update(chunk);
+                    if (jin.readLong() != crc.getValue())
+                        break;
+                } catch (EOFException e) {
+                    break;
+                }
+                DataInputStream cin = new DataInputStream(new ByteArrayInputStream(chunk));
+                int n = cin.readInt();
+                for (int i = 0; i < n; i++) {
+                    byte kind = cin.readByte();
+                    if (kind == REMOVED) {
+                        OsmPrimitiveType type = OsmPrimitiveType.values()[cin.readByte()];
+                        replay.remove(new SimplePrimitiveId(cin.readLong(), type));
+                    } else if (kind == RENAMED) {
+                        OsmPrimitiveType type = OsmPrimitiveType.values()[cin.readByte()];
+                        PrimitiveId oldId = new SimplePrimitiveId(cin.readLong(), type);
+                        replay.rename(oldId, new SimplePrimitiveId(cin.readLong(), type));
+                    } else {
+                        replay.change(readPrimitive(cin, kind));
+                    }
+                }
+                chunks++;
+            }
+        } finally {
+            jin.close();
+        }
+
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+        try {
+            OsmWriter w = OsmWriterFactory.createOsmWriter(out, false, ds.getVersion());
+            w.header(!ds.isUploadDiscouraged());
+            w.writeDataSources(ds);
+            w.writeContent(ds);
+            w.footer();
+            if (out.checkError())
+                throw new IOException("Unable to write " + tmp);
+        } finally {
+            out.close();
+        }
+        if (!snapshot.delete() || !tmp.renameTo(snapshot))
+            throw new IOException("Unable to replace " + snapshot);
+        journal.delete();
+        return chunks;
+    }
+}
@@ -7,17 +7,24 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -26,6 +33,7 @@ import java.util.regex.Pattern;
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.OpenFileAction.OpenFileTask;
 import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.IPrimitive;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter;
 import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter.Listener;
@@ -37,6 +45,8 @@ import org.openstreetmap.josm.gui.layer.Layer;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 import org.openstreetmap.josm.io.OsmExporter;
 import org.openstreetmap.josm.io.OsmImporter;
+import org.openstreetmap.josm.io.OsmWriter;
+import org.openstreetmap.josm.io.OsmWriterFactory;
 
 /**
  * Saves data layers periodically so they can be recovered in case of a crash.
@@ -53,6 +63,10 @@ import org.openstreetmap.josm.io.OsmImporter;
  *      open with another versions of JOSM or fix the problem manually.
  *
  *      The deleted layers dir keeps at most PROP_DELETED_LAYERS files.
+ *
+ * With PROP_JOURNAL, a layer is only saved completely now and then. In between, the primitives
+ * changed since the last autosave are appended to a journal next to the saved file, see
+ * {@link AutosaveJournal}. The journal is merged into the file before it is recovered.
  */
 public class AutosaveTask extends TimerTask implements LayerChangeListener, Listener {
 
@@ -65,16 +79,30 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
     public static final IntegerProperty PROP_DELETED_LAYERS = new IntegerProperty("autosave.deletedLayersBackupCount", 5);
     public static final IntegerProperty PROP_INTERVAL = new IntegerProperty("autosave.interval", 5 * 60);
     public static final IntegerProperty PROP_INDEX_LIMIT = new IntegerProperty("autosave.index-limit", 1000);
+    /** save only the changes since the last autosave, most of the time */
+    public static final BooleanProperty PROP_JOURNAL = new BooleanProperty("autosave.journal", true);
+    /** a layer is saved completely when its journal holds more primitives than this percentage of the layer */
+    public static final IntegerProperty PROP_JOURNAL_PERCENT = new IntegerProperty("autosave.journal.snapshot-percent", 25);
+
+    private static final String JOURNAL_EXTENSION = ".journal";
+
+    /** the scheduled autosave task, null if autosave is disabled */
+    private static volatile AutosaveTask instance;
 
     private static class AutosaveLayerInfo {
         OsmDataLayer layer;
         String layerName;
         String layerFileName;
         final Deque<File> backupFiles = new LinkedList<File>();
+        final AutosaveJournal journal = new AutosaveJournal();
+        /** the number of primitives when the layer was saved completely */
+        int snapshotSize;
     }
 
     private final DataSetListenerAdapter datasetAdapter = new DataSetListenerAdapter(this);
     private final Set<DataSet> changedDatasets = new HashSet<DataSet>();
+    /** the journals of the layers, accessed by the dataset listener without taking layersLock */
+    private final Map<DataSet, AutosaveJournal> journals = Collections.synchronizedMap(new HashMap<DataSet, AutosaveJournal>());
     private final List<AutosaveLayerInfo> layersInfo = new ArrayList<AutosaveLayerInfo>();
     private Timer timer;
     private final Object layersLock = new Object();
@@ -101,6 +129,7 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
 
             timer = new Timer(true);
             timer.schedule(this, 1000, PROP_INTERVAL.get() * 1000);
+            instance = this;
             MapView.addLayerChangeListener(this);
             if (Main.isDisplayingMapView()) {
                 for (OsmDataLayer l: Main.map.mapView.getLayersOfType(OsmDataLayer.class)) {
@@ -110,6 +139,22 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
         }
     }
 
+    /**
+     * Notifies the scheduled autosave task of an upload. The cleanup after an upload changes
+     * ids, versions and modified flags and purges deleted primitives without firing dataset
+     * events, so the uploaded primitives are journalled explicitly.
+     *
+     * @param layer the uploaded layer
+     * @param processed the primitives processed by the upload
+     */
+    public static void primitivesUploaded(OsmDataLayer layer, Collection<? extends IPrimitive> processed) {
+        AutosaveTask task = instance;
+        AutosaveJournal journal = task != null ? task.journals.get(layer.data) : null;
+        if (journal != null) {
+            journal.touch(processed);
+        }
+    }
+
     private String getFileName(String layerName, int index) {
         String result = layerName;
         for (int i=0; i<ILLEGAL_CHARACTERS.length; i++) {
@@ -177,8 +222,11 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
         if (!info.layer.getName().equals(info.layerName)) {
             setLayerFileName(info);
             info.layerName = info.layer.getName();
+            info.journal.requestSnapshot();
         }
-        if (changedDatasets.remove(info.layer.data)) {
+        if (PROP_JOURNAL.get()) {
+            saveJournal(info);
+        } else if (changedDatasets.remove(info.layer.data)) {
             File file = getNewLayerFile(info);
             if (file != null) {
                 info.backupFiles.add(file);
@@ -191,6 +239,63 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
                 System.out.println(tr("Unable to delete old backup file {0}", oldFile.getAbsolutePath()));
             } else {
                 getPidFile(oldFile).delete();
+                getJournalFile(oldFile).delete();
+            }
+        }
+    }
+
+    /**
+     * Saves the changes of a layer to the journal of its last file, or the whole layer
+     * to a new file if there is no journal yet or it has become too large.
+     */
+    private void saveJournal(AutosaveLayerInfo info) throws IOException {
+        boolean changed = changedDatasets.remove(info.layer.data);
+        AutosaveJournal journal = info.journal;
+        if (!changed && !journal.hasChanges())
+            return;
+        DataSet ds = info.layer.data;
+        File file = info.backupFiles.peekLast();
+        if (file == null || journal.isSnapshotRequired(Math.max(1000, info.snapshotSize / 100 * PROP_JOURNAL_PERCENT.get()))) {
+            file = getNewLayerFile(info);
+            if (file == null)
+                return;
+            info.backupFiles.add(file);
+            ds.getReadLock().lock();
+            try {
+                journal.startSnapshot(ds);
+                info.snapshotSize = ds.allPrimitives().size();
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+                try {
+                    OsmWriter w = OsmWriterFactory.createOsmWriter(out, false, ds.getVersion());
+                    w.writeLayer(info.layer);
+                    if (out.checkError())
+                        throw new IOException(tr("Unable to write file {0}", file.getAbsolutePath()));
+                } finally {
+                    out.close();
+                }
+                AutosaveJournal.create(getJournalFile(file));
+            } catch (IOException e) {
+                journal.requestSnapshot();
+                throw e;
+            } finally {
+                ds.getReadLock().unlock();
+            }
+        } else {
+            AutosaveJournal.Changes changes;
+            ds.getReadLock().lock();
+            try {
+                changes = journal.collect(ds);
+            } finally {
+                ds.getReadLock().unlock();
+            }
+            if (changes.isEmpty())
+                return;
+            try {
+                AutosaveJournal.append(getJournalFile(file), changes);
+            } catch (IOException e) {
+                // the changes are lost for the journal
+                journal.requestSnapshot();
+                throw e;
             }
         }
     }
@@ -218,9 +323,10 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
 
     private void registerNewlayer(OsmDataLayer layer) {
         synchronized (layersLock) {
-            layer.data.addDataSetListener(datasetAdapter);
             AutosaveLayerInfo info = new AutosaveLayerInfo();
             info.layer = layer;
+            journals.put(layer.data, info.journal);
+            layer.data.addDataSetListener(datasetAdapter);
             layersInfo.add(info);
         }
     }
@@ -238,6 +344,7 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
             synchronized (layersLock) {
                 OsmDataLayer osmLayer = (OsmDataLayer) oldLayer;
                 osmLayer.data.removeDataSetListener(datasetAdapter);
+                journals.remove(osmLayer.data);
                 Iterator<AutosaveLayerInfo> it = layersInfo.iterator();
                 while (it.hasNext()) {
                     AutosaveLayerInfo info = it.next();
@@ -252,6 +359,7 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
                             for (File file: info.backupFiles) {
                                 if (file.delete()) {
                                     getPidFile(file).delete();
+                                    getJournalFile(file).delete();
                                 }
                             }
                         } catch (IOException e) {
@@ -268,11 +376,34 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
     @Override
     public void processDatasetEvent(AbstractDatasetChangedEvent event) {
         changedDatasets.add(event.getDataset());
+        AutosaveJournal journal = journals.get(event.getDataset());
+        if (journal != null) {
+            journal.record(event);
+        }
     }
 
     private final File getPidFile(File osmFile) {
         return new File(autosaveDir, osmFile.getName().replaceFirst("[.][^.]+$", ".pid"));
     }
+
+    private final File getJournalFile(File osmFile) {
+        return new File(osmFile.getParentFile(), osmFile.getName().replaceFirst("[.][^.]+$", JOURNAL_EXTENSION));
+    }
+
+    /**
+     * Merges the journal of an autosaved file into the file, if there is one.
+     * If this fails, the file is kept as it is.
+     */
+    private void mergeJournal(File osmFile) {
+        File journal = getJournalFile(osmFile);
+        if (!journal.exists())
+            return;
+        try {
+            AutosaveJournal.replay(osmFile, journal);
+        } catch (Exception e) {
+            System.err.println(String.format("Warning: Could not merge autosave journal %s: %s", journal, e.getMessage()));
+        }
+    }
     
     /**
      * Replies the list of .osm files still present in autosave dir, that are not currently managed by another instance of JOSM.
@@ -327,8 +458,15 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
     }
 
     public void recoverUnsavedLayers() {
-        List<File> files = getUnsavedLayersFiles();
+        final List<File> files = getUnsavedLayersFiles();
         final OpenFileTask openFileTsk = new OpenFileTask(files, null, tr("Restoring files"));
+        Main.worker.submit(new Runnable() {
+            public void run() {
+                for (File f: files) {
+                    mergeJournal(f);
+                }
+            }
+        });
         Main.worker.submit(openFileTsk);
         Main.worker.submit(new Runnable() {
             public void run() {
@@ -350,6 +488,8 @@ public class AutosaveTask extends TimerTask implements LayerChangeListener, List
     private void moveToDeletedLayersFolder(File f) {
         File backupFile = new File(deletedLayersDir, f.getName());
         File pidFile = getPidFile(f);
+        mergeJournal(f);
+        getJournalFile(f).delete();
         
         if (backupFile.exists()) {
             deletedLayers.remove(backupFile);
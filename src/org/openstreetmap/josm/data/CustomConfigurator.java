@@ -392,6 +392,7 @@ public class CustomConfigurator {
 
     public static Preferences clonePreferences(Preferences pref) {
         Preferences tmp = new Preferences();
+        pref.loadExternalSettings();
         tmp.defaults.putAll(   pref.defaults );
         tmp.properties.putAll( pref.properties );
         tmp.arrayDefaults.putAll(   pref.arrayDefaults );
@@ -914,6 +915,7 @@ public class CustomConfigurator {
     }
     
     private static Collection<String> getCollection(Preferences mainpref, String key, boolean warnUnknownDefault)  {
+        mainpref.loadExternal(key);
         Collection<String> existing = mainpref.collectionProperties.get(key);
         Collection<String> defaults = mainpref.collectionDefaults.get(key);
 
@@ -926,6 +928,7 @@ public class CustomConfigurator {
     }
     
     private static Collection<Collection<String>> getArray(Preferences mainpref, String key, boolean warnUnknownDefault)  {
+        mainpref.loadExternal(key);
         Collection<List<String>> existing = mainpref.arrayProperties.get(key);
         Collection<List<String>> defaults = mainpref.arrayDefaults.get(key);
 
@@ -939,6 +942,7 @@ public class CustomConfigurator {
     }
 
     private static List<Map<String, String>> getListOfStructs(Preferences mainpref, String key, boolean warnUnknownDefault)  {
+        mainpref.loadExternal(key);
         Collection<Map<String, String>> existing = mainpref.listOfStructsProperties.get(key);
         Collection<Map<String, String>> defaults = mainpref.listOfStructsDefaults.get(key);
 
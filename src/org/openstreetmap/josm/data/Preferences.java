@@ -12,8 +12,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Field;
@@ -22,6 +23,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -29,9 +32,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -48,6 +59,10 @@ import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 
 import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.preferences.CachedBooleanProperty;
+import org.openstreetmap.josm.data.preferences.CachedDoubleProperty;
+import org.openstreetmap.josm.data.preferences.CachedIntegerProperty;
+import org.openstreetmap.josm.data.preferences.CachedProperty;
 import org.openstreetmap.josm.data.preferences.ColorProperty;
 import org.openstreetmap.josm.io.MirroredInputStream;
 import org.openstreetmap.josm.io.XmlWriter;
@@ -106,6 +121,39 @@ public class Preferences {
     protected final SortedMap<String, List<Map<String,String>>> listOfStructsProperties = new TreeMap<String, List<Map<String,String>>>();
     protected final SortedMap<String, List<Map<String,String>>> listOfStructsDefaults = new TreeMap<String, List<Map<String,String>>>();
 
+    /** The cached properties, see {@link #getCachedInteger(String, int)} */
+    private final ConcurrentMap<String, CachedIntegerProperty> cachedIntegers = new ConcurrentHashMap<String, CachedIntegerProperty>();
+    private final ConcurrentMap<String, CachedDoubleProperty> cachedDoubles = new ConcurrentHashMap<String, CachedDoubleProperty>();
+    private final ConcurrentMap<String, CachedBooleanProperty> cachedBooleans = new ConcurrentHashMap<String, CachedBooleanProperty>();
+
+    /**
+     * The settings stored in files of their own that have not been read yet, see {@link #loadExternal(String)}.
+     * Large list settings are kept in such files, so they are neither parsed at startup nor written on every save.
+     */
+    private final SortedMap<String, File> externalSettings = new TreeMap<String, File>();
+    /**
+     * The settings stored in files of their own that could not be read. They stay referenced
+     * and their files are kept, so a file that cannot be read now is not lost for good.
+     */
+    private final SortedMap<String, File> unreadableExternalSettings = new TreeMap<String, File>();
+    /** The contents of the files of the settings stored in files of their own, as last read or written */
+    private final Map<String, String> externalContents = new HashMap<String, String>();
+
+    /**
+     * The size in characters from which list settings are stored in files of their own. As
+     * JOSM versions that do not know such files reject the whole preference file, this is
+     * disabled (0) unless the preference <code>preferences.external-threshold</code> is set.
+     */
+    private static final int DEFAULT_EXTERNAL_THRESHOLD = 0;
+
+    /** Milliseconds to wait after a change before the preferences are written, so subsequent changes are written at once */
+    private static final long SAVE_DELAY = 500;
+    private static ScheduledExecutorService saveExecutor;
+    private ScheduledFuture<?> scheduledSave;
+    private boolean shutdownHookAdded;
+    /** Serializes the writing of the preference files; acquire before the lock of the preferences */
+    private final Object saveLock = new Object();
+
     /**
      * Interface for a preference value
      *
@@ -406,6 +454,11 @@ public class Preferences {
     }
 
     synchronized public List<String> getAllPrefixCollectionKeys(final String prefix) {
+        for (String key : new ArrayList<String>(externalSettings.keySet())) {
+            if (key.startsWith(prefix)) {
+                loadExternal(key);
+            }
+        }
         final List<String> all = new LinkedList<String>();
         for (final String e : collectionProperties.keySet()) {
             if (e.startsWith(prefix)) {
@@ -503,11 +556,7 @@ public class Preferences {
                 } else {
                     properties.put(key, value);
                 }
-                try {
-                    save();
-                } catch(IOException e){
-                    System.out.println(tr("Warning: failed to persist preferences to ''{0}''", getPreferenceFile().getAbsoluteFile()));
-                }
+                scheduleSave();
                 changed = true;
             }
         }
@@ -535,8 +584,75 @@ public class Preferences {
     }
 
     /**
-     * Called after every put. In case of a problem, do nothing but output the error
-     * in log.
+     * Writes the preferences to disk a moment later, on a background thread. Changes made in
+     * the meantime are written at once. Called after every put.
+     */
+    protected synchronized void scheduleSave() {
+        if (scheduledSave != null)
+            return;
+        if (!shutdownHookAdded) {
+            shutdownHookAdded = true;
+            // write pending changes when JOSM exits before the delay is over
+            Runtime.getRuntime().addShutdownHook(new Thread("preferences-flush") {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+        scheduledSave = getSaveExecutor().schedule(new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService getSaveExecutor() {
+        if (saveExecutor == null) {
+            saveExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "preferences-save");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return saveExecutor;
+    }
+
+    /**
+     * Writes the preferences now if changes are waiting to be written, see {@link #scheduleSave()}.
+     * Waits for a save in progress to finish otherwise.
+     */
+    public void flush() {
+        boolean pending;
+        synchronized (this) {
+            pending = scheduledSave != null;
+            if (pending) {
+                scheduledSave.cancel(false);
+                scheduledSave = null;
+            }
+        }
+        if (!pending) {
+            synchronized (saveLock) {
+                // waited for a save in progress on the background thread
+            }
+            return;
+        }
+        try {
+            save();
+        } catch(IOException e){
+            System.out.println(tr("Warning: failed to persist preferences to ''{0}''", getPreferenceFile().getAbsoluteFile()));
+        }
+    }
+
+    /**
+     * Writes the preferences to disk now. Large list settings are written to files of their own
+     * in the directory <code>preferences.d</code>, and only if they have changed. All files are
+     * written to a temporary file first and then renamed, so a crash never leaves a partly
+     * written file behind.
+     *
+     * Must not be called while holding the lock of the preferences.
      */
     public void save() throws IOException {
         /* currently unused, but may help to fix configuration issues in future */
@@ -546,27 +662,134 @@ public class Preferences {
         if(Main.applet)
             return;
 
-        File prefFile = getPreferenceFile();
-        File backupFile = new File(prefFile + "_backup");
+        synchronized (saveLock) {
+            Map<String, String> changedFiles = new HashMap<String, String>();
+            Set<String> files = new HashSet<String>();
+            String xml;
+            synchronized (this) {
+                if (scheduledSave != null) {
+                    scheduledSave.cancel(false);
+                    scheduledSave = null;
+                }
+                xml = toXML(false, changedFiles, files);
+            }
+
+            File prefFile = getPreferenceFile();
+            File backupFile = new File(prefFile + "_backup");
+            File externalDir = getExternalSettingsDirectory();
+            try {
+                // write the referenced files first, so the preference file never refers to missing ones
+                if (!changedFiles.isEmpty() && !externalDir.isDirectory() && !externalDir.mkdirs())
+                    throw new IOException(tr("Failed to create directory {0}", externalDir));
+                for (Entry<String, String> e : changedFiles.entrySet()) {
+                    writeFile(new File(externalDir, getExternalFileName(e.getKey())), e.getValue());
+                }
+
+                // Backup old preferences if there are old preferences
+                if(prefFile.exists()) {
+                    copyFile(prefFile, backupFile);
+                }
+                writeFile(prefFile, xml);
+            } catch (IOException e) {
+                synchronized (this) {
+                    // write them again next time
+                    externalContents.keySet().removeAll(changedFiles.keySet());
+                }
+                throw e;
+            }
+
+            File[] existing = externalDir.listFiles();
+            if (existing != null) {
+                for (File f : existing) {
+                    if (f.getName().endsWith(".xml") && !files.contains(f.getName())) {
+                        f.delete();
+                    }
+                }
+            }
 
-        // Backup old preferences if there are old preferences
-        if(prefFile.exists()) {
-            copyFile(prefFile, backupFile);
+            setCorrectPermissions(prefFile);
+            setCorrectPermissions(backupFile);
         }
+    }
 
-        final PrintWriter out = new PrintWriter(new OutputStreamWriter(
-                new FileOutputStream(prefFile + "_tmp"), "utf-8"), false);
-        out.print(toXML(false));
-        out.close();
+    /**
+     * Writes a file atomically: the content is written to a temporary file and synced to the disk,
+     * then the temporary file replaces the file.
+     */
+    private static void writeFile(File file, String content) throws IOException {
+        File tmpFile = new File(file + "_tmp");
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            Writer out = new OutputStreamWriter(fos, "utf-8");
+            out.write(content);
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        // renaming fails on some systems if the file exists. Never copy, a copy may be left
+        // partly written; the preference file itself is backed up before.
+        if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file)))
+            throw new IOException(tr("Failed to replace {0} by {1}", file, tmpFile));
+    }
 
-        File tmpFile = new File(prefFile + "_tmp");
-        copyFile(tmpFile, prefFile);
-        tmpFile.delete();
+    /**
+     * Replies the directory of the files large list settings are stored in.
+     */
+    public File getExternalSettingsDirectory() {
+        return new File(getPreferencesDirFile(), "preferences.d");
+    }
 
-        setCorrectPermissions(prefFile);
-        setCorrectPermissions(backupFile);
+    private static String getExternalFileName(String key) {
+        String name = key.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (!name.equals(key)) {
+            // keep keys that differ in replaced characters only apart
+            name += "-" + Utils.md5Hex(key).substring(0, 8);
+        }
+        return name + ".xml";
     }
 
+    /**
+     * Reads a setting stored in a file of its own, if it has not been read yet.
+     * @param key the key of the setting
+     */
+    protected synchronized void loadExternal(String key) {
+        if (externalSettings.isEmpty())
+            return;
+        File file = externalSettings.remove(key);
+        if (file != null) {
+            readExternal(key, file);
+        }
+    }
+
+    /**
+     * Reads all settings stored in files of their own that have not been read yet.
+     */
+    protected synchronized void loadExternalSettings() {
+        while (!externalSettings.isEmpty()) {
+            loadExternal(externalSettings.firstKey());
+        }
+    }
+
+    private void readExternal(String key, File file) {
+        try {
+            StringBuilder content = new StringBuilder();
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
+            try {
+                char[] buffer = new char[8192];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    content.append(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            fromXML(new StringReader(content.toString()));
+            externalContents.put(key, content.toString());
+        } catch (Exception e) {
+            System.err.println(tr("Warning: failed to read preference setting {0} from ''{1}'': {2}", key, file, e.getMessage()));
+            unreadableExternalSettings.put(key, file);
+        }
+    }
 
     private void setCorrectPermissions(File file) {
         file.setReadable(false, false);
@@ -605,6 +828,11 @@ public class Preferences {
 
     public void load() throws Exception {
         properties.clear();
+        synchronized (this) {
+            externalSettings.clear();
+            unreadableExternalSettings.clear();
+            externalContents.clear();
+        }
         if (!Main.applet) {
             File pref = getPreferenceFile();
             BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(pref), "utf-8"));
@@ -619,6 +847,7 @@ public class Preferences {
         }
         updateSystemProperties();
         removeObsolete();
+        updateCachedProperties();
     }
 
     public void init(boolean reset){
@@ -651,6 +880,11 @@ public class Preferences {
         }
 
         File preferenceFile = getPreferenceFile();
+        File tmpFile = new File(preferenceFile + "_tmp");
+        if (!preferenceFile.exists() && tmpFile.exists()) {
+            // JOSM stopped while replacing the preference file, the new one is complete
+            tmpFile.renameTo(preferenceFile);
+        }
         try {
             if (!preferenceFile.exists()) {
                 System.out.println(tr("Info: Missing preference file ''{0}''. Creating a default preference file.", preferenceFile.getAbsoluteFile()));
@@ -695,6 +929,7 @@ public class Preferences {
 
     public final void resetToDefault(){
         properties.clear();
+        updateCachedProperties();
     }
 
     /**
@@ -765,6 +1000,76 @@ public class Preferences {
         return put("color."+colKey, val != null ? ColorHelper.color2html(val) : null);
     }
 
+    /**
+     * Replies an integer setting whose value is kept parsed and updated on every change of the
+     * setting. Unlike {@link #getInteger(String, int)}, reading the value takes no lock, so it
+     * is meant for code that runs for every repaint or mouse move:
+     * <code>Main.pref.getCachedInteger("mappaint.segment.snap-distance", 10).get()</code>.
+     *
+     * There is one property per key, and like for {@link #getInteger(String, int)}, the
+     * default value must be the same for each call with a given key.
+     *
+     * @param key the key of the setting
+     * @param def the default value
+     * @return the property
+     */
+    public CachedIntegerProperty getCachedInteger(String key, int def) {
+        CachedIntegerProperty p = cachedIntegers.get(key);
+        if (p == null) {
+            putDefault(key, Integer.toString(def));
+            p = register(cachedIntegers, new CachedIntegerProperty(this, key, def));
+        }
+        return p;
+    }
+
+    /**
+     * Replies a double setting whose value is kept parsed and updated on every change of the setting.
+     * @see #getCachedInteger(String, int)
+     */
+    public CachedDoubleProperty getCachedDouble(String key, double def) {
+        CachedDoubleProperty p = cachedDoubles.get(key);
+        if (p == null) {
+            putDefault(key, Double.toString(def));
+            p = register(cachedDoubles, new CachedDoubleProperty(this, key, def));
+        }
+        return p;
+    }
+
+    /**
+     * Replies a boolean setting whose value is kept parsed and updated on every change of the setting.
+     * @see #getCachedInteger(String, int)
+     */
+    public CachedBooleanProperty getCachedBoolean(String key, boolean def) {
+        CachedBooleanProperty p = cachedBooleans.get(key);
+        if (p == null) {
+            putDefault(key, Boolean.toString(def));
+            p = register(cachedBooleans, new CachedBooleanProperty(this, key, def));
+        }
+        return p;
+    }
+
+    private <P extends CachedProperty<?>> P register(ConcurrentMap<String, P> registry, P property) {
+        P existing = registry.putIfAbsent(property.getKey(), property);
+        if (existing == null)
+            return property;
+        // another thread was faster
+        removePreferenceChangeListener(property);
+        return existing;
+    }
+
+    /**
+     * Updates the cached properties after the settings were replaced without change events.
+     */
+    private void updateCachedProperties() {
+        List<CachedProperty<?>> all = new ArrayList<CachedProperty<?>>();
+        all.addAll(cachedIntegers.values());
+        all.addAll(cachedDoubles.values());
+        all.addAll(cachedBooleans.values());
+        for (CachedProperty<?> p : all) {
+            p.preferenceChanged(new DefaultPreferenceChangeEvent<String>(p.getKey(), null, null));
+        }
+    }
+
     synchronized public int getInteger(String key, int def) {
         putDefault(key, Integer.toString(def));
         String v = get(key);
@@ -842,6 +1147,7 @@ public class Preferences {
      */
     public Collection<String> getCollection(String key, Collection<String> def) {
         putCollectionDefault(key, def == null ? null : new ArrayList<String>(def));
+        loadExternal(key);
         Collection<String> prop = collectionProperties.get(key);
         if (prop != null)
             return prop;
@@ -857,6 +1163,7 @@ public class Preferences {
      */
     public Collection<String> getCollection(String key) {
         putCollectionDefault(key, null);
+        loadExternal(key);
         Collection<String> prop = collectionProperties.get(key);
         if (prop != null)
             return prop;
@@ -875,6 +1182,7 @@ public class Preferences {
         List<String> valueCopy = null;
 
         synchronized (this) {
+            loadExternal(key);
             if (value == null) {
                 oldValue = collectionProperties.remove(key);
                 boolean changed = oldValue != null;
@@ -890,11 +1198,7 @@ public class Preferences {
                 if (valueCopy.contains(null)) throw new RuntimeException("Error: Null as list element in preference setting (key '"+key+"')");
                 collectionProperties.put(key, Collections.unmodifiableList(valueCopy));
             }
-            try {
-                save();
-            } catch(IOException e){
-                System.out.println(tr("Warning: failed to persist preferences to ''{0}''", getPreferenceFile().getAbsoluteFile()));
-            }
+            scheduleSave();
         }
         // Call outside of synchronized section in case some listener wait for other thread that wait for preference lock
         firePreferenceChanged(key, new ListSetting(oldValue), new ListSetting(valueCopy));
@@ -947,6 +1251,7 @@ public class Preferences {
         } else {
             putArrayDefault(key, null);
         }
+        loadExternal(key);
         List<List<String>> prop = arrayProperties.get(key);
         if (prop != null) {
             @SuppressWarnings("unchecked")
@@ -958,6 +1263,7 @@ public class Preferences {
 
     public Collection<Collection<String>> getArray(String key) {
         putArrayDefault(key, null);
+        loadExternal(key);
         List<List<String>> prop = arrayProperties.get(key);
         if (prop != null) {
             @SuppressWarnings("unchecked")
@@ -974,6 +1280,7 @@ public class Preferences {
         List<List<String>> valueCopy = null;
 
         synchronized (this) {
+            loadExternal(key);
             oldValue = arrayProperties.get(key);
             if (value == null) {
                 if (arrayProperties.remove(key) != null) return false;
@@ -992,11 +1299,7 @@ public class Preferences {
                 }
                 arrayProperties.put(key, Collections.unmodifiableList(valueCopy));
             }
-            try {
-                save();
-            } catch(IOException e){
-                System.out.println(tr("Warning: failed to persist preferences to ''{0}''", getPreferenceFile().getAbsoluteFile()));
-            }
+            scheduleSave();
         }
         // Call outside of synchronized section in case some listener wait for other thread that wait for preference lock
         firePreferenceChanged(key, new ListListSetting(oldValue), new ListListSetting(valueCopy));
@@ -1029,6 +1332,7 @@ public class Preferences {
         } else {
             putListOfStructsDefault(key, null);
         }
+        loadExternal(key);
         Collection<Map<String, String>> prop = listOfStructsProperties.get(key);
         if (prop != null)
             return prop;
@@ -1043,6 +1347,7 @@ public class Preferences {
         List<Map<String, String>> valueCopy = null;
 
         synchronized (this) {
+            loadExternal(key);
             oldValue = listOfStructsProperties.get(key);
             if (value == null) {
                 if (listOfStructsProperties.remove(key) != null) return false;
@@ -1062,11 +1367,7 @@ public class Preferences {
                 }
                 listOfStructsProperties.put(key, Collections.unmodifiableList(valueCopy));
             }
-            try {
-                save();
-            } catch(IOException e){
-                System.out.println(tr("Warning: failed to persist preferences to ''{0}''", getPreferenceFile().getAbsoluteFile()));
-            }
+            scheduleSave();
         }
         // Call outside of synchronized section in case some listener wait for other thread that wait for preference lock
         firePreferenceChanged(key, new MapListSetting(oldValue), new MapListSetting(valueCopy));
@@ -1277,6 +1578,7 @@ public class Preferences {
     }
 
     public Map<String, Setting> getAllSettings() {
+        loadExternalSettings();
         Map<String, Setting> settings = new TreeMap<String, Setting>();
 
         for (Entry<String, String> e : properties.entrySet()) {
@@ -1406,6 +1708,10 @@ public class Preferences {
                         parser.getLocalName().equals("maps")
                 ) {
                     parseToplevelList();
+                } else if (parser.getLocalName().equals("external")) {
+                    externalSettings.put(parser.getAttributeValue(null, "key"),
+                            new File(getExternalSettingsDirectory(), new File(parser.getAttributeValue(null, "file")).getName()));
+                    jumpToEnd();
                 } else {
                     throwException("Unexpected element: "+parser.getLocalName());
                 }
@@ -1579,11 +1885,23 @@ public class Preferences {
     }
 
     public String toXML(boolean nopass) {
-        StringBuilder b = new StringBuilder(
-                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        loadExternalSettings();
+        return toXML(nopass, null, null);
+    }
+
+    /**
+     * Replies the preferences as XML.
+     *
+     * @param nopass if true, the password is left out
+     * @param changedFiles if not null, large list settings are referenced instead of included, and
+     *  the contents of their files are added here by key if they differ from the ones last read or written
+     * @param files if not null, the names of all referenced files are added here
+     */
+    private String toXML(boolean nopass, Map<String, String> changedFiles, Set<String> files) {
+        String header = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
                 "<preferences xmlns=\"http://josm.openstreetmap.de/preferences-1.0\" version=\""+
-                Version.getInstance().getVersion() + "\">\n");
-        SettingToXml toXml = new SettingToXml(b, nopass);
+                Version.getInstance().getVersion() + "\">\n";
+        StringBuilder b = new StringBuilder(header);
         Map<String, Setting> settings = new TreeMap<String, Setting>();
 
         for (Entry<String, String> e : properties.entrySet()) {
@@ -1598,14 +1916,53 @@ public class Preferences {
         for (Entry<String, List<Map<String, String>>> e : listOfStructsProperties.entrySet()) {
             settings.put(e.getKey(), new MapListSetting(e.getValue()));
         }
+        int threshold = changedFiles == null ? 0 : getInteger("preferences.external-threshold", DEFAULT_EXTERNAL_THRESHOLD);
+        StringBuilder element = new StringBuilder();
+        SettingToXml toXml = new SettingToXml(b, nopass);
+        SettingToXml toElement = new SettingToXml(element, nopass);
         for (Entry<String, Setting> e : settings.entrySet()) {
-            toXml.setKey(e.getKey());
-            e.getValue().visit(toXml);
+            String key = e.getKey();
+            if (threshold <= 0 || e.getValue() instanceof StringSetting) {
+                toXml.setKey(key);
+                e.getValue().visit(toXml);
+                continue;
+            }
+            element.setLength(0);
+            toElement.setKey(key);
+            e.getValue().visit(toElement);
+            if (element.length() < threshold) {
+                b.append(element);
+                externalContents.remove(key);
+                continue;
+            }
+            String content = header + element + "</preferences>\n";
+            if (!content.equals(externalContents.get(key))) {
+                changedFiles.put(key, content);
+                externalContents.put(key, content);
+            }
+            appendExternal(b, key, getExternalFileName(key), files);
+        }
+        if (files != null) {
+            // settings that have not been read since they were loaded stay where they are
+            for (Entry<String, File> e : externalSettings.entrySet()) {
+                appendExternal(b, e.getKey(), e.getValue().getName(), files);
+            }
+            // and so do the ones that could not be read, unless they have been set again
+            for (Entry<String, File> e : unreadableExternalSettings.entrySet()) {
+                if (!settings.containsKey(e.getKey()) && !files.contains(e.getValue().getName())) {
+                    appendExternal(b, e.getKey(), e.getValue().getName(), files);
+                }
+            }
         }
         b.append("</preferences>\n");
         return b.toString();
     }
 
+    private static void appendExternal(StringBuilder b, String key, String file, Set<String> files) {
+        b.append("  <external key='").append(XmlWriter.encode(key)).append("' file='").append(XmlWriter.encode(file)).append("'/>\n");
+        files.add(file);
+    }
+
     /**
      * Removes obsolete preference settings. If you throw out a once-used preference
      * setting, add it to the list here with an expiry date (written as comment). If you
@@ -1618,6 +1975,8 @@ public class Preferences {
         for (String key : obsolete) {
             boolean removed = false;
             if(properties.containsKey(key)) { properties.remove(key); removed = true; }
+            if(externalSettings.containsKey(key)) { externalSettings.remove(key); removed = true; }
+            if(unreadableExternalSettings.containsKey(key)) { unreadableExternalSettings.remove(key); removed = true; }
             if(collectionProperties.containsKey(key)) { collectionProperties.remove(key); removed = true; }
             if(arrayProperties.containsKey(key)) { arrayProperties.remove(key); removed = true; }
             if(listOfStructsProperties.containsKey(key)) { listOfStructsProperties.remove(key); removed = true; }
@@ -5,13 +5,18 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.PrimitiveId;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
 
 /**
@@ -31,11 +36,136 @@ import org.openstreetmap.josm.tools.CheckParameterUtil;
  *   <li>{@link #addConflictListener(IConflictListener)}</li>
  *   <li>{@link #removeConflictListener(IConflictListener)}</li>
  * </ul>
+ * Bulk operations like {@link #add(Collection)} and {@link #removeAll(Collection)} emit
+ * a single event.
+ *
+ * The conflicts are indexed by their "my" and "their" primitives (by identity) and by the
+ * ids of these primitives, so looking up the conflict of a primitive does not depend on
+ * the number of conflicts.
  */
 public class ConflictCollection implements Iterable<Conflict<? extends OsmPrimitive>>{
     private final List<Conflict<? extends OsmPrimitive>> conflicts;
     private CopyOnWriteArrayList<IConflictListener> listeners;
 
+    /**
+     * An index of the conflicts by a key. If several conflicts have the same key,
+     * the first one added is indexed.
+     */
+    private abstract class Index<K> {
+        private final Map<K, Conflict<?>> map;
+        /** the keys of the indexed conflicts, as they were when the conflicts were added */
+        private final Map<Conflict<?>, K> keys = new IdentityHashMap<Conflict<?>, K>();
+        /** the keys used by more than one conflict */
+        private final Set<K> shared;
+
+        Index(Map<K, Conflict<?>> map, Set<K> shared) {
+            this.map = map;
+            this.shared = shared;
+        }
+
+        protected abstract K getKey(Conflict<?> c);
+
+        Conflict<?> get(K key) {
+            return map.get(key);
+        }
+
+        void add(Conflict<?> c) {
+            K key = getKey(c);
+            keys.put(c, key);
+            if (map.containsKey(key)) {
+                shared.add(key);
+            } else {
+                map.put(key, c);
+            }
+        }
+
+        /**
+         * Removes a conflict from the index. Must be called after the conflict has
+         * been removed from the list of conflicts.
+         */
+        void remove(Conflict<?> c) {
+            K key = keys.remove(c);
+            if (key == null || map.get(key) != c)
+                return;
+            map.remove(key);
+            if (shared.remove(key)) {
+                // index the next conflict with the same key
+                int count = 0;
+                for (Conflict<?> other : conflicts) {
+                    K otherKey = keys.get(other);
+                    if (otherKey != null && isSameKey(key, otherKey)) {
+                        count++;
+                        if (count == 1) {
+                            map.put(otherKey, other);
+                        }
+                    }
+                }
+                if (count > 1) {
+                    shared.add(key);
+                }
+            }
+        }
+
+        protected abstract boolean isSameKey(K a, K b);
+
+        boolean isShared(K key) {
+            return shared.contains(key);
+        }
+    }
+
+    /** An index of the conflicts by a primitive, compared by identity */
+    private abstract class PrimitiveIndex extends Index<OsmPrimitive> {
+        PrimitiveIndex() {
+            super(new IdentityHashMap<OsmPrimitive, Conflict<?>>(),
+                    Collections.newSetFromMap(new IdentityHashMap<OsmPrimitive, Boolean>()));
+        }
+
+        @Override
+        protected boolean isSameKey(OsmPrimitive a, OsmPrimitive b) {
+            return a == b;
+        }
+    }
+
+    /** An index of the conflicts by the id of a primitive */
+    private abstract class IdIndex extends Index<PrimitiveId> {
+        IdIndex() {
+            super(new HashMap<PrimitiveId, Conflict<?>>(), new HashSet<PrimitiveId>());
+        }
+
+        @Override
+        protected boolean isSameKey(PrimitiveId a, PrimitiveId b) {
+            return a.equals(b);
+        }
+    }
+
+    private final Index<OsmPrimitive> myIndex = new PrimitiveIndex() {
+        @Override
+        protected OsmPrimitive getKey(Conflict<?> c) {
+            return c.getMy();
+        }
+    };
+
+    private final Index<OsmPrimitive> theirIndex = new PrimitiveIndex() {
+        @Override
+        protected OsmPrimitive getKey(Conflict<?> c) {
+            return c.getTheir();
+        }
+    };
+
+    private final Index<PrimitiveId> myIdIndex = new IdIndex() {
+        @Override
+        protected PrimitiveId getKey(Conflict<?> c) {
+            return c.getMy().getPrimitiveId();
+        }
+    };
+
+    private final Index<PrimitiveId> theirIdIndex = new IdIndex() {
+        @Override
+        protected PrimitiveId getKey(Conflict<?> c) {
+            return c.getTheir().getPrimitiveId();
+        }
+    };
+
     public ConflictCollection() {
         conflicts = new ArrayList<Conflict<?>>();
         listeners = new CopyOnWriteArrayList<IConflictListener>();
@@ -74,9 +204,53 @@ public class ConflictCollection implements Iterable<Conflict<? extends OsmPrimit
     protected void addConflict(Conflict<?> conflict) throws IllegalStateException {
         if (hasConflictForMy(conflict.getMy()))
             throw new IllegalStateException(tr("Already registered a conflict for primitive ''{0}''.", conflict.getMy().toString()));
-        if (!conflicts.contains(conflict)) {
-            conflicts.add(conflict);
+        // an equal conflict would have the same "my" primitive, so it can't be in the collection
+        conflicts.add(conflict);
+        myIndex.add(conflict);
+        theirIndex.add(conflict);
+        myIdIndex.add(conflict);
+        theirIdIndex.add(conflict);
+    }
+
+    /**
+     * Removes a conflict from the indexes. Must be called after the
+     * conflict has been removed from {@link #conflicts}.
+     *
+     * @param conflict the conflict as stored in the collection
+     */
+    private void unindexConflict(Conflict<?> conflict) {
+        myIndex.remove(conflict);
+        theirIndex.remove(conflict);
+        myIdIndex.remove(conflict);
+        theirIdIndex.remove(conflict);
+    }
+
+    /**
+     * Removes the given conflicts (compared by identity) in a single pass.
+     *
+     * @param toRemove the conflicts as stored in the collection
+     * @return true if conflicts have been removed
+     */
+    private boolean removeConflicts(Set<Conflict<?>> toRemove) {
+        if (toRemove.isEmpty())
+            return false;
+        List<Conflict<?>> removed = new ArrayList<Conflict<?>>(toRemove.size());
+        List<Conflict<?>> kept = new ArrayList<Conflict<?>>(conflicts.size());
+        for (Conflict<?> c : conflicts) {
+            if (toRemove.contains(c)) {
+                removed.add(c);
+            } else {
+                kept.add(c);
+            }
+        }
+        if (removed.isEmpty())
+            return false;
+        conflicts.clear();
+        conflicts.addAll(kept);
+        for (Conflict<?> c : removed) {
+            unindexConflict(c);
         }
+        return true;
     }
 
     /**
@@ -124,22 +298,39 @@ public class ConflictCollection implements Iterable<Conflict<? extends OsmPrimit
      * @param conflict the conflict
      */
     public void remove(Conflict<?> conflict) {
-        conflicts.remove(conflict);
+        Conflict<?> c = getConflictForMy(conflict.getMy());
+        if (c != null && c.equals(conflict)) {
+            conflicts.remove(c);
+            unindexConflict(c);
+        }
         fireConflictRemoved();
     }
 
+    /**
+     * Removes the given conflicts from this collection, emitting a single event.
+     *
+     * @param toRemove the conflicts to remove
+     */
+    public void removeAll(Collection<? extends Conflict<?>> toRemove) {
+        Set<Conflict<?>> stored = Collections.newSetFromMap(new IdentityHashMap<Conflict<?>, Boolean>());
+        for (Conflict<?> conflict : toRemove) {
+            Conflict<?> c = getConflictForMy(conflict.getMy());
+            if (c != null && c.equals(conflict)) {
+                stored.add(c);
+            }
+        }
+        if (removeConflicts(stored)) {
+            fireConflictRemoved();
+        }
+    }
+
     /**
      * removes the conflict registered for {@link OsmPrimitive} <code>my</code> if any
      *
      * @param my  the primitive
      */
     public void remove(OsmPrimitive my) {
-        Iterator<Conflict<?>> it = iterator();
-        while(it.hasNext()) {
-            if (it.next().isMatchingMy(my)) {
-                it.remove();
-            }
-        }
+        removeForMy(my);
         fireConflictRemoved();
     }
 
@@ -152,11 +343,7 @@ public class ConflictCollection implements Iterable<Conflict<? extends OsmPrimit
      * if no such conflict exists.
      */
     public Conflict<?> getConflictForMy(OsmPrimitive my) {
-        for(Conflict<?> c : conflicts) {
-            if (c.isMatchingMy(my))
-                return c;
-        }
-        return null;
+        return myIndex.get(my);
     }
     /**
      * Replies the conflict for the {@link OsmPrimitive} <code>their</code>, null
@@ -167,11 +354,29 @@ public class ConflictCollection implements Iterable<Conflict<? extends OsmPrimit
      * if no such conflict exists.
      */
     public Conflict<?> getConflictForTheir(OsmPrimitive their) {
-        for(Conflict<?> c : conflicts) {
-            if (c.isMatchingTheir(their))
-                return c;
-        }
-        return null;
+        return theirIndex.get(their);
+    }
+
+    /**
+     * Replies the conflict whose "my" primitive has the id <code>id</code>, null
+     * if no such conflict exists.
+     *
+     * @param id the id of my primitive
+     * @return the conflict, null if no such conflict exists.
+     */
+    public Conflict<?> getConflictForMyId(PrimitiveId id) {
+        return myIdIndex.get(id);
+    }
+
+    /**
+     * Replies the conflict whose "their" primitive has the id <code>id</code>, null
+     * if no such conflict exists.
+     *
+     * @param id the id of their primitive
+     * @return the conflict, null if no such conflict exists.
+     */
+    public Conflict<?> getConflictForTheirId(PrimitiveId id) {
+        return theirIdIndex.get(id);
     }
 
     /**
@@ -204,17 +409,27 @@ public class ConflictCollection implements Iterable<Conflict<? extends OsmPrimit
         return getConflictForTheir(their)  != null;
     }
 
+    /**
+     * Replies true, if a primitive with the id <code>id</code> participates in a
+     * conflict of this collection.
+     *
+     * @param id the primitive id
+     * @return true, if a primitive with this id participates in a conflict; false, otherwise
+     */
+    public boolean isParticipating(PrimitiveId id) {
+        return getConflictForMyId(id) != null || getConflictForTheirId(id) != null;
+    }
+
     /**
      * Removes any conflicts for the {@link OsmPrimitive} <code>my</code>.
      *
      * @param my the primitive
      */
     public void removeForMy(OsmPrimitive my) {
-        Iterator<Conflict<?>> it = iterator();
-        while(it.hasNext()) {
-            if (it.next().isMatchingMy(my)) {
-                it.remove();
-            }
+        Conflict<?> c = getConflictForMy(my);
+        if (c != null) {
+            conflicts.remove(c);
+            unindexConflict(c);
         }
     }
 
@@ -224,21 +439,28 @@ public class ConflictCollection implements Iterable<Conflict<? extends OsmPrimit
      * @param their the primitive
      */
     public void removeForTheir(OsmPrimitive their) {
-        Iterator<Conflict<?>> it = iterator();
-        while(it.hasNext()) {
-            if (it.next().isMatchingTheir(their)) {
-                it.remove();
+        Set<Conflict<?>> toRemove = Collections.newSetFromMap(new IdentityHashMap<Conflict<?>, Boolean>());
+        Conflict<?> c = getConflictForTheir(their);
+        if (c == null)
+            return;
+        toRemove.add(c);
+        if (theirIndex.isShared(their)) {
+            for (Conflict<?> other : conflicts) {
+                if (other.isMatchingTheir(their)) {
+                    toRemove.add(other);
+                }
             }
         }
+        removeConflicts(toRemove);
     }
 
     /**
      * Replies the conflicts as list.
      *
-     * @return the list of conflicts
+     * @return the list of conflicts (unmodifiable)
      */
     public List<Conflict<?>> get() {
-        return conflicts;
+        return Collections.unmodifiableList(conflicts);
     }
 
     /**
@@ -266,13 +488,40 @@ public class ConflictCollection implements Iterable<Conflict<? extends OsmPrimit
      * @return the iterator
      */
     public Iterator<Conflict<?>> iterator() {
-        return conflicts.iterator();
+        final Iterator<Conflict<?>> it = conflicts.iterator();
+        return new Iterator<Conflict<?>>() {
+            private Conflict<?> current;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Conflict<?> next() {
+                current = it.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+                unindexConflict(current);
+            }
+        };
     }
 
+    /**
+     * Adds the conflicts of another collection, emitting a single event.
+     *
+     * @param other the other collection
+     */
     public void add(ConflictCollection other) {
         for (Conflict<?> c : other) {
-            add(c);
+            CheckParameterUtil.ensureParameterNotNull(c, "conflict");
+            addConflict(c);
         }
+        fireConflictAdded();
     }
 
     /**
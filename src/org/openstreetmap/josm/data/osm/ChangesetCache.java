@@ -1,19 +1,49 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.data.osm;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Preferences.PreferenceChangeEvent;
 import org.openstreetmap.josm.data.Preferences.PreferenceChangedListener;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.io.ChangesetQuery;
+import org.openstreetmap.josm.io.IllegalDataException;
+import org.openstreetmap.josm.io.OsmApi;
+import org.openstreetmap.josm.io.OsmChangesetParser;
+import org.openstreetmap.josm.io.OsmWriter;
+import org.openstreetmap.josm.io.OsmWriterFactory;
+import org.openstreetmap.josm.tools.Utils;
 
 /**
  * ChangesetCache is global in-memory cache for changesets downloaded from
@@ -30,8 +60,20 @@ import org.openstreetmap.josm.gui.util.GuiHelper;
  *
  * {@link ChangesetCacheEvent}s are delivered on the EDT.
  *
+ * If {@link #PROP_PERSISTENT} is set, the cached changesets are kept in the cache directory
+ * (one file per OSM API URL) and loaded again in the next session. The file is read in the
+ * background, the changesets are added to the cache with a {@link ChangesetCacheEvent} when it
+ * has been read. Changes are written in the background too, at most {@link #PROP_MAX_PERSISTENT}
+ * changesets with the highest ids, and when JOSM exits. The cache also remembers when a
+ * {@link ChangesetQuery} was last run, so running it again only needs to download the changesets
+ * modified since then, see {@link #getModifiedSince(ChangesetQuery)}. Queries are answered locally with {@link #query(ChangesetQuery)}.
  */
 public class ChangesetCache implements PreferenceChangedListener{
+    /** Keeps the cached changesets on disk between sessions */
+    public static final BooleanProperty PROP_PERSISTENT = new BooleanProperty("changeset-cache.persistent", true);
+    /** The maximum number of changesets kept on disk */
+    public static final IntegerProperty PROP_MAX_PERSISTENT = new IntegerProperty("changeset-cache.max-persistent", 5000);
+
     /** the unique instance */
     static private final ChangesetCache instance = new ChangesetCache();
 
@@ -44,16 +86,44 @@ public class ChangesetCache implements PreferenceChangedListener{
         return instance;
     }
 
+    /** allows for differences between the clocks of JOSM and the server, in ms */
+    private static final long QUERY_TIME_MARGIN = 10 * 60 * 1000;
+
     /** the cached changesets */
     private final Map<Integer, Changeset> cache  = new HashMap<Integer, Changeset>();
+    private final ChangesetIndex index = new ChangesetIndex();
+    /** query string -> time the query was last run */
+    private final Map<String, Long> queryTimes = new ConcurrentHashMap<String, Long>();
 
     private final CopyOnWriteArrayList<ChangesetCacheListener> listeners =
         new CopyOnWriteArrayList<ChangesetCacheListener>();
 
+    /** the file the changesets are kept in, null if not persistent */
+    private File storage;
+    /** the state waiting to be written, null if none */
+    private final AtomicReference<Snapshot> pendingSnapshot = new AtomicReference<Snapshot>();
+    private ExecutorService writer;
+    /** true once the changesets of the storage file have been added, changes are not written before */
+    private boolean loaded;
+    /** true if the cache has been changed before the changesets of the storage file were added */
+    private boolean changedBeforeLoad;
+    /** increased when the cache is cleared, so the changesets of a file read before are not added */
+    private int generation;
+
     private ChangesetCache() {
+        this(getStorageFile());
         Main.pref.addPreferenceChangeListener(this);
     }
 
+    /**
+     * Creates a cache. The changesets of the storage file are loaded in the background.
+     * @param storage the file to keep the changesets in, null if not persistent
+     */
+    ChangesetCache(File storage) {
+        this.storage = storage;
+        scheduleLoad();
+    }
+
     public void addChangesetCacheListener(ChangesetCacheListener listener) {
         listeners.addIfAbsent(listener);
     }
@@ -77,11 +147,14 @@ public class ChangesetCache implements PreferenceChangedListener{
         if (cs.isNew()) return;
         Changeset inCache = cache.get(cs.getId());
         if (inCache != null) {
+            index.remove(inCache);
             inCache.mergeFrom(cs);
+            index.add(inCache);
             e.rememberUpdatedChangeset(inCache);
         } else {
             e.rememberAddedChangeset(cs);
             cache.put(cs.getId(), cs);
+            index.add(cs);
         }
     }
 
@@ -89,6 +162,7 @@ public class ChangesetCache implements PreferenceChangedListener{
         DefaultChangesetCacheEvent e = new DefaultChangesetCacheEvent(this);
         update(cs, e);
         fireChangesetCacheEvent(e);
+        save();
     }
 
     public void update(Collection<Changeset> changesets) {
@@ -98,6 +172,7 @@ public class ChangesetCache implements PreferenceChangedListener{
             update(cs, e);
         }
         fireChangesetCacheEvent(e);
+        save();
     }
 
     public boolean contains(int id) {
@@ -124,6 +199,9 @@ public class ChangesetCache implements PreferenceChangedListener{
         Changeset cs = cache.get(id);
         if (cs == null) return;
         cache.remove(id);
+        index.remove(cs);
+        // queries run before may have included the changeset, they have to be run completely again
+        queryTimes.clear();
         e.rememberRemovedChangeset(cs);
     }
 
@@ -132,6 +210,7 @@ public class ChangesetCache implements PreferenceChangedListener{
         remove(id, e);
         if (! e.isEmpty()) {
             fireChangesetCacheEvent(e);
+            save();
         }
     }
 
@@ -158,6 +237,7 @@ public class ChangesetCache implements PreferenceChangedListener{
         }
         if (! evt.isEmpty()) {
             fireChangesetCacheEvent(evt);
+            save();
         }
     }
 
@@ -167,21 +247,329 @@ public class ChangesetCache implements PreferenceChangedListener{
 
     public void clear() {
         DefaultChangesetCacheEvent e = new DefaultChangesetCacheEvent(this);
+        clear(e);
+        fireChangesetCacheEvent(e);
+        save();
+    }
+
+    protected void clear(DefaultChangesetCacheEvent e) {
         for (Changeset cs: cache.values()) {
             e.rememberRemovedChangeset(cs);
         }
         cache.clear();
-        fireChangesetCacheEvent(e);
+        index.clear();
+        queryTimes.clear();
+        synchronized (this) {
+            // the changesets of a file still being read are not added anymore
+            generation++;
+            loaded = true;
+        }
     }
 
     public List<Changeset> getOpenChangesets() {
-        List<Changeset> ret = new ArrayList<Changeset>();
-        for (Changeset cs: cache.values()) {
-            if (cs.isOpen()) {
-                ret.add(cs);
+        return query(new ChangesetQuery().beingOpen(true));
+    }
+
+    /**
+     * Replies the cached changesets matching a query.
+     *
+     * @param query the query. Must not be null.
+     * @return the cached changesets matching the query
+     */
+    public List<Changeset> query(ChangesetQuery query) {
+        return index.query(query);
+    }
+
+    /**
+     * Remembers that a query has been run against the server and that the changesets it
+     * returned have been added to the cache.
+     *
+     * @param query the query
+     * @param time the time the query was started
+     */
+    public void rememberQuery(ChangesetQuery query, Date time) {
+        queryTimes.put(query.getQueryString(), time.getTime());
+        save();
+    }
+
+    /**
+     * Replies the date after which changesets matching <code>query</code> may have been
+     * created, modified or closed on the server without being in the cache. Running
+     * <code>query.modifiedSince(date)</code> and adding its result to the cache is enough to
+     * answer the query locally afterwards.
+     *
+     * @param query the query
+     * @return the date, or null if the query has never been run before
+     */
+    public Date getModifiedSince(ChangesetQuery query) {
+        Long time = queryTimes.get(query.getQueryString());
+        return time == null ? null : new Date(time - QUERY_TIME_MARGIN);
+    }
+
+    /* ------------------------------------------------------------------------- */
+    /* persistence                                                               */
+    /* ------------------------------------------------------------------------- */
+
+    private static File getStorageFile() {
+        if (!PROP_PERSISTENT.get())
+            return null;
+        String url = Main.pref.get("osm-server.url", OsmApi.DEFAULT_API_URL);
+        return new File(new File(Main.pref.getCacheDirectory(), "changesets"), Utils.md5Hex(url) + ".osm");
+    }
+
+    private static File getQueryFile(File storage) {
+        return new File(storage.getPath() + ".queries");
+    }
+
+    /**
+     * Reads the storage file on the writer thread, then adds the changesets to the cache on the EDT.
+     */
+    private void scheduleLoad() {
+        final File file = storage;
+        final int gen;
+        synchronized (this) {
+            gen = generation;
+            loaded = file == null;
+            changedBeforeLoad = false;
+        }
+        if (file == null)
+            return;
+        getWriter().execute(new Runnable() {
+            public void run() {
+                final List<Changeset> changesets = new ArrayList<Changeset>();
+                final Map<String, Long> times = new HashMap<String, Long>();
+                read(file, changesets, times);
+                GuiHelper.runInEDT(new Runnable() {
+                    public void run() {
+                        addLoaded(gen, changesets, times);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Adds the changesets read from the storage file, unless the cache has been cleared since.
+     * Changesets downloaded in the meantime are newer and kept.
+     */
+    private void addLoaded(int gen, List<Changeset> changesets, Map<String, Long> times) {
+        boolean changed;
+        synchronized (this) {
+            if (gen != generation)
+                return;
+            loaded = true;
+            changed = changedBeforeLoad;
+        }
+        DefaultChangesetCacheEvent e = new DefaultChangesetCacheEvent(this);
+        for (Changeset cs : changesets) {
+            if (!cache.containsKey(cs.getId())) {
+                cache.put(cs.getId(), cs);
+                index.add(cs);
+                e.rememberAddedChangeset(cs);
+            }
+        }
+        if (changed) {
+            // the query times read are not valid anymore if changesets have been removed
+            save();
+        } else {
+            queryTimes.putAll(times);
+        }
+        if (!e.isEmpty()) {
+            fireChangesetCacheEvent(e);
+        }
+    }
+
+    /**
+     * Reads the changesets and the query times of a storage file.
+     */
+    private static void read(File storage, List<Changeset> changesets, Map<String, Long> queryTimes) {
+        if (!storage.exists())
+            return;
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(storage));
+            for (Changeset cs : OsmChangesetParser.parse(in, NullProgressMonitor.INSTANCE)) {
+                if (!cs.isNew()) {
+                    changesets.add(cs);
+                }
+            }
+            Utils.close(in);
+            File queryFile = getQueryFile(storage);
+            if (queryFile.exists()) {
+                in = new BufferedInputStream(new FileInputStream(queryFile));
+                Properties p = new Properties();
+                p.load(in);
+                for (String query : p.stringPropertyNames()) {
+                    queryTimes.put(query, Long.parseLong(p.getProperty(query)));
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Warning: failed to load changeset cache "+storage+": "+ex.getMessage());
+        } catch (IllegalDataException ex) {
+            System.err.println("Warning: failed to load changeset cache "+storage+": "+ex.getMessage());
+        } catch (NumberFormatException ex) {
+            System.err.println("Warning: failed to load changeset queries of "+storage+": "+ex.getMessage());
+            queryTimes.clear();
+        } finally {
+            Utils.close(in);
+        }
+    }
+
+    /**
+     * The state of the cache to be written.
+     */
+    private static class Snapshot {
+        final File storage;
+        final List<Changeset> changesets;
+        final Map<String, Long> queryTimes;
+
+        Snapshot(File storage, Collection<Changeset> changesets, Map<String, Long> queryTimes, int maxSize) {
+            this.storage = storage;
+            List<Changeset> complete = new ArrayList<Changeset>(changesets.size());
+            for (Changeset cs : changesets) {
+                if (!cs.isIncomplete()) {
+                    complete.add(cs);
+                }
+            }
+            this.queryTimes = new HashMap<String, Long>();
+            if (complete.size() > maxSize) {
+                // keep the latest changesets. The queries run before may have included the others.
+                Collections.sort(complete, new Comparator<Changeset>() {
+                    public int compare(Changeset a, Changeset b) {
+                        return a.getId() > b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1);
+                    }
+                });
+                complete = complete.subList(0, Math.max(0, maxSize));
+            } else {
+                this.queryTimes.putAll(queryTimes);
+            }
+            this.changesets = new ArrayList<Changeset>(complete.size());
+            for (Changeset cs : complete) {
+                this.changesets.add(new Changeset(cs));
+            }
+        }
+
+        void write() throws IOException {
+            File dir = storage.getParentFile();
+            if (!dir.exists() && !dir.mkdirs())
+                throw new IOException("Failed to create directory "+dir);
+            File tmp = new File(storage.getPath() + ".tmp");
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+            try {
+                PrintWriter w = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
+                OsmWriter osmWriter = OsmWriterFactory.createOsmWriter(w, true, null);
+                osmWriter.header();
+                for (Changeset cs : changesets) {
+                    osmWriter.visit(cs);
+                }
+                osmWriter.footer();
+                w.flush();
+                if (w.checkError())
+                    throw new IOException("Failed to write "+tmp);
+            } finally {
+                Utils.close(out);
+            }
+            // query times are only valid together with the changesets, so they are removed
+            // before the changesets are replaced and written after them
+            File queryFile = getQueryFile(storage);
+            if (queryFile.exists() && !queryFile.delete())
+                throw new IOException("Failed to delete "+queryFile);
+            replace(tmp, storage);
+            Properties p = new Properties();
+            for (Entry<String, Long> e : queryTimes.entrySet()) {
+                p.setProperty(e.getKey(), Long.toString(e.getValue()));
             }
+            File queryTmp = new File(queryFile.getPath() + ".tmp");
+            out = new BufferedOutputStream(new FileOutputStream(queryTmp));
+            try {
+                p.store(out, null);
+            } finally {
+                Utils.close(out);
+            }
+            replace(queryTmp, queryFile);
+        }
+
+        /**
+         * Renames <code>tmp</code> to <code>file</code>. The file is only deleted first if renaming
+         * fails, as it does on some systems if the file exists.
+         */
+        private static void replace(File tmp, File file) throws IOException {
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+                throw new IOException("Failed to rename "+tmp+" to "+file);
+        }
+    }
+
+    /**
+     * Writes the current state of the cache to the storage file in the background.
+     * Several changes in a row are written only once.
+     */
+    private void save() {
+        if (storage == null)
+            return;
+        synchronized (this) {
+            if (!loaded) {
+                // written when the changesets of the file have been added
+                changedBeforeLoad = true;
+                return;
+            }
+        }
+        if (pendingSnapshot.getAndSet(new Snapshot(storage, cache.values(), queryTimes, PROP_MAX_PERSISTENT.get())) != null)
+            return; // the writer has not taken the previous snapshot yet
+        getWriter().execute(new Runnable() {
+            public void run() {
+                Snapshot snapshot = pendingSnapshot.getAndSet(null);
+                if (snapshot == null)
+                    return;
+                try {
+                    snapshot.write();
+                } catch (IOException e) {
+                    System.err.println("Warning: failed to save changeset cache "+snapshot.storage+": "+e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Replies the thread the storage file is read and written on. Pending changes are
+     * written when JOSM exits.
+     */
+    private synchronized ExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Changeset cache writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread("changeset-cache-flush") {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * Waits until the changes are written to the storage file.
+     */
+    void flush() {
+        ExecutorService w;
+        synchronized (this) {
+            w = writer;
+        }
+        if (w == null)
+            return;
+        try {
+            w.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+        } catch (Exception e) {
+            e.printStackTrace();
         }
-        return ret;
     }
 
     /* ------------------------------------------------------------------------- */
@@ -191,9 +579,13 @@ public class ChangesetCache implements PreferenceChangedListener{
         if (e.getKey() == null || ! e.getKey().equals("osm-server.url"))
             return;
 
-        // clear the cache when the API url changes
+        // clear the cache when the API url changes, and load the changesets of the new one
         if (e.getOldValue() == null || e.getNewValue() == null || !e.getOldValue().equals(e.getNewValue())) {
-            clear();
+            DefaultChangesetCacheEvent evt = new DefaultChangesetCacheEvent(this);
+            clear(evt);
+            storage = getStorageFile();
+            fireChangesetCacheEvent(evt);
+            scheduleLoad();
         }
     }
 }
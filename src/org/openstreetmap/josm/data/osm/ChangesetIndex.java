@@ -0,0 +1,252 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.io.ChangesetQuery;
+
+/**
+ * Indexes the changesets of the {@link ChangesetCache} by user, open state, creation and
+ * closing time and bounding box, so a {@link ChangesetQuery} only has to check the changesets
+ * of the most selective index instead of all changesets.
+ *
+ * Bounding boxes are indexed in a grid of {@link #CELL_SIZE} degrees. Changesets spanning
+ * more than {@link #MAX_CELLS} cells are kept in a separate list checked by every query.
+ *
+ * What has been indexed for a changeset is remembered, so it can be removed even after it
+ * has been modified. A modified changeset has to be removed and added again to be found by
+ * its new state.
+ */
+class ChangesetIndex {
+
+    /** the size of a grid cell in degrees */
+    private static final int CELL_SIZE = 10;
+    private static final int COLUMNS = 360 / CELL_SIZE;
+    private static final int ROWS = 180 / CELL_SIZE;
+    /** the maximum number of cells a changeset is registered in */
+    private static final int MAX_CELLS = 16;
+
+    /**
+     * What has been indexed for one changeset.
+     */
+    private static class Indexed {
+        final Long uid;
+        final List<String> names;
+        final boolean open;
+        final Long createdAt;
+        final Long closedAt;
+        final boolean hasBounds;
+        /** the grid cells, null if none or too many */
+        final List<Integer> cells;
+
+        Indexed(Changeset cs) {
+            User user = cs.getUser();
+            uid = user == null ? null : user.getId();
+            names = user == null ? null : new ArrayList<String>(user.getNames());
+            open = cs.isOpen();
+            createdAt = cs.getCreatedAt() == null ? null : cs.getCreatedAt().getTime();
+            closedAt = cs.getClosedAt() == null ? null : cs.getClosedAt().getTime();
+            Bounds b = cs.getBounds();
+            hasBounds = b != null;
+            cells = b == null ? null : getCells(b, MAX_CELLS);
+        }
+    }
+
+    private final Map<Changeset, Indexed> all = new HashMap<Changeset, Indexed>();
+    private final Map<Long, Set<Changeset>> byUid = new HashMap<Long, Set<Changeset>>();
+    private final Map<String, Set<Changeset>> byUserName = new HashMap<String, Set<Changeset>>();
+    private final Set<Changeset> open = new HashSet<Changeset>();
+    private final TreeMap<Long, Set<Changeset>> byCreatedAt = new TreeMap<Long, Set<Changeset>>();
+    private final TreeMap<Long, Set<Changeset>> byClosedAt = new TreeMap<Long, Set<Changeset>>();
+    private final Map<Integer, Set<Changeset>> cells = new HashMap<Integer, Set<Changeset>>();
+    /** the changesets spanning too many cells */
+    private final Set<Changeset> large = new HashSet<Changeset>();
+
+    private static <K> void put(Map<K, Set<Changeset>> map, K key, Changeset cs) {
+        Set<Changeset> set = map.get(key);
+        if (set == null) {
+            set = new HashSet<Changeset>();
+            map.put(key, set);
+        }
+        set.add(cs);
+    }
+
+    private static <K> void remove(Map<K, Set<Changeset>> map, K key, Changeset cs) {
+        Set<Changeset> set = map.get(key);
+        if (set != null && set.remove(cs) && set.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    private static int column(double lon) {
+        return Math.max(0, Math.min(COLUMNS - 1, (int) Math.floor((lon + 180) / CELL_SIZE)));
+    }
+
+    private static int row(double lat) {
+        return Math.max(0, Math.min(ROWS - 1, (int) Math.floor((lat + 90) / CELL_SIZE)));
+    }
+
+    /**
+     * Replies the cells a bounding box intersects, or null if there are too many.
+     */
+    private static List<Integer> getCells(Bounds b, int maxCells) {
+        if (b.crosses180thMeridian())
+            return null;
+        int x1 = column(b.getMin().lon()), x2 = column(b.getMax().lon());
+        int y1 = row(b.getMin().lat()), y2 = row(b.getMax().lat());
+        if ((x2 - x1 + 1) * (y2 - y1 + 1) > maxCells)
+            return null;
+        List<Integer> ret = new ArrayList<Integer>();
+        for (int y = y1; y <= y2; y++) {
+            for (int x = x1; x <= x2; x++) {
+                ret.add(y * COLUMNS + x);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Indexes a changeset. Nothing happens if it is already indexed.
+     * @param cs the changeset
+     */
+    public void add(Changeset cs) {
+        if (all.containsKey(cs))
+            return;
+        Indexed e = new Indexed(cs);
+        all.put(cs, e);
+        if (e.uid != null) {
+            put(byUid, e.uid, cs);
+            for (String name : e.names) {
+                put(byUserName, name, cs);
+            }
+        }
+        if (e.open) {
+            open.add(cs);
+        }
+        if (e.createdAt != null) {
+            put(byCreatedAt, e.createdAt, cs);
+        }
+        if (e.closedAt != null) {
+            put(byClosedAt, e.closedAt, cs);
+        }
+        if (e.cells == null) {
+            if (e.hasBounds) {
+                large.add(cs);
+            }
+        } else {
+            for (Integer cell : e.cells) {
+                put(cells, cell, cs);
+            }
+        }
+    }
+
+    /**
+     * Removes a changeset from the index, even if it has been modified since it was added.
+     * @param cs the changeset
+     */
+    public void remove(Changeset cs) {
+        Indexed e = all.remove(cs);
+        if (e == null)
+            return;
+        if (e.uid != null) {
+            remove(byUid, e.uid, cs);
+            for (String name : e.names) {
+                remove(byUserName, name, cs);
+            }
+        }
+        open.remove(cs);
+        if (e.createdAt != null) {
+            remove(byCreatedAt, e.createdAt, cs);
+        }
+        if (e.closedAt != null) {
+            remove(byClosedAt, e.closedAt, cs);
+        }
+        large.remove(cs);
+        if (e.cells != null) {
+            for (Integer cell : e.cells) {
+                remove(cells, cell, cs);
+            }
+        }
+    }
+
+    public void clear() {
+        all.clear();
+        byUid.clear();
+        byUserName.clear();
+        open.clear();
+        byCreatedAt.clear();
+        byClosedAt.clear();
+        cells.clear();
+        large.clear();
+    }
+
+    private static Collection<Changeset> flatten(Collection<Set<Changeset>> sets) {
+        List<Changeset> ret = new ArrayList<Changeset>();
+        for (Set<Changeset> set : sets) {
+            ret.addAll(set);
+        }
+        return ret;
+    }
+
+    private static Collection<Changeset> nonNull(Collection<Changeset> c) {
+        return c == null ? new HashSet<Changeset>() : c;
+    }
+
+    private static Collection<Changeset> smaller(Collection<Changeset> a, Collection<Changeset> b) {
+        return b.size() < a.size() ? b : a;
+    }
+
+    /**
+     * Replies the indexed changesets matching a query.
+     *
+     * @param query the query
+     * @return the changesets matching the query
+     */
+    public List<Changeset> query(ChangesetQuery query) {
+        Collection<Changeset> candidates = all.keySet();
+        if (query.getUserId() != null) {
+            candidates = smaller(candidates, nonNull(byUid.get((long) query.getUserId())));
+        } else if (query.getUserName() != null) {
+            candidates = smaller(candidates, nonNull(byUserName.get(query.getUserName())));
+        }
+        if (query.isRestrictedToOpenChangesets()) {
+            candidates = smaller(candidates, open);
+        }
+        if (candidates.size() > open.size() && query.getClosedAfter() != null) {
+            Collection<Changeset> closedAfter = flatten(byClosedAt.tailMap(query.getClosedAfter().getTime(), false).values());
+            closedAfter.addAll(open);
+            candidates = smaller(candidates, closedAfter);
+        }
+        if (query.getCreatedBefore() != null) {
+            candidates = smaller(candidates, flatten(byCreatedAt.headMap(query.getCreatedBefore().getTime(), false).values()));
+        }
+        if (query.getBounds() != null) {
+            List<Integer> c = getCells(query.getBounds(), Integer.MAX_VALUE);
+            if (c != null) {
+                Set<Changeset> inCells = new HashSet<Changeset>(large);
+                for (Integer cell : c) {
+                    Set<Changeset> set = cells.get(cell);
+                    if (set != null) {
+                        inCells.addAll(set);
+                    }
+                }
+                candidates = smaller(candidates, inCells);
+            }
+        }
+        List<Changeset> ret = new ArrayList<Changeset>();
+        for (Changeset cs : candidates) {
+            if (query.matches(cs)) {
+                ret.add(cs);
+            }
+        }
+        return ret;
+    }
+}
@@ -4,19 +4,21 @@ package org.openstreetmap.josm.data.osm;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.geom.Area;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.openstreetmap.josm.Main;
@@ -25,9 +27,11 @@ import org.openstreetmap.josm.data.SelectionChangedListener;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent.DatasetEventType;
 import org.openstreetmap.josm.data.osm.event.ChangesetIdChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.DatasetChanges;
 import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
 import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
 import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
@@ -95,12 +99,22 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     private static final int MAX_SINGLE_EVENTS = 30;
 
     /**
-     * Maximum number of events to kept between beginUpdate/endUpdate. When more events are created, that simple DatasetChangedEvent is sent)
+     * Maximum number of events to kept between beginUpdate/endUpdate. When more events are created, they are coalesced
+     * into {@link DatasetChanges} and a DatasetChangedEvent carrying them is sent
      */
     private static final int MAX_EVENTS = 1000;
 
     private Storage<OsmPrimitive> allPrimitives = new Storage<OsmPrimitive>(new Storage.PrimitiveIdHash(), true);
     private Map<PrimitiveId, OsmPrimitive> primitivesMap = allPrimitives.foreignKey(new Storage.PrimitiveIdHash());
+    /** for each type of primitive, the hash to look up primitives by their id without allocating an id object */
+    private static final Storage.PrimitiveIdLongHash[] ID_HASHES;
+    static {
+        OsmPrimitiveType[] types = OsmPrimitiveType.values();
+        ID_HASHES = new Storage.PrimitiveIdLongHash[types.length];
+        for (OsmPrimitiveType type : types) {
+            ID_HASHES[type.ordinal()] = new Storage.PrimitiveIdLongHash(type);
+        }
+    }
     private CopyOnWriteArrayList<DataSetListener> listeners = new CopyOnWriteArrayList<DataSetListener>();
 
     // provide means to highlight map elements that are not osm primitives
@@ -111,12 +125,14 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     private int updateCount;
     // Events that occurred while dataset was locked but should be fired after write lock is released
     private final List<AbstractDatasetChangedEvent> cachedEvents = new ArrayList<AbstractDatasetChangedEvent>();
+    /** the coalesced events between beginUpdate/endUpdate, once there are more than MAX_EVENTS */
+    private DatasetChanges cachedChanges;
 
     private int highlightUpdateCount;
 
     private boolean uploadDiscouraged = false;
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private final Object selectionLock = new Object();
 
     public DataSet() {
@@ -131,6 +147,16 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         return lock.readLock();
     }
 
+    /**
+     * Replies true if threads wait to acquire the lock of this dataset. A thread holding the
+     * read lock for long, like the background renderer, can release it to let a writer in.
+     *
+     * @return true if threads wait to acquire the lock
+     */
+    public boolean hasQueuedLockWaiters() {
+        return lock.hasQueuedThreads();
+    }
+
     /**
      * This method can be used to detect changes in highlight state of primitives. If highlighting was changed
      * then the method will return different number.
@@ -246,6 +272,60 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         }
     }
 
+    /**
+     * Visits the nodes intersecting a bbox under the read lock, without collecting them.
+     * Several threads may search at the same time.
+     * @see QuadBuckets#search(BBox, QuadBuckets.SearchVisitor)
+     */
+    public void searchNodes(BBox bbox, QuadBuckets.SearchVisitor<? super Node> visitor) {
+        lock.readLock().lock();
+        try {
+            nodes.search(bbox, visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replies the number of nodes intersecting a bbox.
+     * @see QuadBuckets#count(BBox)
+     */
+    public int countNodes(BBox bbox) {
+        lock.readLock().lock();
+        try {
+            return nodes.count(bbox);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits the nodes nearest to some point, in order of increasing distance.
+     * @see QuadBuckets#searchNearest(BBox, QuadBuckets.NearestMetric, double, QuadBuckets.NearestVisitor)
+     */
+    public void searchNearestNodes(BBox bbox, QuadBuckets.NearestMetric<? super Node> metric, double maxDistanceSq,
+            QuadBuckets.NearestVisitor<? super Node> visitor) {
+        lock.readLock().lock();
+        try {
+            nodes.searchNearest(bbox, metric, maxDistanceSq, visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the (at most) {@code k} nodes nearest to some point, nearest first.
+     * @see QuadBuckets#searchNearest(BBox, QuadBuckets.NearestMetric, int, double)
+     */
+    public List<Node> searchNearestNodes(BBox bbox, QuadBuckets.NearestMetric<? super Node> metric, int k, double maxDistanceSq) {
+        lock.readLock().lock();
+        try {
+            return nodes.searchNearest(bbox, metric, k, maxDistanceSq);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     /**
      * All ways (Streets etc.) in the DataSet.
      *
@@ -271,6 +351,47 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         }
     }
 
+    /**
+     * Visits the ways intersecting a bbox under the read lock, without collecting them.
+     * Several threads may search at the same time.
+     * @see QuadBuckets#search(BBox, QuadBuckets.SearchVisitor)
+     */
+    public void searchWays(BBox bbox, QuadBuckets.SearchVisitor<? super Way> visitor) {
+        lock.readLock().lock();
+        try {
+            ways.search(bbox, visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replies the number of ways intersecting a bbox.
+     * @see QuadBuckets#count(BBox)
+     */
+    public int countWays(BBox bbox) {
+        lock.readLock().lock();
+        try {
+            return ways.count(bbox);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits the ways nearest to some point, in order of increasing distance.
+     * @see QuadBuckets#searchNearest(BBox, QuadBuckets.NearestMetric, double, QuadBuckets.NearestVisitor)
+     */
+    public void searchNearestWays(BBox bbox, QuadBuckets.NearestMetric<? super Way> metric, double maxDistanceSq,
+            QuadBuckets.NearestVisitor<? super Way> visitor) {
+        lock.readLock().lock();
+        try {
+            ways.searchNearest(bbox, metric, maxDistanceSq, visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     /**
      * All relations/relationships
      */
@@ -304,7 +425,60 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     /**
      * All data sources of this DataSet.
      */
-    public final Collection<DataSource> dataSources = new LinkedList<DataSource>();
+    public final Collection<DataSource> dataSources = new DataSourceCollection();
+
+    /**
+     * The area of the data sources, null if it has to be computed again.
+     * Updated incrementally when data sources are added.
+     */
+    private DataSourceAreaIndex dataSourceAreaIndex;
+
+    /**
+     * The collection of data sources. It keeps {@link #dataSourceAreaIndex} up to date.
+     */
+    private class DataSourceCollection extends AbstractCollection<DataSource> {
+        private final List<DataSource> list = new LinkedList<DataSource>();
+
+        @Override
+        public boolean add(DataSource source) {
+            synchronized (this) {
+                list.add(source);
+                if (dataSourceAreaIndex != null) {
+                    dataSourceAreaIndex = dataSourceAreaIndex.withBounds(source.bounds);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Iterator<DataSource> iterator() {
+            final Iterator<DataSource> it = list.iterator();
+            return new Iterator<DataSource>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public DataSource next() {
+                    return it.next();
+                }
+
+                @Override
+                public void remove() {
+                    synchronized (DataSourceCollection.this) {
+                        it.remove();
+                        dataSourceAreaIndex = null;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+    }
 
     /**
      * @return A collection containing all primitives of the dataset. Data are not ordered
@@ -763,13 +937,24 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
      * @return Area object encompassing downloaded data.
      */
     public Area getDataSourceArea() {
-        if (dataSources.isEmpty()) return null;
-        Area a = new Area();
-        for (DataSource source : dataSources) {
-            // create area from data bounds
-            a.add(new Area(source.bounds.asRect()));
+        return getDataSourceAreaIndex().getArea();
+    }
+
+    /**
+     * Returns the total area of downloaded data with fast containment tests. The
+     * result is cached until the data sources change, and extended incrementally
+     * when data sources are added.
+     *
+     * @return the area of the data sources, never null
+     */
+    public DataSourceAreaIndex getDataSourceAreaIndex() {
+        synchronized (dataSources) {
+            if (dataSourceAreaIndex == null) {
+                dataSourceAreaIndex = dataSources.isEmpty()
+                        ? DataSourceAreaIndex.EMPTY : new DataSourceAreaIndex(getDataSourceBounds());
+            }
+            return dataSourceAreaIndex;
         }
-        return a;
     }
 
     /**
@@ -782,7 +967,7 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
      * @exception NullPointerException thrown, if type is null
      */
     public OsmPrimitive getPrimitiveById(long id, OsmPrimitiveType type) {
-        return getPrimitiveById(new SimplePrimitiveId(id, type));
+        return allPrimitives.get(id, ID_HASHES[type.ordinal()]);
     }
 
     public OsmPrimitive getPrimitiveById(PrimitiveId primitiveId) {
@@ -915,6 +1100,68 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         }
     }
 
+    /**
+     * Moves a number of nodes at once. The nodes are reinserted into the index in one pass,
+     * ways and relations referring to them are reindexed once afterwards, and a single
+     * event is fired for all nodes (a {@link DataChangedEvent} if there are many of them).
+     *
+     * @param positions the new positions of the nodes, projected coordinates
+     * @throws IllegalArgumentException if one of the nodes does not belong to this dataset
+     */
+    public void setEastNorths(Map<Node, EastNorth> positions) {
+        moveNodes(positions);
+    }
+
+    /**
+     * Moves a number of nodes at once, see {@link #setEastNorths(Map)}.
+     *
+     * @param coors the new coordinates of the nodes
+     * @throws IllegalArgumentException if one of the nodes does not belong to this dataset
+     */
+    public void setCoors(Map<Node, LatLon> coors) {
+        moveNodes(coors);
+    }
+
+    private void moveNodes(Map<Node, ?> positions) {
+        if (positions.isEmpty())
+            return;
+        // check all nodes first, so the index is never left half updated
+        for (Node node : positions.keySet()) {
+            if (node.getDataSet() != this)
+                throw new IllegalArgumentException(tr("Node {0} does not belong to this dataset", node.getUniqueId()));
+        }
+        beginUpdate();
+        try {
+            Set<Way> affectedWays = Collections.newSetFromMap(new IdentityHashMap<Way, Boolean>());
+            Set<Relation> affectedRelations = Collections.newSetFromMap(new IdentityHashMap<Relation, Boolean>());
+            for (Map.Entry<Node, ?> e : positions.entrySet()) {
+                Node node = e.getKey();
+                if (!nodes.remove(node))
+                    throw new RuntimeException("Reindexing node failed to remove");
+                Object pos = e.getValue();
+                node.setCoorInternal(pos instanceof LatLon ? (LatLon) pos : null, pos instanceof EastNorth ? (EastNorth) pos : null);
+                if (!nodes.add(node))
+                    throw new RuntimeException("Reindexing node failed to add");
+                for (OsmPrimitive primitive: node.getReferrers()) {
+                    if (primitive instanceof Way) {
+                        affectedWays.add((Way) primitive);
+                    } else {
+                        affectedRelations.add((Relation) primitive);
+                    }
+                }
+            }
+            for (Way way : affectedWays) {
+                reindexWay(way);
+            }
+            for (Relation relation : affectedRelations) {
+                reindexRelation(relation);
+            }
+            fireNodesMoved(positions.keySet());
+        } finally {
+            endUpdate();
+        }
+    }
+
     private void reindexWay(Way way) {
         BBox before = way.getBBox();
         if (!ways.remove(way))
@@ -974,18 +1221,25 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
             updateCount--;
             if (updateCount == 0) {
                 List<AbstractDatasetChangedEvent> eventsCopy = new ArrayList<AbstractDatasetChangedEvent>(cachedEvents);
+                DatasetChanges changes = cachedChanges;
                 cachedEvents.clear();
+                cachedChanges = null;
                 lock.writeLock().unlock();
 
-                if (!eventsCopy.isEmpty()) {
+                if (changes != null) {
+                    lock.readLock().lock();
+                    try {
+                        fireEventToListeners(new DataChangedEvent(this, changes));
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                } else if (!eventsCopy.isEmpty()) {
                     lock.readLock().lock();
                     try {
                         if (eventsCopy.size() < MAX_SINGLE_EVENTS) {
                             for (AbstractDatasetChangedEvent event: eventsCopy) {
                                 fireEventToListeners(event);
                             }
-                        } else if (eventsCopy.size() == MAX_EVENTS) {
-                            fireEventToListeners(new DataChangedEvent(this));
                         } else {
                             fireEventToListeners(new DataChangedEvent(this, eventsCopy));
                         }
@@ -1010,11 +1264,28 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     private void fireEvent(AbstractDatasetChangedEvent event) {
         if (updateCount == 0)
             throw new AssertionError("dataset events can be fired only when dataset is locked");
-        if (cachedEvents.size() < MAX_EVENTS) {
+        if (cachedChanges == null && cachedEvents.size() < MAX_EVENTS) {
             cachedEvents.add(event);
+        } else {
+            coalesceCachedEvents().add(event);
         }
     }
 
+    /**
+     * Folds the cached events into coalesced changes, so no more single events are kept
+     * until endUpdate.
+     */
+    private DatasetChanges coalesceCachedEvents() {
+        if (cachedChanges == null) {
+            cachedChanges = new DatasetChanges();
+            for (AbstractDatasetChangedEvent e : cachedEvents) {
+                cachedChanges.add(e);
+            }
+            cachedEvents.clear();
+        }
+        return cachedChanges;
+    }
+
     void firePrimitivesAdded(Collection<? extends OsmPrimitive> added, boolean wasIncomplete) {
         fireEvent(new PrimitivesAddedEvent(this, added, wasIncomplete));
     }
@@ -1037,6 +1308,18 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         fireEvent(new NodeMovedEvent(this, node));
     }
 
+    private void fireNodesMoved(Collection<Node> moved) {
+        if (updateCount == 0)
+            throw new AssertionError("dataset events can be fired only when dataset is locked");
+        if (moved.size() < MAX_SINGLE_EVENTS) {
+            for (Node node : moved) {
+                fireEvent(new NodeMovedEvent(this, node));
+            }
+        } else {
+            coalesceCachedEvents().add(DatasetEventType.NODE_MOVED, moved);
+        }
+    }
+
     void fireWayNodesChanged(Way way) {
         reindexWay(way);
         fireEvent(new WayNodesChangedEvent(this, way));
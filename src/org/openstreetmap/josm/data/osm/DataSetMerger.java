@@ -5,12 +5,11 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.openstreetmap.josm.data.conflict.Conflict;
@@ -37,7 +36,7 @@ public class DataSetMerger {
      * A map of all primitives that got replaced with other primitives.
      * Key is the PrimitiveId in their dataset, the value is the PrimitiveId in my dataset
      */
-    private final Map<PrimitiveId, PrimitiveId> mergedMap;
+    private final PrimitiveIdMap<PrimitiveId> mergedMap;
     /** a set of primitive ids for which we have to fix references (to nodes and
      * to relation members) after the first phase of merging
      */
@@ -58,7 +57,7 @@ public class DataSetMerger {
         this.targetDataSet = targetDataSet;
         this.sourceDataSet = sourceDataSet;
         conflicts = new ConflictCollection();
-        mergedMap = new HashMap<PrimitiveId, PrimitiveId>();
+        mergedMap = new PrimitiveIdMap<PrimitiveId>();
         objectsWithChildrenToMerge = new HashSet<PrimitiveId>();
         objectsToDelete = new HashSet<OsmPrimitive>();
     }
@@ -99,7 +98,7 @@ public class DataSetMerger {
                     continue;
                 }
                 if (target.hasEqualSemanticAttributes(source)) {
-                    mergedMap.put(source.getPrimitiveId(), target.getPrimitiveId());
+                    mergedMap.put(source.getUniqueId(), source.getType(), target.getPrimitiveId());
                     // copy the technical attributes from other
                     // version
                     target.setVisible(source.isVisible());
@@ -124,12 +123,12 @@ public class DataSetMerger {
         }
         target.mergeFrom(source);
         targetDataSet.addPrimitive(target);
-        mergedMap.put(source.getPrimitiveId(), target.getPrimitiveId());
+        mergedMap.put(source.getUniqueId(), source.getType(), target.getPrimitiveId());
         objectsWithChildrenToMerge.add(source.getPrimitiveId());
     }
 
     protected OsmPrimitive getMergeTarget(OsmPrimitive mergeSource) throws IllegalStateException {
-        PrimitiveId targetId = mergedMap.get(mergeSource.getPrimitiveId());
+        PrimitiveId targetId = mergedMap.get(mergeSource.getUniqueId(), mergeSource.getType());
         if (targetId == null)
             return null;
         return targetDataSet.getPrimitiveById(targetId);
@@ -296,7 +295,7 @@ public class DataSetMerger {
         if (target == null)
             return false;
         // found a corresponding target, remember it
-        mergedMap.put(source.getPrimitiveId(), target.getPrimitiveId());
+        mergedMap.put(source.getUniqueId(), source.getType(), target.getPrimitiveId());
 
         if (target.getVersion() > source.getVersion())
             // target.version > source.version => keep target version
@@ -406,30 +405,27 @@ public class DataSetMerger {
         }
         targetDataSet.beginUpdate();
         try {
-        	ArrayList<? extends OsmPrimitive> candidates = new ArrayList<Node>(targetDataSet.getNodes());
+            Collection<? extends OsmPrimitive> candidates = getCandidates(targetDataSet.getNodes(), sourceDataSet.getNodes());
             for (Node node: sourceDataSet.getNodes()) {
                 mergePrimitive(node, candidates);
                 if (progressMonitor != null) {
                     progressMonitor.worked(1);
                 }
             }
-            candidates.clear();
-            candidates = new ArrayList<Way>(targetDataSet.getWays());
+            candidates = getCandidates(targetDataSet.getWays(), sourceDataSet.getWays());
             for (Way way: sourceDataSet.getWays()) {
                 mergePrimitive(way, candidates);
                 if (progressMonitor != null) {
                     progressMonitor.worked(1);
                 }
             }
-            candidates.clear();
-            candidates = new ArrayList<Relation>(targetDataSet.getRelations());
+            candidates = getCandidates(targetDataSet.getRelations(), sourceDataSet.getRelations());
             for (Relation relation: sourceDataSet.getRelations()) {
                 mergePrimitive(relation, candidates);
                 if (progressMonitor != null) {
                     progressMonitor.worked(1);
                 }
             }
-            candidates.clear();
             fixReferences();
         } finally {
             targetDataSet.endUpdate();
@@ -439,6 +435,24 @@ public class DataSetMerger {
         }
     }
 
+    /**
+     * Replies the target primitives a new source primitive may be merged onto. They are
+     * only needed if there are new primitives in the source (which is never the case for
+     * data downloaded from the server), so the potentially large copy of the target
+     * primitives is avoided otherwise.
+     *
+     * @param targets the target primitives of a type
+     * @param sources the source primitives of the same type
+     * @return a copy of the targets, or an empty list if no source primitive is new
+     */
+    private static <T extends OsmPrimitive> Collection<T> getCandidates(Collection<T> targets, Collection<T> sources) {
+        for (T source : sources) {
+            if (source.isNew() && !source.isDeleted())
+                return new ArrayList<T>(targets);
+        }
+        return Collections.emptyList();
+    }
+
     /**
      * replies my dataset
      *
@@ -0,0 +1,244 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+
+/**
+ * The area covered by the data sources of a {@link DataSet} (the "yellow rectangles"),
+ * with fast containment tests.
+ *
+ * The bounds are kept in a grid of cells, each cell referring to the bounds intersecting
+ * it, so testing whether a point is inside the area only checks a few rectangles instead
+ * of doing {@link Area} geometry. The union as {@code Area} is only computed when needed.
+ *
+ * Instances are immutable, see {@link DataSet#getDataSourceAreaIndex()}.
+ */
+public class DataSourceAreaIndex {
+
+    /** The maximum number of cells in each direction */
+    private static final int MAX_GRID_SIZE = 32;
+
+    /** The empty area */
+    public static final DataSourceAreaIndex EMPTY = new DataSourceAreaIndex(Collections.<Bounds>emptyList(), null);
+
+    private final List<Bounds> bounds;
+    /** the bounds as boxes, bounds crossing the 180th meridian are split in two */
+    private final List<BBox> boxes;
+    /** the union of the rectangles of all bounds, null if empty */
+    private final Rectangle2D extent;
+    /** the box containing all boxes, null if empty */
+    private final BBox boxExtent;
+    private final double minLon;
+    private final double minLat;
+    private final int gridSize;
+    private final double cellWidth;
+    private final double cellHeight;
+    /** for each cell (row by row) the boxes intersecting it */
+    private final BBox[][] cells;
+    /** the union of the bounds, computed lazily */
+    private Area area;
+
+    /**
+     * Constructs a new {@code DataSourceAreaIndex}.
+     * @param bounds the data source bounds
+     */
+    public DataSourceAreaIndex(Collection<Bounds> bounds) {
+        this(bounds, null);
+    }
+
+    private DataSourceAreaIndex(Collection<Bounds> bounds, Area area) {
+        this.bounds = Collections.unmodifiableList(new ArrayList<Bounds>(bounds));
+        this.area = area;
+        boxes = new ArrayList<BBox>(bounds.size());
+        Rectangle2D extent = null;
+        for (Bounds b : bounds) {
+            if (b.crosses180thMeridian()) {
+                boxes.add(new BBox(b.getMin().lon(), b.getMin().lat(), 180.0, b.getMax().lat()));
+                boxes.add(new BBox(-180.0, b.getMin().lat(), b.getMax().lon(), b.getMax().lat()));
+            } else {
+                boxes.add(new BBox(b));
+            }
+            if (extent == null) {
+                extent = b.asRect();
+            } else {
+                extent.add(b.asRect());
+            }
+        }
+        this.extent = extent;
+        if (boxes.isEmpty()) {
+            boxExtent = null;
+            minLon = minLat = 0;
+            gridSize = 0;
+            cellWidth = cellHeight = 0;
+            cells = null;
+            return;
+        }
+        boxExtent = new BBox(boxes.get(0));
+        for (BBox box : boxes) {
+            boxExtent.add(box);
+        }
+        minLon = boxExtent.getTopLeft().lon();
+        minLat = boxExtent.getBottomRight().lat();
+        gridSize = Math.min(MAX_GRID_SIZE, 2 * (int) Math.ceil(Math.sqrt(boxes.size())));
+        cellWidth = boxExtent.width() / gridSize;
+        cellHeight = boxExtent.height() / gridSize;
+        List<List<BBox>> cellLists = new ArrayList<List<BBox>>(gridSize * gridSize);
+        for (int i = 0; i < gridSize * gridSize; i++) {
+            cellLists.add(null);
+        }
+        for (BBox box : boxes) {
+            LatLon topLeft = box.getTopLeft();
+            LatLon bottomRight = box.getBottomRight();
+            int x1 = column(topLeft.lon()), x2 = column(bottomRight.lon());
+            int y1 = row(bottomRight.lat()), y2 = row(topLeft.lat());
+            for (int y = y1; y <= y2; y++) {
+                for (int x = x1; x <= x2; x++) {
+                    List<BBox> cell = cellLists.get(y * gridSize + x);
+                    if (cell == null) {
+                        cell = new ArrayList<BBox>();
+                        cellLists.set(y * gridSize + x, cell);
+                    }
+                    cell.add(box);
+                }
+            }
+        }
+        cells = new BBox[gridSize * gridSize][];
+        for (int i = 0; i < cells.length; i++) {
+            List<BBox> cell = cellLists.get(i);
+            cells[i] = cell == null ? new BBox[0] : cell.toArray(new BBox[cell.size()]);
+        }
+    }
+
+    /**
+     * Replies a new index with one more data source. The union {@code Area},
+     * if already computed, is extended instead of being computed again.
+     *
+     * @param b the bounds of the new data source
+     * @return the new index
+     */
+    public DataSourceAreaIndex withBounds(Bounds b) {
+        List<Bounds> newBounds = new ArrayList<Bounds>(bounds.size() + 1);
+        newBounds.addAll(bounds);
+        newBounds.add(b);
+        Area newArea = null;
+        synchronized (this) {
+            if (area != null) {
+                newArea = new Area(area);
+                newArea.add(new Area(b.asRect()));
+            }
+        }
+        return new DataSourceAreaIndex(newBounds, newArea);
+    }
+
+    private int column(double lon) {
+        int x = cellWidth > 0 ? (int) ((lon - minLon) / cellWidth) : 0;
+        return Math.max(0, Math.min(gridSize - 1, x));
+    }
+
+    private int row(double lat) {
+        int y = cellHeight > 0 ? (int) ((lat - minLat) / cellHeight) : 0;
+        return Math.max(0, Math.min(gridSize - 1, y));
+    }
+
+    private BBox[] getCell(LatLon ll) {
+        return cells[row(ll.lat()) * gridSize + column(ll.lon())];
+    }
+
+    /**
+     * @return true if there are no data sources
+     */
+    public boolean isEmpty() {
+        return bounds.isEmpty();
+    }
+
+    /**
+     * @return the bounds of the data sources (unmodifiable)
+     */
+    public List<Bounds> getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Replies the bounding box of the area, as {@code new Bounds(getArea().getBounds2D())}
+     * would, without computing the area.
+     *
+     * @return the bounding box, or null if there are no data sources
+     */
+    public Bounds getExtent() {
+        return extent == null ? null : new Bounds(extent);
+    }
+
+    /**
+     * Determines if a point is inside the area.
+     *
+     * @param ll the point
+     * @return true if the point is inside the bounds of a data source
+     */
+    public boolean contains(LatLon ll) {
+        if (ll == null || boxExtent == null || !boxExtent.bounds(ll))
+            return false;
+        for (BBox box : getCell(ll)) {
+            if (box.bounds(ll))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determines if a box is completely inside the area. The box may span the
+     * bounds of several data sources.
+     *
+     * @param b the box
+     * @return true if the box is inside the area
+     */
+    public boolean contains(BBox b) {
+        if (boxExtent == null || !boxExtent.bounds(b))
+            return false;
+        // a box containing b contains its corners, so it is referred by the cell of any corner
+        for (BBox box : getCell(b.getTopLeft())) {
+            if (box.bounds(b))
+                return true;
+        }
+        for (LatLon corner : b.points()) {
+            if (!contains(corner))
+                return false;
+        }
+        LatLon topLeft = b.getTopLeft();
+        LatLon bottomRight = b.getBottomRight();
+        return getAreaInternal().contains(topLeft.lon(), bottomRight.lat(),
+                bottomRight.lon() - topLeft.lon(), topLeft.lat() - bottomRight.lat());
+    }
+
+    private synchronized Area getAreaInternal() {
+        if (area == null) {
+            Area a = new Area();
+            for (Bounds b : bounds) {
+                a.add(new Area(b.asRect()));
+            }
+            area = a;
+        }
+        return area;
+    }
+
+    /**
+     * Replies the area as union of the bounds of all data sources.
+     *
+     * @return a new {@code Area} object, or null if there are no data sources
+     */
+    public Area getArea() {
+        if (bounds.isEmpty())
+            return null;
+        Area a = getAreaInternal();
+        synchronized (this) {
+            return new Area(a);
+        }
+    }
+}
@@ -95,7 +95,7 @@ public final class Node extends OsmPrimitive implements INode {
     }
 
     /**
-     * To be used only by Dataset.reindexNode
+     * To be used only by Dataset.reindexNode and DataSet.moveNodes
      */
     protected void setCoorInternal(LatLon coor, EastNorth eastNorth) {
         if (coor != null) {
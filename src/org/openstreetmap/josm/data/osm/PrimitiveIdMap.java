@@ -0,0 +1,314 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from primitive ids to values, with one open addressing table of primitive
+ * <code>long</code> keys per type of primitive. Lookups by id and type with
+ * {@link #get(long, OsmPrimitiveType)} allocate nothing, unlike a <code>HashMap</code>
+ * keyed by {@link SimplePrimitiveId}s, which makes a difference for the millions of
+ * lookups when parsing large files.
+ *
+ * Null values are not supported. Like <code>HashMap</code>, this map is not synchronized.
+ *
+ * @param <T> the type of the values
+ */
+public class PrimitiveIdMap<T> extends AbstractMap<PrimitiveId, T> {
+
+    private static final OsmPrimitiveType[] TYPES = OsmPrimitiveType.values();
+
+    /** one table for each type of primitive, created on demand */
+    private final Table[] tables = new Table[TYPES.length];
+    private int size;
+    private int modCount;
+
+    /**
+     * An open addressing table of <code>long</code> keys with linear probing.
+     */
+    private static final class Table {
+        private static final float LOAD_FACTOR = 0.6f;
+
+        long[] keys = new long[16];
+        /** the values, null for an empty slot */
+        Object[] values = new Object[16];
+        int size;
+
+        private static int hash(long key) {
+            int h = (int) (key ^ (key >>> 32));
+            return h * 0x9E3779B9;
+        }
+
+        int find(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key)
+                    return slot;
+                slot = (slot + 1) & mask;
+            }
+            return ~slot;
+        }
+
+        Object put(long key, Object value) {
+            int slot = find(key);
+            if (slot >= 0) {
+                Object old = values[slot];
+                values[slot] = value;
+                return old;
+            }
+            if (size + 1 > keys.length * LOAD_FACTOR) {
+                grow();
+                slot = find(key);
+            }
+            keys[~slot] = key;
+            values[~slot] = value;
+            size++;
+            return null;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Object[oldValues.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        Object remove(long key) {
+            int hole = find(key);
+            if (hole < 0)
+                return null;
+            Object old = values[hole];
+            // shift back the following entries of the probe sequence, see Storage.fillTheHole
+            int mask = keys.length - 1;
+            int slot = (hole + 1) & mask;
+            while (values[slot] != null) {
+                int right = hash(keys[slot]) & mask;
+                if ((slot < right && (right <= hole || hole <= slot)) || (right <= hole && hole <= slot)) {
+                    keys[hole] = keys[slot];
+                    values[hole] = values[slot];
+                    hole = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            values[hole] = null;
+            size--;
+            return old;
+        }
+    }
+
+    /**
+     * Replies the value for a primitive id.
+     *
+     * @param id the unique id of the primitive
+     * @param type the type of the primitive. Must not be null.
+     * @return the value, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long id, OsmPrimitiveType type) {
+        Table table = tables[type.ordinal()];
+        if (table == null)
+            return null;
+        int slot = table.find(id);
+        return slot < 0 ? null : (T) table.values[slot];
+    }
+
+    /**
+     * Replies true if there is a value for a primitive id.
+     *
+     * @param id the unique id of the primitive
+     * @param type the type of the primitive. Must not be null.
+     * @return true if there is a value for the primitive id
+     */
+    public boolean containsKey(long id, OsmPrimitiveType type) {
+        return get(id, type) != null;
+    }
+
+    /**
+     * Sets the value for a primitive id.
+     *
+     * @param id the unique id of the primitive
+     * @param type the type of the primitive. Must not be null.
+     * @param value the value. Must not be null.
+     * @return the previous value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public T put(long id, OsmPrimitiveType type, T value) {
+        if (value == null)
+            throw new IllegalArgumentException("null values are not supported");
+        Table table = tables[type.ordinal()];
+        if (table == null) {
+            table = tables[type.ordinal()] = new Table();
+        }
+        T old = (T) table.put(id, value);
+        if (old == null) {
+            size++;
+            modCount++;
+        }
+        return old;
+    }
+
+    /**
+     * Removes the value for a primitive id.
+     *
+     * @param id the unique id of the primitive
+     * @param type the type of the primitive. Must not be null.
+     * @return the removed value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public T remove(long id, OsmPrimitiveType type) {
+        Table table = tables[type.ordinal()];
+        if (table == null)
+            return null;
+        T old = (T) table.remove(id);
+        if (old != null) {
+            size--;
+            modCount++;
+        }
+        return old;
+    }
+
+    @Override
+    public T get(Object key) {
+        if (!(key instanceof PrimitiveId))
+            return null;
+        PrimitiveId id = (PrimitiveId) key;
+        return get(id.getUniqueId(), id.getType());
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public T put(PrimitiveId key, T value) {
+        return put(key.getUniqueId(), key.getType(), value);
+    }
+
+    @Override
+    public T remove(Object key) {
+        if (!(key instanceof PrimitiveId))
+            return null;
+        PrimitiveId id = (PrimitiveId) key;
+        return remove(id.getUniqueId(), id.getType());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = null;
+        }
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Iterates over the slots of all tables.
+     */
+    private abstract class SlotIterator<E> implements Iterator<E> {
+        private final int expectedModCount = modCount;
+        private int type = 0;
+        private int slot = 0;
+        private int lastType = -1;
+        private int lastSlot;
+
+        public boolean hasNext() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            while (type < tables.length) {
+                Table table = tables[type];
+                if (table != null) {
+                    while (slot < table.values.length) {
+                        if (table.values[slot] != null)
+                            return true;
+                        slot++;
+                    }
+                }
+                type++;
+                slot = 0;
+            }
+            return false;
+        }
+
+        public E next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            lastType = type;
+            lastSlot = slot++;
+            Table table = tables[lastType];
+            return get(TYPES[lastType], table.keys[lastSlot], table.values[lastSlot]);
+        }
+
+        protected abstract E get(OsmPrimitiveType type, long key, Object value);
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Override
+    public Collection<T> values() {
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return new SlotIterator<T>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    protected T get(OsmPrimitiveType type, long key, Object value) {
+                        return (T) value;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<PrimitiveId, T>> entrySet() {
+        return new AbstractSet<Entry<PrimitiveId, T>>() {
+            @Override
+            public Iterator<Entry<PrimitiveId, T>> iterator() {
+                return new SlotIterator<Entry<PrimitiveId, T>>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    protected Entry<PrimitiveId, T> get(OsmPrimitiveType type, long key, Object value) {
+                        return new SimpleImmutableEntry<PrimitiveId, T>(new SimplePrimitiveId(key, type), (T) value);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
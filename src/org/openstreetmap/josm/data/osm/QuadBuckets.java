@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.coor.QuadTiling;
@@ -253,26 +254,26 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
             //return search_bbox.bounds(coor));
             return o.getBBox().intersects(search_bbox);
         }
-        private void search_contents(BBox search_bbox, List<T> result)
+        /**
+         * Visits the content of this bucket that intersects the search bbox.
+         * @return false if the visitor stopped the search
+         */
+        private boolean search_contents(BBox search_bbox, SearchVisitor<? super T> visitor)
         {
-            /*if (debug) {
-                out("searching contents (size: " + content == null?"<null>":content.size() + ") for " + search_bbox);
-            }*/
             /*
              * It is possible that this was created in a split
              * but never got any content populated.
              */
             if (content == null)
-                return;
+                return true;
 
-            for (T o : content) {
-                if (matches(o, search_bbox)) {
-                    result.add(o);
-                }
+            // no iterator, this is one of the hottest loops when painting
+            for (int i = 0, n = content.size(); i < n; i++) {
+                T o = content.get(i);
+                if (matches(o, search_bbox) && !visitor.visit(o))
+                    return false;
             }
-            /*if (debug) {
-                out("done searching quad " + Long.toHexString(this.quad));
-            }*/
+            return true;
         }
         /*
          * This is stupid.  I tried to have a QBLeaf and QBBranch
@@ -395,45 +396,51 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
             findBucket(o.getBBox()).doAdd(o);
         }
 
-        private void search(BBox search_bbox, List<T> result)
+        /**
+         * Visits the content of this bucket and of all its children that intersects the search bbox.
+         * @return false if the visitor stopped the search
+         */
+        private boolean search(BBox search_bbox, SearchVisitor<? super T> visitor)
         {
-            /*if (debug) {
-                System.out.print("[" + level + "] qb bbox: " + this.bbox() + " ");
-            }*/
             if (!this.bbox().intersects(search_bbox))
-                /*if (debug) {
-                    out("miss " + Long.toHexString(this.quad));
-                    //QuadTiling.tile2xy(this.quad);
-                }*/
-                return;
-            else if (bbox().bounds(search_bbox)) {
-                search_cache = this;
-            }
+                return true;
 
-            if (this.hasContent()) {
-                search_contents(search_bbox, result);
-            }
-
-            /*if (debug) {
-                out("hit " + this.quads());
-                out("[" + level + "] not leaf, moving down");
-            }*/
+            if (this.hasContent() && !search_contents(search_bbox, visitor))
+                return false;
 
             //TODO Coincidence vector should be calculated here and only buckets that match search_bbox should be checked
 
-            if (nw != null) {
-                nw.search(search_bbox, result);
-            }
-            if (ne != null) {
-                ne.search(search_bbox, result);
-            }
-            if (se != null) {
-                se.search(search_bbox, result);
-            }
-            if (sw != null) {
-                sw.search(search_bbox, result);
+            return (nw == null || nw.search(search_bbox, visitor))
+                && (ne == null || ne.search(search_bbox, visitor))
+                && (se == null || se.search(search_bbox, visitor))
+                && (sw == null || sw.search(search_bbox, visitor));
+        }
+
+        /**
+         * Replies the deepest existing bucket below this one that bounds the search bbox,
+         * without creating any buckets.
+         */
+        QBLevel findCovering(BBox search_bbox) {
+            QBLevel level = this;
+            while (true) {
+                QBLevel child = level.coveringChild(search_bbox);
+                if (child == null)
+                    return level;
+                level = child;
             }
         }
+
+        private QBLevel coveringChild(BBox search_bbox) {
+            if (nw != null && nw.bbox().bounds(search_bbox))
+                return nw;
+            if (ne != null && ne.bbox().bounds(search_bbox))
+                return ne;
+            if (se != null && se.bbox().bounds(search_bbox))
+                return se;
+            if (sw != null && sw.bbox().bounds(search_bbox))
+                return sw;
+            return null;
+        }
         public String quads()
         {
             return Long.toHexString(quad);
@@ -500,7 +507,6 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
     }
 
     private QBLevel root;
-    private QBLevel search_cache;
     private int size;
 
     public QuadBuckets()
@@ -509,7 +515,6 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
     }
     public void clear()  {
         root = new QBLevel();
-        search_cache = null;
         size = 0;
         /*if (debug) {
             out("QuadBuckets() cleared: " + this);
@@ -559,7 +564,6 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
     }
     public boolean remove(Object o) {
         @SuppressWarnings("unchecked") T t = (T) o;
-        search_cache = null; // Search cache might point to one of removed buckets
         QBLevel bucket = root.findBucket(t.getBBox());
         if (bucket.remove_content(t)) {
             size--;
@@ -699,57 +703,198 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
             return true;
         return false;
     }
+    /**
+     * Receives the results of {@link QuadBuckets#search(BBox, SearchVisitor)}.
+     */
+    public interface SearchVisitor<T> {
+        /**
+         * @return true to continue the search, false to stop it
+         */
+        boolean visit(T o);
+    }
+
+    /**
+     * Visits all primitives whose bbox intersects the search bbox, in no particular order.
+     *
+     * All state of the search is kept on the stack, so any number of threads may search
+     * at the same time, as long as nobody modifies this object meanwhile. The search itself
+     * allocates nothing.
+     *
+     * @param search_bbox the search bbox
+     * @param visitor receives the results
+     */
+    public void search(BBox search_bbox, SearchVisitor<? super T> visitor) {
+        // Start at the deepest bucket that covers the whole search bbox, which cuts down
+        // the search cost on a real-life data set by about 25%.
+        QBLevel start = root.findCovering(search_bbox);
+        if (!start.search(search_bbox, visitor))
+            return;
+
+        // A way that spans this bucket may be stored in one
+        // of the nodes which is a parent of the start bucket
+        for (QBLevel level = start.parent; level != null; level = level.parent) {
+            if (!level.search_contents(search_bbox, visitor))
+                return;
+        }
+    }
+
+    /**
+     * Adds all primitives whose bbox intersects the search bbox to a collection, so the
+     * collection can be reused for several searches.
+     *
+     * @param search_bbox the search bbox
+     * @param result the collection the primitives are added to
+     * @see #search(BBox, SearchVisitor)
+     */
+    public void search(BBox search_bbox, final Collection<? super T> result) {
+        search(search_bbox, new SearchVisitor<T>() {
+            public boolean visit(T o) {
+                result.add(o);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Replies a new list of the primitives whose bbox intersects the search bbox.
+     * @see #search(BBox, SearchVisitor)
+     */
     public List<T> search(BBox search_bbox) {
-        /*if (debug) {
-            out("qb root search at " + search_bbox);
-            out("root bbox: " + root.bbox());
-        }*/
         List<T> ret = new ArrayList<T>();
-        // Doing this cuts down search cost on a real-life data
-        // set by about 25%
-        boolean cache_searches = true;
-        if (cache_searches) {
-            if (search_cache == null) {
-                search_cache = root;
-            }
-            // Walk back up the tree when the last
-            // search spot can not cover the current
-            // search
-            while (search_cache != null && !search_cache.bbox().bounds(search_bbox)) {
-                /*if (debug) {
-                    out("bbox: " + search_bbox);
-                    out("search_cache: " + search_cache + " level: " + search_cache.level);
-                    out("search_cache.bbox(): " + search_cache.bbox());
-                }*/
-                search_cache = search_cache.parent;
-                /*if (debug) {
-                    out("new search_cache: " + search_cache);
-                }*/
-            }
+        search(search_bbox, ret);
+        return ret;
+    }
 
-            if (search_cache == null) {
-                search_cache = root;
-                out("bbox: " + search_bbox + " is out of the world");
-            }
-        } else {
-            search_cache = root;
+    /**
+     * Replies the number of primitives whose bbox intersects the search bbox, without collecting them.
+     * @see #search(BBox, SearchVisitor)
+     */
+    public int count(BBox search_bbox) {
+        final int[] count = new int[1];
+        search(search_bbox, new SearchVisitor<T>() {
+            public boolean visit(T o) {
+                count[0]++;
+                return true;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Distance measure used by {@link QuadBuckets#searchNearest}.
+     */
+    public interface NearestMetric<T> {
+        /**
+         * Returns a lower bound of the squared distance of anything that lies within {@code bbox}.
+         */
+        double minDistanceSq(BBox bbox);
+
+        /**
+         * Returns the squared distance of the primitive, or {@link Double#POSITIVE_INFINITY}
+         * if it is not to be returned at all.
+         */
+        double distanceSq(T o);
+    }
+
+    /**
+     * Receives the results of {@link QuadBuckets#searchNearest} in order of increasing distance.
+     */
+    public interface NearestVisitor<T> {
+        /**
+         * @return true to continue with the next nearest primitive, false to stop the search
+         */
+        boolean visit(T o, double distanceSq);
+    }
+
+    private final class NearestCandidate implements Comparable<NearestCandidate> {
+        final QBLevel level;
+        final T primitive;
+        final double distanceSq;
+        final int seq;
+
+        NearestCandidate(QBLevel level, T primitive, double distanceSq, int seq) {
+            this.level = level;
+            this.primitive = primitive;
+            this.distanceSq = distanceSq;
+            this.seq = seq;
         }
 
-        // Save parent because search_cache might change during search call
-        QBLevel tmp = search_cache.parent;
+        public int compareTo(NearestCandidate other) {
+            if (distanceSq != other.distanceSq)
+                return distanceSq < other.distanceSq ? -1 : 1;
+            return seq - other.seq;
+        }
+    }
 
-        search_cache.search(search_bbox, ret);
+    /**
+     * Best-first search for the primitives nearest to some point. Buckets are expanded in order
+     * of their distance lower bound, so only buckets that can contain a result closer than the
+     * ones already found are looked at. The visitor gets the primitives in order of increasing
+     * distance and can stop the search at any time.
+     *
+     * Like {@link #search(BBox, SearchVisitor)}, this method does not modify any state of this object.
+     *
+     * @param search_bbox only primitives intersecting this bbox are considered
+     * @param metric the distance measure
+     * @param maxDistanceSq only primitives with a squared distance lower than this are visited
+     * @param visitor receives the results
+     */
+    public void searchNearest(BBox search_bbox, NearestMetric<? super T> metric, double maxDistanceSq, NearestVisitor<? super T> visitor) {
+        PriorityQueue<NearestCandidate> queue = new PriorityQueue<NearestCandidate>();
+        int seq = 0;
+        queue.add(new NearestCandidate(root, null, metric.minDistanceSq(root.bbox()), seq++));
+        NearestCandidate c;
+        while ((c = queue.poll()) != null) {
+            if (c.level == null) {
+                if (!visitor.visit(c.primitive, c.distanceSq))
+                    return;
+                continue;
+            }
+            QBLevel level = c.level;
+            if (level.content != null) {
+                for (T o : level.content) {
+                    if (!o.getBBox().intersects(search_bbox)) {
+                        continue;
+                    }
+                    double d = metric.distanceSq(o);
+                    if (d < maxDistanceSq) {
+                        queue.add(new NearestCandidate(null, o, d, seq++));
+                    }
+                }
+            }
+            seq = queueNearest(queue, level.nw, search_bbox, metric, maxDistanceSq, seq);
+            seq = queueNearest(queue, level.ne, search_bbox, metric, maxDistanceSq, seq);
+            seq = queueNearest(queue, level.se, search_bbox, metric, maxDistanceSq, seq);
+            seq = queueNearest(queue, level.sw, search_bbox, metric, maxDistanceSq, seq);
+        }
+    }
 
-        // A way that spans this bucket may be stored in one
-        // of the nodes which is a parent of the search cache
-        while (tmp != null) {
-            tmp.search_contents(search_bbox, ret);
-            tmp = tmp.parent;
+    private int queueNearest(PriorityQueue<NearestCandidate> queue, QBLevel child, BBox search_bbox,
+            NearestMetric<? super T> metric, double maxDistanceSq, int seq) {
+        if (child == null || !child.bbox().intersects(search_bbox))
+            return seq;
+        double d = metric.minDistanceSq(child.bbox());
+        if (d < maxDistanceSq) {
+            queue.add(new NearestCandidate(child, null, d, seq++));
         }
-        /*if (debug) {
-            out("search of QuadBuckets for " + search_bbox + " ret len: " + ret.size());
-        }*/
-        return ret;
+        return seq;
+    }
+
+    /**
+     * Returns the (at most) {@code k} primitives nearest to some point, nearest first.
+     * @see #searchNearest(BBox, NearestMetric, double, NearestVisitor)
+     */
+    public List<T> searchNearest(BBox search_bbox, NearestMetric<? super T> metric, final int k, double maxDistanceSq) {
+        final List<T> result = new ArrayList<T>(Math.min(k, 16));
+        if (k <= 0)
+            return result;
+        searchNearest(search_bbox, metric, maxDistanceSq, new NearestVisitor<T>() {
+            public boolean visit(T o, double distanceSq) {
+                result.add(o);
+                return result.size() < k;
+            }
+        });
+        return result;
     }
 
     public void printTree() {
@@ -27,6 +27,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A Set-like class that allows looking up equivalent preexising instance.
@@ -82,6 +83,12 @@ import java.util.Set;
  * assert things.get(new Thing(3)) == fk.get(3);
  * </pre></li>
  *
+ * <h2>Concurrency</h2>
+ * Modifications are synchronized. Lookups ({@link #get}, {@link #contains}, and
+ * <code>get</code> and <code>containsKey</code> of foreign key maps) and {@link #size} take no
+ * lock: they read optimistically and validate a stamp which changes with each modification,
+ * and only if a modification interfered they repeat the lookup holding the lock. So readers,
+ * e.g. the renderer and the validator, do not contend with each other.
  *
  * @author nenik
  */
@@ -99,11 +106,54 @@ public class Storage<T> extends AbstractSet<T> {
         }
     }
 
+    /**
+     * Like {@link Hash}, for looking up entries by a primitive <code>long</code> key without
+     * allocating a key object.
+     */
+    public interface LongHash<T> {
+        /**
+         * @param key the key
+         * @return the hashcode of the entries with this key, see {@link Hash#getHashCode}
+         */
+        int getHashCode(long key);
+
+        /**
+         * @param key the key
+         * @param t the entry
+         * @return true if the key identifies the entry
+         */
+        boolean equals(long key, T t);
+    }
+
+    /**
+     * A {@link LongHash} for looking up primitives of one type by their unique id, consistent
+     * with {@link PrimitiveIdHash}.
+     */
+    public static class PrimitiveIdLongHash implements LongHash<PrimitiveId> {
+        private final OsmPrimitiveType type;
+        private final int typeHash;
+
+        public PrimitiveIdLongHash(OsmPrimitiveType type) {
+            this.type = type;
+            this.typeHash = type.hashCode();
+        }
+
+        public int getHashCode(long key) {
+            return (int)key ^ typeHash;
+        }
+
+        public boolean equals(long key, PrimitiveId value) {
+            return value.getUniqueId() == key && value.getType() == type;
+        }
+    }
+
     private final Hash<? super T,? super T> hash;
-    private T[] data;
-    private int mask;
-    private int size;
+    /** the table; elements are accessed with volatile semantics, so optimistic reads can be validated */
+    private volatile AtomicReferenceArray<T> data;
+    private volatile int size;
     private transient volatile int modCount = 0;
+    /** incremented before and after each modification, so it is odd while the storage is modified */
+    private volatile int stamp;
     private float loadFactor = 0.6f;
     private static final int DEFAULT_CAPACITY = 16;
     private final boolean safeIterator;
@@ -149,24 +199,39 @@ public class Storage<T> extends AbstractSet<T> {
     public Storage(Hash<? super T, ? super T> ha, int capacity, boolean safeIterator) {
         this.hash = ha;
         int cap = 1 << (int)(Math.ceil(Math.log(capacity/loadFactor) / Math.log(2)));
-        @SuppressWarnings("unchecked") T[] newData = (T[]) new Object[cap];
-        data = newData;
-        mask = data.length - 1;
+        data = new AtomicReferenceArray<T>(cap);
         this.safeIterator = safeIterator;
     }
 
     private void copyArray() {
         if (arrayCopyNecessary) {
-            @SuppressWarnings("unchecked") T[] newData = (T[]) new Object[data.length];
-            System.arraycopy(data, 0, newData, 0, data.length);
+            AtomicReferenceArray<T> d = data;
+            AtomicReferenceArray<T> newData = new AtomicReferenceArray<T>(d.length());
+            for (int i = 0; i < d.length(); i++) {
+                newData.set(i, d.get(i));
+            }
             data = newData;
             arrayCopyNecessary = false;
         }
     }
 
+    /**
+     * Starts a modification, must be called holding the lock.
+     */
+    private void beginWrite() {
+        stamp++;
+    }
+
+    /**
+     * Ends a modification, must be called holding the lock.
+     */
+    private void endWrite() {
+        stamp++;
+    }
+
     // --------------- Collection implementation ------------------------
     @Override
-    public synchronized int size() {
+    public int size() {
         return size;
     }
 
@@ -181,10 +246,9 @@ public class Storage<T> extends AbstractSet<T> {
     }
 
     @Override
-    public synchronized boolean contains(Object o) {
+    public boolean contains(Object o) {
         @SuppressWarnings("unchecked") T t = (T) o;
-        int bucket = getBucket(hash, t);
-        return bucket >= 0;
+        return get(t) != null;
     }
 
     @Override
@@ -202,11 +266,17 @@ public class Storage<T> extends AbstractSet<T> {
 
     @Override
     public synchronized void clear() {
-        copyArray();
-        modCount++;
-        size = 0;
-        for (int i = 0; i<data.length; i++) {
-            data[i] = null;
+        beginWrite();
+        try {
+            copyArray();
+            modCount++;
+            size = 0;
+            AtomicReferenceArray<T> d = data;
+            for (int i = 0; i<d.length(); i++) {
+                d.set(i, null);
+            }
+        } finally {
+            endWrite();
         }
     }
 
@@ -222,49 +292,81 @@ public class Storage<T> extends AbstractSet<T> {
     // ----------------- Extended API ----------------------------
 
     public synchronized T put(T t) {
-        copyArray();
-        modCount++;
-        ensureSpace();
+        beginWrite();
+        try {
+            copyArray();
+            modCount++;
+            ensureSpace();
+
+            AtomicReferenceArray<T> d = data;
+            int bucket = getBucket(d, hash, t);
+            if (bucket < 0) {
+                size++;
+                bucket = ~bucket;
+                assert d.get(bucket) == null;
+            }
 
-        int bucket = getBucket(hash, t);
-        if (bucket < 0) {
-            size++;
-            bucket = ~bucket;
-            assert data[bucket] == null;
+            return d.getAndSet(bucket, t);
+        } finally {
+            endWrite();
         }
+    }
 
-        T old = data[bucket];
-        data[bucket] = t;
-
-        return old;
+    public T get(T t) {
+        return lookup(hash, t);
     }
 
-    public synchronized T get(T t) {
-        int bucket = getBucket(hash, t);
-        return bucket < 0 ? null : data[bucket];
+    /**
+     * Looks up an entry by a <code>long</code> key, without allocating a key object.
+     *
+     * @param key the key
+     * @param h the hash resolving the key, consistent with the hash of this storage
+     * @return the entry, or null if there is none
+     */
+    public T get(long key, LongHash<? super T> h) {
+        int s = stamp;
+        if ((s & 1) == 0) {
+            T result = find(data, h, key);
+            if (stamp == s)
+                return result;
+        }
+        synchronized (this) {
+            return find(data, h, key);
+        }
     }
 
     public synchronized T putUnique(T t) {
-        copyArray();
-        modCount++;
-        ensureSpace();
+        beginWrite();
+        try {
+            copyArray();
+            modCount++;
+            ensureSpace();
+
+            AtomicReferenceArray<T> d = data;
+            int bucket = getBucket(d, hash, t);
+            if (bucket < 0) { // unique
+                size++;
+                assert d.get(~bucket) == null;
+                d.set(~bucket, t);
+                return t;
+            }
 
-        int bucket = getBucket(hash, t);
-        if (bucket < 0) { // unique
-            size++;
-            assert data[~bucket] == null;
-            data[~bucket] = t;
-            return t;
+            return d.get(bucket);
+        } finally {
+            endWrite();
         }
-
-        return data[bucket];
     }
 
     public synchronized T removeElem(T t) {
-        copyArray();
-        modCount++;
-        int bucket = getBucket(hash, t);
-        return bucket < 0 ? null : doRemove(bucket);
+        beginWrite();
+        try {
+            copyArray();
+            modCount++;
+            int bucket = getBucket(data, hash, t);
+            return bucket < 0 ? null : doRemove(bucket);
+        } finally {
+            endWrite();
+        }
     }
 
     public <K> Map<K,T> foreignKey(Hash<K,? super T> h) {
@@ -276,11 +378,31 @@ public class Storage<T> extends AbstractSet<T> {
     /**
      * Additional mixing of hash
      */
-    private int rehash(int h) {
+    private static int rehash(int h) {
         //return 54435761*h;
         return 1103515245*h >> 2;
     }
 
+    /**
+     * Looks up an entry, first optimistically without lock, then, if the storage has been
+     * modified meanwhile, holding the lock.
+     */
+    private <K> T lookup(Hash<K,? super T> ha, K key) {
+        int s = stamp;
+        if ((s & 1) == 0) {
+            AtomicReferenceArray<T> d = data;
+            int bucket = getBucket(d, ha, key);
+            T result = bucket < 0 ? null : d.get(bucket);
+            if (stamp == s)
+                return result;
+        }
+        synchronized (this) {
+            AtomicReferenceArray<T> d = data;
+            int bucket = getBucket(d, ha, key);
+            return bucket < 0 ? null : d.get(bucket);
+        }
+    }
+
     /**
      * Finds a bucket for given key.
      *
@@ -288,11 +410,12 @@ public class Storage<T> extends AbstractSet<T> {
      * @return the bucket equivalent to the key or -(bucket) as an empty slot
      * where such an entry can be stored.
      */
-    private <K> int getBucket(Hash<K,? super T> ha, K key) {
+    private static <K,T> int getBucket(AtomicReferenceArray<T> d, Hash<K,? super T> ha, K key) {
         T entry;
+        int mask = d.length() - 1;
         int hcode = rehash(ha.getHashCode(key));
         int bucket = hcode & mask;
-        while ((entry = data[bucket]) != null) {
+        while ((entry = d.get(bucket)) != null) {
             if (ha.equals(key, entry))
                 return bucket;
             bucket = (bucket+1) & mask;
@@ -300,8 +423,23 @@ public class Storage<T> extends AbstractSet<T> {
         return ~bucket;
     }
 
+    /**
+     * Finds the entry for a <code>long</code> key.
+     */
+    private static <T> T find(AtomicReferenceArray<T> d, LongHash<? super T> ha, long key) {
+        T entry;
+        int mask = d.length() - 1;
+        int bucket = rehash(ha.getHashCode(key)) & mask;
+        while ((entry = d.get(bucket)) != null) {
+            if (ha.equals(key, entry))
+                return entry;
+            bucket = (bucket+1) & mask;
+        }
+        return null;
+    }
+
     private T doRemove(int slot) {
-        T t = data[slot];
+        T t = data.get(slot);
         assert t != null;
 
         fillTheHole(slot); // fill the hole (or null it)
@@ -310,10 +448,12 @@ public class Storage<T> extends AbstractSet<T> {
     }
 
     private void fillTheHole(int hole) {
+        AtomicReferenceArray<T> d = data;
+        int mask = d.length() - 1;
         int bucket = (hole+1) & mask;
         T entry;
 
-        while ((entry = data[bucket]) != null) {
+        while ((entry = d.get(bucket)) != null) {
             int right = rehash(hash.getHashCode(entry)) & mask;
             // if the entry should be in <hole+1,bucket-1> (circular-wise)
             // we can't move it. The move can be proved safe otherwise,
@@ -321,34 +461,35 @@ public class Storage<T> extends AbstractSet<T> {
             if ((bucket < right && (right <= hole || hole <= bucket)) ||
                     (right <=hole && hole <= bucket)) {
 
-                data[hole] = data[bucket];
+                d.set(hole, entry);
                 hole = bucket;
             }
             bucket = (bucket+1) & mask;
         }
 
         // no entry belongs here, just null out the slot
-        data[hole] = null;
+        d.set(hole, null);
     }
 
     private void ensureSpace() {
-        if (size > data.length*loadFactor) { // rehash
-            @SuppressWarnings("unchecked") T[] big = (T[]) new Object[data.length * 2];
-            int nMask = big.length - 1;
+        AtomicReferenceArray<T> d = data;
+        if (size > d.length()*loadFactor) { // rehash
+            AtomicReferenceArray<T> big = new AtomicReferenceArray<T>(d.length() * 2);
+            int nMask = big.length() - 1;
 
-            for (T o : data) {
+            for (int i = 0; i < d.length(); i++) {
+                T o = d.get(i);
                 if (o == null) {
                     continue;
                 }
                 int bucket = rehash(hash.getHashCode(o)) & nMask;
-                while (big[bucket] != null) {
+                while (big.get(bucket) != null) {
                     bucket = (bucket+1) & nMask;
                 }
-                big[bucket] = o;
+                big.set(bucket, o);
             }
 
             data = big;
-            mask = nMask;
         }
     }
 
@@ -397,9 +538,7 @@ public class Storage<T> extends AbstractSet<T> {
         }
 
         public boolean containsKey(Object o) {
-            @SuppressWarnings("unchecked") K key = (K) o;
-            int bucket = getBucket(fHash, key);
-            return bucket >= 0;
+            return get(o) != null;
         }
 
         public boolean containsValue(Object value) {
@@ -408,8 +547,7 @@ public class Storage<T> extends AbstractSet<T> {
 
         public T get(Object o) {
             @SuppressWarnings("unchecked") K key = (K) o;
-            int bucket = getBucket(fHash, key);
-            return bucket < 0 ? null : data[bucket];
+            return lookup(fHash, key);
         }
 
         public T put(K key, T value) {
@@ -418,11 +556,18 @@ public class Storage<T> extends AbstractSet<T> {
         }
 
         public T remove(Object o) {
-            modCount++;
             @SuppressWarnings("unchecked") K key = (K) o;
-            int bucket = getBucket(fHash, key);
-
-            return bucket < 0 ? null : doRemove(bucket);
+            synchronized (Storage.this) {
+                beginWrite();
+                try {
+                    copyArray();
+                    modCount++;
+                    int bucket = getBucket(data, fHash, key);
+                    return bucket < 0 ? null : doRemove(bucket);
+                } finally {
+                    endWrite();
+                }
+            }
         }
 
         public void putAll(Map<? extends K, ? extends T> m) {
@@ -453,21 +598,21 @@ public class Storage<T> extends AbstractSet<T> {
     }
 
     private final class SafeReadonlyIter implements Iterator<T> {
-        final T[] data;
+        final AtomicReferenceArray<T> data;
         int slot = 0;
 
-        SafeReadonlyIter(T[] data) {
+        SafeReadonlyIter(AtomicReferenceArray<T> data) {
             this.data = data;
         }
 
         public boolean hasNext() {
             align();
-            return slot < data.length;
+            return slot < data.length();
         }
 
         public T next() {
             if (!hasNext()) throw new NoSuchElementException();
-            return data[slot++];
+            return data.get(slot++);
         }
 
         public void remove() {
@@ -475,7 +620,7 @@ public class Storage<T> extends AbstractSet<T> {
         }
 
         private void align() {
-            while (slot < data.length && data[slot] == null) {
+            while (slot < data.length() && data.get(slot) == null) {
                 slot++;
             }
         }
@@ -493,19 +638,26 @@ public class Storage<T> extends AbstractSet<T> {
 
         public boolean hasNext() {
             align();
-            return slot < data.length;
+            return slot < data.length();
         }
 
         public T next() {
             if (!hasNext()) throw new NoSuchElementException();
             removeSlot = slot;
-            return data[slot++];
+            return data.get(slot++);
         }
 
         public void remove() {
             if (removeSlot == -1) throw new IllegalStateException();
 
-            doRemove(removeSlot);
+            synchronized (Storage.this) {
+                beginWrite();
+                try {
+                    doRemove(removeSlot);
+                } finally {
+                    endWrite();
+                }
+            }
             slot = removeSlot; // some entry might have been relocated here
             removeSlot = -1;
         }
@@ -513,7 +665,8 @@ public class Storage<T> extends AbstractSet<T> {
         private void align() {
             if (mods != modCount)
                 throw new ConcurrentModificationException();
-            while (slot < data.length && data[slot] == null) {
+            AtomicReferenceArray<T> d = data;
+            while (slot < d.length() && d.get(slot) == null) {
                 slot++;
             }
         }
@@ -11,14 +11,28 @@ import org.openstreetmap.josm.data.osm.OsmPrimitive;
 public class DataChangedEvent extends AbstractDatasetChangedEvent {
 
     private final List<AbstractDatasetChangedEvent> events;
+    private final DatasetChanges changes;
 
     public DataChangedEvent(DataSet dataSet, List<AbstractDatasetChangedEvent> events) {
         super(dataSet);
         this.events = events;
+        this.changes = null;
+    }
+
+    /**
+     * Creates an event for changes too many to keep the single events.
+     *
+     * @param dataSet the dataset
+     * @param changes the coalesced changes
+     */
+    public DataChangedEvent(DataSet dataSet, DatasetChanges changes) {
+        super(dataSet);
+        this.events = null;
+        this.changes = changes;
     }
 
     public DataChangedEvent(DataSet dataSet) {
-        this(dataSet, null);
+        this(dataSet, (List<AbstractDatasetChangedEvent>) null);
     }
 
     @Override
@@ -47,4 +61,25 @@ public class DataChangedEvent extends AbstractDatasetChangedEvent {
         return events;
     }
 
+    /**
+     * Replies the coalesced changes of this event. Unlike {@link #getEvents()} they are also
+     * known if there were too many events to keep them, so listeners can update incrementally.
+     * The returned object must not be modified.
+     *
+     * @return the changes, or null if they are unknown and everything may have changed
+     */
+    public DatasetChanges getChanges() {
+        if (changes != null)
+            return changes;
+        if (events == null)
+            return null;
+        DatasetChanges result = new DatasetChanges();
+        for (AbstractDatasetChangedEvent event : events) {
+            if (event instanceof DataChangedEvent && ((DataChangedEvent) event).getChanges() == null)
+                return null;
+            result.add(event);
+        }
+        return result;
+    }
+
 }
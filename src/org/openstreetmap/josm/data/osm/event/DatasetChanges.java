@@ -0,0 +1,194 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.event;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent.DatasetEventType;
+
+/**
+ * The coalesced changes of a number of dataset events: for each kind of change the set of
+ * primitives it applied to, without the order of the events and without any size limit.
+ *
+ * Kinds of change are identified by the type of the event: {@link DatasetEventType#PRIMITIVES_ADDED},
+ * {@link DatasetEventType#PRIMITIVES_REMOVED}, {@link DatasetEventType#TAGS_CHANGED},
+ * {@link DatasetEventType#NODE_MOVED}, {@link DatasetEventType#WAY_NODES_CHANGED},
+ * {@link DatasetEventType#RELATION_MEMBERS_CHANGED} and {@link DatasetEventType#CHANGESET_ID_CHANGED}.
+ * A primitive may be contained in several kinds, e.g. if it was added and removed again, so
+ * listeners have to look at the current state of the primitives.
+ *
+ * Primitives are compared by identity, as their ids may change.
+ */
+public class DatasetChanges {
+
+    private final Map<DatasetEventType, Set<OsmPrimitive>> changes =
+        new EnumMap<DatasetEventType, Set<OsmPrimitive>>(DatasetEventType.class);
+
+    /**
+     * Creates empty changes.
+     */
+    public DatasetChanges() {
+    }
+
+    /**
+     * Creates a copy of other changes.
+     *
+     * @param other the changes to copy
+     */
+    public DatasetChanges(DatasetChanges other) {
+        addAll(other);
+    }
+
+    /**
+     * Replies the changes made by an event.
+     *
+     * @param event the event
+     * @return the changes, or null if the event is a {@link DataChangedEvent} without known changes,
+     * i.e. everything may have changed
+     */
+    public static DatasetChanges of(AbstractDatasetChangedEvent event) {
+        if (event instanceof DataChangedEvent)
+            return ((DataChangedEvent) event).getChanges();
+        DatasetChanges changes = new DatasetChanges();
+        changes.add(event);
+        return changes;
+    }
+
+    private Set<OsmPrimitive> getOrCreate(DatasetEventType type) {
+        Set<OsmPrimitive> set = changes.get(type);
+        if (set == null) {
+            set = Collections.newSetFromMap(new IdentityHashMap<OsmPrimitive, Boolean>());
+            changes.put(type, set);
+        }
+        return set;
+    }
+
+    /**
+     * Adds the changes made by an event.
+     *
+     * @param event the event
+     * @throws IllegalArgumentException if the event is a {@link DataChangedEvent} without known changes
+     */
+    public void add(AbstractDatasetChangedEvent event) {
+        if (event instanceof DataChangedEvent) {
+            DatasetChanges other = ((DataChangedEvent) event).getChanges();
+            if (other == null)
+                throw new IllegalArgumentException("changes of " + event + " are unknown");
+            addAll(other);
+        } else {
+            add(event.getType(), event.getPrimitives());
+        }
+    }
+
+    /**
+     * Adds a change of the given kind to a number of primitives.
+     *
+     * @param type the kind of change
+     * @param primitives the changed primitives
+     */
+    public void add(DatasetEventType type, Collection<? extends OsmPrimitive> primitives) {
+        if (!primitives.isEmpty()) {
+            getOrCreate(type).addAll(primitives);
+        }
+    }
+
+    /**
+     * Adds other changes.
+     *
+     * @param other the changes to add
+     */
+    public void addAll(DatasetChanges other) {
+        for (Map.Entry<DatasetEventType, Set<OsmPrimitive>> e : other.changes.entrySet()) {
+            getOrCreate(e.getKey()).addAll(e.getValue());
+        }
+    }
+
+    /**
+     * Replies the primitives changed by a kind of change.
+     *
+     * @param type the kind of change
+     * @return the unmodifiable set of primitives, empty if there is none
+     */
+    public Set<OsmPrimitive> getPrimitives(DatasetEventType type) {
+        Set<OsmPrimitive> set = changes.get(type);
+        return set == null ? Collections.<OsmPrimitive>emptySet() : Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Replies the primitives of a given type changed by a kind of change.
+     *
+     * @param type the kind of change
+     * @param clazz the type of the primitives, e.g. <code>Relation.class</code>
+     * @return the primitives
+     */
+    public <T extends OsmPrimitive> List<T> getPrimitives(DatasetEventType type, Class<T> clazz) {
+        return OsmPrimitive.getFilteredList(getPrimitives(type), clazz);
+    }
+
+    /**
+     * Replies all changed primitives, whatever the kind of change.
+     *
+     * @return the set of primitives
+     */
+    public Set<OsmPrimitive> getPrimitives() {
+        if (changes.size() == 1)
+            return getPrimitives(changes.keySet().iterator().next());
+        Set<OsmPrimitive> all = Collections.newSetFromMap(new IdentityHashMap<OsmPrimitive, Boolean>());
+        for (Set<OsmPrimitive> set : changes.values()) {
+            all.addAll(set);
+        }
+        return all;
+    }
+
+    /**
+     * Replies true if there is a change of the given kind.
+     *
+     * @param type the kind of change
+     * @return true if there is a change of the given kind
+     */
+    public boolean contains(DatasetEventType type) {
+        return changes.containsKey(type);
+    }
+
+    /**
+     * Replies true if there is a change of the given kind to a primitive of the given type.
+     *
+     * @param type the kind of change
+     * @param clazz the type of the primitives, e.g. <code>Relation.class</code>
+     * @return true if there is such a change
+     */
+    public boolean contains(DatasetEventType type, Class<? extends OsmPrimitive> clazz) {
+        for (OsmPrimitive p : getPrimitives(type)) {
+            if (clazz.isInstance(p))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replies true if nothing has changed.
+     *
+     * @return true if nothing has changed
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (Map.Entry<DatasetEventType, Set<OsmPrimitive>> e : changes.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(e.getKey()).append('=').append(e.getValue().size());
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -125,6 +125,23 @@ public class DatasetEventManager implements MapView.EditLayerChangeListener, Lis
         SwingUtilities.invokeLater(edtRunnable);
     }
 
+    /**
+     * Merges the changes of an event into a consolidated event. The result carries only the
+     * coalesced changes, or no changes at all if one of the events changed the dataset completely.
+     */
+    private static AbstractDatasetChangedEvent mergeChanges(DataSet dataSet, AbstractDatasetChangedEvent consolidatedEvent,
+            AbstractDatasetChangedEvent event) {
+        DatasetChanges changes = DatasetChanges.of(event);
+        if (changes == null)
+            return event; // Dataset was completely changed, we can ignore older events
+        DatasetChanges consolidatedChanges = DatasetChanges.of(consolidatedEvent);
+        if (consolidatedChanges == null)
+            return consolidatedEvent;
+        DatasetChanges merged = new DatasetChanges(consolidatedChanges);
+        merged.addAll(changes);
+        return new DataChangedEvent(dataSet, merged);
+    }
+
     private final Runnable edtRunnable = new Runnable() {
         public void run() {
             while (!eventsInEDT.isEmpty()) {
@@ -151,7 +168,8 @@ public class DatasetEventManager implements MapView.EditLayerChangeListener, Lis
                         // DataChangeEvent can contains other events, so it gets special handling
                         DataChangedEvent dataEvent = (DataChangedEvent) event;
                         if (dataEvent.getEvents() == null) {
-                            consolidatedEvent = dataEvent; // Dataset was completely changed, we can ignore older events
+                            // Too many events to keep them, only their changes are known (or the dataset was completely changed)
+                            consolidatedEvent = consolidatedEvent == null ? dataEvent : mergeChanges(dataSet, consolidatedEvent, dataEvent);
                         } else {
                             if (consolidatedEvent == null) {
                                 consolidatedEvent = new DataChangedEvent(dataSet, dataEvent.getEvents());
@@ -159,6 +177,8 @@ public class DatasetEventManager implements MapView.EditLayerChangeListener, Lis
                                 List<AbstractDatasetChangedEvent> evts = ((DataChangedEvent) consolidatedEvent).getEvents();
                                 if (evts != null) {
                                     evts.addAll(dataEvent.getEvents());
+                                } else {
+                                    consolidatedEvent = mergeChanges(dataSet, consolidatedEvent, dataEvent);
                                 }
                             } else {
                                 AbstractDatasetChangedEvent oldConsolidateEvent = consolidatedEvent;
@@ -174,10 +194,12 @@ public class DatasetEventManager implements MapView.EditLayerChangeListener, Lis
                             List<AbstractDatasetChangedEvent> evs = ((DataChangedEvent) consolidatedEvent).getEvents();
                             if (evs != null) {
                                 evs.add(event);
+                            } else {
+                                consolidatedEvent = mergeChanges(dataSet, consolidatedEvent, event);
                             }
                         } else {
                             consolidatedEvent = new DataChangedEvent(dataSet,
-                                    new ArrayList<AbstractDatasetChangedEvent>(Arrays.asList(consolidatedEvent)));
+                                    new ArrayList<AbstractDatasetChangedEvent>(Arrays.asList(consolidatedEvent, event)));
                         }
 
                     }
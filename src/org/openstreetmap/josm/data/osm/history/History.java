@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
@@ -35,6 +36,8 @@ public class History{
 
     /** the list of object snapshots */
     private ArrayList<HistoryOsmPrimitive> versions;
+    /** the snapshots by version, built on first use */
+    private HashMap<Long, HistoryOsmPrimitive> byVersion;
     /** the object id */
     private final long id;
     private final OsmPrimitiveType type;
@@ -164,11 +167,7 @@ public class History{
     }
 
     public boolean contains(long version){
-        for (HistoryOsmPrimitive primitive: versions) {
-            if (primitive.matches(id,version))
-                return true;
-        }
-        return false;
+        return getByVersion(version) != null;
     }
 
     /**
@@ -178,12 +177,16 @@ public class History{
      * @param version the version
      * @return the history primitive with version <code>version</code>
      */
-    public HistoryOsmPrimitive getByVersion(long version) {
-        for (HistoryOsmPrimitive primitive: versions) {
-            if (primitive.matches(id,version))
-                return primitive;
+    public synchronized HistoryOsmPrimitive getByVersion(long version) {
+        if (byVersion == null) {
+            byVersion = new HashMap<Long, HistoryOsmPrimitive>(versions.size() * 2);
+            for (HistoryOsmPrimitive primitive: versions) {
+                if (primitive.matches(id) && !byVersion.containsKey(primitive.getVersion())) {
+                    byVersion.put(primitive.getVersion(), primitive);
+                }
+            }
         }
-        return null;
+        return byVersion.get(version);
     }
 
     public HistoryOsmPrimitive getByDate(Date date) {
@@ -208,15 +211,23 @@ public class History{
     }
 
     public HistoryOsmPrimitive getEarliest() {
-        if (isEmpty())
-            return null;
-        return sortAscending().versions.get(0);
+        HistoryOsmPrimitive earliest = null;
+        for (HistoryOsmPrimitive primitive: versions) {
+            if (earliest == null || primitive.compareTo(earliest) < 0) {
+                earliest = primitive;
+            }
+        }
+        return earliest;
     }
 
     public HistoryOsmPrimitive getLatest() {
-        if (isEmpty())
-            return null;
-        return sortDescending().versions.get(0);
+        HistoryOsmPrimitive latest = null;
+        for (HistoryOsmPrimitive primitive: versions) {
+            if (latest == null || primitive.compareTo(latest) > 0) {
+                latest = primitive;
+            }
+        }
+        return latest;
     }
 
     public int getNumVersions() {
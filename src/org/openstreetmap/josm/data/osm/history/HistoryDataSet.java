@@ -1,15 +1,23 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.data.osm.history;
 
+import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
 import org.openstreetmap.josm.data.osm.PrimitiveId;
 import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.gui.MapView;
 import org.openstreetmap.josm.gui.MapView.LayerChangeListener;
 import org.openstreetmap.josm.gui.layer.Layer;
@@ -18,9 +26,17 @@ import org.openstreetmap.josm.tools.CheckParameterUtil;
 /**
  * A data set holding histories of OSM primitives.
  *
- *
+ * The unique instance keeps the histories in a {@link HistoryStore} on disk, if
+ * {@link #PROP_DISK_BACKED} is set, and only the most recently used histories in memory.
+ * The versions of a primitive are read from the store when its history is requested.
+ * If the store fails, the affected histories are dropped, as if they were never loaded.
  */
 public class HistoryDataSet implements LayerChangeListener{
+    /** Keeps the histories of the unique instance on disk */
+    public static final BooleanProperty PROP_DISK_BACKED = new BooleanProperty("history.disk-backed", true);
+    /** The number of histories kept in memory by a disk backed data set */
+    public static final IntegerProperty PROP_CACHE_SIZE = new IntegerProperty("history.cache-size", 100);
+
     /** the unique instance */
     private static HistoryDataSet historyDataSet;
 
@@ -31,18 +47,71 @@ public class HistoryDataSet implements LayerChangeListener{
      */
     public static HistoryDataSet getInstance() {
         if (historyDataSet == null) {
-            historyDataSet = new HistoryDataSet();
+            HistoryStore store = null;
+            if (PROP_DISK_BACKED.get()) {
+                try {
+                    store = HistoryStore.createTemporary();
+                    final HistoryStore s = store;
+                    // close the file, so it can be deleted
+                    Runtime.getRuntime().addShutdownHook(new Thread("history-store-close") {
+                        @Override
+                        public void run() {
+                            s.close();
+                        }
+                    });
+                } catch (IOException e) {
+                    System.err.println("Warning: failed to create history store, keeping histories in memory: "+e.getMessage());
+                }
+            }
+            historyDataSet = new HistoryDataSet(store);
             MapView.addLayerChangeListener(historyDataSet);
         }
         return  historyDataSet;
     }
 
-    /** the history data */
-    private HashMap<PrimitiveId, ArrayList<HistoryOsmPrimitive>> data;
+    /**
+     * The most recently used histories of a disk backed data set.
+     */
+    private static class VersionCache extends LinkedHashMap<PrimitiveId, List<HistoryOsmPrimitive>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        VersionCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PrimitiveId, List<HistoryOsmPrimitive>> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /** the history data, all of it if there is no store, otherwise the most recently used part */
+    private Map<PrimitiveId, List<HistoryOsmPrimitive>> data;
+    /** the store with all history data, or null */
+    private final HistoryStore store;
     private CopyOnWriteArrayList<HistoryDataSetListener> listeners;
 
+    /**
+     * Creates a history data set kept in memory.
+     */
     public HistoryDataSet() {
-        data = new HashMap<PrimitiveId, ArrayList<HistoryOsmPrimitive>>();
+        this(null);
+    }
+
+    /**
+     * Creates a history data set.
+     * @param store the store to keep the histories in, or null to keep them in memory
+     */
+    HistoryDataSet(HistoryStore store) {
+        this.store = store;
+        if (store == null) {
+            data = new HashMap<PrimitiveId, List<HistoryOsmPrimitive>>();
+        } else {
+            data = new VersionCache(Math.max(1, PROP_CACHE_SIZE.get()));
+        }
         listeners = new CopyOnWriteArrayList<HistoryDataSetListener>();
     }
 
@@ -86,7 +155,7 @@ public class HistoryDataSet implements LayerChangeListener{
             throw new IllegalArgumentException(MessageFormat.format("Parameter ''{0}'' > 0 expected, got {1}", "version", version));
 
         SimplePrimitiveId pid = new SimplePrimitiveId(id, type);
-        ArrayList<HistoryOsmPrimitive> versions = data.get(pid);
+        List<HistoryOsmPrimitive> versions = getVersions(pid);
         if (versions == null)
             return null;
         for (HistoryOsmPrimitive primitive: versions) {
@@ -103,10 +172,17 @@ public class HistoryDataSet implements LayerChangeListener{
      */
     public void put(HistoryOsmPrimitive primitive) {
         PrimitiveId id = new SimplePrimitiveId(primitive.getId(), primitive.getType());
-        if (data.get(id) == null) {
-            data.put(id, new ArrayList<HistoryOsmPrimitive>());
+        synchronized (this) {
+            List<HistoryOsmPrimitive> versions = getVersions(id);
+            if (versions == null) {
+                versions = new ArrayList<HistoryOsmPrimitive>();
+            } else if (store != null) {
+                // the cached list may be shared with histories handed out before
+                versions = new ArrayList<HistoryOsmPrimitive>(versions);
+            }
+            versions.add(primitive);
+            setVersions(id, versions);
         }
-        data.get(id).add(primitive);
         fireHistoryUpdated(id);
     }
 
@@ -140,7 +216,7 @@ public class HistoryDataSet implements LayerChangeListener{
      */
     public History getHistory(PrimitiveId pid) throws IllegalArgumentException{
         CheckParameterUtil.ensureParameterNotNull(pid, "pid");
-        ArrayList<HistoryOsmPrimitive> versions = data.get(pid);
+        List<HistoryOsmPrimitive> versions = getVersions(pid);
         if (versions == null)
             return null;
         return new History(pid.getUniqueId(), pid.getType(), versions);
@@ -154,12 +230,74 @@ public class HistoryDataSet implements LayerChangeListener{
     public void mergeInto(HistoryDataSet other) {
         if (other == null)
             return;
-        for (PrimitiveId id : other.data.keySet()) {
-            this.data.put(id, other.data.get(id));
+        synchronized (this) {
+            for (PrimitiveId id : other.getIds()) {
+                List<HistoryOsmPrimitive> versions = other.getVersions(id);
+                if (versions != null) {
+                    setVersions(id, versions);
+                }
+            }
         }
         fireHistoryUpdated(null);
     }
 
+    /**
+     * Replies the ids of the primitives with a history in this data set.
+     *
+     * @return the ids of the primitives with a history in this data set
+     */
+    public synchronized Set<PrimitiveId> getIds() {
+        if (store == null)
+            return new HashSet<PrimitiveId>(data.keySet());
+        return store.getIds();
+    }
+
+    /**
+     * Replies the versions of a primitive, read from the store if necessary.
+     * The list must not be modified.
+     */
+    private synchronized List<HistoryOsmPrimitive> getVersions(PrimitiveId pid) {
+        List<HistoryOsmPrimitive> versions = data.get(pid);
+        if (versions != null || store == null)
+            return versions;
+        try {
+            versions = store.read(pid);
+        } catch (IOException e) {
+            System.err.println("Warning: failed to read history of "+pid+": "+e.getMessage());
+            store.remove(pid);
+            return null;
+        }
+        if (versions != null) {
+            data.put(pid, versions);
+        }
+        return versions;
+    }
+
+    private synchronized void setVersions(PrimitiveId pid, List<HistoryOsmPrimitive> versions) {
+        if (store != null) {
+            try {
+                store.write(pid, versions);
+            } catch (IOException e) {
+                System.err.println("Warning: failed to store history of "+pid+": "+e.getMessage());
+            }
+        }
+        data.put(pid, versions);
+    }
+
+    /**
+     * Removes all histories.
+     */
+    private synchronized void clear() {
+        data.clear();
+        if (store != null) {
+            try {
+                store.clear();
+            } catch (IOException e) {
+                System.err.println("Warning: failed to clear history store: "+e.getMessage());
+            }
+        }
+    }
+
     /* ------------------------------------------------------------------------------ */
     /* interface LayerChangeListener                                                  */
     /* ------------------------------------------------------------------------------ */
@@ -168,7 +306,7 @@ public class HistoryDataSet implements LayerChangeListener{
     public void layerRemoved(Layer oldLayer) {
         if (Main.map == null || Main.map.mapView == null) return;
         if (Main.map.mapView.getNumLayers() == 0) {
-            data.clear();
+            clear();
             fireCacheCleared();
         }
     }
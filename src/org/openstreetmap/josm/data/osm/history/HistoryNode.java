@@ -41,11 +41,11 @@ public class HistoryNode extends HistoryOsmPrimitive {
      * @param id the id (> 0 required)
      * @param version the version (> 0 required)
      * @param visible whether the node is still visible
-     * @param user the user (! null required)
+     * @param user the user (! null required if {@code checkHistoricParams} is true)
      * @param changesetId the changeset id (> 0 required if {@code checkHistoricParams} is true)
      * @param timestamp the timestamp (! null required if {@code checkHistoricParams} is true)
      * @param coords the coordinates
-     * @param checkHistoricParams if true, checks values of {@code changesetId} and {@code timestamp}
+     * @param checkHistoricParams if true, checks values of {@code user}, {@code changesetId} and {@code timestamp}
      * @throws IllegalArgumentException if preconditions are violated
      * @since 5440
      */
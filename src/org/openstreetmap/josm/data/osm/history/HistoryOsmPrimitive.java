@@ -63,10 +63,10 @@ public abstract class HistoryOsmPrimitive implements Comparable<HistoryOsmPrimit
      * @param id the id (> 0 required)
      * @param version the version (> 0 required)
      * @param visible whether the primitive is still visible
-     * @param user the user (! null required)
+     * @param user the user (! null required if {@code checkHistoricParams} is true)
      * @param changesetId the changeset id (> 0 required if {@code checkHistoricParams} is true)
      * @param timestamp the timestamp (! null required if {@code checkHistoricParams} is true)
-     * @param checkHistoricParams if true, checks values of {@code changesetId} and {@code timestamp}
+     * @param checkHistoricParams if true, checks values of {@code user}, {@code changesetId} and {@code timestamp}
      *
      * @throws IllegalArgumentException if preconditions are violated
      * @since 5440
@@ -74,8 +74,8 @@ public abstract class HistoryOsmPrimitive implements Comparable<HistoryOsmPrimit
     public HistoryOsmPrimitive(long id, long version, boolean visible, User user, long changesetId, Date timestamp, boolean checkHistoricParams) throws IllegalArgumentException {
         ensurePositiveLong(id, "id");
         ensurePositiveLong(version, "version");
-        CheckParameterUtil.ensureParameterNotNull(user, "user");
         if (checkHistoricParams) {
+            CheckParameterUtil.ensureParameterNotNull(user, "user");
             ensurePositiveLong(changesetId, "changesetId");
             CheckParameterUtil.ensureParameterNotNull(timestamp, "timestamp");
         }
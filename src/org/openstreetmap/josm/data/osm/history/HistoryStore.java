@@ -0,0 +1,522 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.PrimitiveId;
+import org.openstreetmap.josm.data.osm.RelationMemberData;
+import org.openstreetmap.josm.data.osm.User;
+
+/**
+ * Stores the versions of history primitives in a file, see {@link HistoryDataSet}.
+ *
+ * The versions of one primitive are written as one contiguous record, each version
+ * encoded as the difference to the version before it: unchanged users, coordinates,
+ * node lists and member lists are flagged instead of repeated, only the tags that
+ * changed are written, and numbers are written as variable length integers. Reading
+ * the history of a primitive is a single read at the offset of its record.
+ *
+ * Replacing the versions of a primitive appends a new record, the file is compacted
+ * when the outdated records take more space than the current ones.
+ */
+class HistoryStore {
+
+    /** the minimum size of outdated records before the file is compacted */
+    private static final long MIN_COMPACT_SIZE = 1024 * 1024;
+
+    private static final int FLAG_VISIBLE = 1;
+    private static final int FLAG_NO_TIMESTAMP = 2;
+    private static final int FLAG_SAME_USER = 4;
+    /** same coordinates, node list or member list as the previous version */
+    private static final int FLAG_SAME_CONTENT = 8;
+    private static final int FLAG_NO_COORDS = 16;
+
+    private static final byte USER_NONE = 0;
+    private static final byte USER_ANONYMOUS = 1;
+    private static final byte USER_OSM = 2;
+    private static final byte USER_LOCAL = 3;
+
+    /**
+     * The location of the record of a primitive.
+     */
+    private static class Record {
+        final long offset;
+        final int length;
+        final int numVersions;
+
+        Record(long offset, int length, int numVersions) {
+            this.offset = offset;
+            this.length = length;
+            this.numVersions = numVersions;
+        }
+    }
+
+    private File file;
+    private RandomAccessFile raf;
+    private final Map<PrimitiveId, Record> records = new HashMap<PrimitiveId, Record>();
+    private long size;
+    private long garbage;
+    /** the local users read from this store, by name */
+    private final Map<String, User> localUsers = new HashMap<String, User>();
+
+    /**
+     * Creates a store in a temporary file, deleted when JOSM exits.
+     *
+     * @return the store
+     * @throws IOException if the file cannot be created
+     */
+    public static HistoryStore createTemporary() throws IOException {
+        File file = File.createTempFile("josm-history", ".bin");
+        file.deleteOnExit();
+        return new HistoryStore(file);
+    }
+
+    /**
+     * Creates a store in the given file. Existing content of the file is discarded.
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be opened
+     */
+    public HistoryStore(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+    }
+
+    /**
+     * Writes the versions of a primitive, replacing the versions stored before.
+     *
+     * @param id the primitive id
+     * @param versions the versions, in the order they are to be read
+     * @throws IOException if an I/O error occurs. The primitive is removed from the store in this case.
+     */
+    public synchronized void write(PrimitiveId id, List<HistoryOsmPrimitive> versions) throws IOException {
+        remove(id);
+        byte[] record = encode(versions);
+        raf.seek(size);
+        raf.write(record);
+        records.put(id, new Record(size, record.length, versions.size()));
+        size += record.length;
+        if (garbage > MIN_COMPACT_SIZE && garbage > size - garbage) {
+            compact();
+        }
+    }
+
+    /**
+     * Reads the versions of a primitive.
+     *
+     * @param id the primitive id
+     * @return the versions, in the order they were written, or null if the primitive is unknown
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized List<HistoryOsmPrimitive> read(PrimitiveId id) throws IOException {
+        Record r = records.get(id);
+        if (r == null)
+            return null;
+        byte[] record = new byte[r.length];
+        raf.seek(r.offset);
+        raf.readFully(record);
+        return decode(id, record, r.numVersions, localUsers);
+    }
+
+    /**
+     * Removes the versions of a primitive.
+     * @param id the primitive id
+     */
+    public synchronized void remove(PrimitiveId id) {
+        Record r = records.remove(id);
+        if (r != null) {
+            garbage += r.length;
+        }
+    }
+
+    /**
+     * @param id the primitive id
+     * @return true if there are versions of the primitive in this store
+     */
+    public synchronized boolean contains(PrimitiveId id) {
+        return records.containsKey(id);
+    }
+
+    /**
+     * @return the ids of the primitives with versions in this store
+     */
+    public synchronized Set<PrimitiveId> getIds() {
+        return Collections.unmodifiableSet(new HashSet<PrimitiveId>(records.keySet()));
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Removes all primitives and truncates the file.
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void clear() throws IOException {
+        records.clear();
+        localUsers.clear();
+        size = 0;
+        garbage = 0;
+        raf.setLength(0);
+    }
+
+    /**
+     * Closes and deletes the file. The store cannot be used afterwards.
+     */
+    public synchronized void close() {
+        records.clear();
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        file.delete();
+    }
+
+    /**
+     * Rewrites the file with the current records only.
+     */
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        tmp.deleteOnExit();
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        long newSize = 0;
+        Map<PrimitiveId, Record> newRecords = new HashMap<PrimitiveId, Record>(records.size());
+        try {
+            out.setLength(0);
+            for (Entry<PrimitiveId, Record> e : records.entrySet()) {
+                Record r = e.getValue();
+                byte[] record = new byte[r.length];
+                raf.seek(r.offset);
+                raf.readFully(record);
+                out.write(record);
+                newRecords.put(e.getKey(), new Record(newSize, r.length, r.numVersions));
+                newSize += r.length;
+            }
+        } catch (IOException e) {
+            out.close();
+            tmp.delete();
+            throw e;
+        }
+        out.close();
+        raf.close();
+        if (!file.delete() || !tmp.renameTo(file)) {
+            // go on with the compacted copy, it holds all records
+            System.err.println("Warning: failed to replace " + file + " by its compacted copy, using " + tmp);
+            file.delete();
+            file = tmp;
+        }
+        raf = new RandomAccessFile(file, "rw");
+        records.clear();
+        records.putAll(newRecords);
+        size = newSize;
+        garbage = 0;
+    }
+
+    /* ------------------------------------------------------------------------------ */
+    /* encoding                                                                       */
+    /* ------------------------------------------------------------------------------ */
+
+    static byte[] encode(List<HistoryOsmPrimitive> versions) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        HistoryOsmPrimitive prev = null;
+        for (HistoryOsmPrimitive p : versions) {
+            writeVersion(out, prev, p);
+            prev = p;
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeVersion(DataOutputStream out, HistoryOsmPrimitive prev, HistoryOsmPrimitive p) throws IOException {
+        int flags = 0;
+        if (p.isVisible()) {
+            flags |= FLAG_VISIBLE;
+        }
+        if (p.getTimestamp() == null) {
+            flags |= FLAG_NO_TIMESTAMP;
+        }
+        if (prev != null && prev.getUser() == p.getUser()) {
+            flags |= FLAG_SAME_USER;
+        }
+        if (prev != null && hasSameContent(prev, p)) {
+            flags |= FLAG_SAME_CONTENT;
+        }
+        if (p instanceof HistoryNode && ((HistoryNode) p).getCoords() == null) {
+            flags |= FLAG_NO_COORDS;
+        }
+        out.writeByte(flags);
+        writeVarLong(out, p.getVersion() - (prev == null ? 0 : prev.getVersion()));
+        writeVarLong(out, p.getChangesetId() - (prev == null ? 0 : prev.getChangesetId()));
+        if (p.getTimestamp() != null) {
+            writeVarLong(out, p.getTimestamp().getTime() - getTime(prev));
+        }
+        if ((flags & FLAG_SAME_USER) == 0) {
+            writeUser(out, p.getUser());
+        }
+        writeTags(out, prev == null ? Collections.<String, String>emptyMap() : prev.getTags(), p.getTags());
+        if ((flags & FLAG_SAME_CONTENT) != 0)
+            return;
+        if (p instanceof HistoryNode) {
+            LatLon coords = ((HistoryNode) p).getCoords();
+            if (coords != null) {
+                out.writeDouble(coords.lat());
+                out.writeDouble(coords.lon());
+            }
+        } else if (p instanceof HistoryWay) {
+            List<Long> nodes = ((HistoryWay) p).getNodes();
+            writeVarLong(out, nodes.size());
+            long last = 0;
+            for (long node : nodes) {
+                writeVarLong(out, node - last);
+                last = node;
+            }
+        } else if (p instanceof HistoryRelation) {
+            List<RelationMemberData> members = ((HistoryRelation) p).getMembers();
+            writeVarLong(out, members.size());
+            long last = 0;
+            for (RelationMemberData m : members) {
+                writeString(out, m.getRole());
+                out.writeByte(m.getMemberType().ordinal());
+                writeVarLong(out, m.getMemberId() - last);
+                last = m.getMemberId();
+            }
+        }
+    }
+
+    private static boolean hasSameContent(HistoryOsmPrimitive prev, HistoryOsmPrimitive p) {
+        if (p instanceof HistoryNode) {
+            LatLon coords = ((HistoryNode) p).getCoords();
+            LatLon prevCoords = ((HistoryNode) prev).getCoords();
+            return coords != null && prevCoords != null && coords.lat() == prevCoords.lat() && coords.lon() == prevCoords.lon();
+        } else if (p instanceof HistoryWay)
+            return ((HistoryWay) p).getNodes().equals(((HistoryWay) prev).getNodes());
+        else if (p instanceof HistoryRelation)
+            return ((HistoryRelation) p).getMembers().equals(((HistoryRelation) prev).getMembers());
+        return false;
+    }
+
+    private static long getTime(HistoryOsmPrimitive p) {
+        return p == null || p.getTimestamp() == null ? 0 : p.getTimestamp().getTime();
+    }
+
+    private static void writeUser(DataOutputStream out, User user) throws IOException {
+        if (user == null) {
+            out.writeByte(USER_NONE);
+        } else if (user == User.getAnonymous()) {
+            out.writeByte(USER_ANONYMOUS);
+        } else if (user.isOsmUser()) {
+            out.writeByte(USER_OSM);
+            writeVarLong(out, user.getId());
+            writeString(out, user.getName());
+        } else {
+            out.writeByte(USER_LOCAL);
+            writeString(out, user.getName());
+        }
+    }
+
+    private static void writeTags(DataOutputStream out, Map<String, String> prevTags, Map<String, String> tags) throws IOException {
+        List<String> removed = new ArrayList<String>();
+        for (String key : prevTags.keySet()) {
+            if (!tags.containsKey(key)) {
+                removed.add(key);
+            }
+        }
+        List<Entry<String, String>> changed = new ArrayList<Entry<String, String>>();
+        for (Entry<String, String> e : tags.entrySet()) {
+            if (!e.getValue().equals(prevTags.get(e.getKey()))) {
+                changed.add(e);
+            }
+        }
+        writeVarLong(out, removed.size());
+        for (String key : removed) {
+            writeString(out, key);
+        }
+        writeVarLong(out, changed.size());
+        for (Entry<String, String> e : changed) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+    }
+
+    /** Writes a signed number in zig-zag encoding, with 7 bits per byte */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7fL) != 0) {
+            out.writeByte((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes("UTF-8");
+        writeVarLong(out, b.length);
+        out.write(b);
+    }
+
+    /* ------------------------------------------------------------------------------ */
+    /* decoding                                                                       */
+    /* ------------------------------------------------------------------------------ */
+
+    static List<HistoryOsmPrimitive> decode(PrimitiveId id, byte[] record, int numVersions, Map<String, User> localUsers) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        List<HistoryOsmPrimitive> versions = new ArrayList<HistoryOsmPrimitive>(numVersions);
+        HistoryOsmPrimitive prev = null;
+        for (int i = 0; i < numVersions; i++) {
+            prev = readVersion(in, id, prev, localUsers);
+            versions.add(prev);
+        }
+        return versions;
+    }
+
+    private static HistoryOsmPrimitive readVersion(DataInputStream in, PrimitiveId id, HistoryOsmPrimitive prev, Map<String, User> localUsers)
+            throws IOException {
+        int flags = in.readByte();
+        long version = readVarLong(in) + (prev == null ? 0 : prev.getVersion());
+        long changesetId = readVarLong(in) + (prev == null ? 0 : prev.getChangesetId());
+        Date timestamp = null;
+        if ((flags & FLAG_NO_TIMESTAMP) == 0) {
+            timestamp = new Date(readVarLong(in) + getTime(prev));
+        }
+        User user = (flags & FLAG_SAME_USER) != 0 ? prev.getUser() : readUser(in, localUsers);
+        boolean visible = (flags & FLAG_VISIBLE) != 0;
+        Map<String, String> tags = readTags(in, prev == null ? null : prev.getTags());
+        boolean sameContent = (flags & FLAG_SAME_CONTENT) != 0;
+
+        HistoryOsmPrimitive p;
+        long uid = id.getUniqueId();
+        if (id.getType() == OsmPrimitiveType.NODE) {
+            LatLon coords = null;
+            if (sameContent) {
+                coords = ((HistoryNode) prev).getCoords();
+            } else if ((flags & FLAG_NO_COORDS) == 0) {
+                coords = new LatLon(in.readDouble(), in.readDouble());
+            }
+            p = new HistoryNode(uid, version, visible, user, changesetId, timestamp, coords, false);
+        } else if (id.getType() == OsmPrimitiveType.WAY) {
+            HistoryWay way = new HistoryWay(uid, version, visible, user, changesetId, timestamp, false);
+            if (sameContent) {
+                for (long node : ((HistoryWay) prev).getNodes()) {
+                    way.addNode(node);
+                }
+            } else {
+                int n = (int) readVarLong(in);
+                long last = 0;
+                for (int i = 0; i < n; i++) {
+                    last += readVarLong(in);
+                    way.addNode(last);
+                }
+            }
+            p = way;
+        } else if (id.getType() == OsmPrimitiveType.RELATION) {
+            HistoryRelation relation = new HistoryRelation(uid, version, visible, user, changesetId, timestamp, false);
+            if (sameContent) {
+                for (RelationMemberData m : ((HistoryRelation) prev).getMembers()) {
+                    relation.addMember(m);
+                }
+            } else {
+                int n = (int) readVarLong(in);
+                long last = 0;
+                OsmPrimitiveType[] types = OsmPrimitiveType.values();
+                for (int i = 0; i < n; i++) {
+                    String role = readString(in);
+                    int type = in.readByte();
+                    if (type < 0 || type >= types.length)
+                        throw new IOException("Invalid member type " + type);
+                    last += readVarLong(in);
+                    relation.addMember(new RelationMemberData(role, types[type], last));
+                }
+            }
+            p = relation;
+        } else
+            throw new IOException("Unsupported primitive type " + id.getType());
+        p.setTags(tags);
+        return p;
+    }
+
+    /**
+     * Reads a user. Local users are looked up in <code>localUsers</code> first, as
+     * {@link User#createLocalUser(String)} searches all local users.
+     */
+    private static User readUser(DataInputStream in, Map<String, User> localUsers) throws IOException {
+        byte kind = in.readByte();
+        switch (kind) {
+        case USER_NONE:
+            return null;
+        case USER_ANONYMOUS:
+            return User.getAnonymous();
+        case USER_OSM:
+            long uid = readVarLong(in);
+            String name = readString(in);
+            User user = User.getById(uid);
+            return user != null ? user : User.createOsmUser(uid, name);
+        case USER_LOCAL:
+            String localName = readString(in);
+            User localUser = localUsers.get(localName);
+            if (localUser == null) {
+                localUser = User.createLocalUser(localName);
+                localUsers.put(localName, localUser);
+            }
+            return localUser;
+        default:
+            throw new IOException("Invalid user kind " + kind);
+        }
+    }
+
+    private static Map<String, String> readTags(DataInputStream in, Map<String, String> prevTags) throws IOException {
+        Map<String, String> tags = prevTags == null ? new HashMap<String, String>() : new HashMap<String, String>(prevTags);
+        int removed = (int) readVarLong(in);
+        for (int i = 0; i < removed; i++) {
+            tags.remove(readString(in));
+        }
+        int changed = (int) readVarLong(in);
+        for (int i = 0; i < changed; i++) {
+            String key = readString(in);
+            tags.put(key, readString(in));
+        }
+        return tags;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return (v >>> 1) ^ -(v & 1);
+        }
+        throw new IOException("Malformed number");
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = (int) readVarLong(in);
+        if (length < 0 || length > in.available())
+            throw new IOException("Invalid string length " + length);
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, "UTF-8");
+    }
+}
@@ -161,9 +161,9 @@ public abstract class AbstractMapRenderer implements Rendering {
      * @param virtual <code>true</code> if virtual nodes are used
      */
     protected void getSettings(boolean virtual) {
-        this.virtualNodeSize = virtual ? Main.pref.getInteger("mappaint.node.virtual-size", 8) / 2 : 0;
-        this.virtualNodeSpace = Main.pref.getInteger("mappaint.node.virtual-space", 70);
-        this.segmentNumberSpace = Main.pref.getInteger("mappaint.segmentnumber.space", 40);
+        this.virtualNodeSize = virtual ? Main.pref.getCachedInteger("mappaint.node.virtual-size", 8).get() / 2 : 0;
+        this.virtualNodeSpace = Main.pref.getCachedInteger("mappaint.node.virtual-space", 70).get();
+        this.segmentNumberSpace = Main.pref.getCachedInteger("mappaint.segmentnumber.space", 40).get();
         getColors();
     }
     
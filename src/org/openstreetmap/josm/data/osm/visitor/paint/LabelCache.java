@@ -0,0 +1,204 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+import java.awt.geom.Rectangle2D;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openstreetmap.josm.Main;
+
+/**
+ * A cache of the layout of labels, i.e. the glyph vector and the metrics of a text in some font.
+ *
+ * Laying out a text is one of the most expensive parts of painting the map, and the same
+ * names are painted again on every repaint. The cache keeps the most recently used labels,
+ * the least recently used ones are evicted when the cache is full.
+ */
+public class LabelCache {
+
+    /**
+     * The layout of a text in some font.
+     */
+    public static class Label {
+        private final Font font;
+        private final FontRenderContext frc;
+        private final GlyphVector glyphs;
+        private final int[] glyphCodes;
+        private final Rectangle2D bounds;
+        private final float ascent;
+        private final float descent;
+        private final Rectangle2D[] glyphBounds;
+
+        Label(Font font, String text, FontRenderContext frc) {
+            this.font = font;
+            this.frc = frc;
+            this.glyphs = font.createGlyphVector(frc, text);
+            this.glyphCodes = glyphs.getGlyphCodes(0, glyphs.getNumGlyphs(), null);
+            this.bounds = font.getStringBounds(text, frc);
+            LineMetrics metrics = font.getLineMetrics(text, frc);
+            this.ascent = metrics.getAscent();
+            this.descent = metrics.getDescent();
+            this.glyphBounds = new Rectangle2D[glyphCodes.length];
+            for (int i = 0; i < glyphBounds.length; i++) {
+                glyphBounds[i] = glyphs.getGlyphLogicalBounds(i).getBounds2D();
+            }
+        }
+
+        /**
+         * Replies the shared glyph vector of the text. It must not be modified.
+         * @see #createGlyphVector()
+         */
+        public GlyphVector getGlyphVector() {
+            return glyphs;
+        }
+
+        /**
+         * Creates a new glyph vector of the text, e.g. to transform the single glyphs.
+         * This is much cheaper than laying out the text again.
+         */
+        public GlyphVector createGlyphVector() {
+            return font.createGlyphVector(frc, glyphCodes);
+        }
+
+        /**
+         * Replies the logical bounds of the text, relative to the base line.
+         * The rectangle must not be modified.
+         */
+        public Rectangle2D getBounds() {
+            return bounds;
+        }
+
+        public float getAscent() {
+            return ascent;
+        }
+
+        public float getDescent() {
+            return descent;
+        }
+
+        public int getNumGlyphs() {
+            return glyphBounds.length;
+        }
+
+        /**
+         * Replies the logical bounds of a glyph in the untransformed glyph vector.
+         * The rectangle must not be modified.
+         */
+        public Rectangle2D getGlyphBounds(int index) {
+            return glyphBounds[index];
+        }
+    }
+
+    private static class Key {
+        private final Font font;
+        private final String text;
+        private final FontRenderContext frc;
+
+        Key(Font font, String text, FontRenderContext frc) {
+            this.font = font;
+            this.text = text;
+            this.frc = frc;
+        }
+
+        @Override
+        public int hashCode() {
+            return (font.hashCode() * 31 + text.hashCode()) * 31 + frc.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return text.equals(other.text) && font.equals(other.font) && frc.equals(other.frc);
+        }
+    }
+
+    private static LabelCache instance;
+
+    /**
+     * Replies the cache shared by all map renderers. Its capacity is set by the
+     * preference <code>mappaint.label-cache.size</code>.
+     */
+    public static synchronized LabelCache getInstance() {
+        if (instance == null) {
+            instance = new LabelCache(Main.pref.getInteger("mappaint.label-cache.size", 4096));
+        }
+        return instance;
+    }
+
+    private final Map<Key, Label> labels;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache.
+     * @param capacity the maximum number of labels kept
+     */
+    public LabelCache(final int capacity) {
+        labels = new LinkedHashMap<Key, Label>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Label> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Replies the layout of a text, from the cache if possible.
+     *
+     * @param font the font
+     * @param text the text
+     * @param frc the font render context of the graphics the text is painted on
+     * @return the layout
+     */
+    public synchronized Label get(Font font, String text, FontRenderContext frc) {
+        Key key = new Key(font, text, frc);
+        Label label = labels.get(key);
+        if (label != null) {
+            hits++;
+        } else {
+            misses++;
+            label = new Label(font, text, frc);
+            labels.put(key, label);
+        }
+        return label;
+    }
+
+    public synchronized int size() {
+        return labels.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Replies the share of lookups that were answered from the cache, 0 if there was none.
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized void clear() {
+        labels.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("LabelCache[size=%d, hits=%d, misses=%d, hit rate=%.1f%%]",
+                labels.size(), hits, misses, getHitRate() * 100);
+    }
+}
@@ -0,0 +1,90 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of the screen area taken by the labels painted so far, so labels that would
+ * overlap them can be skipped.
+ *
+ * The screen is divided into square cells, each cell knows the labels that overlap it.
+ * Labels outside of the screen are put into the cells at the border.
+ */
+public class LabelCollisionGrid {
+
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    private final List<List<Rectangle2D>> cells;
+
+    /**
+     * Creates an empty grid.
+     * @param width the width of the screen
+     * @param height the height of the screen
+     * @param cellSize the width and height of the cells
+     */
+    public LabelCollisionGrid(int width, int height, int cellSize) {
+        this.cellSize = cellSize;
+        this.columns = Math.max(1, (width + cellSize - 1) / cellSize);
+        this.rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        this.cells = new ArrayList<List<Rectangle2D>>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            cells.add(null);
+        }
+    }
+
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / cellSize)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / cellSize)));
+    }
+
+    /**
+     * Replies true if the rectangle does not overlap any label taken so far.
+     */
+    public boolean isFree(Rectangle2D r) {
+        for (int row = row(r.getMinY()), maxRow = row(r.getMaxY()); row <= maxRow; row++) {
+            for (int col = column(r.getMinX()), maxCol = column(r.getMaxX()); col <= maxCol; col++) {
+                List<Rectangle2D> cell = cells.get(row * columns + col);
+                if (cell != null) {
+                    for (int i = 0; i < cell.size(); i++) {
+                        if (cell.get(i).intersects(r))
+                            return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes the area of a rectangle, whether it overlaps other labels or not.
+     */
+    public void take(Rectangle2D r) {
+        for (int row = row(r.getMinY()), maxRow = row(r.getMaxY()); row <= maxRow; row++) {
+            for (int col = column(r.getMinX()), maxCol = column(r.getMaxX()); col <= maxCol; col++) {
+                List<Rectangle2D> cell = cells.get(row * columns + col);
+                if (cell == null) {
+                    cell = new ArrayList<Rectangle2D>(4);
+                    cells.set(row * columns + col, cell);
+                }
+                cell.add(r);
+            }
+        }
+    }
+
+    /**
+     * Takes the area of a rectangle if it does not overlap any label taken so far.
+     * @return true if the area was free
+     */
+    public boolean tryTake(Rectangle2D r) {
+        if (!isFree(r))
+            return false;
+        take(r);
+        return true;
+    }
+}
@@ -5,7 +5,6 @@ import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
@@ -16,7 +15,6 @@ import java.awt.Shape;
 import java.awt.TexturePaint;
 import java.awt.font.FontRenderContext;
 import java.awt.font.GlyphVector;
-import java.awt.font.LineMetrics;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Path2D;
@@ -29,6 +27,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Bounds;
@@ -59,6 +58,7 @@ import org.openstreetmap.josm.gui.mappaint.NodeElemStyle.Symbol;
 import org.openstreetmap.josm.gui.mappaint.RepeatImageElemStyle.LineImageAlignment;
 import org.openstreetmap.josm.gui.mappaint.StyleCache.StyleList;
 import org.openstreetmap.josm.gui.mappaint.TextElement;
+import org.openstreetmap.josm.tools.ImageAtlas;
 import org.openstreetmap.josm.tools.ImageProvider;
 import org.openstreetmap.josm.tools.Utils;
 
@@ -168,10 +168,12 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         private final boolean drawArea;
         private final boolean drawMultipolygon;
         private final boolean drawRestriction;
+        private final DataSet data;
 
         private final List<StyleRecord> styleElems;
 
-        public StyleCollector(boolean drawArea, boolean drawMultipolygon, boolean drawRestriction) {
+        public StyleCollector(DataSet data, boolean drawArea, boolean drawMultipolygon, boolean drawRestriction) {
+            this.data = data;
             this.drawArea = drawArea;
             this.drawMultipolygon = drawMultipolygon;
             this.drawRestriction = drawRestriction;
@@ -208,7 +210,12 @@ public class StyledMapRenderer extends AbstractMapRenderer {
 
         public void drawAll() {
             Collections.sort(styleElems);
+            // rendering in background (see MapViewRenderer) is cancelled by interrupting the thread,
+            // and stops when a writer waits for the read lock of the dataset the render thread holds
+            boolean background = !SwingUtilities.isEventDispatchThread();
             for (StyleRecord r : styleElems) {
+                if (Thread.currentThread().isInterrupted() || background && data.hasQueuedLockWaiters())
+                    return;
                 r.style.paintPrimitive(
                         r.osm,
                         paintSettings,
@@ -328,6 +335,11 @@ public class StyledMapRenderer extends AbstractMapRenderer {
 
     private boolean leftHandTraffic;
 
+    private LabelCache labelCache;
+    /** the screen area taken by the labels painted so far, null if labels may overlap */
+    private LabelCollisionGrid labelGrid;
+    private int skippedLabels;
+
     /**
      * {@inheritDoc}
      */
@@ -462,8 +474,8 @@ public class StyledMapRenderer extends AbstractMapRenderer {
             if (name == null) return;
 
             Rectangle pb = area.getBounds();
-            FontMetrics fontMetrics = g.getFontMetrics(orderFont); // if slow, use cache
-            Rectangle2D nb = fontMetrics.getStringBounds(name, g); // if slow, approximate by strlen()*maxcharbounds(font)
+            LabelCache.Label label = labelCache.get(text.font, name, g.getFontRenderContext());
+            Rectangle2D nb = label.getBounds();
 
             // Point2D c = getCentroid(polygon);
             // Using the Centroid is Nicer for buildings like: +--------+
@@ -484,19 +496,17 @@ public class StyledMapRenderer extends AbstractMapRenderer {
                     (int)nb.getHeight());
 
             if ((pb.width >= nb.getWidth() && pb.height >= nb.getHeight()) && // quick check
-                    area.contains(centeredNBounds) // slow but nice
+                    area.contains(centeredNBounds) && // slow but nice
+                    takeLabelArea(centeredNBounds)
             ) {
                 if (isInactiveMode || osm.isDisabled()) {
                     g.setColor(inactiveColor);
                 } else {
                     g.setColor(text.color);
                 }
-                Font defaultFont = g.getFont();
-                g.setFont (text.font);
-                g.drawString (name,
+                g.drawGlyphVector(label.getGlyphVector(),
                         (int)(centeredNBounds.getMinX() - nb.getMinX()),
                         (int)(centeredNBounds.getMinY() - nb.getMinY()));
-                g.setFont(defaultFont);
             }
         }
     }
@@ -529,8 +539,8 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         String s = text.labelCompositionStrategy.compose(n);
         if (s == null) return;
 
-        Font defaultFont = g.getFont();
-        g.setFont(text.font);
+        LabelCache.Label label = labelCache.get(text.font, s, g.getFontRenderContext());
+        Rectangle2D bounds = label.getBounds();
 
         int x = p.x + text.xOffset;
         int y = p.y + text.yOffset;
@@ -549,8 +559,6 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         if (bs.hAlign == HorizontalTextAlignment.RIGHT) {
             x += box.x + box.width + 2;
         } else {
-            FontRenderContext frc = g.getFontRenderContext();
-            Rectangle2D bounds = text.font.getStringBounds(s, frc);
             int textWidth = (int) bounds.getWidth();
             if (bs.hAlign == HorizontalTextAlignment.CENTER) {
                 x -= textWidth / 2;
@@ -562,18 +570,20 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         if (bs.vAlign == VerticalTextAlignment.BOTTOM) {
             y += box.y + box.height;
         } else {
-            FontRenderContext frc = g.getFontRenderContext();
-            LineMetrics metrics = text.font.getLineMetrics(s, frc);
             if (bs.vAlign == VerticalTextAlignment.ABOVE) {
-                y -= - box.y + metrics.getDescent();
+                y -= - box.y + label.getDescent();
             } else if (bs.vAlign == VerticalTextAlignment.TOP) {
-                y -= - box.y - metrics.getAscent();
+                y -= - box.y - label.getAscent();
             } else if (bs.vAlign == VerticalTextAlignment.CENTER) {
-                y += (metrics.getAscent() - metrics.getDescent()) / 2;
+                y += (label.getAscent() - label.getDescent()) / 2;
             } else if (bs.vAlign == VerticalTextAlignment.BELOW) {
-                y += box.y + box.height + metrics.getAscent() + 2;
+                y += box.y + box.height + label.getAscent() + 2;
             } else throw new AssertionError();
         }
+        double halo = text.haloRadius != null ? text.haloRadius : 0;
+        if (!takeLabelArea(new Rectangle2D.Double(x + bounds.getX() - halo, y + bounds.getY() - halo,
+                bounds.getWidth() + 2 * halo, bounds.getHeight() + 2 * halo)))
+            return;
         if (isInactiveMode || n.isDisabled()) {
             g.setColor(inactiveColor);
         } else {
@@ -582,17 +592,14 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         if (text.haloRadius != null) {
             g.setStroke(new BasicStroke(2*text.haloRadius, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND));
             g.setColor(text.haloColor);
-            FontRenderContext frc = g.getFontRenderContext();
-            GlyphVector gv = text.font.createGlyphVector(frc, s);
-            Shape textOutline = gv.getOutline(x, y);
+            Shape textOutline = label.getGlyphVector().getOutline(x, y);
             g.draw(textOutline);
             g.setStroke(new BasicStroke());
             g.setColor(text.color);
             g.fill(textOutline);
         } else {
-            g.drawString(s, x, y);
+            g.drawGlyphVector(label.getGlyphVector(), x, y);
         }
-        g.setFont(defaultFont);
     }
 
     @Deprecated
@@ -706,9 +713,16 @@ public class StyledMapRenderer extends AbstractMapRenderer {
     }
     
     public void drawNodeIcon(Node n, Image img, float alpha, boolean selected, boolean member) {
+        drawNodeIcon(n, ImageAtlas.Region.of(img), alpha, selected, member);
+    }
+
+    /**
+     * Draws the icon of a node, e.g. from the icon atlas.
+     */
+    public void drawNodeIcon(Node n, ImageAtlas.Region img, float alpha, boolean selected, boolean member) {
         Point p = nc.getPoint(n);
 
-        final int w = img.getWidth(null), h=img.getHeight(null);
+        final int w = img.getWidth(), h=img.getHeight();
         if(n.isHighlighted()) {
             drawPointHighlight(p, Math.max(w, h));
         }
@@ -716,7 +730,7 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         if (alpha != 1f) {
             g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
         }
-        g.drawImage(img, p.x-w/2, p.y-h/2, nc);
+        img.draw(g, p.x-w/2, p.y-h/2, nc);
         g.setPaintMode();
         if (selected || member)
         {
@@ -1069,8 +1083,8 @@ public class StyledMapRenderer extends AbstractMapRenderer {
             lastPoint = p;
         }
 
-        FontMetrics fontMetrics = g.getFontMetrics(text.font); // if slow, use cache
-        Rectangle2D rec = fontMetrics.getStringBounds(name, g); // if slow, approximate by strlen()*maxcharbounds(font)
+        LabelCache.Label label = labelCache.get(text.font, name, g.getFontRenderContext());
+        Rectangle2D rec = label.getBounds();
 
         if (rec.getWidth() > pathLength)
             return;
@@ -1084,6 +1098,9 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         if (p1 == null || p2 == null)
             return;
 
+        if (labelGrid != null && !takeLabelArea(getTextOnPathArea(label, text, t1, t2, poly, pathLength)))
+            return;
+
         double angleOffset;
         double offsetSign;
         double tStart;
@@ -1100,11 +1117,10 @@ public class StyledMapRenderer extends AbstractMapRenderer {
             tStart = t2;
         }
 
-        FontRenderContext frc = g.getFontRenderContext();
-        GlyphVector gv = text.font.createGlyphVector(frc, name);
+        GlyphVector gv = label.createGlyphVector();
 
-        for (int i=0; i<gv.getNumGlyphs(); ++i) {
-            Rectangle2D rect = gv.getGlyphLogicalBounds(i).getBounds2D();
+        for (int i=0; i<label.getNumGlyphs(); ++i) {
+            Rectangle2D rect = label.getGlyphBounds(i);
             double t = tStart + offsetSign * (rect.getX() + rect.getWidth()/2) / pathLength;
             double[] p = pointAt(t, poly, pathLength);
             if (p != null) {
@@ -1135,6 +1151,46 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         }
     }
     
+    /**
+     * Approximates the screen area of a text on a path by squares along the path, as
+     * high as the text and centered on it.
+     */
+    private Rectangle2D[] getTextOnPathArea(LabelCache.Label label, TextElement text, double t1, double t2, Polygon poly, double pathLength) {
+        Rectangle2D rec = label.getBounds();
+        double size = rec.getHeight() + (text.haloRadius != null ? 2 * text.haloRadius : 0);
+        int n = Math.max(2, (int) Math.ceil(rec.getWidth() / size) + 1);
+        List<Rectangle2D> squares = new ArrayList<Rectangle2D>(n);
+        for (int i = 0; i < n; i++) {
+            double[] p = pointAt(t1 + (t2 - t1) * i / (n - 1), poly, pathLength);
+            if (p != null) {
+                // the text is shifted by yOffset perpendicular to the path
+                double x = p[0] - Math.sin(p[2]) * text.yOffset;
+                double y = p[1] + Math.cos(p[2]) * text.yOffset;
+                squares.add(new Rectangle2D.Double(x - size / 2, y - size / 2, size, size));
+            }
+        }
+        return squares.toArray(new Rectangle2D[squares.size()]);
+    }
+
+    /**
+     * Takes the screen area of a label, unless it overlaps a label painted before.
+     * @return true if the label is to be painted, false if it is to be skipped
+     */
+    private boolean takeLabelArea(Rectangle2D... area) {
+        if (labelGrid == null)
+            return true;
+        for (Rectangle2D r : area) {
+            if (!labelGrid.isFree(r)) {
+                skippedLabels++;
+                return false;
+            }
+        }
+        for (Rectangle2D r : area) {
+            labelGrid.take(r);
+        }
+        return true;
+    }
+
     /**
      * draw way
      * @param showOrientation show arrows that indicate the technical orientation of
@@ -1282,16 +1338,21 @@ public class StyledMapRenderer extends AbstractMapRenderer {
 
         circum = nc.getDist100Pixel();
 
-        leftHandTraffic = Main.pref.getBoolean("mappaint.lefthandtraffic", false);
+        leftHandTraffic = Main.pref.getCachedBoolean("mappaint.lefthandtraffic", false).get();
 
         useStrokes = paintSettings.getUseStrokesDistance() > circum;
         showNames = paintSettings.getShowNamesDistance() > circum;
         showIcons = paintSettings.getShowIconsDistance() > circum;
         isOutlineOnly = paintSettings.isOutlineOnly();
-        orderFont = new Font(Main.pref.get("mappaint.font", "Helvetica"), Font.PLAIN, Main.pref.getInteger("mappaint.fontsize", 8));
+        orderFont = new Font(Main.pref.get("mappaint.font", "Helvetica"), Font.PLAIN, Main.pref.getCachedInteger("mappaint.fontsize", 8).get());
+
+        labelCache = LabelCache.getInstance();
+        labelGrid = Main.pref.getCachedBoolean("mappaint.label.avoid-overlap", true).get() ?
+                new LabelCollisionGrid(nc.getWidth(), nc.getHeight(), 64) : null;
+        skippedLabels = 0;
 
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                Main.pref.getBoolean("mappaint.use-antialiasing", true) ?
+                Main.pref.getCachedBoolean("mappaint.use-antialiasing", true).get() ?
                         RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
     }
 
@@ -1366,16 +1427,16 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         BBox bbox = new BBox(bounds);
         getSettings(renderVirtualNodes);
 
-        boolean drawArea = circum <= Main.pref.getInteger("mappaint.fillareas", 10000000);
-        boolean drawMultipolygon = drawArea && Main.pref.getBoolean("mappaint.multipolygon", true);
-        boolean drawRestriction = Main.pref.getBoolean("mappaint.restriction", true);
+        boolean drawArea = circum <= Main.pref.getCachedInteger("mappaint.fillareas", 10000000).get();
+        boolean drawMultipolygon = drawArea && Main.pref.getCachedBoolean("mappaint.multipolygon", true).get();
+        boolean drawRestriction = Main.pref.getCachedBoolean("mappaint.restriction", true).get();
 
         styles = MapPaintStyles.getStyles();
         styles.setDrawMultipolygon(drawMultipolygon);
 
         highlightWaySegments = data.getHighlightedWaySegments();
 
-        StyleCollector sc = new StyleCollector(drawArea, drawMultipolygon, drawRestriction);
+        StyleCollector sc = new StyleCollector(data, drawArea, drawMultipolygon, drawRestriction);
         collectNodeStyles(data, sc, bbox);
         collectWayStyles(data, sc, bbox);
         collectRelationStyles(data, sc, bbox);
@@ -1383,6 +1444,10 @@ public class StyledMapRenderer extends AbstractMapRenderer {
         sc.drawAll();
         sc = null;
         drawVirtualNodes(data, bbox);
+        labelGrid = null;
+        if (Main.log_level >= 3) {
+            Main.debug("Skipped " + skippedLabels + " overlapping labels, " + labelCache);
+        }
 
         //long now = System.currentTimeMillis();
         //System.err.println(String.format("PAINTING TOOK %d [PHASE1 took %d] (at scale %s)", now - start, phase1 - start, circum));
@@ -142,7 +142,7 @@ public class WireframeMapRenderer extends AbstractMapRenderer implements Visitor
         fillTaggedNode = settings.isFillTaggedNode();
 
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                Main.pref.getBoolean("mappaint.wireframe.use-antialiasing", false) ?
+                Main.pref.getCachedBoolean("mappaint.wireframe.use-antialiasing", false).get() ?
                         RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
     }
 
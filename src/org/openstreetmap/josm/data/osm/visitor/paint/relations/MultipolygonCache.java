@@ -17,6 +17,7 @@ import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.DatasetChanges;
 import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
 import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
 import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
@@ -35,6 +36,8 @@ import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 /*
  * A memory cache for Multipolygon objects.
  * 
+ * The cache is used by the map view on the EDT and by its background renderer (see MapViewRenderer),
+ * while the data set listeners update it, so its methods are synchronized.
  */
 public class MultipolygonCache implements DataSetListener, LayerChangeListener, ProjectionChangeListener, SelectionChangedListener {
 
@@ -60,7 +63,7 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
         return get(nc, r, false);
     }
 
-    public final Multipolygon get(NavigatableComponent nc, Relation r, boolean forceRefresh) {
+    public final synchronized Multipolygon get(NavigatableComponent nc, Relation r, boolean forceRefresh) {
         Multipolygon multipolygon = null;
         if (nc != null && r != null) {
             Map<DataSet, Map<Relation, Multipolygon>> map1 = cache.get(nc);
@@ -84,7 +87,7 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
         return multipolygon;
     }
     
-    public final void clear(NavigatableComponent nc) {
+    public final synchronized void clear(NavigatableComponent nc) {
         Map<DataSet, Map<Relation, Multipolygon>> map = cache.remove(nc);
         if (map != null) {
             map.clear();
@@ -92,7 +95,7 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
         }
     }
 
-    public final void clear(DataSet ds) {
+    public final synchronized void clear(DataSet ds) {
         for (Map<DataSet, Map<Relation, Multipolygon>> map1 : cache.values()) {
             Map<Relation, Multipolygon> map2 = map1.remove(ds);
             if (map2 != null) {
@@ -102,7 +105,7 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
         }
     }
 
-    public final void clear() {
+    public final synchronized void clear() {
         cache.clear();
     }
     
@@ -199,7 +202,7 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
     }
 
     @Override
-    public void primitivesRemoved(PrimitivesRemovedEvent event) {
+    public synchronized void primitivesRemoved(PrimitivesRemovedEvent event) {
         updateMultipolygonsReferringTo(event);
     }
 
@@ -209,17 +212,17 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
     }
 
     @Override
-    public void nodeMoved(NodeMovedEvent event) {
+    public synchronized void nodeMoved(NodeMovedEvent event) {
         updateMultipolygonsReferringTo(event);
     }
 
     @Override
-    public void wayNodesChanged(WayNodesChangedEvent event) {
+    public synchronized void wayNodesChanged(WayNodesChangedEvent event) {
         updateMultipolygonsReferringTo(event);
     }
 
     @Override
-    public void relationMembersChanged(RelationMembersChangedEvent event) {
+    public synchronized void relationMembersChanged(RelationMembersChangedEvent event) {
         updateMultipolygonsReferringTo(event);
     }
 
@@ -229,7 +232,16 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
     }
 
     @Override
-    public void dataChanged(DataChangedEvent event) {
+    public synchronized void dataChanged(DataChangedEvent event) {
+        DatasetChanges changes = event.getChanges();
+        if (changes != null) {
+            // Only the changed primitives are known, drop the multipolygons referring to them
+            Collection<Map<Relation, Multipolygon>> maps = getMapsFor(event.getDataset());
+            if (!maps.isEmpty()) {
+                updateMultipolygonsReferringTo(event, changes.getPrimitives(), event.getDataset(), maps);
+            }
+            return;
+        }
         // Do not call updateMultipolygonsReferringTo as getPrimitives() 
         // can return all the data set primitives for this event
         Collection<Map<Relation, Multipolygon>> maps = null;
@@ -273,7 +285,7 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
     }
 
     @Override
-    public void selectionChanged(Collection<? extends OsmPrimitive> newSelection) {
+    public synchronized void selectionChanged(Collection<? extends OsmPrimitive> newSelection) {
         
         for (Iterator<PolyData> it = selectedPolyData.iterator(); it.hasNext();) {
             it.next().selected = false;
@@ -308,4 +320,4 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
             }
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
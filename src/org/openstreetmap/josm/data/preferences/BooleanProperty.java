@@ -19,7 +19,7 @@ public class BooleanProperty extends AbstractProperty<Boolean> {
 
     @Override
     public Boolean get() {
-        return Main.pref.getBoolean(getKey(), defaultValue);
+        return Main.pref.getCachedBoolean(getKey(), defaultValue).get();
     }
 
     @Override
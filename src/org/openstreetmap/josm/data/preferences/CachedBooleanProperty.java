@@ -0,0 +1,26 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.preferences;
+
+import org.openstreetmap.josm.data.Preferences;
+
+/**
+ * A {@code Boolean} setting whose value is cached, so reading it takes no lock.
+ * @see Preferences#getCachedBoolean(String, boolean)
+ */
+public class CachedBooleanProperty extends CachedProperty<Boolean> {
+
+    /**
+     * Constructs a new {@code CachedBooleanProperty}.
+     * @param pref the preferences
+     * @param key the key of the setting
+     * @param defaultValue the default value
+     */
+    public CachedBooleanProperty(Preferences pref, String key, boolean defaultValue) {
+        super(pref, key, Boolean.toString(defaultValue));
+    }
+
+    @Override
+    protected Boolean fromString(String s) {
+        return Boolean.valueOf(s);
+    }
+}
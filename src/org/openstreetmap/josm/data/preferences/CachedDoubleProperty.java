@@ -0,0 +1,30 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.preferences;
+
+import org.openstreetmap.josm.data.Preferences;
+
+/**
+ * A {@code Double} setting whose value is cached, so reading it takes no lock.
+ * @see Preferences#getCachedDouble(String, double)
+ */
+public class CachedDoubleProperty extends CachedProperty<Double> {
+
+    /**
+     * Constructs a new {@code CachedDoubleProperty}.
+     * @param pref the preferences
+     * @param key the key of the setting
+     * @param defaultValue the default value
+     */
+    public CachedDoubleProperty(Preferences pref, String key, double defaultValue) {
+        super(pref, key, Double.toString(defaultValue));
+    }
+
+    @Override
+    protected Double fromString(String s) {
+        try {
+            return Double.valueOf(s);
+        } catch (NumberFormatException e) {
+            return Double.valueOf(getDefaultValueAsString());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.preferences;
+
+import org.openstreetmap.josm.data.Preferences;
+
+/**
+ * An {@code Integer} setting whose value is cached, so reading it takes no lock.
+ * @see Preferences#getCachedInteger(String, int)
+ */
+public class CachedIntegerProperty extends CachedProperty<Integer> {
+
+    /**
+     * Constructs a new {@code CachedIntegerProperty}.
+     * @param pref the preferences
+     * @param key the key of the setting
+     * @param defaultValue the default value
+     */
+    public CachedIntegerProperty(Preferences pref, String key, int defaultValue) {
+        super(pref, key, Integer.toString(defaultValue));
+    }
+
+    @Override
+    protected Integer fromString(String s) {
+        try {
+            return Integer.valueOf(s);
+        } catch (NumberFormatException e) {
+            return Integer.valueOf(getDefaultValueAsString());
+        }
+    }
+}
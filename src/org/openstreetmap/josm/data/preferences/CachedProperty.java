@@ -2,28 +2,46 @@
 package org.openstreetmap.josm.data.preferences;
 
 import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
 import org.openstreetmap.josm.data.Preferences.PreferenceChangeEvent;
 import org.openstreetmap.josm.data.Preferences.PreferenceChangedListener;
 
+/**
+ * A property whose value is kept parsed and updated when the setting changes, so reading it
+ * takes no lock. The value is published through a volatile field, so the property can be read
+ * from any thread.
+ *
+ * @param <T> the type of the value
+ * @see Preferences#getCachedInteger(String, int)
+ */
 public abstract class CachedProperty<T> extends AbstractProperty<T> implements PreferenceChangedListener {
 
+    protected final Preferences pref;
     private final String defaultValueAsString;
-    private T value;
-    private int updateCount;
+    private volatile T value;
+    private volatile int updateCount;
 
     protected CachedProperty(String key, String defaultValueAsString) {
+        this(Main.pref, key, defaultValueAsString);
+    }
+
+    /**
+     * Constructs a property cached from the given preferences.
+     * @param pref the preferences
+     * @param key the key of the setting
+     * @param defaultValueAsString the default value
+     */
+    protected CachedProperty(Preferences pref, String key, String defaultValueAsString) {
         super(key, null);
-        Main.pref.addPreferenceChangeListener(this);
+        this.pref = pref;
+        pref.addPreferenceChangeListener(this);
         this.defaultValueAsString = defaultValueAsString;
         updateValue();
     }
 
     protected void updateValue() {
-        if (!Main.pref.get(key).isEmpty()) {
-            this.value = fromString(Main.pref.get(key));
-        } else {
-            this.value = getDefaultValue();
-        }
+        String s = pref.get(key);
+        this.value = s.isEmpty() ? getDefaultValue() : fromString(s);
         updateCount++;
     }
 
@@ -35,7 +53,7 @@ public abstract class CachedProperty<T> extends AbstractProperty<T> implements P
     }
 
     public void put(String value) {
-        Main.pref.put(key, value);
+        pref.put(key, value);
         this.value = fromString(value);
         updateCount++;
     }
@@ -60,7 +78,7 @@ public abstract class CachedProperty<T> extends AbstractProperty<T> implements P
     }
 
     public String getAsString() {
-        return Main.pref.get(getKey(), getDefaultValueAsString());
+        return pref.get(getKey(), getDefaultValueAsString());
     }
 
     @Override
@@ -19,7 +19,7 @@ public class IntegerProperty extends AbstractProperty<Integer> {
 
     @Override
     public Integer get() {
-        return Main.pref.getInteger(getKey(), getDefaultValue());
+        return Main.pref.getCachedInteger(getKey(), getDefaultValue()).get();
     }
 
     @Override
@@ -3,7 +3,6 @@ package org.openstreetmap.josm.data.validation.tests;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
 
-import java.awt.geom.Area;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -13,6 +12,7 @@ import java.util.List;
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.command.ChangeCommand;
 import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.osm.DataSourceAreaIndex;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
@@ -36,7 +36,7 @@ public class Coastlines extends Test {
 
     private List<Way> coastlines;
 
-    private Area downloadedArea = null;
+    private DataSourceAreaIndex downloadedArea = null;
 
     /**
      * Constructor
@@ -54,7 +54,7 @@ public class Coastlines extends Test {
         OsmDataLayer layer = Main.map.mapView.getEditLayer();
 
         if (layer != null) {
-            downloadedArea = layer.data.getDataSourceArea();
+            downloadedArea = layer.data.getDataSourceAreaIndex();
         }
 
         coastlines = new LinkedList<Way>();
@@ -149,10 +149,10 @@ public class Coastlines extends Test {
             if (headWays == 0 || tailWays == 0) {
                 List<OsmPrimitive> highlight = new ArrayList<OsmPrimitive>();
 
-                if (headWays == 0 && (downloadedArea == null || downloadedArea.contains(head.getCoor()))) {
+                if (headWays == 0 && (downloadedArea == null || downloadedArea.isEmpty() || downloadedArea.contains(head.getCoor()))) {
                     highlight.add(head);
                 }
-                if (tailWays == 0 && (downloadedArea == null || downloadedArea.contains(tail.getCoor()))) {
+                if (tailWays == 0 && (downloadedArea == null || downloadedArea.isEmpty() || downloadedArea.contains(tail.getCoor()))) {
                     highlight.add(tail);
                 }
 
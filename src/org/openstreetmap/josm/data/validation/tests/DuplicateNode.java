@@ -416,7 +416,7 @@ public class DuplicateNode extends Test {
                 target = nodes.iterator().next();
             }
     
-            if (DeleteCommand.checkAndConfirmOutlyingDelete(Main.main.getCurrentDataSet().getDataSourceArea(), nodes, Collections.singleton(target)))
+            if (DeleteCommand.checkAndConfirmOutlyingDelete(Main.main.getCurrentDataSet().getDataSourceAreaIndex(), nodes, Collections.singleton(target)))
                 return MergeNodesAction.mergeNodes(Main.main.getEditLayer(), nodes, target);
         }
 
@@ -3,7 +3,6 @@ package org.openstreetmap.josm.data.validation.tests;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
 
-import java.awt.geom.Area;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
@@ -21,6 +20,7 @@ import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSourceAreaIndex;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmUtils;
 import org.openstreetmap.josm.data.osm.QuadBuckets;
@@ -48,7 +48,7 @@ public class UnconnectedWays extends Test {
     Set<Node> othernodes; // nodes appearing at least twice
     //NodeSearchCache nodecache;
     QuadBuckets<Node> nodecache;
-    Area ds_area;
+    DataSourceAreaIndex ds_area;
     DataSet ds;
 
     double mindist;
@@ -73,7 +73,7 @@ public class UnconnectedWays extends Test {
         mindist = Main.pref.getDouble(PREFIX + ".node_way_distance", 10.0);
         minmiddledist = Main.pref.getDouble(PREFIX + ".way_way_distance", 0.0);
         this.ds = Main.main.getCurrentDataSet();
-        this.ds_area = ds.getDataSourceArea();
+        this.ds_area = ds.getDataSourceAreaIndex();
     }
 
     @Override
@@ -288,12 +288,14 @@ public class UnconnectedWays extends Test {
             // overlap a bit and can return duplicate nodes.
             nearbyNodeCache = null;
             List<LatLon> bounds = this.getBounds(dist);
-            List<Node> found_nodes = endnodes_highway.search(new BBox(bounds.get(0), bounds.get(1)));
-            found_nodes.addAll(endnodes.search(new BBox(bounds.get(0), bounds.get(1))));
+            BBox bbox = new BBox(bounds.get(0), bounds.get(1));
+            List<Node> found_nodes = new ArrayList<Node>();
+            endnodes_highway.search(bbox, found_nodes);
+            endnodes.search(bbox, found_nodes);
 
             for (Node n : found_nodes) {
                 if (!nearby(n, dist) ||
-                        (ds_area != null && !ds_area.contains(n.getCoor()))) {
+                        (!ds_area.isEmpty() && !ds_area.contains(n.getCoor()))) {
                     continue;
                 }
                 // It is actually very rare for us to find a node
@@ -47,6 +47,7 @@ import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.data.osm.visitor.paint.PaintColors;
 import org.openstreetmap.josm.data.osm.visitor.paint.relations.MultipolygonCache;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
 import org.openstreetmap.josm.gui.layer.GpxLayer;
 import org.openstreetmap.josm.gui.layer.Layer;
 import org.openstreetmap.josm.gui.layer.MapViewPaintable;
@@ -215,6 +216,18 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
     private boolean paintPreferencesChanged = true;
     private Rectangle lastClipBounds = new Rectangle();
     private MapMover mapMover;
+    private MapViewRenderer backgroundRenderer;
+
+    /**
+     * Counts the repaints asked for, except those showing a new frame of the {@link MapViewRenderer}.
+     * Layers which do not keep track of their changes are rendered again after such a repaint.
+     */
+    private volatile int repaintCount;
+
+    /**
+     * If true, layers are rendered on a background thread instead of the EDT.
+     */
+    public static final BooleanProperty PROP_RENDER_IN_BACKGROUND = new BooleanProperty("mappaint.render-in-background", true);
 
     /**
      * Constructs a new {@code MapView}.
@@ -496,7 +509,7 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         return ret;
     }
 
-    private void paintLayer(Layer layer, Graphics2D g, Bounds box) {
+    void paintLayer(Layer layer, Graphics2D g, Bounds box) {
         if (layer.getOpacity() < 1) {
             g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER,(float)layer.getOpacity()));
         }
@@ -504,6 +517,26 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         g.setPaintMode();
     }
 
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        repaintCount++;
+        super.repaint(tm, x, y, width, height);
+    }
+
+    /**
+     * Repaints the map view to show a new frame of the {@link MapViewRenderer}.
+     */
+    void repaintFrame() {
+        super.repaint(0, 0, 0, getWidth(), getHeight());
+    }
+
+    /**
+     * @return the number of repaints asked for, except those showing a new frame of the {@link MapViewRenderer}
+     */
+    int getRepaintCount() {
+        return repaintCount;
+    }
+
     /**
      * Draw the component.
      */
@@ -526,12 +559,13 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         }
 
         boolean canUseBuffer;
+        boolean preferencesChanged;
         
         synchronized (this) {
-            canUseBuffer = !paintPreferencesChanged;
+            preferencesChanged = paintPreferencesChanged;
             paintPreferencesChanged = false;
         }
-        canUseBuffer = canUseBuffer && nonChangedLayers.size() <= nonChangedLayersCount &&
+        canUseBuffer = !preferencesChanged && nonChangedLayers.size() <= nonChangedLayersCount &&
         lastViewID == getViewID() && lastClipBounds.contains(g.getClipBounds());
         if (canUseBuffer) {
             for (int i=0; i<nonChangedLayers.size(); i++) {
@@ -550,7 +584,14 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         tempG.setClip(g.getClip());
         Bounds box = getLatLonBounds(g.getClipBounds());
 
-        if (!canUseBuffer || nonChangedLayersBuffer == null) {
+        // the layers from this index on are painted directly
+        int directlyPainted = nonChangedLayersCount;
+        if (PROP_RENDER_IN_BACKGROUND.get()) {
+            paintInBackground(tempG, visibleLayers, nonChangedLayersCount, preferencesChanged);
+            directlyPainted = visibleLayers.size();
+            // the synchronous buffer is out of date as soon as rendering happens in background
+            nonChangedLayersBuffer = null;
+        } else if (!canUseBuffer || nonChangedLayersBuffer == null) {
             if (null == nonChangedLayersBuffer || nonChangedLayersBuffer.getWidth() != getWidth() || nonChangedLayersBuffer.getHeight() != getHeight()) {
                 nonChangedLayersBuffer = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_3BYTE_BGR);
             }
@@ -581,9 +622,11 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         lastViewID = getViewID();
         lastClipBounds = g.getClipBounds();
 
-        tempG.drawImage(nonChangedLayersBuffer, 0, 0, null);
+        if (nonChangedLayersBuffer != null) {
+            tempG.drawImage(nonChangedLayersBuffer, 0, 0, null);
+        }
 
-        for (int i=nonChangedLayersCount; i<visibleLayers.size(); i++) {
+        for (int i=directlyPainted; i<visibleLayers.size(); i++) {
             paintLayer(visibleLayers.get(i),tempG, box);
         }
 
@@ -650,6 +693,30 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         super.paint(g);
     }
 
+    /**
+     * Paints the layers through the {@link MapViewRenderer}. The last frame of the renderer is drawn
+     * as is, or shifted to the current viewport while a frame for it is still being rendered.
+     * Changed layers show up once they are rendered again, the EDT never waits for the renderer.
+     *
+     * @param g the graphics to paint on
+     * @param layers the visible layers, in Z-Order
+     * @param unchanged the number of unchanged layers at the bottom
+     * @param force true to render the layers again even if an up-to-date frame exists
+     */
+    private void paintInBackground(Graphics2D g, List<Layer> layers, int unchanged, boolean force) {
+        if (backgroundRenderer == null) {
+            backgroundRenderer = new MapViewRenderer(this);
+        }
+        backgroundRenderer.request(layers, unchanged, getLatLonBounds(new Rectangle(getWidth(), getHeight())), force);
+
+        g.setColor(PaintColors.getBackgroundColor());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        MapViewRenderer.Frame frame = backgroundRenderer.getLastFrame();
+        if (frame != null) {
+            backgroundRenderer.drawFrame(g, frame);
+        }
+    }
+
     /**
      * Set the new dimension to the view.
      */
@@ -905,6 +972,9 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         if (mapMover != null) {
             mapMover.destroy();
         }
+        if (backgroundRenderer != null) {
+            backgroundRenderer.destroy();
+        }
     }
 
     @Override
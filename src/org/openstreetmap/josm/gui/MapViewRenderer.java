@@ -0,0 +1,372 @@
+// License: GPL. See LICENSE file for details.
+package org.openstreetmap.josm.gui;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.visitor.paint.PaintColors;
+import org.openstreetmap.josm.gui.layer.Layer;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+
+/**
+ * Renders the layers of a {@link MapView} on a background thread.
+ *
+ * The {@code MapView} asks for a frame of its visible layers with {@link #request}
+ * and keeps painting the last published {@link Frame} in the meantime, the EDT never paints
+ * layers itself and never waits for the render thread. If the viewport changed, the old frame
+ * is shifted and scaled to the new viewport and serves as a placeholder until the new frame
+ * is ready. Frames are published after each rendered layer, so partial results show up
+ * progressively.
+ *
+ * The complete frame of the unchanged layers at the bottom is kept. When only the layers on
+ * top of them changed, typically the edit layer, just those are painted again over a copy
+ * of that frame.
+ *
+ * A frame that is still being rendered is cancelled as soon as a different frame is
+ * requested: the render thread is interrupted and stops at the next layer (renderers
+ * that support it also check the interrupted state while drawing).
+ *
+ * The render thread paints for the viewport of the request: the transformation of the map
+ * view is fixed for it (see {@link NavigatableComponent#fixViewport}) while the user keeps
+ * moving the map. Data layers are painted while holding the read lock of their {@code DataSet}.
+ * Renderers that support it stop early if a writer waits for the lock; the layer is painted
+ * again once the writer is done.
+ */
+public class MapViewRenderer {
+
+    /**
+     * A rendered (or partially rendered) image of a list of layers for a given viewport.
+     */
+    public static class Frame {
+        private final BufferedImage image;
+        private final List<Layer> layers;
+        private final int layersDone;
+        private final int viewID;
+        private final EastNorth center;
+        private final double scale;
+
+        private Frame(BufferedImage image, List<Layer> layers, int layersDone, int viewID, EastNorth center, double scale) {
+            this.image = image;
+            this.layers = layers;
+            this.layersDone = layersDone;
+            this.viewID = viewID;
+            this.center = center;
+            this.scale = scale;
+        }
+
+        /**
+         * @return the layers this frame is (or will be) made of, in Z-Order
+         */
+        public List<Layer> getLayers() {
+            return layers;
+        }
+
+        /**
+         * @return the number of layers already painted into this frame
+         */
+        public int getLayersDone() {
+            return layersDone;
+        }
+
+        /**
+         * @return true if all layers have been painted into this frame
+         */
+        public boolean isComplete() {
+            return layersDone == layers.size();
+        }
+
+        /**
+         * @return the layers already painted into this frame, in Z-Order
+         */
+        public List<Layer> getLayersPainted() {
+            return layers.subList(0, layersDone);
+        }
+
+        /**
+         * @return the view ID (see {@link NavigatableComponent#getViewID()}) this frame was rendered for
+         */
+        public int getViewID() {
+            return viewID;
+        }
+    }
+
+    private static class Job {
+        final List<Layer> layers;
+        /** the number of layers at the bottom which did not change since they were painted the last time */
+        final int unchanged;
+        final int viewID;
+        final int width;
+        final int height;
+        final Bounds box;
+        final EastNorth center;
+        final double scale;
+        /** the repaint count of the map view (see {@link MapView#getRepaintCount()}) when the job was requested */
+        final int repaintCount;
+        /** a complete frame for the same viewport whose layers are a prefix of our unchanged layers, or null */
+        final Frame base;
+
+        Job(List<Layer> layers, int unchanged, int viewID, int width, int height, Bounds box, EastNorth center, double scale,
+                int repaintCount, Frame base) {
+            this.layers = layers;
+            this.unchanged = unchanged;
+            this.viewID = viewID;
+            this.width = width;
+            this.height = height;
+            this.box = box;
+            this.center = center;
+            this.scale = scale;
+            this.repaintCount = repaintCount;
+            this.base = base;
+        }
+
+        boolean isFor(List<Layer> layers, int viewID, int width, int height) {
+            return this.viewID == viewID && this.width == width && this.height == height && this.layers.equals(layers);
+        }
+    }
+
+    private final MapView mv;
+    private final Thread thread;
+
+    /** the job currently rendered or about to be rendered, null if the thread is idle */
+    private Job pending;
+    /** the most recently requested job */
+    private Job current;
+    private Frame lastFrame;
+    /** the complete frame of the unchanged layers at the bottom of the last job, or null */
+    private Frame baseFrame;
+    private boolean running = true;
+
+    /**
+     * Constructs a new {@code MapViewRenderer} and starts its render thread.
+     * @param mv the map view to render for
+     */
+    public MapViewRenderer(MapView mv) {
+        this.mv = mv;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                renderLoop();
+            }
+        }, "Map View Renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Requests a frame of the given layers for the current viewport of the map view.
+     * Nothing happens if such a frame is already rendered or being rendered, unless
+     * {@code force} is set or the map view was repainted for changed layers since the frame
+     * was requested. Any other frame in progress is cancelled. Does not block, the frame is
+     * rendered on the render thread.
+     *
+     * Must be called on the EDT.
+     *
+     * @param layers the layers to paint, in Z-Order
+     * @param unchanged the number of layers at the bottom which did not change since they were painted
+     * @param box the visible area
+     * @param force true to render again even if an up-to-date frame exists (e.g. after paint preferences changed)
+     */
+    public synchronized void request(List<Layer> layers, int unchanged, Bounds box, boolean force) {
+        int viewID = mv.getViewID();
+        int width = mv.getWidth();
+        int height = mv.getHeight();
+        int repaintCount = mv.getRepaintCount();
+        if (!force && current != null && current.isFor(layers, viewID, width, height)
+                && (unchanged == layers.size() || current == pending || current.repaintCount == repaintCount))
+            // up to date, still being rendered (a changed layer is rendered again afterwards),
+            // or changed layers were rendered and nothing asked for a repaint since
+            return;
+        if (force || baseFrame != null && !isPrefix(baseFrame.layers, layers.subList(0, unchanged))) {
+            baseFrame = null;
+        }
+        Frame base = null;
+        if (baseFrame != null && baseFrame.viewID == viewID
+                && baseFrame.image.getWidth() == width && baseFrame.image.getHeight() == height) {
+            base = baseFrame;
+        }
+        current = new Job(new ArrayList<Layer>(layers), unchanged, viewID, width, height, box, mv.getCenter(), mv.getScale(),
+                repaintCount, base);
+        if (pending != null) {
+            thread.interrupt();
+        }
+        pending = current;
+        notifyAll();
+    }
+
+    /**
+     * Returns the most recently published frame.
+     * @return the last frame, or null if nothing has been rendered yet
+     */
+    public synchronized Frame getLastFrame() {
+        return lastFrame;
+    }
+
+    /**
+     * Draws a frame, shifted and scaled to the current viewport of the map view.
+     * @param g the graphics to draw on
+     * @param frame the frame to draw
+     */
+    public void drawFrame(Graphics2D g, Frame frame) {
+        if (frame.viewID == mv.getViewID()) {
+            g.drawImage(frame.image, 0, 0, null);
+            return;
+        }
+        double factor = frame.scale / mv.getScale();
+        Point2D p = mv.getPoint2D(frame.center);
+        int w = frame.image.getWidth();
+        int h = frame.image.getHeight();
+        int x = (int) Math.round(p.getX() - w / 2.0 * factor);
+        int y = (int) Math.round(p.getY() - h / 2.0 * factor);
+        g.drawImage(frame.image, x, y, (int) Math.round(w * factor), (int) Math.round(h * factor), null);
+    }
+
+    /**
+     * Stops the render thread. The renderer cannot be used afterwards.
+     */
+    public synchronized void destroy() {
+        running = false;
+        pending = null;
+        current = null;
+        lastFrame = null;
+        baseFrame = null;
+        thread.interrupt();
+    }
+
+    private static boolean isPrefix(List<Layer> prefix, List<Layer> list) {
+        return prefix.size() <= list.size() && list.subList(0, prefix.size()).equals(prefix);
+    }
+
+    private void renderLoop() {
+        while (true) {
+            Job job;
+            synchronized (this) {
+                while (running && pending == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // check again
+                    }
+                }
+                if (!running)
+                    return;
+                job = pending;
+                // clear a cancellation targeted at the previous job
+                Thread.interrupted();
+            }
+            mv.fixViewport(job.center, job.scale, job.width, job.height);
+            try {
+                render(job);
+            } catch (RuntimeException e) {
+                // A layer failed to paint off the EDT. Give up on this frame, the next request will retry.
+                e.printStackTrace();
+            } finally {
+                mv.releaseViewport();
+            }
+            synchronized (this) {
+                if (pending == job) {
+                    pending = null;
+                }
+            }
+        }
+    }
+
+    private void render(Job job) {
+        int start = job.base != null ? job.base.layers.size() : 0;
+        if (start == job.layers.size()) {
+            synchronized (this) {
+                if (current == job) {
+                    lastFrame = job.base;
+                }
+            }
+            mv.repaintFrame();
+            return;
+        }
+        BufferedImage image = new BufferedImage(job.width, job.height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        Frame previous = job.base;
+        drawBackground(g, job, previous);
+        for (int i = start; i < job.layers.size(); i++) {
+            while (true) {
+                if (isCancelled(job))
+                    return;
+                boolean complete = paintLayer(job.layers.get(i), g, job.box);
+                if (isCancelled(job))
+                    return;
+                if (complete) {
+                    break;
+                }
+                // a writer was waiting for the dataset, start over once it is done
+                drawBackground(g, job, previous);
+            }
+            previous = publish(job, image, i + 1, previous);
+        }
+    }
+
+    private static void drawBackground(Graphics2D g, Job job, Frame previous) {
+        if (previous != null) {
+            g.drawImage(previous.image, 0, 0, null);
+        } else {
+            g.setColor(PaintColors.getBackgroundColor());
+            g.fillRect(0, 0, job.width, job.height);
+        }
+    }
+
+    /**
+     * Paints a layer, data layers while holding the read lock of their dataset.
+     * @return false if a writer waited for the dataset, the layer may have been painted only partially
+     */
+    private boolean paintLayer(Layer layer, Graphics2D g, Bounds box) {
+        if (!(layer instanceof OsmDataLayer)) {
+            mv.paintLayer(layer, g, box);
+            return true;
+        }
+        DataSet data = ((OsmDataLayer) layer).data;
+        data.getReadLock().lock();
+        try {
+            mv.paintLayer(layer, g, box);
+            return !data.hasQueuedLockWaiters();
+        } finally {
+            data.getReadLock().unlock();
+        }
+    }
+
+    private synchronized boolean isCancelled(Job job) {
+        return !running || current != job || (Thread.currentThread() == thread && thread.isInterrupted());
+    }
+
+    /**
+     * Publishes the working image of a job as the last frame.
+     *
+     * @param job the job
+     * @param image the working image
+     * @param layersDone the number of layers painted into the image
+     * @param previous the frame published before by the job, or its base
+     * @return the published frame
+     */
+    private Frame publish(Job job, BufferedImage image, int layersDone, Frame previous) {
+        BufferedImage copy = image;
+        if (layersDone < job.layers.size()) {
+            // keep rendering into the working image, publish a snapshot of it
+            copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+            Graphics2D g = copy.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+        Frame frame = new Frame(copy, job.layers, layersDone, job.viewID, job.center, job.scale);
+        synchronized (this) {
+            if (current != job)
+                return frame;
+            if (layersDone <= job.unchanged) {
+                baseFrame = new Frame(copy, frame.getLayersPainted(), layersDone, job.viewID, job.center, job.scale);
+            }
+            lastFrame = frame;
+        }
+        mv.repaintFrame();
+        return frame;
+    }
+}
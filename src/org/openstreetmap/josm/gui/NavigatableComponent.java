@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -22,7 +23,6 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
-import java.util.TreeMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.swing.JComponent;
@@ -37,6 +37,7 @@ import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.QuadBuckets;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.WaySegment;
@@ -143,6 +144,27 @@ public class NavigatableComponent extends JComponent implements Helpful {
     private final Object paintRequestLock = new Object();
     private Rectangle paintRect = null;
     private Polygon paintPoly = null;
+
+    /**
+     * The viewport a background thread paints for, see {@link #fixViewport}.
+     */
+    private volatile FixedViewport fixedViewport;
+
+    private static class FixedViewport {
+        private final Thread thread;
+        private final EastNorth center;
+        private final double scale;
+        private final int width;
+        private final int height;
+
+        private FixedViewport(Thread thread, EastNorth center, double scale, int width, int height) {
+            this.thread = thread;
+            this.center = center;
+            this.scale = scale;
+            this.width = width;
+            this.height = height;
+        }
+    }
     
     public NavigatableComponent() {
         setLayout(null);
@@ -199,11 +221,53 @@ public class NavigatableComponent extends JComponent implements Helpful {
      *      change the center by accessing the return value. Use zoomTo instead.
      */
     public EastNorth getCenter() {
-        return center;
+        FixedViewport v = getFixedViewport();
+        return v != null ? v.center : center;
     }
 
     public double getScale() {
-        return scale;
+        FixedViewport v = getFixedViewport();
+        return v != null ? v.scale : scale;
+    }
+
+    @Override
+    public int getWidth() {
+        FixedViewport v = getFixedViewport();
+        return v != null ? v.width : super.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        FixedViewport v = getFixedViewport();
+        return v != null ? v.height : super.getHeight();
+    }
+
+    /**
+     * Fixes the viewport for the current thread, so that it can paint a consistent image off the EDT
+     * while the map is moved. Until {@link #releaseViewport()} is called, this thread sees the given
+     * center, scale and size, and all coordinates are transformed for them. Other threads are not affected.
+     *
+     * Only one thread at a time can have a fixed viewport.
+     *
+     * @param center the center of the viewport
+     * @param scale the scale of the viewport
+     * @param width the width of the viewport
+     * @param height the height of the viewport
+     */
+    void fixViewport(EastNorth center, double scale, int width, int height) {
+        fixedViewport = new FixedViewport(Thread.currentThread(), center, scale, width, height);
+    }
+
+    /**
+     * Releases the viewport fixed by {@link #fixViewport}.
+     */
+    void releaseViewport() {
+        fixedViewport = null;
+    }
+
+    private FixedViewport getFixedViewport() {
+        FixedViewport v = fixedViewport;
+        return v != null && v.thread == Thread.currentThread() ? v : null;
     }
 
     /**
@@ -214,12 +278,16 @@ public class NavigatableComponent extends JComponent implements Helpful {
      *      on the screen.
      */
     public EastNorth getEastNorth(int x, int y) {
+        EastNorth center = getCenter();
+        double scale = getScale();
         return new EastNorth(
                 center.east() + (x - getWidth()/2.0)*scale,
                 center.north() - (y - getHeight()/2.0)*scale);
     }
 
     public ProjectionBounds getProjectionBounds() {
+        EastNorth center = getCenter();
+        double scale = getScale();
         return new ProjectionBounds(
                 new EastNorth(
                         center.east() - getWidth()/2.0*scale,
@@ -238,6 +306,8 @@ public class NavigatableComponent extends JComponent implements Helpful {
 
     /* FIXME: replace with better method - used by Main to reset Bounds when projection changes, don't use otherwise */
     public Bounds getRealBounds() {
+        EastNorth center = getCenter();
+        double scale = getScale();
         return new Bounds(
                 getProjection().eastNorth2latlon(new EastNorth(
                         center.east() - getWidth()/2.0*scale,
@@ -291,6 +361,8 @@ public class NavigatableComponent extends JComponent implements Helpful {
     }
 
     public AffineTransform getAffineTransform() {
+        EastNorth center = getCenter();
+        double scale = getScale();
         return new AffineTransform(
                 1.0/scale, 0.0, 0.0, -1.0/scale, getWidth()/2.0 - center.east()/scale, getHeight()/2.0 + center.north()/scale);
     }
@@ -304,6 +376,8 @@ public class NavigatableComponent extends JComponent implements Helpful {
     public Point2D getPoint2D(EastNorth p) {
         if (null == p)
             return new Point();
+        EastNorth center = getCenter();
+        double scale = getScale();
         double x = (p.east()-center.east())/scale + getWidth()/2;
         double y = (center.north()-p.north())/scale + getHeight()/2;
         return new Point2D.Double(x, y);
@@ -519,9 +593,9 @@ public class NavigatableComponent extends JComponent implements Helpful {
 
     private void pushZoomUndo(EastNorth center, double scale) {
         Date now = new Date();
-        if ((now.getTime() - zoomTimestamp.getTime()) > (Main.pref.getDouble("zoom.undo.delay", 1.0) * 1000)) {
+        if ((now.getTime() - zoomTimestamp.getTime()) > (Main.pref.getCachedDouble("zoom.undo.delay", 1.0).get() * 1000)) {
             zoomUndoBuffer.push(new ZoomData(center, scale));
-            if (zoomUndoBuffer.size() > Main.pref.getInteger("zoom.undo.max", 50)) {
+            if (zoomUndoBuffer.size() > Main.pref.getCachedInteger("zoom.undo.max", 50).get()) {
                 zoomUndoBuffer.remove(0);
             }
             zoomRedoBuffer.clear();
@@ -554,44 +628,181 @@ public class NavigatableComponent extends JComponent implements Helpful {
     }
 
     private BBox getBBox(Point p, int snapDistance) {
-        return new BBox(getLatLon(p.x - snapDistance, p.y - snapDistance),
+        BBox bbox = new BBox(getLatLon(p.x - snapDistance, p.y - snapDistance),
                 getLatLon(p.x + snapDistance, p.y + snapDistance));
+        // the other corners matter if the projection is rotated against lat/lon
+        bbox.add(getLatLon(p.x - snapDistance, p.y + snapDistance));
+        bbox.add(getLatLon(p.x + snapDistance, p.y - snapDistance));
+        return bbox;
     }
 
     /**
-     * The *result* does not depend on the current map selection state,
-     * neither does the result *order*.
-     * It solely depends on the distance to point p.
+     * Screen distance of primitives to a point, used for the best-first searches
+     * in {@link DataSet#searchNearestNodes} and {@link DataSet#searchNearestWays}.
      *
-     * @return a sorted map with the keys representing the distance of
-     *      their associated nodes to point p.
+     * Only the part of a bbox within the search box is searched. The lower bound for a bbox is
+     * the screen distance to the bounding rectangle of the screen positions of the corners of
+     * that part. The search box spans a few pixels, where the projection is affine for all
+     * practical purposes, so the part is a parallelogram on screen which lies within that
+     * rectangle, even if the projection is rotated against lat/lon.
      */
-    private Map<Double, List<Node>> getNearestNodesImpl(Point p,
-            Predicate<OsmPrimitive> predicate) {
-        TreeMap<Double, List<Node>> nearestMap = new TreeMap<Double, List<Node>>();
-        DataSet ds = getCurrentDataSet();
+    private abstract class ScreenDistance<T extends OsmPrimitive> implements QuadBuckets.NearestMetric<T> {
+        protected final Point p;
+        protected final Predicate<OsmPrimitive> predicate;
+        private final BBox searchBox;
+
+        public ScreenDistance(Point p, Predicate<OsmPrimitive> predicate, BBox searchBox) {
+            this.p = p;
+            this.predicate = predicate;
+            this.searchBox = searchBox;
+        }
 
-        if (ds != null) {
-            double dist, snapDistanceSq = PROP_SNAP_DISTANCE.get();
-            snapDistanceSq *= snapDistanceSq;
-
-            for (Node n : ds.searchNodes(getBBox(p, PROP_SNAP_DISTANCE.get()))) {
-                if (predicate.evaluate(n)
-                        && (dist = getPoint2D(n).distanceSq(p)) < snapDistanceSq)
-                {
-                    List<Node> nlist;
-                    if (nearestMap.containsKey(dist)) {
-                        nlist = nearestMap.get(dist);
-                    } else {
-                        nlist = new LinkedList<Node>();
-                        nearestMap.put(dist, nlist);
-                    }
-                    nlist.add(n);
+        public double minDistanceSq(BBox bbox) {
+            double minLat = Math.max(bbox.getBottomRight().lat(), searchBox.getBottomRight().lat());
+            double maxLat = Math.min(bbox.getTopLeft().lat(), searchBox.getTopLeft().lat());
+            double minLon = Math.max(bbox.getTopLeft().lon(), searchBox.getTopLeft().lon());
+            double maxLon = Math.min(bbox.getBottomRight().lon(), searchBox.getBottomRight().lon());
+            if (minLat > maxLat || minLon > maxLon)
+                return Double.POSITIVE_INFINITY;
+            Point2D c1 = getPoint2D(new LatLon(minLat, minLon));
+            Point2D c2 = getPoint2D(new LatLon(minLat, maxLon));
+            Point2D c3 = getPoint2D(new LatLon(maxLat, minLon));
+            Point2D c4 = getPoint2D(new LatLon(maxLat, maxLon));
+            double minX = Math.min(Math.min(c1.getX(), c2.getX()), Math.min(c3.getX(), c4.getX()));
+            double maxX = Math.max(Math.max(c1.getX(), c2.getX()), Math.max(c3.getX(), c4.getX()));
+            double minY = Math.min(Math.min(c1.getY(), c2.getY()), Math.min(c3.getY(), c4.getY()));
+            double maxY = Math.max(Math.max(c1.getY(), c2.getY()), Math.max(c3.getY(), c4.getY()));
+            double dx = Math.max(0, Math.max(minX - p.x, p.x - maxX));
+            double dy = Math.max(0, Math.max(minY - p.y, p.y - maxY));
+            return dx * dx + dy * dy;
+        }
+    }
+
+    private class NodeDistance extends ScreenDistance<Node> {
+        public NodeDistance(Point p, Predicate<OsmPrimitive> predicate, BBox searchBox) {
+            super(p, predicate, searchBox);
+        }
+
+        public double distanceSq(Node n) {
+            return predicate.evaluate(n) ? getPoint2D(n).distanceSq(p) : Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * The distance of a way is the distance of its nearest segment. The segments within
+     * snap distance are kept, so they are computed only once per way.
+     */
+    private class WayDistance extends ScreenDistance<Way> {
+        private final double snapDistanceSq;
+        private final Map<Way, List<SegmentDistance>> nearSegments = new HashMap<Way, List<SegmentDistance>>();
+
+        public WayDistance(Point p, Predicate<OsmPrimitive> predicate, BBox searchBox, double snapDistanceSq) {
+            super(p, predicate, searchBox);
+            this.snapDistanceSq = snapDistanceSq;
+        }
+
+        public double distanceSq(Way w) {
+            // the segments need not be looked at if the way is too far away as a whole
+            if (!predicate.evaluate(w) || minDistanceSq(w.getBBox()) >= snapDistanceSq)
+                return Double.POSITIVE_INFINITY;
+            List<SegmentDistance> segments = new ArrayList<SegmentDistance>();
+            double distanceSq = NavigatableComponent.this.getNearSegments(w, p, snapDistanceSq, segments);
+            if (!segments.isEmpty()) {
+                nearSegments.put(w, segments);
+            }
+            return distanceSq;
+        }
+
+        /**
+         * @param w a way whose distance is finite
+         * @return the segments of the way within snap distance
+         */
+        public List<SegmentDistance> getNearSegments(Way w) {
+            return nearSegments.get(w);
+        }
+    }
+
+    private static class SegmentDistance implements Comparable<SegmentDistance> {
+        final WaySegment ws;
+        final double distanceSq;
+
+        public SegmentDistance(WaySegment ws, double distanceSq) {
+            this.ws = ws;
+            this.distanceSq = distanceSq;
+        }
+
+        public int compareTo(SegmentDistance o) {
+            return Double.compare(distanceSq, o.distanceSq);
+        }
+    }
+
+    /**
+     * Finds the segments of a way within snap distance to point p.
+     *
+     * @param w the way
+     * @param p the point
+     * @param snapDistanceSq the squared snap distance
+     * @param result the segments within snap distance are added to it
+     * @return the (perpendicular) squared distance of the nearest segment or
+     *      {@link Double#POSITIVE_INFINITY} if no segment is within snap distance
+     */
+    private double getNearSegments(Way w, Point p, double snapDistanceSq, List<SegmentDistance> result) {
+        double min = Double.POSITIVE_INFINITY;
+        Node lastN = null;
+        int i = -2;
+        for (Node n : w.getNodes()) {
+            i++;
+            if (n.isDeleted() || n.isIncomplete()) { //FIXME: This shouldn't happen, raise exception?
+                continue;
+            }
+            if (lastN == null) {
+                lastN = n;
+                continue;
+            }
+
+            Point2D A = getPoint2D(lastN);
+            Point2D B = getPoint2D(n);
+            double c = A.distanceSq(B);
+            double a = p.distanceSq(B);
+            double b = p.distanceSq(A);
+
+            /* perpendicular distance squared
+             * loose some precision to account for possible deviations in the calculation above
+             * e.g. if identical (A and B) come about reversed in another way, values may differ
+             * -- zero out least significant 32 dual digits of mantissa..
+             */
+            double perDistSq = Double.longBitsToDouble(
+                    Double.doubleToLongBits( a - (a - b + c) * (a - b + c) / 4 / c )
+                    >> 32 << 32); // resolution in numbers with large exponent not needed here..
+
+            if (perDistSq < snapDistanceSq && a < c + snapDistanceSq && b < c + snapDistanceSq) {
+                //System.err.println(Double.toHexString(perDistSq));
+                if (perDistSq < min) {
+                    min = perDistSq;
                 }
+                result.add(new SegmentDistance(new WaySegment(w, i), perDistSq));
             }
+
+            lastN = n;
         }
+        return min;
+    }
 
-        return nearestMap;
+    /**
+     * The *result* does not depend on the current map selection state,
+     * neither does the result *order*.
+     * It solely depends on the distance to point p.
+     *
+     * @return all nodes within snap distance to point p, sorted by their distance.
+     */
+    private List<Node> getNearestNodesImpl(Point p, Predicate<OsmPrimitive> predicate) {
+        DataSet ds = getCurrentDataSet();
+        if (ds == null)
+            return new ArrayList<Node>();
+        int snapDistance = PROP_SNAP_DISTANCE.get();
+        BBox bbox = getBBox(p, snapDistance);
+        return ds.searchNearestNodes(bbox, new NodeDistance(p, predicate, bbox),
+                Integer.MAX_VALUE, snapDistance * snapDistance);
     }
 
     /**
@@ -609,34 +820,30 @@ public class NavigatableComponent extends JComponent implements Helpful {
      */
     public final List<Node> getNearestNodes(Point p,
             Collection<Node> ignore, Predicate<OsmPrimitive> predicate) {
-        List<Node> nearestList = Collections.emptyList();
-
-        if (ignore == null) {
-            ignore = Collections.emptySet();
-        }
+        final List<Node> nearestList = new ArrayList<Node>();
+        DataSet ds = getCurrentDataSet();
+        if (ds == null)
+            return nearestList;
 
-        Map<Double, List<Node>> nlists = getNearestNodesImpl(p, predicate);
-        if (!nlists.isEmpty()) {
-            Double minDistSq = null;
-            List<Node> nlist;
-            for (Double distSq : nlists.keySet()) {
-                nlist = nlists.get(distSq);
+        final Collection<Node> ignored = ignore == null ? Collections.<Node>emptySet() : ignore;
+        int snapDistance = PROP_SNAP_DISTANCE.get();
+        BBox bbox = getBBox(p, snapDistance);
+        ds.searchNearestNodes(bbox, new NodeDistance(p, predicate, bbox), snapDistance * snapDistance,
+                new QuadBuckets.NearestVisitor<Node>() {
+            private double minDistSq = -1;
 
+            public boolean visit(Node n, double distSq) {
                 // filter nodes to be ignored before determining minDistSq..
-                nlist.removeAll(ignore);
-                if (minDistSq == null) {
-                    if (!nlist.isEmpty()) {
-                        minDistSq = distSq;
-                        nearestList = new ArrayList<Node>();
-                        nearestList.addAll(nlist);
-                    }
-                } else {
-                    if (distSq-minDistSq < (4)*(4)) {
-                        nearestList.addAll(nlist);
-                    }
-                }
+                if (ignored.contains(n))
+                    return true;
+                if (minDistSq < 0) {
+                    minDistSq = distSq;
+                } else if (distSq-minDistSq >= (4)*(4))
+                    return false;
+                nearestList.add(n);
+                return true;
             }
-        }
+        });
 
         return nearestList;
     }
@@ -679,38 +886,60 @@ public class NavigatableComponent extends JComponent implements Helpful {
      *        give the nearest node that is tagged.
      */
     public final Node getNearestNode(Point p, Predicate<OsmPrimitive> predicate, boolean use_selected) {
-        Node n = null;
-
-        Map<Double, List<Node>> nlists = getNearestNodesImpl(p, predicate);
-        if (!nlists.isEmpty()) {
-            Node ntsel = null, ntnew = null;
-            double minDistSq = nlists.keySet().iterator().next();
-
-            for (Double distSq : nlists.keySet()) {
-                for (Node nd : nlists.get(distSq)) {
-                    // find the nearest selected node
-                    if (ntsel == null && nd.isSelected()) {
-                        ntsel = nd;
-                        // if there are multiple nearest nodes, prefer the one
-                        // that is selected. This is required in order to drag
-                        // the selected node if multiple nodes have the same
-                        // coordinates (e.g. after unglue)
-                        use_selected |= (distSq == minDistSq);
-                    }
-                    // find the nearest newest node that is within about the same
-                    // distance as the true nearest node
-                    if (ntnew == null && nd.isNew() && (distSq-minDistSq < 1)) {
-                        ntnew = nd;
-                    }
-                }
+        DataSet ds = getCurrentDataSet();
+        if (ds == null)
+            return null;
+
+        NearestNodeVisitor visitor = new NearestNodeVisitor(use_selected);
+        int snapDistance = PROP_SNAP_DISTANCE.get();
+        BBox bbox = getBBox(p, snapDistance);
+        ds.searchNearestNodes(bbox, new NodeDistance(p, predicate, bbox), snapDistance * snapDistance, visitor);
+        return visitor.getResult();
+    }
+
+    /**
+     * Implements the choice of {@link #getNearestNode(Point, Predicate, boolean)}. Nodes come in
+     * order of increasing distance, the search stops as soon as no further node can change the result.
+     */
+    private static class NearestNodeVisitor implements QuadBuckets.NearestVisitor<Node> {
+        private boolean use_selected;
+        private Node nearest, ntsel, ntnew;
+        private double minDistSq;
+
+        public NearestNodeVisitor(boolean use_selected) {
+            this.use_selected = use_selected;
+        }
+
+        public boolean visit(Node nd, double distSq) {
+            if (nearest == null) {
+                nearest = nd;
+                minDistSq = distSq;
+            }
+            // find the nearest selected node
+            if (ntsel == null && nd.isSelected()) {
+                ntsel = nd;
+                // if there are multiple nearest nodes, prefer the one
+                // that is selected. This is required in order to drag
+                // the selected node if multiple nodes have the same
+                // coordinates (e.g. after unglue)
+                use_selected |= (distSq == minDistSq);
             }
+            // find the nearest newest node that is within about the same
+            // distance as the true nearest node
+            if (ntnew == null && nd.isNew() && (distSq-minDistSq < 1)) {
+                ntnew = nd;
+            }
+            boolean newDone = ntnew != null || distSq-minDistSq >= 1;
+            boolean selectedDone = ntsel != null || (!use_selected && distSq > minDistSq);
+            return !(newDone && selectedDone);
+        }
 
+        public Node getResult() {
             // take nearest selected, nearest new or true nearest node to p, in that order
-            n = (ntsel != null && use_selected) ? ntsel
+            return (ntsel != null && use_selected) ? ntsel
                     : (ntnew != null) ? ntnew
-                            : nlists.values().iterator().next().get(0);
+                            : nearest;
         }
-        return n;
     }
 
     /**
@@ -727,68 +956,44 @@ public class NavigatableComponent extends JComponent implements Helpful {
      * neither does the result *order*.
      * It solely depends on the distance to point p.
      *
-     * @return a sorted map with the keys representing the perpendicular
-     *      distance of their associated way segments to point p.
+     * @return the way segments within snap distance, grouped by equal perpendicular
+     *      distance to point p, nearest group first.
      */
-    private Map<Double, List<WaySegment>> getNearestWaySegmentsImpl(Point p,
+    private List<List<WaySegment>> getNearestWaySegmentsImpl(Point p,
             Predicate<OsmPrimitive> predicate) {
-        Map<Double, List<WaySegment>> nearestMap = new TreeMap<Double, List<WaySegment>>();
+        List<List<WaySegment>> nearestGroups = new ArrayList<List<WaySegment>>();
         DataSet ds = getCurrentDataSet();
 
         if (ds != null) {
-            double snapDistanceSq = Main.pref.getInteger("mappaint.segment.snap-distance", 10);
-            snapDistanceSq *= snapDistanceSq;
-
-            for (Way w : ds.searchWays(getBBox(p, Main.pref.getInteger("mappaint.segment.snap-distance", 10)))) {
-                if (!predicate.evaluate(w)) {
-                    continue;
+            int snapDistance = Main.pref.getCachedInteger("mappaint.segment.snap-distance", 10).get();
+            double snapDistanceSq = snapDistance * snapDistance;
+            BBox bbox = getBBox(p, snapDistance);
+            final WayDistance metric = new WayDistance(p, predicate, bbox, snapDistanceSq);
+            final List<SegmentDistance> segments = new ArrayList<SegmentDistance>();
+
+            // all segments within snap distance are needed, the search ends at snap distance
+            ds.searchNearestWays(bbox, metric, snapDistanceSq, new QuadBuckets.NearestVisitor<Way>() {
+                public boolean visit(Way w, double distanceSq) {
+                    segments.addAll(metric.getNearSegments(w));
+                    return true;
                 }
-                Node lastN = null;
-                int i = -2;
-                for (Node n : w.getNodes()) {
-                    i++;
-                    if (n.isDeleted() || n.isIncomplete()) { //FIXME: This shouldn't happen, raise exception?
-                        continue;
-                    }
-                    if (lastN == null) {
-                        lastN = n;
-                        continue;
-                    }
-
-                    Point2D A = getPoint2D(lastN);
-                    Point2D B = getPoint2D(n);
-                    double c = A.distanceSq(B);
-                    double a = p.distanceSq(B);
-                    double b = p.distanceSq(A);
-
-                    /* perpendicular distance squared
-                     * loose some precision to account for possible deviations in the calculation above
-                     * e.g. if identical (A and B) come about reversed in another way, values may differ
-                     * -- zero out least significant 32 dual digits of mantissa..
-                     */
-                    double perDistSq = Double.longBitsToDouble(
-                            Double.doubleToLongBits( a - (a - b + c) * (a - b + c) / 4 / c )
-                            >> 32 << 32); // resolution in numbers with large exponent not needed here..
-
-                    if (perDistSq < snapDistanceSq && a < c + snapDistanceSq && b < c + snapDistanceSq) {
-                        //System.err.println(Double.toHexString(perDistSq));
-
-                        List<WaySegment> wslist;
-                        if (nearestMap.containsKey(perDistSq)) {
-                            wslist = nearestMap.get(perDistSq);
-                        } else {
-                            wslist = new LinkedList<WaySegment>();
-                            nearestMap.put(perDistSq, wslist);
-                        }
-                        wslist.add(new WaySegment(w, i));
-                    }
-
-                    lastN = n;
+            });
+
+            // stable, so equally distant segments keep the order of their ways
+            Collections.sort(segments);
+            List<WaySegment> group = null;
+            double groupDistSq = 0;
+            for (SegmentDistance sd : segments) {
+                if (group == null || sd.distanceSq != groupDistSq) {
+                    group = new ArrayList<WaySegment>();
+                    groupDistSq = sd.distanceSq;
+                    nearestGroups.add(group);
                 }
+                group.add(sd.ws);
             }
         }
 
-        return nearestMap;
+        return nearestGroups;
     }
 
     /**
@@ -808,7 +1013,7 @@ public class NavigatableComponent extends JComponent implements Helpful {
         List<WaySegment> nearestList = new ArrayList<WaySegment>();
         List<WaySegment> unselected = new LinkedList<WaySegment>();
 
-        for (List<WaySegment> wss : getNearestWaySegmentsImpl(p, predicate).values()) {
+        for (List<WaySegment> wss : getNearestWaySegmentsImpl(p, predicate)) {
             // put selected waysegs within each distance group first
             // makes the order of nearestList dependent on current selection state
             for (WaySegment ws : wss) {
@@ -848,24 +1053,35 @@ public class NavigatableComponent extends JComponent implements Helpful {
      * @param predicate the returned object has to fulfill certain properties.
      * @param use_selected whether selected way segments should be preferred.
      */
-    public final WaySegment getNearestWaySegment(Point p, Predicate<OsmPrimitive> predicate, boolean use_selected) {
-        WaySegment wayseg = null, ntsel = null;
-
-        for (List<WaySegment> wslist : getNearestWaySegmentsImpl(p, predicate).values()) {
-            if (wayseg != null && ntsel != null) {
-                break;
-            }
-            for (WaySegment ws : wslist) {
-                if (wayseg == null) {
-                    wayseg = ws;
+    public final WaySegment getNearestWaySegment(Point p, Predicate<OsmPrimitive> predicate, final boolean use_selected) {
+        DataSet ds = getCurrentDataSet();
+        if (ds == null)
+            return null;
+
+        int snapDistance = Main.pref.getCachedInteger("mappaint.segment.snap-distance", 10).get();
+        double snapDistanceSq = snapDistance * snapDistance;
+        BBox bbox = getBBox(p, snapDistance);
+        final WayDistance metric = new WayDistance(p, predicate, bbox, snapDistanceSq);
+        final WaySegment[] found = new WaySegment[2]; // nearest, nearest selected
+
+        // ways come in order of the distance of their nearest segment, so the nearest segment
+        // of the first (selected) way is the nearest (selected) way segment
+        ds.searchNearestWays(bbox, metric, snapDistanceSq, new QuadBuckets.NearestVisitor<Way>() {
+            public boolean visit(Way w, double distanceSq) {
+                if (found[0] != null && !w.isSelected())
+                    return true;
+                WaySegment ws = Collections.min(metric.getNearSegments(w)).ws;
+                if (found[0] == null) {
+                    found[0] = ws;
                 }
-                if (ntsel == null && ws.way.isSelected()) {
-                    ntsel = ws;
+                if (w.isSelected()) {
+                    found[1] = ws;
                 }
+                return found[1] == null && use_selected;
             }
-        }
+        });
 
-        return (ntsel != null && use_selected) ? ntsel : wayseg;
+        return (found[1] != null && use_selected) ? found[1] : found[0];
     }
 
     /**
@@ -894,7 +1110,7 @@ public class NavigatableComponent extends JComponent implements Helpful {
         List<Way> nearestList = new ArrayList<Way>();
         Set<Way> wset = new HashSet<Way>();
 
-        for (List<WaySegment> wss : getNearestWaySegmentsImpl(p, predicate).values()) {
+        for (List<WaySegment> wss : getNearestWaySegmentsImpl(p, predicate)) {
             for (WaySegment ws : wss) {
                 if (wset.add(ws.way)) {
                     nearestList.add(ws.way);
@@ -1035,7 +1251,6 @@ public class NavigatableComponent extends JComponent implements Helpful {
      * @return A primitive within snap-distance to point p,
      *      that is chosen by the algorithm described.
      * @see getNearestNode(Point, Predicate)
-     * @see getNearestNodesImpl(Point, Predicate)
      * @see getNearestWay(Point, Predicate)
      *
      * @param p The point on screen.
@@ -1148,7 +1363,7 @@ public class NavigatableComponent extends JComponent implements Helpful {
         Set<Way> wset = new HashSet<Way>();
 
         // add nearby ways
-        for (List<WaySegment> wss : getNearestWaySegmentsImpl(p, predicate).values()) {
+        for (List<WaySegment> wss : getNearestWaySegmentsImpl(p, predicate)) {
             for (WaySegment ws : wss) {
                 if (wset.add(ws.way)) {
                     nearestList.add(ws.way);
@@ -1157,9 +1372,7 @@ public class NavigatableComponent extends JComponent implements Helpful {
         }
         
         // add nearby nodes
-        for (List<Node> nlist : getNearestNodesImpl(p, predicate).values()) {
-            nearestList.addAll(nlist);
-        }
+        nearestList.addAll(getNearestNodesImpl(p, predicate));
         
         // add parent relations of nearby nodes and ways
         Set<OsmPrimitive> parentRelations = new HashSet<OsmPrimitive>();
@@ -1211,6 +1424,8 @@ public class NavigatableComponent extends JComponent implements Helpful {
      * Return a ID which is unique as long as viewport dimensions are the same
      */
     public int getViewID() {
+        EastNorth center = getCenter();
+        double scale = getScale();
         String x = center.east() + "_" + center.north() + "_" + scale + "_" +
                 getWidth() + "_" + getHeight() + "_" + getProjection().toString();
         java.util.zip.CRC32 id = new java.util.zip.CRC32();
@@ -1260,7 +1475,7 @@ public class NavigatableComponent extends JComponent implements Helpful {
          */
         public String getDistText(double dist) {
             double a = dist / aValue;
-            if (!Main.pref.getBoolean("system_of_measurement.use_only_lower_unit", false) && a > bValue / aValue) {
+            if (!Main.pref.getCachedBoolean("system_of_measurement.use_only_lower_unit", false).get() && a > bValue / aValue) {
                 double b = dist / bValue;
                 return String.format(Locale.US, "%." + (b<10 ? 2 : 1) + "f %s", b, bName);
             } else if (a < 0.01)
@@ -1277,7 +1492,7 @@ public class NavigatableComponent extends JComponent implements Helpful {
          */
         public String getAreaText(double area) {
             double a = area / (aValue*aValue);
-            if (!Main.pref.getBoolean("system_of_measurement.use_only_lower_unit", false) && a > bValue / aValue) {
+            if (!Main.pref.getCachedBoolean("system_of_measurement.use_only_lower_unit", false).get() && a > bValue / aValue) {
                 double b = area / (bValue*bValue);
                 return String.format(Locale.US, "%." + (b<10 ? 2 : 1) + "f %s", b, bName+"\u00b2");
             } else if (a < 0.01)
@@ -34,8 +34,10 @@ import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent.DatasetEventType;
 import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.DatasetChanges;
 import org.openstreetmap.josm.data.osm.event.DatasetEventManager;
 import org.openstreetmap.josm.data.osm.event.DatasetEventManager.FireMode;
 import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
@@ -316,7 +318,21 @@ public class FilterDialog extends ToggleDialog implements DataSetListener {
     }
 
     public void dataChanged(DataChangedEvent event) {
-        filterModel.executeFilters();
+        DatasetChanges changes = event.getChanges();
+        if (changes == null || changes.contains(DatasetEventType.PRIMITIVES_REMOVED)
+                || changes.contains(DatasetEventType.CHANGESET_ID_CHANGED)) {
+            filterModel.executeFilters();
+            return;
+        }
+        Set<OsmPrimitive> changed = new HashSet<OsmPrimitive>();
+        changed.addAll(changes.getPrimitives(DatasetEventType.TAGS_CHANGED));
+        changed.addAll(changes.getPrimitives(DatasetEventType.WAY_NODES_CHANGED));
+        changed.addAll(changes.getPrimitives(DatasetEventType.RELATION_MEMBERS_CHANGED));
+        Collection<OsmPrimitive> affected = getAffectedPrimitives(changed);
+        affected.addAll(changes.getPrimitives(DatasetEventType.PRIMITIVES_ADDED));
+        if (!affected.isEmpty()) {
+            filterModel.executeFilters(affected);
+        }
     }
 
     public void nodeMoved(NodeMovedEvent event) {
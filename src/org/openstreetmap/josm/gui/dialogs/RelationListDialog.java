@@ -54,8 +54,10 @@ import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent.DatasetEventType;
 import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.DatasetChanges;
 import org.openstreetmap.josm.data.osm.event.DatasetEventManager;
 import org.openstreetmap.josm.data.osm.event.DatasetEventManager.FireMode;
 import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
@@ -750,7 +752,35 @@ public class RelationListDialog extends ToggleDialog implements DataSetListener
 
     @Override
     public void dataChanged(DataChangedEvent event) {
-        initFromLayer(Main.main.getEditLayer());
+        DatasetChanges changes = event.getChanges();
+        if (changes == null) {
+            initFromLayer(Main.main.getEditLayer());
+            return;
+        }
+        // a relation may have been removed and added again, look at its current state
+        List<Relation> removed = new ArrayList<Relation>();
+        for (Relation r : changes.getPrimitives(DatasetEventType.PRIMITIVES_REMOVED, Relation.class)) {
+            if (r.getDataSet() != event.getDataset() || r.isDeleted()) {
+                removed.add(r);
+            }
+        }
+        List<Relation> added = new ArrayList<Relation>();
+        for (Relation r : changes.getPrimitives(DatasetEventType.PRIMITIVES_ADDED, Relation.class)) {
+            if (r.getDataSet() == event.getDataset()) {
+                added.add(r);
+            }
+        }
+        model.removeRelations(removed);
+        model.addRelations(added);
+        if (changes.contains(DatasetEventType.TAGS_CHANGED, Relation.class)
+                || changes.contains(DatasetEventType.RELATION_MEMBERS_CHANGED)) {
+            // the display names may have changed
+            List<Relation> sel = model.getSelectedRelations();
+            model.sort();
+            model.setSelectedRelations(sel);
+            displaylist.repaint();
+        }
+        model.updateTitle();
     }
 
     @Override
@@ -52,6 +52,7 @@ import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.DatasetChanges;
 import org.openstreetmap.josm.data.osm.event.DatasetEventManager;
 import org.openstreetmap.josm.data.osm.event.DatasetEventManager.FireMode;
 import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
@@ -425,6 +426,14 @@ public class SelectionListDialog extends ToggleDialog  {
         private LinkedList<Collection<? extends OsmPrimitive>> history;
         private final List<OsmPrimitive> selection = new ArrayList<OsmPrimitive>();
         private DefaultListSelectionModel selectionModel;
+        /**
+         * the comparator {@link #selection} is sorted with, null if it is not sorted.
+         * It is reused to merge new elements, so names it cached are valid as long as
+         * {@link #sortOutdated} is false.
+         */
+        private Comparator<OsmPrimitive> sortedWith;
+        /** true if the display names of listed primitives changed since the last sort */
+        private boolean sortOutdated;
 
         /**
          * Constructor
@@ -533,11 +542,17 @@ public class SelectionListDialog extends ToggleDialog  {
          */
         public void setSelected(Collection<OsmPrimitive> sel) {
             selectionModel.clearSelection();
-            if (sel == null) return;
-            for (OsmPrimitive p: sel){
-                int i = selection.indexOf(p);
-                if (i >= 0){
-                    selectionModel.addSelectionInterval(i, i);
+            if (sel == null || sel.isEmpty()) return;
+            Set<OsmPrimitive> toSelect = sel instanceof Set<?> ? (Set<OsmPrimitive>) sel : new HashSet<OsmPrimitive>(sel);
+            // select ranges of consecutive entries at once
+            int start = -1;
+            for (int i = 0; i <= selection.size(); i++) {
+                boolean selected = i < selection.size() && toSelect.contains(selection.get(i));
+                if (selected && start < 0) {
+                    start = i;
+                } else if (!selected && start >= 0) {
+                    selectionModel.addSelectionInterval(start, i - 1);
+                    start = -1;
                 }
             }
         }
@@ -555,13 +570,12 @@ public class SelectionListDialog extends ToggleDialog  {
          * @param selection the collection of currently selected OSM objects
          */
         public void setJOSMSelection(Collection<? extends OsmPrimitive> selection) {
-            this.selection.clear();
             if (selection == null) {
+                this.selection.clear();
                 fireContentsChanged(this, 0, getSize());
                 return;
             }
-            this.selection.addAll(selection);
-            sort();
+            updateElements(selection);
             fireContentsChanged(this, 0, getSize());
             remember(selection);
             double dist = -1;
@@ -587,10 +601,13 @@ public class SelectionListDialog extends ToggleDialog  {
         public void update(Collection<? extends OsmPrimitive> toUpdate) {
             if (toUpdate == null) return;
             if (toUpdate.isEmpty()) return;
+            Set<? extends OsmPrimitive> updated = toUpdate instanceof Set<?>
+                    ? (Set<? extends OsmPrimitive>) toUpdate : new HashSet<OsmPrimitive>(toUpdate);
             Collection<OsmPrimitive> sel = getSelected();
-            for (OsmPrimitive p: toUpdate){
-                int i = selection.indexOf(p);
-                if (i >= 0) {
+            for (int i = 0; i < selection.size(); i++) {
+                if (updated.contains(selection.get(i))) {
+                    // the display name may have changed
+                    sortOutdated = true;
                     super.fireContentsChanged(this, i,i);
                 }
             }
@@ -627,14 +644,81 @@ public class SelectionListDialog extends ToggleDialog  {
          * Sorts the current elements in the selection
          */
         public void sort() {
-            if (this.selection.size()>Main.pref.getInteger("selection.no_sort_above",100000)) return;
-            if (this.selection.size()>Main.pref.getInteger("selection.fast_sort_above",10000)) {
-                Collections.sort(this.selection, new OsmPrimitiveQuickComparator());
-            } else {
-                Collections.sort(this.selection, new OsmPrimitiveComparator());
+            sortedWith = getComparator(selection.size());
+            sortOutdated = false;
+            if (sortedWith != null) {
+                Collections.sort(this.selection, sortedWith);
             }
         }
 
+        /**
+         * Replies a new comparator to sort a list of the given size with
+         *
+         * @param size the number of elements
+         * @return the comparator or null if the list is too long to be sorted
+         */
+        private Comparator<OsmPrimitive> getComparator(int size) {
+            if (size>Main.pref.getInteger("selection.no_sort_above",100000)) return null;
+            if (size>Main.pref.getInteger("selection.fast_sort_above",10000))
+                return new OsmPrimitiveQuickComparator();
+            else
+                return new OsmPrimitiveComparator();
+        }
+
+        private static boolean isSameOrder(Comparator<OsmPrimitive> a, Comparator<OsmPrimitive> b) {
+            return a == null ? b == null : b != null && a.getClass() == b.getClass();
+        }
+
+        /**
+         * Replaces the current elements by {@code newElements}. Only the difference is processed:
+         * removed primitives are dropped and the added ones are sorted and merged into the
+         * already sorted list. The whole list is sorted again only if the display names of
+         * listed primitives changed or the comparator changes.
+         *
+         * @param newElements the new elements
+         */
+        private void updateElements(Collection<? extends OsmPrimitive> newElements) {
+            if (sortOutdated || selection.isEmpty() || !isSameOrder(getComparator(newElements.size()), sortedWith)) {
+                selection.clear();
+                selection.addAll(newElements);
+                sort();
+                return;
+            }
+            Set<OsmPrimitive> newSet = new HashSet<OsmPrimitive>(newElements);
+            Set<OsmPrimitive> kept = new HashSet<OsmPrimitive>();
+            List<OsmPrimitive> keptList = new ArrayList<OsmPrimitive>(newSet.size());
+            for (OsmPrimitive p : selection) {
+                if (newSet.contains(p)) {
+                    kept.add(p);
+                    keptList.add(p);
+                }
+            }
+            List<OsmPrimitive> added = new ArrayList<OsmPrimitive>();
+            for (OsmPrimitive p : newElements) {
+                if (!kept.contains(p)) {
+                    added.add(p);
+                }
+            }
+            selection.clear();
+            Comparator<OsmPrimitive> comparator = sortedWith;
+            if (comparator == null) {
+                selection.addAll(keptList);
+                selection.addAll(added);
+                return;
+            }
+            Collections.sort(added, comparator);
+            int i = 0, j = 0;
+            while (i < keptList.size() && j < added.size()) {
+                if (comparator.compare(added.get(j), keptList.get(i)) < 0) {
+                    selection.add(added.get(j++));
+                } else {
+                    selection.add(keptList.get(i++));
+                }
+            }
+            selection.addAll(keptList.subList(i, keptList.size()));
+            selection.addAll(added.subList(j, added.size()));
+        }
+
         /* ------------------------------------------------------------------------ */
         /* interface EditLayerChangeListener                                        */
         /* ------------------------------------------------------------------------ */
@@ -662,7 +746,14 @@ public class SelectionListDialog extends ToggleDialog  {
         /* ------------------------------------------------------------------------ */
         @Override
         public void dataChanged(DataChangedEvent event) {
+            DatasetChanges changes = event.getChanges();
+            if (changes != null) {
+                // additions and removals are handled by SelectionChangeListener
+                update(changes.getPrimitives());
+                return;
+            }
             // refresh the whole list
+            sortOutdated = true;
             fireContentsChanged(this, 0, getSize());
         }
 
@@ -6,7 +6,9 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.awt.Component;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.swing.JOptionPane;
@@ -48,6 +50,12 @@ public class ChangesetQueryTask extends PleaseWaitRunnable implements ChangesetD
     private OsmServerUserInfoReader userInfoReader;
     /** the reader object used to submit the changeset query to the API */
     private OsmServerChangesetReader changesetReader;
+    /** the time the query was submitted to the API */
+    private Date queryTime;
+    /** true if only the changesets modified since the last run of the query were downloaded */
+    private boolean incremental;
+    /** true if the server replied all changesets matching the query, not only the first ones */
+    private boolean complete;
 
     /**
      * Creates the task.
@@ -117,7 +125,16 @@ public class ChangesetQueryTask extends PleaseWaitRunnable implements ChangesetD
         //
         Runnable r = new Runnable() {
             public void run() {
-                ChangesetCache.getInstance().update(downloadedChangesets);
+                ChangesetCache cache = ChangesetCache.getInstance();
+                cache.update(downloadedChangesets);
+                if (incremental) {
+                    // the changesets downloaded before are answered from the cache
+                    downloadedChangesets.addAll(cache.query(query));
+                }
+                if (complete) {
+                    // otherwise the changesets left out would be skipped by the next incremental run
+                    cache.rememberQuery(query, queryTime);
+                }
             }
         };
         if (SwingUtilities.isEventDispatchThread()) {
@@ -178,8 +195,19 @@ public class ChangesetQueryTask extends PleaseWaitRunnable implements ChangesetD
             synchronized(this) {
                 changesetReader= new OsmServerChangesetReader();
             }
+            // if the query has been run before, only download the changesets modified since then.
+            // Open changesets may have been closed meanwhile, so queries for them always run completely.
+            ChangesetQuery serverQuery = query;
+            Date modifiedSince = query.isRestrictedToOpenChangesets() ? null : ChangesetCache.getInstance().getModifiedSince(query);
+            if (modifiedSince != null) {
+                serverQuery = query.modifiedSince(modifiedSince);
+                incremental = true;
+            }
+            queryTime = new Date();
             downloadedChangesets = new HashSet<Changeset>();
-            downloadedChangesets.addAll(changesetReader.queryChangesets(query, getProgressMonitor().createSubTaskMonitor(0, false)));
+            List<Changeset> result = changesetReader.queryChangesets(serverQuery, getProgressMonitor().createSubTaskMonitor(0, false));
+            downloadedChangesets.addAll(result);
+            complete = result.size() < OsmServerChangesetReader.MAX_QUERY_RESULTS;
             synchronized (this) {
                 changesetReader = null;
             }
@@ -68,7 +68,10 @@ import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Tag;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent.DatasetEventType;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter;
+import org.openstreetmap.josm.data.osm.event.DatasetChanges;
 import org.openstreetmap.josm.data.osm.event.DatasetEventManager;
 import org.openstreetmap.josm.data.osm.event.DatasetEventManager.FireMode;
 import org.openstreetmap.josm.data.osm.event.SelectionEventManager;
@@ -141,6 +144,10 @@ public class PropertiesDialog extends ToggleDialog implements SelectionChangedLi
      * This sub-object is responsible for all adding and editing of properties
      */
     private final TagEditHelper editHelper = new TagEditHelper(propertyData, valueCount);
+    /**
+     * Tag and membership statistics of the selection, {@link #valueCount} is filled from it
+     */
+    private final SelectionStatistics selectionStatistics = new SelectionStatistics();
     
     private final DataSetListenerAdapter dataChangedAdapter = new DataSetListenerAdapter(this);
     private final HelpAction helpAction = new HelpAction();
@@ -525,6 +532,8 @@ public class PropertiesDialog extends ToggleDialog implements SelectionChangedLi
         for (JosmAction action : josmActions) {
             Main.unregisterActionShortcut(action);
         }
+        // changes are not tracked while hidden
+        selectionStatistics.clear();
     }
 
     @Override
@@ -570,33 +579,11 @@ public class PropertiesDialog extends ToggleDialog implements SelectionChangedLi
         // re-load property data
         propertyData.setRowCount(0);
 
-        final Map<String, Integer> keyCount = new HashMap<String, Integer>();
         final Map<String, String> tags = new HashMap<String, String>();
-        valueCount.clear();
-        EnumSet<PresetType> types = EnumSet.noneOf(TaggingPreset.PresetType.class);
-        for (OsmPrimitive osm : newSelection) {
-            types.add(PresetType.forPrimitive(osm));
-            for (String key : osm.keySet()) {
-                String value = osm.get(key);
-                keyCount.put(key, keyCount.containsKey(key) ? keyCount.get(key) + 1 : 1);
-                if (valueCount.containsKey(key)) {
-                    Map<String, Integer> v = valueCount.get(key);
-                    v.put(value, v.containsKey(value) ? v.get(value) + 1 : 1);
-                } else {
-                    TreeMap<String, Integer> v = new TreeMap<String, Integer>();
-                    v.put(value, 1);
-                    valueCount.put(key, v);
-                }
-            }
-        }
+        selectionStatistics.setPrimitives(newSelection);
+        selectionStatistics.fillValueCount(valueCount);
+        EnumSet<PresetType> types = selectionStatistics.getTypes();
         for (Entry<String, Map<String, Integer>> e : valueCount.entrySet()) {
-            int count = 0;
-            for (Entry<String, Integer> e1 : e.getValue().entrySet()) {
-                count += e1.getValue();
-            }
-            if (count < newSelection.size()) {
-                e.getValue().put("", newSelection.size() - count);
-            }
             propertyData.addRow(new Object[]{e.getKey(), e.getValue()});
             tags.put(e.getKey(), e.getValue().size() == 1
                     ? e.getValue().keySet().iterator().next() : tr("<different>"));
@@ -605,22 +592,18 @@ public class PropertiesDialog extends ToggleDialog implements SelectionChangedLi
         membershipData.setRowCount(0);
 
         Map<Relation, MemberInfo> roles = new HashMap<Relation, MemberInfo>();
-        for (OsmPrimitive primitive: newSelection) {
-            for (OsmPrimitive ref: primitive.getReferrers()) {
-                if (ref instanceof Relation && !ref.isIncomplete() && !ref.isDeleted()) {
-                    Relation r = (Relation) ref;
-                    MemberInfo mi = roles.get(r);
-                    if(mi == null) {
-                        mi = new MemberInfo();
+        for (Relation r : selectionStatistics.getReferrers()) {
+            if (!r.isIncomplete() && !r.isDeleted()) {
+                MemberInfo mi = new MemberInfo();
+                int i = 1;
+                for (RelationMember m : r.getMembers()) {
+                    if (selectionStatistics.contains(m.getMember())) {
+                        mi.add(m, i);
                     }
+                    ++i;
+                }
+                if (!mi.role.isEmpty()) {
                     roles.put(r, mi);
-                    int i = 1;
-                    for (RelationMember m : r.getMembers()) {
-                        if (m.getMember() == primitive) {
-                            mi.add(m, i);
-                        }
-                        ++i;
-                    }
                 }
             }
         }
@@ -683,14 +666,67 @@ public class PropertiesDialog extends ToggleDialog implements SelectionChangedLi
         if (newLayer == null) editHelper.saveTagsIfNeeded();
         // it is time to save history of tags
             
+        selectionStatistics.clear();
         updateSelection();
     }
 
     @Override
     public void processDatasetEvent(AbstractDatasetChangedEvent event) {
+        updateSelectionStatistics(event);
         updateSelection();
     }
 
+    /**
+     * Applies the changes of the selected primitives to the selection statistics. Changes of the
+     * selection itself are applied in {@link #selectionChanged}.
+     */
+    private void updateSelectionStatistics(AbstractDatasetChangedEvent event) {
+        switch (event.getType()) {
+        case DATA_CHANGED:
+            DatasetChanges changes = ((DataChangedEvent) event).getChanges();
+            if (changes == null) {
+                selectionStatistics.clear();
+            } else {
+                for (OsmPrimitive osm : changes.getPrimitives(DatasetEventType.TAGS_CHANGED)) {
+                    selectionStatistics.refresh(osm);
+                }
+                for (OsmPrimitive osm : changes.getPrimitives(DatasetEventType.WAY_NODES_CHANGED)) {
+                    selectionStatistics.refresh(osm);
+                }
+                for (Relation r : changes.getPrimitives(DatasetEventType.RELATION_MEMBERS_CHANGED, Relation.class)) {
+                    selectionStatistics.refreshMembersOf(r);
+                }
+                for (OsmPrimitive osm : changes.getPrimitives(DatasetEventType.PRIMITIVES_ADDED)) {
+                    selectionStatistics.refreshAddedOrRemoved(osm);
+                }
+                for (OsmPrimitive osm : changes.getPrimitives(DatasetEventType.PRIMITIVES_REMOVED)) {
+                    selectionStatistics.refreshAddedOrRemoved(osm);
+                }
+            }
+            break;
+        case TAGS_CHANGED:
+        case WAY_NODES_CHANGED:
+            for (OsmPrimitive osm : event.getPrimitives()) {
+                selectionStatistics.refresh(osm);
+            }
+            break;
+        case RELATION_MEMBERS_CHANGED:
+            for (OsmPrimitive osm : event.getPrimitives()) {
+                selectionStatistics.refreshMembersOf((Relation) osm);
+            }
+            break;
+        case PRIMITIVES_ADDED:
+        case PRIMITIVES_REMOVED:
+            // added or removed relations change the memberships of their members
+            for (OsmPrimitive osm : event.getPrimitives()) {
+                selectionStatistics.refreshAddedOrRemoved(osm);
+            }
+            break;
+        default:
+            // no influence on tags or memberships
+        }
+    }
+
     // </editor-fold>
 
     // <editor-fold defaultstate="collapsed" desc="Methods that are called by plugins to extend fuctionalty ">
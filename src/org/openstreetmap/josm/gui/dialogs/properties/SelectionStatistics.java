@@ -0,0 +1,322 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.dialogs.properties;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.gui.tagging.TaggingPreset.PresetType;
+
+/**
+ * Tag and membership statistics of a set of primitives (the selection shown in the
+ * {@link PropertiesDialog}).
+ *
+ * The statistics are updated incrementally: when the selection changes, only the primitives
+ * that were added or removed are counted or uncounted, and a primitive whose tags or
+ * memberships changed can be {@link #refresh refreshed} on its own. For each primitive,
+ * what has been counted is remembered, so it can be uncounted correctly even after the
+ * primitive itself has changed.
+ */
+class SelectionStatistics {
+
+    /**
+     * What has been counted for one primitive.
+     */
+    private static class Counted {
+        /** key, value, key, value, ... or null if untagged */
+        final String[] tags;
+        final PresetType type;
+        /** relations referring to the primitive, or null if none */
+        final Relation[] referrers;
+
+        Counted(String[] tags, PresetType type, Relation[] referrers) {
+            this.tags = tags;
+            this.type = type;
+            this.referrers = referrers;
+        }
+    }
+
+    private final Map<OsmPrimitive, Counted> counted = new HashMap<OsmPrimitive, Counted>();
+    /** key -> value -> number of primitives with this tag */
+    private final Map<String, Map<String, Integer>> histogram = new HashMap<String, Map<String, Integer>>();
+    private final int[] typeCount = new int[PresetType.values().length];
+    /** relation -> number of primitives referred by it */
+    private final Map<Relation, Integer> referrerCount = new HashMap<Relation, Integer>();
+
+    /**
+     * Replaces the counted primitives by {@code primitives}. Only the difference
+     * to the primitives counted so far is processed.
+     *
+     * @param primitives the new primitives
+     */
+    public void setPrimitives(Collection<? extends OsmPrimitive> primitives) {
+        if (primitives.isEmpty()) {
+            clear();
+            return;
+        }
+        Set<? extends OsmPrimitive> newSet = primitives instanceof Set<?>
+                ? (Set<? extends OsmPrimitive>) primitives : new HashSet<OsmPrimitive>(primitives);
+        if (newSet.size() < counted.size() / 2) {
+            // counting from scratch is cheaper than uncounting most of the old primitives
+            clear();
+        } else {
+            Iterator<Entry<OsmPrimitive, Counted>> it = counted.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry<OsmPrimitive, Counted> e = it.next();
+                if (!newSet.contains(e.getKey())) {
+                    uncount(e.getValue());
+                    it.remove();
+                }
+            }
+        }
+        for (OsmPrimitive osm : newSet) {
+            if (!counted.containsKey(osm)) {
+                add(osm);
+            }
+        }
+    }
+
+    /**
+     * Counts a primitive. Nothing happens if it is already counted.
+     * @param osm the primitive
+     */
+    public void add(OsmPrimitive osm) {
+        if (counted.containsKey(osm))
+            return;
+        Counted c = snapshot(osm);
+        counted.put(osm, c);
+        count(c);
+    }
+
+    /**
+     * Uncounts a primitive. Nothing happens if it is not counted.
+     * @param osm the primitive
+     */
+    public void remove(OsmPrimitive osm) {
+        Counted c = counted.remove(osm);
+        if (c != null) {
+            uncount(c);
+        }
+    }
+
+    /**
+     * Counts a primitive again after its tags, type or memberships changed.
+     * Nothing happens if it is not counted.
+     *
+     * @param osm the primitive
+     * @return true if the primitive is counted
+     */
+    public boolean refresh(OsmPrimitive osm) {
+        Counted c = counted.get(osm);
+        if (c == null)
+            return false;
+        uncount(c);
+        c = snapshot(osm);
+        counted.put(osm, c);
+        count(c);
+        return true;
+    }
+
+    /**
+     * Counts all primitives again whose membership in {@code r} may have changed.
+     * @param r the relation whose members changed
+     */
+    public void refreshMembersOf(Relation r) {
+        List<OsmPrimitive> toRefresh = new ArrayList<OsmPrimitive>();
+        for (OsmPrimitive member : r.getMemberPrimitives()) {
+            if (counted.containsKey(member)) {
+                toRefresh.add(member);
+            }
+        }
+        if (referrerCount.containsKey(r)) {
+            // look for primitives that are no longer members
+            for (Entry<OsmPrimitive, Counted> e : counted.entrySet()) {
+                if (e.getValue().referrers != null && Arrays.asList(e.getValue().referrers).contains(r)) {
+                    toRefresh.add(e.getKey());
+                }
+            }
+        }
+        for (OsmPrimitive osm : toRefresh) {
+            refresh(osm);
+        }
+    }
+
+    /**
+     * Counts all primitives again that may be affected by adding {@code osm} to the dataset
+     * or removing it: the primitive itself and, for a relation, its (former) members.
+     * @param osm the added or removed primitive
+     */
+    public void refreshAddedOrRemoved(OsmPrimitive osm) {
+        if (osm instanceof Relation) {
+            refreshMembersOf((Relation) osm);
+        }
+        refresh(osm);
+    }
+
+    /**
+     * Removes all primitives.
+     */
+    public void clear() {
+        counted.clear();
+        histogram.clear();
+        referrerCount.clear();
+        for (int i = 0; i < typeCount.length; i++) {
+            typeCount[i] = 0;
+        }
+    }
+
+    /**
+     * @param osm the primitive
+     * @return true if the primitive is counted
+     */
+    public boolean contains(OsmPrimitive osm) {
+        return counted.containsKey(osm);
+    }
+
+    /**
+     * @return the number of counted primitives
+     */
+    public int size() {
+        return counted.size();
+    }
+
+    /**
+     * @return the counted primitives (unmodifiable)
+     */
+    public Set<OsmPrimitive> getPrimitives() {
+        return Collections.unmodifiableSet(counted.keySet());
+    }
+
+    /**
+     * Fills {@code valueCount} with the values and their number of occurrence for every key,
+     * sorted by key and value. The empty value counts the primitives without the key.
+     *
+     * @param valueCount the map to fill, it is cleared first
+     */
+    public void fillValueCount(Map<String, Map<String, Integer>> valueCount) {
+        valueCount.clear();
+        int size = counted.size();
+        for (Entry<String, Map<String, Integer>> e : histogram.entrySet()) {
+            TreeMap<String, Integer> v = new TreeMap<String, Integer>(e.getValue());
+            int count = 0;
+            for (Integer n : v.values()) {
+                count += n;
+            }
+            if (count < size) {
+                v.put("", size - count);
+            }
+            valueCount.put(e.getKey(), v);
+        }
+    }
+
+    /**
+     * @return the preset types of the counted primitives
+     */
+    public EnumSet<PresetType> getTypes() {
+        EnumSet<PresetType> types = EnumSet.noneOf(PresetType.class);
+        for (PresetType t : PresetType.values()) {
+            if (typeCount[t.ordinal()] > 0) {
+                types.add(t);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * @return the relations referring to at least one counted primitive
+     */
+    public Set<Relation> getReferrers() {
+        return referrerCount.keySet();
+    }
+
+    private static Counted snapshot(OsmPrimitive osm) {
+        String[] tags = null;
+        if (osm.hasKeys()) {
+            Map<String, String> keys = osm.getKeys();
+            tags = new String[keys.size() * 2];
+            int i = 0;
+            for (Entry<String, String> e : keys.entrySet()) {
+                tags[i++] = e.getKey();
+                tags[i++] = e.getValue();
+            }
+        }
+        Relation[] referrers = null;
+        int n = 0;
+        for (OsmPrimitive ref : osm.getReferrers()) {
+            if (ref instanceof Relation) {
+                n++;
+            }
+        }
+        if (n > 0) {
+            referrers = new Relation[n];
+            n = 0;
+            for (OsmPrimitive ref : osm.getReferrers()) {
+                if (ref instanceof Relation) {
+                    referrers[n++] = (Relation) ref;
+                }
+            }
+        }
+        return new Counted(tags, PresetType.forPrimitive(osm), referrers);
+    }
+
+    private void count(Counted c) {
+        if (c.tags != null) {
+            for (int i = 0; i < c.tags.length; i += 2) {
+                Map<String, Integer> v = histogram.get(c.tags[i]);
+                if (v == null) {
+                    v = new HashMap<String, Integer>();
+                    histogram.put(c.tags[i], v);
+                }
+                Integer n = v.get(c.tags[i + 1]);
+                v.put(c.tags[i + 1], n == null ? 1 : n + 1);
+            }
+        }
+        typeCount[c.type.ordinal()]++;
+        if (c.referrers != null) {
+            for (Relation r : c.referrers) {
+                Integer n = referrerCount.get(r);
+                referrerCount.put(r, n == null ? 1 : n + 1);
+            }
+        }
+    }
+
+    private void uncount(Counted c) {
+        if (c.tags != null) {
+            for (int i = 0; i < c.tags.length; i += 2) {
+                Map<String, Integer> v = histogram.get(c.tags[i]);
+                int n = v.get(c.tags[i + 1]);
+                if (n > 1) {
+                    v.put(c.tags[i + 1], n - 1);
+                } else {
+                    v.remove(c.tags[i + 1]);
+                    if (v.isEmpty()) {
+                        histogram.remove(c.tags[i]);
+                    }
+                }
+            }
+        }
+        typeCount[c.type.ordinal()]--;
+        if (c.referrers != null) {
+            for (Relation r : c.referrers) {
+                int n = referrerCount.get(r);
+                if (n > 1) {
+                    referrerCount.put(r, n - 1);
+                } else {
+                    referrerCount.remove(r);
+                }
+            }
+        }
+    }
+}
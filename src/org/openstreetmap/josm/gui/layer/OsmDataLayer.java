@@ -44,6 +44,7 @@ import org.openstreetmap.josm.actions.ExpertToggleAction;
 import org.openstreetmap.josm.actions.RenameLayerAction;
 import org.openstreetmap.josm.actions.SaveActionBase;
 import org.openstreetmap.josm.actions.ToggleUploadDiscouragedLayerAction;
+import org.openstreetmap.josm.data.AutosaveTask;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.SelectionChangedListener;
 import org.openstreetmap.josm.data.conflict.Conflict;
@@ -55,7 +56,9 @@ import org.openstreetmap.josm.data.gpx.WayPoint;
 import org.openstreetmap.josm.data.osm.DataIntegrityProblemException;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.DataSetMerger;
+import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSource;
+import org.openstreetmap.josm.data.osm.DataSourceAreaIndex;
 import org.openstreetmap.josm.data.osm.DatasetConsistencyTest;
 import org.openstreetmap.josm.data.osm.IPrimitive;
 import org.openstreetmap.josm.data.osm.Node;
@@ -95,8 +98,9 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
 
     private boolean requiresSaveToFile = false;
     private boolean requiresUploadToServer = false;
-    private boolean isChanged = true;
-    private int highlightUpdateCount;
+    // painted on the render thread of the map view, see MapViewRenderer
+    private volatile boolean isChanged = true;
+    private volatile int highlightUpdateCount;
 
     public List<TestError> validationErrors = new ArrayList<TestError>();
 
@@ -296,10 +300,11 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
             // over-grow it just to be sure
             b.grow(100, 100);
             Area a = new Area(b);
+            Bounds visible = mv.getLatLonBounds(b);
 
-            // now successively subtract downloaded areas
-            for (Bounds bounds : data.getDataSourceBounds()) {
-                if (bounds.isCollapsed()) {
+            // now successively subtract downloaded areas, skipping those out of view
+            for (Bounds bounds : data.getDataSourceAreaIndex().getBounds()) {
+                if (bounds.isCollapsed() || !bounds.intersects(visible)) {
                     continue;
                 }
                 Point p1 = mv.getPoint(bounds.getMin());
@@ -376,13 +381,13 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
 
         }
 
-        Area a = data.getDataSourceArea();
+        DataSourceAreaIndex a = data.getDataSourceAreaIndex();
 
         // copy the merged layer's data source info;
         // only add source rectangles if they are not contained in the
         // layer already.
         for (DataSource src : from.dataSources) {
-            if (a == null || !a.contains(src.bounds.asRect())) {
+            if (src.bounds.crosses180thMeridian() || !a.contains(new BBox(src.bounds))) {
                 data.dataSources.add(src);
             }
         }
@@ -444,6 +449,7 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
                 p.setModified(false);
             }
         }
+        AutosaveTask.primitivesUploaded(this, processed);
     }
 
 
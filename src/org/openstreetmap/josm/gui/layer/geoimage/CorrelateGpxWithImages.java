@@ -66,9 +66,6 @@ import javax.swing.filechooser.FileFilter;
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.DiskAccessAction;
 import org.openstreetmap.josm.data.gpx.GpxData;
-import org.openstreetmap.josm.data.gpx.GpxTrack;
-import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
-import org.openstreetmap.josm.data.gpx.WayPoint;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.gui.ExtendedDialog;
 import org.openstreetmap.josm.gui.layer.GpxLayer;
@@ -78,7 +75,6 @@ import org.openstreetmap.josm.io.GpxReader;
 import org.openstreetmap.josm.tools.ExifReader;
 import org.openstreetmap.josm.tools.GBC;
 import org.openstreetmap.josm.tools.ImageProvider;
-import org.openstreetmap.josm.tools.PrimaryDateParser;
 import org.xml.sax.SAXException;
 
 /** This class displays the window to select the GPX file and the offset (timezone + delta).
@@ -101,6 +97,7 @@ public class CorrelateGpxWithImages extends AbstractAction {
         String name;
         GpxData data;
         File file;
+        private GpxTimeIndex timeIndex;
 
         public GpxDataWrapper(String name, GpxData data, File file) {
             this.name = name;
@@ -108,6 +105,16 @@ public class CorrelateGpxWithImages extends AbstractAction {
             this.file = file;
         }
 
+        /**
+         * Replies the index of the timed track points, built on first use.
+         */
+        public GpxTimeIndex getTimeIndex() {
+            if (timeIndex == null) {
+                timeIndex = new GpxTimeIndex(data);
+            }
+            return timeIndex;
+        }
+
         @Override
         public String toString() {
             return name;
@@ -818,7 +825,7 @@ public class CorrelateGpxWithImages extends AbstractAction {
                 return tr("No gpx selected");
 
             final long offset_ms = ((long) (timezone * 3600) + delta) * 1000; // in milliseconds
-            lastNumMatched = matchGpxTrack(dateImgLst, selGpx.data, offset_ms);
+            lastNumMatched = matchGpxTrack(dateImgLst, selGpx.getTimeIndex(), offset_ms);
 
             return trn("<html>Matched <b>{0}</b> of <b>{1}</b> photo to GPX track.</html>",
                     "<html>Matched <b>{0}</b> of <b>{1}</b> photos to GPX track.</html>",
@@ -978,10 +985,8 @@ public class CorrelateGpxWithImages extends AbstractAction {
             GpxDataWrapper gpxW = selectedGPX(true);
             if (gpxW == null)
                 return;
-            GpxData gpx = gpxW.data;
 
             ArrayList<ImageEntry> imgs = getSortedImgList();
-            PrimaryDateParser dateParser = new PrimaryDateParser();
 
             // no images found, exit
             if(imgs.size() <= 0) {
@@ -994,22 +999,10 @@ public class CorrelateGpxWithImages extends AbstractAction {
             // Init variables
             long firstExifDate = imgs.get(0).getExifTime().getTime()/1000;
 
-            long firstGPXDate = -1;
             // Finds first GPX point
-            outer: for (GpxTrack trk : gpx.tracks) {
-                for (GpxTrackSegment segment : trk.getSegments()) {
-                    for (WayPoint curWp : segment.getWayPoints()) {
-                        String curDateWpStr = (String) curWp.attr.get("time");
-                        if (curDateWpStr == null) {
-                            continue;
-                        }
-
-                        try {
-                            firstGPXDate = dateParser.parse(curDateWpStr).getTime()/1000;
-                            break outer;
-                        } catch(Exception e) {}
-                    }
-                }
+            long firstGPXDate = gpxW.getTimeIndex().getFirstTime();
+            if (firstGPXDate >= 0) {
+                firstGPXDate /= 1000;
             }
 
             // No GPX timestamps found, exit
@@ -1121,168 +1114,20 @@ public class CorrelateGpxWithImages extends AbstractAction {
 
     /**
      * Match a list of photos to a gpx track with a given offset.
-     * All images need a exifTime attribute and the List must be sorted according to these times.
+     * All images need a exifTime attribute.
      */
-    private int matchGpxTrack(ArrayList<ImageEntry> images, GpxData selectedGpx, long offset) {
+    private int matchGpxTrack(ArrayList<ImageEntry> images, GpxTimeIndex index, long offset) {
         int ret = 0;
-
-        PrimaryDateParser dateParser = new PrimaryDateParser();
-
-        for (GpxTrack trk : selectedGpx.tracks) {
-            for (GpxTrackSegment segment : trk.getSegments()) {
-
-                long prevWpTime = 0;
-                WayPoint prevWp = null;
-
-                for (WayPoint curWp : segment.getWayPoints()) {
-
-                    String curWpTimeStr = (String) curWp.attr.get("time");
-                    if (curWpTimeStr != null) {
-
-                        try {
-                            long curWpTime = dateParser.parse(curWpTimeStr).getTime() + offset;
-                            ret += matchPoints(images, prevWp, prevWpTime, curWp, curWpTime, offset);
-
-                            prevWp = curWp;
-                            prevWpTime = curWpTime;
-
-                        } catch(ParseException e) {
-                            System.err.println("Error while parsing date \"" + curWpTimeStr + '"');
-                            e.printStackTrace();
-                            prevWp = null;
-                            prevWpTime = 0;
-                        }
-                    } else {
-                        prevWp = null;
-                        prevWpTime = 0;
-                    }
-                }
-            }
-        }
-        return ret;
-    }
-
-    private int matchPoints(ArrayList<ImageEntry> images, WayPoint prevWp, long prevWpTime,
-            WayPoint curWp, long curWpTime, long offset) {
-        // Time between the track point and the previous one, 5 sec if first point, i.e. photos take
-        // 5 sec before the first track point can be assumed to be take at the starting position
-        long interval = prevWpTime > 0 ? ((long)Math.abs(curWpTime - prevWpTime)) : 5*1000;
-        int ret = 0;
-
-        // i is the index of the timewise last photo that has the same or earlier EXIF time
-        int i = getLastIndexOfListBefore(images, curWpTime);
-
-        // no photos match
-        if (i < 0)
-            return 0;
-
-        Double speed = null;
-        Double prevElevation = null;
-        Double curElevation = null;
-
-        if (prevWp != null) {
-            double distance = prevWp.getCoor().greatCircleDistance(curWp.getCoor());
-            // This is in km/h, 3.6 * m/s
-            if (curWpTime > prevWpTime) {
-                speed = 3600 * distance / (curWpTime - prevWpTime);
-            }
-            try {
-                prevElevation = new Double((String) prevWp.attr.get("ele"));
-            } catch(Exception e) {}
-        }
-
-        try {
-            curElevation = new Double((String) curWp.attr.get("ele"));
-        } catch (Exception e) {}
-
-        // First trackpoint, then interval is set to five seconds, i.e. photos up to five seconds
-        // before the first point will be geotagged with the starting point
-        if(prevWpTime == 0 || curWpTime <= prevWpTime) {
-            while (true) {
-                if (i < 0) {
-                    break;
-                }
-                final ImageEntry curImg = images.get(i);
-                if (curImg.getExifTime().getTime() > curWpTime
-                        || curImg.getExifTime().getTime() < curWpTime - interval) {
-                    break;
-                }
-                if(curImg.tmp.getPos() == null) {
-                    curImg.tmp.setPos(curWp.getCoor());
-                    curImg.tmp.setSpeed(speed);
-                    curImg.tmp.setElevation(curElevation);
-                    curImg.tmp.setGpsTime(new Date(curImg.getExifTime().getTime() - offset));
-                    ret++;
-                }
-                i--;
-            }
-            return ret;
-        }
-
-        // This code gives a simple linear interpolation of the coordinates between current and
-        // previous track point assuming a constant speed in between
-        while (true) {
-            if (i < 0) {
-                break;
-            }
-            ImageEntry curImg = images.get(i);
-            long imgTime = curImg.getExifTime().getTime();
-            if (imgTime < prevWpTime) {
-                break;
-            }
-
-            if(curImg.tmp.getPos() == null) {
-                // The values of timeDiff are between 0 and 1, it is not seconds but a dimensionless
-                // variable
-                double timeDiff = (double)(imgTime - prevWpTime) / interval;
-                curImg.tmp.setPos(prevWp.getCoor().interpolate(curWp.getCoor(), timeDiff));
-                curImg.tmp.setSpeed(speed);
-                if (curElevation != null && prevElevation != null) {
-                    curImg.tmp.setElevation(prevElevation + (curElevation - prevElevation) * timeDiff);
-                }
-                curImg.tmp.setGpsTime(new Date(curImg.getExifTime().getTime() - offset));
-
+        for (ImageEntry img : images) {
+            long time = img.getExifTime().getTime() - offset;
+            if (index.correlate(img.tmp, time)) {
+                img.tmp.setGpsTime(new Date(time));
                 ret++;
             }
-            i--;
         }
         return ret;
     }
 
-    private int getLastIndexOfListBefore(ArrayList<ImageEntry> images, long searchedTime) {
-        int lstSize= images.size();
-
-        // No photos or the first photo taken is later than the search period
-        if(lstSize == 0 || searchedTime < images.get(0).getExifTime().getTime())
-            return -1;
-
-        // The search period is later than the last photo
-        if (searchedTime > images.get(lstSize - 1).getExifTime().getTime())
-            return lstSize-1;
-
-        // The searched index is somewhere in the middle, do a binary search from the beginning
-        int curIndex= 0;
-        int startIndex= 0;
-        int endIndex= lstSize-1;
-        while (endIndex - startIndex > 1) {
-            curIndex= (endIndex + startIndex) / 2;
-            if (searchedTime > images.get(curIndex).getExifTime().getTime()) {
-                startIndex= curIndex;
-            } else {
-                endIndex= curIndex;
-            }
-        }
-        if (searchedTime < images.get(endIndex).getExifTime().getTime())
-            return startIndex;
-
-        // This final loop is to check if photos with the exact same EXIF time follows
-        while ((endIndex < (lstSize-1)) && (images.get(endIndex).getExifTime().getTime()
-                == images.get(endIndex + 1).getExifTime().getTime())) {
-            endIndex++;
-        }
-        return endIndex;
-    }
-
     private String formatTimezone(double timezone) {
         StringBuffer ret = new StringBuffer();
 
@@ -812,6 +812,9 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener, Jump
     public void propertyChange(PropertyChangeEvent evt) {
         if (NavigatableComponent.PROPNAME_CENTER.equals(evt.getPropertyName()) || NavigatableComponent.PROPNAME_SCALE.equals(evt.getPropertyName())) {
             updateOffscreenBuffer = true;
+            if (thumbsloader != null) {
+                thumbsloader.prioritize();
+            }
         }
     }
 
@@ -819,7 +822,8 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener, Jump
         if (useThumbs && !thumbsLoaded) {
             thumbsLoaded = true;
             thumbsloader = new ThumbsLoader(this);
-            Thread t = new Thread(thumbsloader);
+            Thread t = new Thread(thumbsloader, "Thumbnails");
+            t.setDaemon(true);
             t.setPriority(Thread.MIN_PRIORITY);
             t.start();
         }
@@ -0,0 +1,190 @@
+// License: GPL. See LICENSE file for details.
+package org.openstreetmap.josm.gui.layer.geoimage;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.gpx.GpxData;
+import org.openstreetmap.josm.data.gpx.GpxTrack;
+import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
+import org.openstreetmap.josm.data.gpx.WayPoint;
+import org.openstreetmap.josm.tools.PrimaryDateParser;
+
+/**
+ * The timed track points of a gpx track, packed into arrays, to find the position at a
+ * given time by binary search.
+ *
+ * Each track point with a time defines an interval: from the previous point of the same
+ * segment to this point, where positions are interpolated linearly, or, for the first point
+ * of a segment (or if the time goes backwards), a short interval before the point, where the
+ * position of the point itself is used. If intervals overlap, the first one in the file wins.
+ *
+ * The intervals are split into runs where start and end times are ascending. Within a run
+ * the first interval containing a time is found by a binary search, so matching a time costs
+ * O(runs &middot; log points), and a usual track has one run per segment.
+ */
+class GpxTimeIndex {
+
+    /** photos taken up to 5 seconds before the first point of a segment are matched to it */
+    private static final long FIRST_POINT_INTERVAL = 5 * 1000;
+
+    // the track points
+    private final long[] time;
+    private final double[] lat;
+    private final double[] lon;
+    /** the elevation, NaN if unknown */
+    private final double[] ele;
+
+    // the intervals, in file order, one for each track point
+    /** the previous point of the interval, -1 if the position of the point itself is used */
+    private final int[] prev;
+    private final long[] start;
+    private final long[] end;
+    /** the index of the first interval of each run, followed by the total number of intervals */
+    private final int[] runs;
+
+    /**
+     * Builds the index of a gpx track.
+     *
+     * @param gpx the gpx data
+     */
+    public GpxTimeIndex(GpxData gpx) {
+        List<WayPoint> points = new ArrayList<WayPoint>();
+        List<Long> times = new ArrayList<Long>();
+        List<Integer> prevs = new ArrayList<Integer>();
+        PrimaryDateParser dateParser = new PrimaryDateParser();
+        for (GpxTrack trk : gpx.tracks) {
+            for (GpxTrackSegment segment : trk.getSegments()) {
+                int prevPoint = -1;
+                for (WayPoint wp : segment.getWayPoints()) {
+                    String timeStr = (String) wp.attr.get("time");
+                    if (timeStr == null) {
+                        prevPoint = -1;
+                        continue;
+                    }
+                    try {
+                        times.add(dateParser.parse(timeStr).getTime());
+                    } catch (ParseException e) {
+                        System.err.println("Error while parsing date \"" + timeStr + '"');
+                        prevPoint = -1;
+                        continue;
+                    }
+                    points.add(wp);
+                    prevs.add(prevPoint);
+                    prevPoint = points.size() - 1;
+                }
+            }
+        }
+
+        int n = points.size();
+        time = new long[n];
+        lat = new double[n];
+        lon = new double[n];
+        ele = new double[n];
+        prev = new int[n];
+        start = new long[n];
+        end = new long[n];
+        List<Integer> runList = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            WayPoint wp = points.get(i);
+            time[i] = times.get(i);
+            lat[i] = wp.getCoor().lat();
+            lon[i] = wp.getCoor().lon();
+            ele[i] = Double.NaN;
+            try {
+                ele[i] = Double.parseDouble((String) wp.attr.get("ele"));
+            } catch (Exception e) {
+                // no elevation
+            }
+
+            int p = prevs.get(i);
+            end[i] = time[i];
+            if (p >= 0 && time[i] > time[p]) {
+                prev[i] = p;
+                start[i] = time[p];
+            } else {
+                prev[i] = -1;
+                start[i] = time[i] - (p >= 0 ? time[p] - time[i] : FIRST_POINT_INTERVAL);
+            }
+            if (i == 0 || start[i] < start[i - 1] || end[i] < end[i - 1]) {
+                runList.add(i);
+            }
+        }
+        runs = new int[runList.size() + 1];
+        for (int i = 0; i < runList.size(); i++) {
+            runs[i] = runList.get(i);
+        }
+        runs[runList.size()] = n;
+    }
+
+    /**
+     * @return the number of track points with a time
+     */
+    public int size() {
+        return time.length;
+    }
+
+    /**
+     * @return the time of the first track point with a time in the file, or -1 if there is none
+     */
+    public long getFirstTime() {
+        return time.length == 0 ? -1 : time[0];
+    }
+
+    /**
+     * Replies the first interval containing a time.
+     *
+     * @return the interval, -1 if there is none
+     */
+    private int find(long t) {
+        for (int r = 0; r < runs.length - 1; r++) {
+            int lo = runs[r];
+            int hi = runs[r + 1];
+            // the first interval of the run ending at or after t
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (end[mid] < t) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo < runs[r + 1] && start[lo] <= t)
+                return lo;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets position, speed and elevation of an image taken at a given time.
+     *
+     * @param image the image
+     * @param t the time the image was taken, in the time of the track
+     * @return true if a position has been found
+     */
+    public boolean correlate(ImageEntry image, long t) {
+        int i = find(t);
+        if (i < 0)
+            return false;
+        int p = prev[i];
+        if (p < 0) {
+            image.setPos(new LatLon(lat[i], lon[i]));
+            image.setSpeed(null);
+            image.setElevation(Double.isNaN(ele[i]) ? null : ele[i]);
+            return true;
+        }
+        LatLon prevCoor = new LatLon(lat[p], lon[p]);
+        LatLon curCoor = new LatLon(lat[i], lon[i]);
+        // The values of timeDiff are between 0 and 1, it is not seconds but a dimensionless variable
+        double timeDiff = (double) (t - time[p]) / (time[i] - time[p]);
+        image.setPos(prevCoor.interpolate(curCoor, timeDiff));
+        // This is in km/h, 3.6 * m/s
+        image.setSpeed(3600 * prevCoor.greatCircleDistance(curCoor) / (time[i] - time[p]));
+        if (!Double.isNaN(ele[i]) && !Double.isNaN(ele[p])) {
+            image.setElevation(ele[p] + (ele[i] - ele[p]) * timeDiff);
+        }
+        return true;
+    }
+}
@@ -22,7 +22,7 @@ final public class ImageEntry implements Comparable<ImageEntry>, Cloneable {
     private LatLon exifCoor;
     private Double exifImgDir;
     private Date exifTime;
-    Image thumbnail;
+    volatile Image thumbnail;
 
     /** The following values are computed from the correlation with the gpx track */
     private CachedLatLon pos;
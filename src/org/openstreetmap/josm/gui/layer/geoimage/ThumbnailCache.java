@@ -0,0 +1,189 @@
+// License: GPL. See LICENSE file for details.
+package org.openstreetmap.josm.gui.layer.geoimage;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A cache of thumbnails in a single file.
+ *
+ * Thumbnails are appended to the file as JPEG images, each preceded by its key. The index
+ * of keys and offsets is built by scanning the record headers when the file is opened, the
+ * image data is only read when a thumbnail is requested. If the file would grow beyond its
+ * maximum size, it is emptied and filled again from scratch.
+ */
+class ThumbnailCache {
+
+    private static final int MAGIC = 0x4a4f5354; // "JOST"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private final File file;
+    private final long maxSize;
+    private RandomAccessFile raf;
+    /** key -> offset and length of the image data */
+    private final Map<String, long[]> index = new HashMap<String, long[]>();
+
+    /**
+     * Opens a thumbnail cache.
+     *
+     * @param file the cache file, created if it does not exist
+     * @param maxSize the maximum size of the file in bytes
+     * @throws IOException if the file cannot be opened
+     */
+    public ThumbnailCache(File file, long maxSize) throws IOException {
+        this.file = file;
+        this.maxSize = maxSize;
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        raf = new RandomAccessFile(file, "rw");
+        readIndex();
+    }
+
+    /**
+     * Builds the index. A file in another format is emptied, a truncated last
+     * record (e.g. after a crash) is cut off.
+     */
+    private void readIndex() throws IOException {
+        if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+            reset();
+            return;
+        }
+        long pos = HEADER_SIZE;
+        long length = raf.length();
+        try {
+            while (pos < length) {
+                raf.seek(pos);
+                String key = raf.readUTF();
+                int size = raf.readInt();
+                long data = raf.getFilePointer();
+                if (size < 0 || data + size > length)
+                    throw new EOFException();
+                index.put(key, new long[] {data, size});
+                pos = data + size;
+            }
+        } catch (EOFException e) {
+            raf.setLength(pos);
+        }
+    }
+
+    private void reset() throws IOException {
+        index.clear();
+        raf.setLength(0);
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(VERSION);
+    }
+
+    /**
+     * Replies the key of a thumbnail, which changes when the image file changes.
+     *
+     * @param image the image file
+     * @param size the maximum thumbnail size
+     * @return the key
+     */
+    public static String getKey(File image, int size) {
+        return image.getAbsolutePath() + ":" + image.length() + ":" + image.lastModified() + ":" + size;
+    }
+
+    /**
+     * Reads a thumbnail.
+     *
+     * @param key the key
+     * @return the thumbnail, or null if there is none for <code>key</code>
+     */
+    public BufferedImage get(String key) {
+        byte[] data;
+        synchronized (this) {
+            long[] entry = index.get(key);
+            if (entry == null || raf == null)
+                return null;
+            data = new byte[(int) entry[1]];
+            try {
+                raf.seek(entry[0]);
+                raf.readFully(data);
+            } catch (IOException e) {
+                System.err.println("Warning: failed to read thumbnail cache "+file+": "+e.getMessage());
+                return null;
+            }
+        }
+        try {
+            return ImageIO.read(new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores a thumbnail.
+     *
+     * @param key the key
+     * @param thumbnail the thumbnail
+     */
+    public void put(String key, BufferedImage thumbnail) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        int headerSize;
+        try {
+            if (!ImageIO.write(thumbnail, "jpg", image))
+                return;
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(key);
+            out.writeInt(image.size());
+            headerSize = out.size();
+            image.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            return;
+        }
+        synchronized (this) {
+            if (raf == null)
+                return;
+            try {
+                long pos = raf.length();
+                if (pos + bytes.size() > maxSize) {
+                    reset();
+                    pos = raf.length();
+                }
+                raf.seek(pos);
+                raf.write(bytes.toByteArray());
+                index.put(key, new long[] {pos + headerSize, image.size()});
+            } catch (IOException e) {
+                System.err.println("Warning: failed to write thumbnail cache "+file+": "+e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the number of thumbnails in the cache
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Closes the file. The cache cannot be used afterwards.
+     */
+    public synchronized void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            raf = null;
+        }
+    }
+}
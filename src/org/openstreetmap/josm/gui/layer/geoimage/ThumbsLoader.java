@@ -5,113 +5,291 @@ package org.openstreetmap.josm.gui.layer.geoimage;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.MediaTracker;
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.openstreetmap.josm.Main;
-import org.openstreetmap.josm.io.CacheFiles;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.MapView;
+
+import com.drew.imaging.jpeg.JpegMetadataReader;
+import com.drew.lang.CompoundException;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifDirectory;
 
+/**
+ * Creates the thumbnails of a {@link GeoImageLayer}.
+ *
+ * Thumbnails are generated by a pool of worker threads. Images inside the map view are
+ * handled first, see {@link #prioritize()}. A thumbnail is taken from the thumbnail cache,
+ * from the EXIF thumbnail embedded in the image, or else decoded from a subsampled
+ * version of the image, so the full image never has to be held in memory.
+ */
 public class ThumbsLoader implements Runnable {
     public static final int maxSize = 120;
     public static final int minSize = 22;
+
+    /** the number of threads creating thumbnails */
+    public static final IntegerProperty PROP_THREADS = new IntegerProperty("geoimage.thumbnail-threads",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+    /** the maximum size of the thumbnail cache in MB */
+    public static final IntegerProperty PROP_CACHE_SIZE = new IntegerProperty("geoimage.thumbnail-cache.max-size", 120);
+
+    private static ThumbnailCache cache;
+    private static boolean cacheFailed;
+
     volatile boolean stop = false;
     List<ImageEntry> data;
     GeoImageLayer layer;
-    MediaTracker tracker;
-    CacheFiles cache;
     boolean cacheOff = Main.pref.getBoolean("geoimage.noThumbnailCache", false);
+    /** the images still waiting for their thumbnail, visible ones first */
+    private final LinkedList<ImageEntry> queue;
 
     public ThumbsLoader(GeoImageLayer layer) {
         this.layer = layer;
         this.data = new ArrayList<ImageEntry>(layer.data);
-        if (!cacheOff) {
-            cache = new CacheFiles("geoimage-thumbnails", false);
-            cache.setExpire(CacheFiles.EXPIRE_NEVER, false);
-            cache.setMaxSize(120, false);
-        }
+        this.queue = new LinkedList<ImageEntry>(data);
+        prioritize();
     }
 
-    public void run() {
-        System.err.println("Load Thumbnails");
-        tracker = new MediaTracker(Main.map.mapView);
-        for (int i = 0; i < data.size(); i++) {
-            if (stop) return;
+    /**
+     * Replies the thumbnail cache shared by all layers, opened on first use.
+     *
+     * @return the cache, or null if it cannot be opened
+     */
+    private static synchronized ThumbnailCache getCache() {
+        if (cache == null && !cacheFailed) {
+            File file = new File(Main.pref.getCacheDirectory(), "geoimage-thumbnails.cache");
+            try {
+                cache = new ThumbnailCache(file, PROP_CACHE_SIZE.get() * 1024L * 1024L);
+            } catch (IOException e) {
+                System.err.println("Warning: failed to open thumbnail cache "+file+": "+e.getMessage());
+                cacheFailed = true;
+            }
+        }
+        return cache;
+    }
 
-            System.err.print("fetching image "+i);
+    /**
+     * Moves the waiting images which are visible in the map view to the front of the queue.
+     * Called whenever the map view is moved or zoomed.
+     */
+    public void prioritize() {
+        if (!Main.isDisplayingMapView())
+            return;
+        MapView mv = Main.map.mapView;
+        Rectangle visible = new Rectangle(-maxSize, -maxSize, mv.getWidth() + 2 * maxSize, mv.getHeight() + 2 * maxSize);
+        synchronized (queue) {
+            List<ImageEntry> others = new ArrayList<ImageEntry>();
+            for (Iterator<ImageEntry> it = queue.iterator(); it.hasNext();) {
+                ImageEntry e = it.next();
+                if (e.getPos() == null) {
+                    others.add(e);
+                    it.remove();
+                    continue;
+                }
+                Point p = mv.getPoint(e.getPos());
+                if (!visible.contains(p)) {
+                    others.add(e);
+                    it.remove();
+                }
+            }
+            queue.addAll(others);
+        }
+    }
 
-            data.get(i).thumbnail = loadThumb(data.get(i));
+    private ImageEntry next() {
+        synchronized (queue) {
+            return queue.poll();
+        }
+    }
 
-            if (Main.isDisplayingMapView()) {
-                layer.updateOffscreenBuffer = true;
-                Main.map.mapView.repaint();
+    public void run() {
+        int threads = Math.max(1, PROP_THREADS.get());
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Thumbnail loader");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
             }
-        }
-        layer.updateOffscreenBuffer = true;
-        Main.map.mapView.repaint();
-        (new Thread() {             // clean up the garbage - shouldn't hurt
-            @Override
+        });
+        Runnable worker = new Runnable() {
             public void run() {
-                try {
-                    Thread.sleep(200);
+                ImageEntry entry;
+                while (!stop && (entry = next()) != null) {
+                    entry.thumbnail = loadThumb(entry);
+                    if (Main.isDisplayingMapView()) {
+                        layer.updateOffscreenBuffer = true;
+                        Main.map.mapView.repaint();
+                    }
                 }
-                catch (InterruptedException ie) {}
-                System.gc();
             }
-        }).start();
-
+        };
+        for (int i = 0; i < threads; i++) {
+            workers.execute(worker);
+        }
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the workers
+            }
+        } catch (InterruptedException e) {
+            stop = true;
+            return;
+        }
+        if (Main.isDisplayingMapView()) {
+            layer.updateOffscreenBuffer = true;
+            Main.map.mapView.repaint();
+        }
     }
 
     private BufferedImage loadThumb(ImageEntry entry) {
-        final String cacheIdent = entry.getFile().toString()+":"+maxSize;
-
-        if (!cacheOff) {
-            BufferedImage cached = cache.getImg(cacheIdent);
-            if(cached != null) {
-                System.err.println(" from cache");
+        File file = entry.getFile();
+        String key = ThumbnailCache.getKey(file, maxSize);
+        ThumbnailCache c = cacheOff ? null : getCache();
+        if (c != null) {
+            BufferedImage cached = c.get(key);
+            if (cached != null)
                 return cached;
-            }
         }
 
-        Image img = Toolkit.getDefaultToolkit().createImage(entry.getFile().getPath());
-        tracker.addImage(img, 0);
-        try {
-            tracker.waitForID(0);
-        } catch (InterruptedException e) {
-            System.err.println(" InterruptedException");
-            return null;
+        Image img = loadExifThumbnail(file);
+        if (img == null) {
+            img = loadSubsampled(file);
         }
-        if (tracker.isErrorID(1) || img.getWidth(null) <= 0 || img.getHeight(null) <= 0) {
-            System.err.println(" Invalid image");
+        if (img == null) {
+            img = loadWithToolkit(file);
+        }
+        if (img == null) {
+            System.err.println("Warning: invalid image "+file);
             return null;
         }
         Rectangle targetSize = ImageDisplay.calculateDrawImageRectangle(
                 new Rectangle(0, 0, img.getWidth(null), img.getHeight(null)),
                 new Rectangle(0, 0, maxSize, maxSize));
+        if (targetSize.width <= 0 || targetSize.height <= 0) {
+            System.err.println("Warning: invalid image "+file);
+            return null;
+        }
         BufferedImage scaledBI = new BufferedImage(targetSize.width, targetSize.height, BufferedImage.TYPE_INT_RGB);
         Graphics2D g = scaledBI.createGraphics();
-        while (!g.drawImage(img, 0, 0, targetSize.width, targetSize.height, null))
-        {
-            try {
-                Thread.sleep(10);
-            } catch(InterruptedException ie) {}
-        }
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(img, 0, 0, targetSize.width, targetSize.height, null);
         g.dispose();
-        tracker.removeImage(img);
 
-        if (scaledBI.getWidth() <= 0 || scaledBI.getHeight() <= 0) {
-            System.err.println(" Invalid image");
-            return null;
+        if (c != null) {
+            c.put(key, scaledBI);
         }
+        return scaledBI;
+    }
 
-        if (!cacheOff) {
-            cache.saveImg(cacheIdent, scaledBI);
+    /**
+     * Reads the thumbnail embedded in the EXIF data. Only the header of the file is read.
+     *
+     * @return the thumbnail, or null if there is none which is large enough and shows the whole image
+     */
+    private static BufferedImage loadExifThumbnail(File file) {
+        try {
+            Metadata metadata = JpegMetadataReader.readMetadata(file);
+            Directory dir = metadata.getDirectory(ExifDirectory.class);
+            if (!(dir instanceof ExifDirectory) || !((ExifDirectory) dir).containsThumbnail())
+                return null;
+            if (!dir.containsTag(ExifDirectory.TAG_EXIF_IMAGE_WIDTH) || !dir.containsTag(ExifDirectory.TAG_EXIF_IMAGE_HEIGHT))
+                return null;
+            int width = dir.getInt(ExifDirectory.TAG_EXIF_IMAGE_WIDTH);
+            int height = dir.getInt(ExifDirectory.TAG_EXIF_IMAGE_HEIGHT);
+            byte[] thumbData = ((ExifDirectory) dir).getThumbnailData();
+            BufferedImage thumb = ImageIO.read(new ByteArrayInputStream(thumbData));
+            if (thumb == null || width <= 0 || height <= 0 || Math.max(thumb.getWidth(), thumb.getHeight()) < maxSize)
+                return null;
+            // some cameras pad the thumbnail to 4:3 with black bars
+            double ratio = ((double) width / height) / ((double) thumb.getWidth() / thumb.getHeight());
+            if (Math.abs(ratio - 1) > 0.02)
+                return null;
+            return thumb;
+        } catch (CompoundException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
         }
+    }
 
-        System.err.println("");
-        return scaledBI;
+    /**
+     * Decodes the image with subsampling, so only about twice the thumbnail size is decoded.
+     *
+     * @return the image, or null if it cannot be decoded by ImageIO
+     */
+    private static BufferedImage loadSubsampled(File file) {
+        try {
+            ImageInputStream in = ImageIO.createImageInputStream(file);
+            if (in == null)
+                return null;
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+                if (!readers.hasNext())
+                    return null;
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(in, true, true);
+                    int width = reader.getWidth(0);
+                    int height = reader.getHeight(0);
+                    if (width <= 0 || height <= 0)
+                        return null;
+                    int s = Math.max(1, Math.max(width, height) / (2 * maxSize));
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(s, s, 0, 0);
+                    return reader.read(0, param);
+                } finally {
+                    reader.dispose();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // e.g. CMYK JPEGs are not supported by ImageIO
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
     }
 
+    /**
+     * Loads the full image with the AWT toolkit, which knows some formats ImageIO does not.
+     */
+    private static Image loadWithToolkit(File file) {
+        if (!Main.isDisplayingMapView())
+            return null;
+        Image img = Toolkit.getDefaultToolkit().createImage(file.getPath());
+        MediaTracker tracker = new MediaTracker(Main.map.mapView);
+        tracker.addImage(img, 0);
+        try {
+            tracker.waitForID(0);
+        } catch (InterruptedException e) {
+            return null;
+        }
+        if (tracker.isErrorID(0) || img.getWidth(null) <= 0 || img.getHeight(null) <= 0)
+            return null;
+        return img;
+    }
 }
@@ -13,6 +13,7 @@ import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.gui.mappaint.BoxTextElemStyle.BoxProvider;
 import org.openstreetmap.josm.gui.mappaint.BoxTextElemStyle.BoxProviderResult;
 import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.tools.ImageAtlas;
 import org.openstreetmap.josm.tools.ImageProvider;
 import org.openstreetmap.josm.tools.ImageProvider.ImageCallback;
 import org.openstreetmap.josm.tools.Utils;
@@ -34,6 +35,7 @@ public class MapImage {
 
     private boolean temporary;
     private Image disabledImg;
+    private ImageAtlas.Region region;
 
     public MapImage(String name, StyleSource source) {
         this.name = name;
@@ -88,6 +90,20 @@ public class MapImage {
         return img;
     }
 
+    /**
+     * Replies the region of the icon atlas to paint the image from. Temporary images
+     * are not packed into the atlas.
+     */
+    public ImageAtlas.Region getRegion() {
+        BufferedImage image = getImage();
+        ImageAtlas.Region r = region;
+        if (r == null || r.getSource() != image) {
+            r = temporary ? ImageAtlas.Region.of(image) : ImageAtlas.getInstance().get(image);
+            region = r;
+        }
+        return r;
+    }
+
     public int getWidth() {
         return getImage().getWidth(null);
     }
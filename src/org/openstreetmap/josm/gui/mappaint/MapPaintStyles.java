@@ -29,6 +29,7 @@ import org.openstreetmap.josm.gui.preferences.SourceEntry;
 import org.openstreetmap.josm.gui.preferences.map.MapPaintPreference.MapPaintPrefHelper;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.io.MirroredInputStream;
+import org.openstreetmap.josm.tools.ImageAtlas;
 import org.openstreetmap.josm.tools.ImageProvider;
 
 /**
@@ -402,6 +403,8 @@ public class MapPaintStyles {
     }
 
     public static void fireMapPaintSylesUpdated() {
+        // the icons of the old styles are not needed any more
+        ImageAtlas.getInstance().clear();
         for (MapPaintSylesUpdateListener l : listeners) {
             l.mapPaintStylesUpdated();
         }
@@ -233,8 +233,11 @@ public class NodeElemStyle extends ElemStyle {
         if (primitive instanceof Node) {
             Node n = (Node) primitive;
             if (mapImage != null && painter.isShowIcons()) {
-                painter.drawNodeIcon(n, (painter.isInactiveMode() || n.isDisabled()) ? mapImage.getDisabled() : mapImage.getImage(),
-                        Utils.color_int2float(mapImage.alpha), selected, member);
+                if (painter.isInactiveMode() || n.isDisabled()) {
+                    painter.drawNodeIcon(n, mapImage.getDisabled(), Utils.color_int2float(mapImage.alpha), selected, member);
+                } else {
+                    painter.drawNodeIcon(n, mapImage.getRegion(), Utils.color_int2float(mapImage.alpha), selected, member);
+                }
             } else if (symbol != null) {
                 Color fillColor = symbol.fillColor;
                 if (fillColor != null) {
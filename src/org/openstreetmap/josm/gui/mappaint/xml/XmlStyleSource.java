@@ -284,7 +284,7 @@ public class XmlStyleSource extends StyleSource implements StyleKeys {
     @Override
     public void apply(MultiCascade mc, OsmPrimitive osm, double scale, OsmPrimitive multipolyOuterWay, boolean pretendWayIsClosed) {
         Cascade def = mc.getOrCreateCascade("default");
-        boolean useMinMaxScale = Main.pref.getBoolean("mappaint.zoomLevelDisplay", false);
+        boolean useMinMaxScale = Main.pref.getCachedBoolean("mappaint.zoomLevelDisplay", false).get();
 
         if (osm instanceof Node || (osm instanceof Relation && "restriction".equals(osm.get("type")))) {
             IconPrototype icon = getNode(osm, (useMinMaxScale ? scale : null), mc);
@@ -12,13 +12,10 @@ import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -81,9 +78,9 @@ import org.openstreetmap.josm.gui.tagging.ac.AutoCompletionList;
 import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.gui.widgets.JosmComboBox;
 import org.openstreetmap.josm.io.MirroredInputStream;
+import org.openstreetmap.josm.io.SaxEventCache;
 import org.openstreetmap.josm.tools.GBC;
 import org.openstreetmap.josm.tools.ImageProvider;
-import org.openstreetmap.josm.tools.Predicate;
 import org.openstreetmap.josm.tools.UrlLabel;
 import org.openstreetmap.josm.tools.Utils;
 import org.openstreetmap.josm.tools.XmlObjectParser;
@@ -260,6 +257,25 @@ public class TaggingPreset extends AbstractAction implements MapView.LayerChange
                 throw new IllegalStateException();
             }
         }
+
+        /**
+         * Replies the values of {@link #key} for which {@link #matches} can be positive.
+         * @return the values, null if the key alone can match positively, or an empty
+         * collection if this item never matches positively
+         */
+        Collection<String> getPositiveMatchValues() {
+            switch (MatchType.ofString(match)) {
+            case NONE:
+                return Collections.emptyList();
+            case KEY:
+            case KEY_REQUIRED:
+                return null;
+            case KEY_VALUE:
+                return getValues();
+            default:
+                throw new IllegalStateException();
+            }
+        }
         
         @Override
         public String toString() {
@@ -1477,7 +1493,41 @@ public class TaggingPreset extends AbstractAction implements MapView.LayerChange
     }
 
 
+    private static final String PRESET_NAMESPACE = "http://josm.openstreetmap.de/tagging-preset-1.0";
+    private static final String PRESET_SCHEMA = "resource://data/tagging-preset.xsd";
+
     public static List<TaggingPreset> readAll(Reader in, boolean validate) throws SAXException {
+        XmlObjectParser parser = createParser();
+        if (validate) {
+            parser.startWithValidation(in, PRESET_NAMESPACE, PRESET_SCHEMA);
+        } else {
+            parser.start(in);
+        }
+        return readAll(parser);
+    }
+
+    /**
+     * Reads the presets of a source, restoring them from the {@link org.openstreetmap.josm.io.SaxEventCache}
+     * if the content did not change since it was last parsed.
+     *
+     * @param source the source URL
+     * @param content the content of the preset file
+     * @param validate true to validate the presets against the schema (if they have to be parsed)
+     * @return the presets
+     * @throws SAXException if the presets cannot be parsed
+     */
+    public static List<TaggingPreset> readAll(String source, byte[] content, boolean validate) throws SAXException {
+        XmlObjectParser parser = createParser();
+        // a snapshot of presets parsed without validation must not pass for validated ones
+        if (validate) {
+            parser.startCached("presets-validated", source, content, PRESET_NAMESPACE, PRESET_SCHEMA);
+        } else {
+            parser.startCached("presets", source, content, null, null);
+        }
+        return readAll(parser);
+    }
+
+    private static XmlObjectParser createParser() {
         XmlObjectParser parser = new XmlObjectParser();
         parser.mapOnStart("item", TaggingPreset.class);
         parser.mapOnStart("separator", TaggingPresetSeparator.class);
@@ -1494,16 +1544,15 @@ public class TaggingPreset extends AbstractAction implements MapView.LayerChange
         parser.map("space", Space.class);
         parser.map("key", Key.class);
         parser.map("list_entry", PresetListEntry.class);
+        return parser;
+    }
+
+    private static List<TaggingPreset> readAll(XmlObjectParser parser) throws SAXException {
         LinkedList<TaggingPreset> all = new LinkedList<TaggingPreset>();
         TaggingPresetMenu lastmenu = null;
         Roles lastrole = null;
         List<PresetListEntry> listEntries = new LinkedList<PresetListEntry>();
 
-        if (validate) {
-            parser.startWithValidation(in, "http://josm.openstreetmap.de/tagging-preset-1.0", "resource://data/tagging-preset.xsd");
-        } else {
-            parser.start(in);
-        }
         while(parser.hasNext()) {
             Object o = parser.next();
             if (o instanceof TaggingPresetMenu) {
@@ -1572,17 +1621,8 @@ public class TaggingPreset extends AbstractAction implements MapView.LayerChange
             if(zip != null) {
                 zipIcons = s.getFile();
             }
-            InputStreamReader r;
-            try {
-                r = new InputStreamReader(zip == null ? s : zip, "UTF-8");
-            } catch (UnsupportedEncodingException e) {
-                r = new InputStreamReader(zip == null ? s: zip);
-            }
-            try {
-                tp = TaggingPreset.readAll(new BufferedReader(r), validate);
-            } finally {
-                r.close();
-            }
+            byte[] content = SaxEventCache.readContent(zip == null ? s : zip);
+            tp = TaggingPreset.readAll(source, content, validate);
         } finally {
             s.close();
         }
@@ -1901,12 +1941,16 @@ public class TaggingPreset extends AbstractAction implements MapView.LayerChange
         return atLeastOnePositiveMatch;
     }
 
+    /**
+     * Replies the presets of {@link TaggingPresetPreference#taggingPresets} matching the given tags,
+     * see {@link #matches}. Only the presets which can match one of the tags are tested.
+     *
+     * @param t the preset types, or null
+     * @param tags the tags
+     * @param onlyShowable true to consider only showable presets
+     * @return the matching presets, in the order of the preset list
+     */
     public static Collection<TaggingPreset> getMatchingPresets(final Collection<PresetType> t, final Map<String, String> tags, final boolean onlyShowable) {
-        return Utils.filter(TaggingPresetPreference.taggingPresets, new Predicate<TaggingPreset>() {
-            @Override
-            public boolean evaluate(TaggingPreset object) {
-                return object.matches(t, tags, onlyShowable);
-            }
-        });
+        return TaggingPresetIndex.get(TaggingPresetPreference.taggingPresets).getMatchingPresets(t, tags, onlyShowable);
     }
 }
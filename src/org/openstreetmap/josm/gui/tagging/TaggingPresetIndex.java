@@ -0,0 +1,123 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.tagging;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.openstreetmap.josm.gui.tagging.TaggingPreset.Item;
+import org.openstreetmap.josm.gui.tagging.TaggingPreset.KeyedItem;
+import org.openstreetmap.josm.gui.tagging.TaggingPreset.PresetType;
+
+/**
+ * An index of tagging presets by the tags they can match.
+ *
+ * A preset only {@link TaggingPreset#matches matches} tags if at least one of its items
+ * matches positively, i.e. if the tags contain the key of a "key" or "key!" item, or the
+ * key and one of the values of a "keyvalue" item. So to find the presets matching some
+ * tags, only the presets indexed under these keys and tags have to be tested.
+ */
+class TaggingPresetIndex {
+
+    private static TaggingPresetIndex instance;
+
+    private final Collection<TaggingPreset> presets;
+    private final TaggingPreset[] ordered;
+    /** key -> presets which can match the key alone */
+    private final Map<String, BitSet> byKey = new HashMap<String, BitSet>();
+    /** key -> value -> presets which can match the tag */
+    private final Map<String, Map<String, BitSet>> byTag = new HashMap<String, Map<String, BitSet>>();
+
+    /**
+     * Replies the index of the given presets. The index is built on first use and
+     * built again when another collection of presets is passed, or when the size of the
+     * collection changed, as plugins add presets to {@link TaggingPresetPreference#taggingPresets}.
+     *
+     * @param presets the presets, may be null
+     * @return the index
+     */
+    static synchronized TaggingPresetIndex get(Collection<TaggingPreset> presets) {
+        if (instance == null || instance.presets != presets || instance.ordered.length != (presets == null ? 0 : presets.size())) {
+            instance = new TaggingPresetIndex(presets);
+        }
+        return instance;
+    }
+
+    TaggingPresetIndex(Collection<TaggingPreset> presets) {
+        this.presets = presets;
+        if (presets == null) {
+            ordered = new TaggingPreset[0];
+            return;
+        }
+        ordered = presets.toArray(new TaggingPreset[presets.size()]);
+        for (int i = 0; i < ordered.length; i++) {
+            for (Item item : ordered[i].data) {
+                if (!(item instanceof KeyedItem) || ((KeyedItem) item).key == null) {
+                    continue;
+                }
+                KeyedItem keyed = (KeyedItem) item;
+                Collection<String> values = keyed.getPositiveMatchValues();
+                if (values == null) {
+                    getBits(byKey, keyed.key).set(i);
+                } else if (!values.isEmpty()) {
+                    Map<String, BitSet> byValue = byTag.get(keyed.key);
+                    if (byValue == null) {
+                        byValue = new HashMap<String, BitSet>();
+                        byTag.put(keyed.key, byValue);
+                    }
+                    for (String value : values) {
+                        getBits(byValue, value).set(i);
+                    }
+                }
+            }
+        }
+    }
+
+    private static BitSet getBits(Map<String, BitSet> map, String key) {
+        BitSet bits = map.get(key);
+        if (bits == null) {
+            bits = new BitSet();
+            map.put(key, bits);
+        }
+        return bits;
+    }
+
+    /**
+     * Replies the presets matching the given tags.
+     *
+     * @param t the preset types, or null
+     * @param tags the tags
+     * @param onlyShowable true to consider only showable presets
+     * @return the matching presets, in the order of the indexed collection
+     */
+    List<TaggingPreset> getMatchingPresets(Collection<PresetType> t, Map<String, String> tags, boolean onlyShowable) {
+        BitSet candidates = new BitSet(ordered.length);
+        for (Entry<String, String> tag : tags.entrySet()) {
+            BitSet bits = byKey.get(tag.getKey());
+            if (bits != null) {
+                candidates.or(bits);
+            }
+            Map<String, BitSet> byValue = byTag.get(tag.getKey());
+            if (byValue != null) {
+                bits = byValue.get(tag.getValue());
+                if (bits != null) {
+                    candidates.or(bits);
+                }
+            }
+        }
+        if (candidates.isEmpty())
+            return Collections.emptyList();
+        List<TaggingPreset> result = new ArrayList<TaggingPreset>();
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (ordered[i].matches(t, tags, onlyShowable)) {
+                result.add(ordered[i]);
+            }
+        }
+        return result;
+    }
+}
@@ -14,11 +14,13 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.TreeMap;
 
 import javax.swing.AbstractListModel;
 import javax.swing.Action;
@@ -132,42 +134,6 @@ public class TaggingPresetSearchDialog extends ExtendedDialog implements Selecti
             }
         }
 
-        private int isMatching(Collection<String> values, String[] searchString) {
-            int sum = 0;
-            for (String word: searchString) {
-                boolean found = false;
-                boolean foundFirst = false;
-                for (String value: values) {
-                    int index = value.indexOf(word);
-                    if (index == 0) {
-                        foundFirst = true;
-                        break;
-                    } else if (index > 0) {
-                        found = true;
-                    }
-                }
-                if (foundFirst) {
-                    sum += 2;
-                } else if (found) {
-                    sum += 1;
-                } else
-                    return 0;
-            }
-            return sum;
-        }
-
-        int isMatchingGroup(String[] words) {
-            return isMatching(groups, words);
-        }
-
-        int isMatchingName(String[] words) {
-            return isMatching(names, words);
-        }
-
-        int isMatchingTags(String[] words) {
-            return isMatching(tags, words);
-        }
-
         @Override
         public int compareTo(PresetClasification o) {
             int result = o.classification - classification;
@@ -183,6 +149,102 @@ public class TaggingPresetSearchDialog extends ExtendedDialog implements Selecti
         }
     }
 
+    /**
+     * The distinct lowercase words of one category (names, groups or tags) of all presets,
+     * sorted, each with the presets using it. A search word is compared with every distinct
+     * word once, and the words starting with it are found by binary search.
+     */
+    private static class WordIndex {
+        private final String[] words;
+        private final int[][] presets;
+
+        /**
+         * @param wordsOfPresets the words of each preset
+         */
+        WordIndex(List<Collection<String>> wordsOfPresets) {
+            TreeMap<String, List<Integer>> map = new TreeMap<String, List<Integer>>();
+            for (int i = 0; i < wordsOfPresets.size(); i++) {
+                for (String word : wordsOfPresets.get(i)) {
+                    if (word == null) {
+                        continue;
+                    }
+                    List<Integer> list = map.get(word);
+                    if (list == null) {
+                        list = new ArrayList<Integer>();
+                        map.put(word, list);
+                    }
+                    list.add(i);
+                }
+            }
+            words = map.keySet().toArray(new String[map.size()]);
+            presets = new int[words.length][];
+            for (int i = 0; i < words.length; i++) {
+                List<Integer> list = map.get(words[i]);
+                presets[i] = new int[list.size()];
+                for (int j = 0; j < list.size(); j++) {
+                    presets[i][j] = list.get(j);
+                }
+            }
+        }
+
+        /**
+         * Matches one search word.
+         * @param result receives for each preset 2 if one of its words starts with the
+         * search word, 1 if one of its words contains it, 0 otherwise
+         */
+        private void match(String searchWord, int[] result) {
+            Arrays.fill(result, 0);
+            int from = Arrays.binarySearch(words, searchWord);
+            if (from < 0) {
+                from = -from - 1;
+            }
+            int to = from;
+            while (to < words.length && words[to].startsWith(searchWord)) {
+                for (int p : presets[to]) {
+                    result[p] = 2;
+                }
+                to++;
+            }
+            for (int i = 0; i < words.length; i++) {
+                if ((i < from || i >= to) && words[i].indexOf(searchWord) > 0) {
+                    for (int p : presets[i]) {
+                        if (result[p] == 0) {
+                            result[p] = 1;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Matches the search words.
+         * @param searchWords the search words
+         * @param count the number of presets
+         * @return for each preset the sum of the matches of all search words (see
+         * {@link #match(String, int[])}), or 0 if one of the search words doesn't match
+         */
+        int[] match(String[] searchWords, int count) {
+            int[] sum = new int[count];
+            int[] result = new int[count];
+            for (int w = 0; w < searchWords.length; w++) {
+                match(searchWords[w], result);
+                for (int p = 0; p < count; p++) {
+                    if (result[p] == 0) {
+                        sum[p] = -1;
+                    } else if (sum[p] >= 0) {
+                        sum[p] += result[p];
+                    }
+                }
+            }
+            for (int p = 0; p < count; p++) {
+                if (sum[p] < 0) {
+                    sum[p] = 0;
+                }
+            }
+            return sum;
+        }
+    }
+
     private static TaggingPresetSearchDialog instance;
     public static TaggingPresetSearchDialog getInstance() {
         if (instance == null) {
@@ -198,6 +260,9 @@ public class TaggingPresetSearchDialog extends ExtendedDialog implements Selecti
     private final EnumSet<PresetType> typesInSelection = EnumSet.noneOf(PresetType.class);
     private boolean typesInSelectionDirty = true;
     private final List<PresetClasification> classifications = new ArrayList<PresetClasification>();
+    private final WordIndex groupIndex;
+    private final WordIndex nameIndex;
+    private final WordIndex tagIndex;
     private ResultListModel lsResultModel = new ResultListModel();
 
     private TaggingPresetSearchDialog() {
@@ -211,6 +276,17 @@ public class TaggingPresetSearchDialog extends ExtendedDialog implements Selecti
 
             classifications.add(new PresetClasification(preset));
         }
+        List<Collection<String>> groups = new ArrayList<Collection<String>>(classifications.size());
+        List<Collection<String>> names = new ArrayList<Collection<String>>(classifications.size());
+        List<Collection<String>> tags = new ArrayList<Collection<String>>(classifications.size());
+        for (PresetClasification c : classifications) {
+            groups.add(c.groups);
+            names.add(c.names);
+            tags.add(c.tags);
+        }
+        groupIndex = new WordIndex(groups);
+        nameIndex = new WordIndex(names);
+        tagIndex = new WordIndex(tags);
 
         build();
         filterPresets();
@@ -365,9 +441,16 @@ public class TaggingPresetSearchDialog extends ExtendedDialog implements Selecti
         boolean onlyApplicable = ckOnlyApplicable.isSelected();
         boolean inTags = ckSearchInTags.isSelected();
 
+        int count = classifications.size();
+        int[] groupMatches = groupWords != null ? groupIndex.match(groupWords, count) : null;
+        int[] nameMatches = nameIndex.match(nameWords, count);
+        int[] groupMatchesOfNameWords = groupWords == null ? groupIndex.match(nameWords, count) : null;
+        int[] tagMatches = inTags ? tagIndex.match(nameWords, count) : null;
+
         List<PresetClasification> result = new ArrayList<PresetClasification>();
         PRESET_LOOP:
-            for (PresetClasification presetClasification: classifications) {
+            for (int i = 0; i < count; i++) {
+                PresetClasification presetClasification = classifications.get(i);
                 TaggingPreset preset = presetClasification.preset;
                 presetClasification.classification = 0;
 
@@ -386,21 +469,21 @@ public class TaggingPresetSearchDialog extends ExtendedDialog implements Selecti
 
 
 
-                if (groupWords != null && presetClasification.isMatchingGroup(groupWords) == 0) {
+                if (groupWords != null && groupMatches[i] == 0) {
                     continue PRESET_LOOP;
                 }
 
-                int matchName = presetClasification.isMatchingName(nameWords);
+                int matchName = nameMatches[i];
 
                 if (matchName == 0) {
                     if (groupWords == null) {
-                        int groupMatch = presetClasification.isMatchingGroup(nameWords);
+                        int groupMatch = groupMatchesOfNameWords[i];
                         if (groupMatch > 0) {
                             presetClasification.classification = CLASSIFICATION_GROUP_MATCH + groupMatch;
                         }
                     }
                     if (presetClasification.classification == 0 && inTags) {
-                        int tagsMatch = presetClasification.isMatchingTags(nameWords);
+                        int tagsMatch = tagMatches[i];
                         if (tagsMatch > 0) {
                             presetClasification.classification = CLASSIFICATION_TAGS_MATCH + tagsMatch;
                         }
@@ -4,9 +4,10 @@ package org.openstreetmap.josm.gui.tagging.ac;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import javax.swing.JTable;
 import javax.swing.table.AbstractTableModel;
@@ -14,8 +15,8 @@ import javax.swing.table.AbstractTableModel;
 /**
  * AutoCompletionList manages a list of {@link AutoCompletionListItem}s.
  *
- * The list is sorted, items with higher priority first, then according to lexicographic order
- * on the value of the {@link AutoCompletionListItem}.
+ * The list is sorted, items with higher priority first, then the items used more often in the
+ * data set, then according to lexicographic order on the value of the {@link AutoCompletionListItem}.
  *
  * AutoCompletionList maintains two views on the list of {@link AutoCompletionListItem}s.
  * <ol>
@@ -35,8 +36,8 @@ public class AutoCompletionList extends AbstractTableModel {
     private ArrayList<AutoCompletionListItem> filtered = null;
     /** the filter expression */
     private String filter = null;
-    /** map from value to priority */
-    private Map<String,AutoCompletionListItem> valutToItemMap;
+    /** map from value to item, sorted by value to look up the items starting with the filter */
+    private TreeMap<String,AutoCompletionListItem> valutToItemMap;
 
     /**
      * constructor
@@ -44,7 +45,7 @@ public class AutoCompletionList extends AbstractTableModel {
     public AutoCompletionList() {
         list = new ArrayList<AutoCompletionListItem>();
         filtered = new ArrayList<AutoCompletionListItem>();
-        valutToItemMap = new HashMap<String, AutoCompletionListItem>();
+        valutToItemMap = new TreeMap<String, AutoCompletionListItem>();
     }
 
     /**
@@ -148,6 +149,28 @@ public class AutoCompletionList extends AbstractTableModel {
         filter();
     }
 
+    /**
+     * adds strings with the number of their uses in the data set to this list. Only strings
+     * which are not null and which do not exist yet in the list are added, the count of
+     * existing strings is updated.
+     *
+     * @param values the strings and their counts
+     * @param priority the priority to use
+     */
+    public void add(Map<String, Integer> values, AutoCompletionItemPritority priority) {
+        if (values == null) return;
+        for (Entry<String, Integer> e : values.entrySet()) {
+            if (e.getKey() == null) {
+                continue;
+            }
+            AutoCompletionListItem item = new AutoCompletionListItem(e.getKey(), priority);
+            item.setCount(e.getValue());
+            appendOrUpdatePriority(item);
+        }
+        sort();
+        filter();
+    }
+
     protected void appendOrUpdatePriority(AutoCompletionListItem toAdd) {
         AutoCompletionListItem item = valutToItemMap.get(toAdd.getValue());
         if (item == null) {
@@ -156,6 +179,7 @@ public class AutoCompletionList extends AbstractTableModel {
             valutToItemMap.put(toAdd.getValue(), toAdd);
         } else {
             item.setPriority(item.getPriority().mergeWith(toAdd.getPriority()));
+            item.setCount(Math.max(item.getCount(), toAdd.getCount()));
         }
     }
 
@@ -200,6 +224,7 @@ public class AutoCompletionList extends AbstractTableModel {
             AutoCompletionListItem item = list.get(i);
             if (item.getValue().equals(key)) {
                 list.remove(i);
+                valutToItemMap.remove(key);
                 return;
             }
         }
@@ -224,14 +249,16 @@ public class AutoCompletionList extends AbstractTableModel {
             return;
         }
 
-        // apply the pattern to list of possible values. If it matches, add the
-        // value to the list of filtered values
+        // the values starting with the pattern follow each other in the sorted map,
+        // put them in the order of the list
         //
-        for (AutoCompletionListItem item : list) {
-            if (item.getValue().startsWith(filter)) {
-                filtered.add(item);
+        for (Entry<String, AutoCompletionListItem> e : valutToItemMap.tailMap(filter).entrySet()) {
+            if (!e.getKey().startsWith(filter)) {
+                break;
             }
+            filtered.add(e.getValue());
         }
+        Collections.sort(filtered);
         fireTableDataChanged();
     }
 
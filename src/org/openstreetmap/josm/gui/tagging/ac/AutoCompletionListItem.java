@@ -9,7 +9,8 @@ package org.openstreetmap.josm.gui.tagging.ac;
  *  The priority helps to sort the auto completion items according to their importance. For instance,
  *  in an auto completion list for tag names, standard tag names would be assigned a higher
  *  priority than arbitrary tag names present in the current data set. There are three priority levels,
- *  {@link AutoCompletionItemPritority}.
+ *  {@link AutoCompletionItemPritority}. Items of the same priority are sorted by their <em>count</em>,
+ *  the number of uses in the data set, most used first.
  *
  * The value is a string which will be displayed in the auto completion list.
  *
@@ -20,6 +21,8 @@ public class AutoCompletionListItem implements Comparable<AutoCompletionListItem
     private  AutoCompletionItemPritority priority;
     /** the value of this item */
     private String value;
+    /** the number of uses of the value in the data set */
+    private int count;
 
     /**
      * constructor
@@ -56,6 +59,22 @@ public class AutoCompletionListItem implements Comparable<AutoCompletionListItem
         this.priority = priority;
     }
 
+    /**
+     *
+     * @return the number of uses of the value in the data set, 0 if unknown
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * sets the number of uses of the value in the data set
+     * @param count the count
+     */
+    public void setCount(int count) {
+        this.count = count;
+    }
+
     /**
      *
      * @return the value
@@ -119,6 +138,8 @@ public class AutoCompletionListItem implements Comparable<AutoCompletionListItem
         int ret = other.priority.compareTo(priority); // higher priority items come first in the list
         if (ret != 0)
             return ret;
+        else if (count != other.count)
+            return count > other.count ? -1 : 1; // more frequently used items come first
         else
             return this.value.compareTo(other.value);
     }
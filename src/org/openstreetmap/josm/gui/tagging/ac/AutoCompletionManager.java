@@ -6,10 +6,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
@@ -17,8 +19,10 @@ import org.openstreetmap.josm.data.osm.OsmUtils;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent.DatasetEventType;
 import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.DatasetChanges;
 import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
 import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
 import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
@@ -44,6 +48,12 @@ import org.openstreetmap.josm.tools.MultiMap;
  * data set in order to build up the auto completion list for a specific input
  * field is not efficient enough, hence this cache.
  *
+ * The cache counts how many primitives use each key, value and member role. It is
+ * updated incrementally from the data set events, so removing the last use of a value
+ * also removes it from the cache without rebuilding the whole cache. The counts are
+ * passed to the {@link AutoCompletionList}s, which rank the completions by usage
+ * frequency and look them up by prefix in a sorted map.
+ *
  * TODO: respect the relation type for member role autocompletion
  */
 public class AutoCompletionManager implements DataSetListener {
@@ -54,34 +64,49 @@ public class AutoCompletionManager implements DataSetListener {
     protected DataSet ds;
 
     /**
-     * the cached tags given by a tag key and a list of values for this tag
-     * only accessed by getTagCache(), rebuild() and cachePrimitiveTags()
+     * the cached tags: for each tag key the values used with it and the number
+     * of primitives using each value.
+     * only accessed by getTagCache(), rebuild() and the (un)caching methods
      * use getTagCache() accessor
      */
-    protected MultiMap<String, String> tagCache;
+    protected TreeMap<String, TreeMap<String, Integer>> tagCache;
+    /**
+     * the number of primitives using each tag key
+     */
+    protected TreeMap<String, Integer> keyCache;
     /**
      * the same as tagCache but for the preset keys and values
      * can be accessed directly
      */
     protected static final MultiMap<String, String> presetTagCache = new MultiMap<String, String>();
     /**
-     * the cached list of member roles
-     * only accessed by getRoleCache(), rebuild() and cacheRelationMemberRoles()
+     * the cached member roles and the number of relation members using them
+     * only accessed by getRoleCache(), rebuild() and the (un)caching methods
      * use getRoleCache() accessor
      */
-    protected Set<String> roleCache;
+    protected TreeMap<String, Integer> roleCache;
     /**
      * the same as roleCache but for the preset roles
      * can be accessed directly
      */
     protected static final Set<String> presetRoleCache = new HashSet<String>();
 
+    /**
+     * The tags (key, value, key, value, ...) counted for each tagged primitive. They are
+     * uncounted when the primitive changes, so the counts stay correct even if the events
+     * are delivered after the primitive changed again. The primitives are compared by identity,
+     * as their ids change when new primitives are uploaded.
+     */
+    private final Map<OsmPrimitive, String[]> cachedTags = new IdentityHashMap<OsmPrimitive, String[]>();
+    /** The member roles counted for each relation with roles */
+    private final Map<Relation, String[]> cachedRoles = new IdentityHashMap<Relation, String[]>();
+
     public AutoCompletionManager(DataSet ds) {
         this.ds = ds;
         dirty = true;
     }
 
-    protected MultiMap<String, String> getTagCache() {
+    protected TreeMap<String, TreeMap<String, Integer>> getTagCache() {
         if (dirty) {
             rebuild();
             dirty = false;
@@ -89,7 +114,15 @@ public class AutoCompletionManager implements DataSetListener {
         return tagCache;
     }
 
-    protected Set<String> getRoleCache() {
+    protected TreeMap<String, Integer> getKeyCache() {
+        if (dirty) {
+            rebuild();
+            dirty = false;
+        }
+        return keyCache;
+    }
+
+    protected TreeMap<String, Integer> getRoleCache() {
         if (dirty) {
             rebuild();
             dirty = false;
@@ -102,13 +135,20 @@ public class AutoCompletionManager implements DataSetListener {
      *
      */
     protected void rebuild() {
-        tagCache = new MultiMap<String, String>();
-        roleCache = new HashSet<String>();
+        tagCache = new TreeMap<String, TreeMap<String, Integer>>();
+        keyCache = new TreeMap<String, Integer>();
+        roleCache = new TreeMap<String, Integer>();
+        cachedTags.clear();
+        cachedRoles.clear();
         cachePrimitives(ds.allNonDeletedCompletePrimitives());
     }
 
     protected void cachePrimitives(Collection<? extends OsmPrimitive> primitives) {
         for (OsmPrimitive primitive : primitives) {
+            uncachePrimitive(primitive);
+            if (primitive.getDataSet() != ds || primitive.isDeleted() || primitive.isIncomplete()) {
+                continue;
+            }
             cachePrimitiveTags(primitive);
             if (primitive instanceof Relation) {
                 cacheRelationMemberRoles((Relation) primitive);
@@ -116,6 +156,33 @@ public class AutoCompletionManager implements DataSetListener {
         }
     }
 
+    /**
+     * Removes whatever has been cached for a primitive.
+     *
+     * @param primitive an OSM primitive
+     */
+    protected void uncachePrimitive(OsmPrimitive primitive) {
+        String[] tags = cachedTags.remove(primitive);
+        if (tags != null) {
+            for (int i = 0; i < tags.length; i += 2) {
+                decrement(keyCache, tags[i]);
+                TreeMap<String, Integer> values = tagCache.get(tags[i]);
+                decrement(values, tags[i + 1]);
+                if (values.isEmpty()) {
+                    tagCache.remove(tags[i]);
+                }
+            }
+        }
+        if (primitive instanceof Relation) {
+            String[] roles = cachedRoles.remove(primitive);
+            if (roles != null) {
+                for (String role : roles) {
+                    decrement(roleCache, role);
+                }
+            }
+        }
+    }
+
     /**
      * make sure, the keys and values of all tags held by primitive are
      * in the auto completion cache
@@ -123,10 +190,23 @@ public class AutoCompletionManager implements DataSetListener {
      * @param primitive an OSM primitive
      */
     protected void cachePrimitiveTags(OsmPrimitive primitive) {
-        for (String key: primitive.keySet()) {
-            String value = primitive.get(key);
-            tagCache.put(key, value);
+        if (!primitive.hasKeys())
+            return;
+        Map<String, String> keys = primitive.getKeys();
+        String[] tags = new String[keys.size() * 2];
+        int i = 0;
+        for (Entry<String, String> e : keys.entrySet()) {
+            tags[i++] = e.getKey();
+            tags[i++] = e.getValue();
+            increment(keyCache, e.getKey());
+            TreeMap<String, Integer> values = tagCache.get(e.getKey());
+            if (values == null) {
+                values = new TreeMap<String, Integer>();
+                tagCache.put(e.getKey(), values);
+            }
+            increment(values, e.getValue());
         }
+        cachedTags.put(primitive, tags);
     }
 
     /**
@@ -135,11 +215,30 @@ public class AutoCompletionManager implements DataSetListener {
      * @param relation the relation
      */
     protected void cacheRelationMemberRoles(Relation relation){
+        List<String> roles = new ArrayList<String>();
         for (RelationMember m: relation.getMembers()) {
             if (m.hasRole()) {
-                roleCache.add(m.getRole());
+                roles.add(m.getRole());
+                increment(roleCache, m.getRole());
             }
         }
+        if (!roles.isEmpty()) {
+            cachedRoles.put(relation, roles.toArray(new String[roles.size()]));
+        }
+    }
+
+    private static void increment(Map<String, Integer> counts, String s) {
+        Integer n = counts.get(s);
+        counts.put(s, n == null ? 1 : n + 1);
+    }
+
+    private static void decrement(Map<String, Integer> counts, String s) {
+        int n = counts.get(s);
+        if (n > 1) {
+            counts.put(s, n - 1);
+        } else {
+            counts.remove(s);
+        }
     }
 
     /**
@@ -175,7 +274,7 @@ public class AutoCompletionManager implements DataSetListener {
      * @return the list of keys held by the cache
      */
     protected List<String> getDataKeys() {
-        return new ArrayList<String>(getTagCache().keySet());
+        return new ArrayList<String>(getKeyCache().keySet());
     }
 
     protected List<String> getPresetKeys() {
@@ -190,7 +289,10 @@ public class AutoCompletionManager implements DataSetListener {
      * @return the list of auto completion values
      */
     protected List<String> getDataValues(String key) {
-        return new ArrayList<String>(getTagCache().getValues(key));
+        TreeMap<String, Integer> values = key == null ? null : getTagCache().get(key);
+        if (values == null)
+            return new ArrayList<String>();
+        return new ArrayList<String>(values.keySet());
     }
 
     protected static List<String> getPresetValues(String key) {
@@ -203,7 +305,7 @@ public class AutoCompletionManager implements DataSetListener {
      * @return the list of member roles
      */
     public List<String> getMemberRoles() {
-        return new ArrayList<String>(getRoleCache());
+        return new ArrayList<String>(getRoleCache().keySet());
     }
 
     /**
@@ -225,7 +327,7 @@ public class AutoCompletionManager implements DataSetListener {
      */
     public void populateWithKeys(AutoCompletionList list) {
         list.add(getPresetKeys(), AutoCompletionItemPritority.IS_IN_STANDARD);
-        list.add(getDataKeys(), AutoCompletionItemPritority.IS_IN_DATASET);
+        list.add(getKeyCache(), AutoCompletionItemPritority.IS_IN_DATASET);
     }
 
     /**
@@ -249,7 +351,7 @@ public class AutoCompletionManager implements DataSetListener {
     public void populateWithTagValues(AutoCompletionList list, List<String> keys) {
         for (String key : keys) {
             list.add(getPresetValues(key), AutoCompletionItemPritority.IS_IN_STANDARD);
-            list.add(getDataValues(key), AutoCompletionItemPritority.IS_IN_DATASET);
+            list.add(key == null ? null : getTagCache().get(key), AutoCompletionItemPritority.IS_IN_DATASET);
         }
     }
 
@@ -295,28 +397,15 @@ public class AutoCompletionManager implements DataSetListener {
     }
 
     public void primitivesRemoved(PrimitivesRemovedEvent event) {
-        dirty = true;
+        if (dirty)
+            return;
+        cachePrimitives(event.getPrimitives());
     }
 
     public void tagsChanged(TagsChangedEvent event) {
         if (dirty)
             return;
-        Map<String, String> newKeys = event.getPrimitive().getKeys();
-        Map<String, String> oldKeys = event.getOriginalKeys();
-
-        if (!newKeys.keySet().containsAll(oldKeys.keySet())) {
-            // Some keys removed, might be the last instance of key, rebuild necessary
-            dirty = true;
-        } else {
-            for (Entry<String, String> oldEntry: oldKeys.entrySet()) {
-                if (!oldEntry.getValue().equals(newKeys.get(oldEntry.getKey()))) {
-                    // Value changed, might be last instance of value, rebuild necessary
-                    dirty = true;
-                    return;
-                }
-            }
-            cachePrimitives(Collections.singleton(event.getPrimitive()));
-        }
+        cachePrimitives(Collections.singleton(event.getPrimitive()));
     }
 
     public void nodeMoved(NodeMovedEvent event) {/* ignored */}
@@ -324,12 +413,25 @@ public class AutoCompletionManager implements DataSetListener {
     public void wayNodesChanged(WayNodesChangedEvent event) {/* ignored */}
 
     public void relationMembersChanged(RelationMembersChangedEvent event) {
-        dirty = true; // TODO: not necessary to rebuid if a member is added
+        if (dirty)
+            return;
+        cachePrimitives(Collections.singleton(event.getRelation()));
     }
 
     public void otherDatasetChange(AbstractDatasetChangedEvent event) {/* ignored */}
 
     public void dataChanged(DataChangedEvent event) {
-        dirty = true;
+        if (dirty)
+            return;
+        DatasetChanges changes = event.getChanges();
+        if (changes == null) {
+            dirty = true;
+            return;
+        }
+        // moving nodes and changing way nodes does not change tags or roles
+        for (DatasetEventType type : new DatasetEventType[] {DatasetEventType.PRIMITIVES_ADDED,
+                DatasetEventType.PRIMITIVES_REMOVED, DatasetEventType.TAGS_CHANGED, DatasetEventType.RELATION_MEMBERS_CHANGED}) {
+            cachePrimitives(changes.getPrimitives(type));
+        }
     }
 }
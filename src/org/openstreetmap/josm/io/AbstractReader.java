@@ -15,10 +15,10 @@ import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
 import org.openstreetmap.josm.data.osm.PrimitiveId;
+import org.openstreetmap.josm.data.osm.PrimitiveIdMap;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.RelationMemberData;
-import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
 import org.openstreetmap.josm.data.osm.Way;
 
 /**
@@ -35,11 +35,16 @@ public abstract class AbstractReader {
 
     protected Changeset uploadChangeset;
 
+    /**
+     * The same map as {@link #externalIdMap}, to look up and add ids without creating a {@link PrimitiveId}
+     */
+    final PrimitiveIdMap<OsmPrimitive> externalIds = new PrimitiveIdMap<OsmPrimitive>();
+
     /** the map from external ids to read OsmPrimitives. External ids are
      * longs too, but in contrast to internal ids negative values are used
      * to identify primitives unknown to the OSM server
      */
-    protected final Map<PrimitiveId, OsmPrimitive> externalIdMap = new HashMap<PrimitiveId, OsmPrimitive>();
+    protected final Map<PrimitiveId, OsmPrimitive> externalIdMap = externalIds;
 
     /**
      * Data structure for the remaining way objects
@@ -66,7 +71,7 @@ public abstract class AbstractReader {
      *
      */
     protected void processNodesAfterParsing() {
-        for (OsmPrimitive primitive: externalIdMap.values()) {
+        for (OsmPrimitive primitive: externalIds.values()) {
             if (primitive instanceof Node) {
                 this.ds.addPrimitive(primitive);
             }
@@ -81,10 +86,10 @@ public abstract class AbstractReader {
      */
     protected void processWaysAfterParsing() throws IllegalDataException{
         for (Long externalWayId: ways.keySet()) {
-            Way w = (Way)externalIdMap.get(new SimplePrimitiveId(externalWayId, OsmPrimitiveType.WAY));
+            Way w = (Way)externalIds.get(externalWayId, OsmPrimitiveType.WAY);
             List<Node> wayNodes = new ArrayList<Node>();
             for (long id : ways.get(externalWayId)) {
-                Node n = (Node)externalIdMap.get(new SimplePrimitiveId(id, OsmPrimitiveType.NODE));
+                Node n = (Node)externalIds.get(id, OsmPrimitiveType.NODE);
                 if (n == null) {
                     if (id <= 0)
                         throw new IllegalDataException (
@@ -125,22 +130,18 @@ public abstract class AbstractReader {
 
         // First add all relations to make sure that when relation reference other relation, the referenced will be already in dataset
         for (Long externalRelationId : relations.keySet()) {
-            Relation relation = (Relation) externalIdMap.get(
-                    new SimplePrimitiveId(externalRelationId, OsmPrimitiveType.RELATION)
-            );
+            Relation relation = (Relation) externalIds.get(externalRelationId, OsmPrimitiveType.RELATION);
             ds.addPrimitive(relation);
         }
 
         for (Long externalRelationId : relations.keySet()) {
-            Relation relation = (Relation) externalIdMap.get(
-                    new SimplePrimitiveId(externalRelationId, OsmPrimitiveType.RELATION)
-            );
+            Relation relation = (Relation) externalIds.get(externalRelationId, OsmPrimitiveType.RELATION);
             List<RelationMember> relationMembers = new ArrayList<RelationMember>();
             for (RelationMemberData rm : relations.get(externalRelationId)) {
                 OsmPrimitive primitive = null;
 
                 // lookup the member from the map of already created primitives
-                primitive = externalIdMap.get(new SimplePrimitiveId(rm.getMemberId(), rm.getMemberType()));
+                primitive = externalIds.get(rm.getMemberId(), rm.getMemberType());
 
                 if (primitive == null) {
                     if (rm.getMemberId() <= 0)
@@ -169,7 +170,7 @@ public abstract class AbstractReader {
                         }
 
                         ds.addPrimitive(primitive);
-                        externalIdMap.put(new SimplePrimitiveId(rm.getMemberId(), rm.getMemberType()), primitive);
+                        externalIds.put(rm.getMemberId(), rm.getMemberType(), primitive);
                     }
                 }
                 if (primitive.isDeleted()) {
@@ -15,6 +15,8 @@ import java.util.Map;
 
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Changeset;
+import org.openstreetmap.josm.data.osm.User;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
 
 public class ChangesetQuery {
@@ -109,7 +111,104 @@ public class ChangesetQuery {
      * @return true if this query is restricted to user whom know the user id for
      */
     public boolean isRestrictedToFullyIdentifiedUser() {
-        return uid > 0;
+        return uid != null && uid > 0;
+    }
+
+    /**
+     * Replies the user id which this query is restricted to. null, if this query isn't
+     * restricted to a user id, i.e. if {@link #isRestrictedToFullyIdentifiedUser()} is false.
+     *
+     * @return the user id which this query is restricted to
+     */
+    public Integer getUserId() {
+        return uid;
+    }
+
+    /**
+     * Replies the bounding box which this query is restricted to. null, if this query
+     * isn't restricted to a bounding box.
+     *
+     * @return the bounding box which this query is restricted to
+     */
+    public Bounds getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Replies the date after which the queried changesets have been closed (or are still open).
+     * null, if this query isn't restricted to a closing date.
+     *
+     * @return the date after which the queried changesets have been closed
+     */
+    public Date getClosedAfter() {
+        return closedAfter;
+    }
+
+    /**
+     * Replies the date before which the queried changesets have been created. null, if this
+     * query isn't restricted to a creation date.
+     *
+     * @return the date before which the queried changesets have been created
+     */
+    public Date getCreatedBefore() {
+        return createdBefore;
+    }
+
+    /**
+     * Replies true if this query is restricted to open changesets.
+     *
+     * @return true if this query is restricted to open changesets
+     */
+    public boolean isRestrictedToOpenChangesets() {
+        return open != null ? open : closed != null && !closed;
+    }
+
+    /**
+     * Replies true if a changeset satisfies the restrictions of this query, as the
+     * OSM server would decide. Used to answer queries from the {@link org.openstreetmap.josm.data.osm.ChangesetCache}.
+     *
+     * @param cs the changeset. Must not be null.
+     * @return true if <code>cs</code> satisfies the restrictions of this query
+     */
+    public boolean matches(Changeset cs) {
+        User user = cs.getUser();
+        if (uid != null && (user == null || user.getId() != uid))
+            return false;
+        if (userName != null && (user == null || !user.hasName(userName)))
+            return false;
+        if (bounds != null && (cs.getBounds() == null || !bounds.intersects(cs.getBounds())))
+            return false;
+        if (closedAfter != null && !cs.isOpen() && (cs.getClosedAt() == null || !cs.getClosedAt().after(closedAfter)))
+            return false;
+        if (createdBefore != null && (cs.getCreatedAt() == null || !cs.getCreatedAt().before(createdBefore)))
+            return false;
+        if (open != null)
+            return cs.isOpen() == open;
+        if (closed != null)
+            return cs.isOpen() != closed;
+        return true;
+    }
+
+    /**
+     * Replies a copy of this query which is further restricted to changesets modified
+     * (created, changed or closed) after <code>since</code>, i.e. to changesets closed after
+     * <code>since</code> or still open.
+     *
+     * @param since the date. Must not be null.
+     * @return the restricted copy of this query
+     * @throws IllegalArgumentException thrown if since is null
+     */
+    public ChangesetQuery modifiedSince(Date since) throws IllegalArgumentException {
+        CheckParameterUtil.ensureParameterNotNull(since, "since");
+        ChangesetQuery q = new ChangesetQuery();
+        q.uid = uid;
+        q.userName = userName;
+        q.bounds = bounds;
+        q.closedAfter = closedAfter == null || closedAfter.before(since) ? since : closedAfter;
+        q.createdBefore = createdBefore;
+        q.open = open;
+        q.closed = closed;
+        return q;
     }
 
     /**
@@ -8,6 +8,7 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -16,9 +17,11 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
@@ -33,6 +36,7 @@ import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
@@ -54,6 +58,10 @@ import org.openstreetmap.josm.tools.CheckParameterUtil;
  *       System.out.println("There are skipped ways: " + reader.getMissingPrimitives());
  *    }
  * </pre>
+ *
+ * Unless {@link #PROP_PIPELINED} is disabled, all packages of ids are fetched by a single pool
+ * of fetchers: the missing nodes of downloaded ways are scheduled as soon as the ways arrive,
+ * while the results of other packages are merged.
  */
 public class MultiFetchServerObjectReader extends OsmServerReader{
     /**
@@ -64,6 +72,11 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
      */
     static private int MAX_IDS_PER_REQUEST = 200;
 
+    /**
+     * Fetch ways, nodes and relations in a single pipeline instead of one type after the other.
+     */
+    public static final BooleanProperty PROP_PIPELINED = new BooleanProperty("osm.download.pipelined", true);
+
     private Set<Long> nodes;
     private Set<Long> ways;
     private Set<Long> relations;
@@ -335,9 +348,7 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         Set<Long> toFetch = new HashSet<Long>(ids);
         // Build a list of fetchers that will  download smaller sets containing only MAX_IDS_PER_REQUEST (200) primitives each.
         // we will run up to MAX_DOWNLOAD_THREADS concurrent fetchers.
-        int threadsNumber = Main.pref.getInteger("osm.download.threads", OsmApi.MAX_DOWNLOAD_THREADS);
-        threadsNumber = Math.min(Math.max(threadsNumber, 1), OsmApi.MAX_DOWNLOAD_THREADS);
-        Executor exec = Executors.newFixedThreadPool(threadsNumber);
+        Executor exec = Executors.newFixedThreadPool(getThreadsNumber());
         CompletionService<FetchResult> ecs = new ExecutorCompletionService<FetchResult>(exec);
         List<Future<FetchResult>> jobs = new ArrayList<Future<FetchResult>>();
         while (!toFetch.isEmpty()) {
@@ -369,6 +380,95 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         }
     }
 
+    /**
+     * Replies the number of concurrent fetchers, see preference {@code osm.download.threads}.
+     * @return the number of fetchers, between 1 and {@link OsmApi#MAX_DOWNLOAD_THREADS}
+     */
+    protected static int getThreadsNumber() {
+        int threadsNumber = Main.pref.getInteger("osm.download.threads", OsmApi.MAX_DOWNLOAD_THREADS);
+        return Math.min(Math.max(threadsNumber, 1), OsmApi.MAX_DOWNLOAD_THREADS);
+    }
+
+    /**
+     * Submits packages of ids to fetch until less than a full package is left in <code>ids</code>,
+     * or until <code>ids</code> is empty if <code>all</code> is set.
+     *
+     * @return the number of submitted packages
+     */
+    private int submitPackages(CompletionService<FetchResult> ecs, List<Future<FetchResult>> jobs, Set<Long> ids,
+            OsmPrimitiveType type, boolean all, Set<Long> requestedNodes, ProgressMonitor progressMonitor) {
+        int count = 0;
+        while (ids.size() >= MAX_IDS_PER_REQUEST || (all && !ids.isEmpty())) {
+            jobs.add(ecs.submit(new Fetcher(type, extractIdPackage(ids), requestedNodes, progressMonitor)));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * fetches all remembered ways, nodes and relations with a single pool of fetchers.
+     *
+     * The fetchers look for the incomplete nodes of the ways they download and claim those
+     * not requested so far in <code>requestedNodes</code>. These nodes are fetched as soon as a
+     * full package is collected (or when nothing else is left to do), instead of in a second
+     * pass after all ways have been merged. Results are merged while the other fetchers keep
+     * downloading and parsing.
+     *
+     * @throws OsmTransferException if an error occurs while communicating with the API server
+     */
+    protected void fetchPrimitivesPipelined(ProgressMonitor progressMonitor) throws OsmTransferException {
+        String msg = tr("Fetching packages of objects from ''{0}''", OsmApi.getOsmApi().getBaseUrl());
+        progressMonitor.setTicksCount(nodes.size() + ways.size() + relations.size());
+        progressMonitor.setTicks(0);
+        Set<Long> requestedNodes = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        requestedNodes.addAll(nodes);
+        Set<Long> nodesToFetch = new LinkedHashSet<Long>();
+        ExecutorService exec = Executors.newFixedThreadPool(getThreadsNumber());
+        CompletionService<FetchResult> ecs = new ExecutorCompletionService<FetchResult>(exec);
+        List<Future<FetchResult>> jobs = new ArrayList<Future<FetchResult>>();
+        try {
+            // ways first, they are the only source of further nodes to fetch
+            int pending = submitPackages(ecs, jobs, new LinkedHashSet<Long>(ways), OsmPrimitiveType.WAY, true, requestedNodes, progressMonitor);
+            pending += submitPackages(ecs, jobs, new LinkedHashSet<Long>(nodes), OsmPrimitiveType.NODE, true, null, progressMonitor);
+            pending += submitPackages(ecs, jobs, new LinkedHashSet<Long>(relations), OsmPrimitiveType.RELATION, true, null, progressMonitor);
+            while (pending > 0 && !isCanceled()) {
+                progressMonitor.subTask(msg + "... " + progressMonitor.getTicks() + "/" + progressMonitor.getTicksCount());
+                FetchResult result = null;
+                try {
+                    result = ecs.take().get();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    break;
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                }
+                pending--;
+                if (result != null && result.nodesToFetch != null) {
+                    nodesToFetch.addAll(result.nodesToFetch);
+                    progressMonitor.setTicksCount(progressMonitor.getTicksCount() + result.nodesToFetch.size());
+                }
+                // schedule the nodes before merging, so they download in the meantime
+                pending += submitPackages(ecs, jobs, nodesToFetch, OsmPrimitiveType.NODE, pending == 0, null, progressMonitor);
+                if (result == null)
+                    continue;
+                if (result.missingPrimitives != null) {
+                    missingPrimitives.addAll(result.missingPrimitives);
+                }
+                if (result.dataSet != null && !isCanceled()) {
+                    merge(result.dataSet);
+                }
+            }
+            // Cancel requests if the user choosed to
+            if (isCanceled()) {
+                for (Future<FetchResult> job : jobs) {
+                    job.cancel(true);
+                }
+            }
+        } finally {
+            exec.shutdown();
+        }
+    }
+
     /**
      * invokes one or more Multi Gets to fetch the {@link OsmPrimitive}s and replies
      * the dataset of retrieved primitives. Note that the dataset includes non visible primitives too!
@@ -391,11 +491,16 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         try {
             missingPrimitives = new HashSet<PrimitiveId>();
             if (isCanceled()) return null;
-            fetchPrimitives(ways,OsmPrimitiveType.WAY, progressMonitor);
-            if (isCanceled()) return null;
-            fetchPrimitives(nodes,OsmPrimitiveType.NODE, progressMonitor);
-            if (isCanceled()) return null;
-            fetchPrimitives(relations,OsmPrimitiveType.RELATION, progressMonitor);
+            if (PROP_PIPELINED.get()) {
+                fetchPrimitivesPipelined(progressMonitor);
+                if (isCanceled()) return null;
+            } else {
+                fetchPrimitives(ways,OsmPrimitiveType.WAY, progressMonitor);
+                if (isCanceled()) return null;
+                fetchPrimitives(nodes,OsmPrimitiveType.NODE, progressMonitor);
+                if (isCanceled()) return null;
+                fetchPrimitives(relations,OsmPrimitiveType.RELATION, progressMonitor);
+            }
             if (outputDataSet != null) {
                 outputDataSet.deleteInvisible();
             }
@@ -432,14 +537,30 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
          */
         public final Set<PrimitiveId> missingPrimitives;
         
+        /**
+         * The ids of incomplete nodes of the fetched ways which remain to be fetched, or null
+         */
+        public final Set<Long> nodesToFetch;
+
         /**
          * Constructs a {@code FetchResult}
          * @param dataSet The resulting data set
          * @param missingPrimitives The collection of primitive ids that could not have been loaded
          */
         public FetchResult(DataSet dataSet, Set<PrimitiveId> missingPrimitives) {
+            this(dataSet, missingPrimitives, null);
+        }
+
+        /**
+         * Constructs a {@code FetchResult}
+         * @param dataSet The resulting data set
+         * @param missingPrimitives The collection of primitive ids that could not have been loaded
+         * @param nodesToFetch The ids of incomplete nodes which remain to be fetched
+         */
+        public FetchResult(DataSet dataSet, Set<PrimitiveId> missingPrimitives, Set<Long> nodesToFetch) {
             this.dataSet = dataSet;
             this.missingPrimitives = missingPrimitives;
+            this.nodesToFetch = nodesToFetch;
         }
     }
     
@@ -453,6 +574,7 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         private final Set<Long> pkg;
         private final OsmPrimitiveType type;
         private final ProgressMonitor progressMonitor;
+        private final Set<Long> requestedNodes;
 
         /**
          * Constructs a {@code Fetcher}
@@ -461,8 +583,22 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
          * @param progressMonitor The progress monitor
          */
         public Fetcher(OsmPrimitiveType type, Set<Long> idsPackage, ProgressMonitor progressMonitor) {
+            this(type, idsPackage, null, progressMonitor);
+        }
+
+        /**
+         * Constructs a {@code Fetcher} which also collects the incomplete nodes of the fetched ways,
+         * see {@link FetchResult#nodesToFetch}.
+         * @param type The primitive type. Must be one of {@link OsmPrimitiveType#NODE NODE}, {@link OsmPrimitiveType#WAY WAY}, {@link OsmPrimitiveType#RELATION RELATION}
+         * @param idsPackage The set of primitives ids to fetch
+         * @param requestedNodes The thread-safe set of node ids already requested. Nodes added to this set by the fetcher
+         * are replied as nodes to fetch. Ignored, if null.
+         * @param progressMonitor The progress monitor
+         */
+        public Fetcher(OsmPrimitiveType type, Set<Long> idsPackage, Set<Long> requestedNodes, ProgressMonitor progressMonitor) {
             this.pkg = idsPackage;
             this.type = type;
+            this.requestedNodes = requestedNodes;
             this.progressMonitor = progressMonitor;
         }
 
@@ -484,16 +620,42 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
          * @throws OsmTransferException if an error occurs while communicating with the API server
          */
         protected FetchResult fetch(ProgressMonitor progressMonitor) throws OsmTransferException {
+            FetchResult result;
             try {
-                return multiGetIdPackage(type, pkg, progressMonitor);
+                result = multiGetIdPackage(type, pkg, progressMonitor);
             } catch (OsmApiException e) {
                 if (e.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
                     System.out.println(tr("Server replied with response code 404, retrying with an individual request for each object."));
-                    return singleGetIdPackage(type, pkg, progressMonitor);
+                    result = singleGetIdPackage(type, pkg, progressMonitor);
                 } else {
                     throw e;
                 }
             }
+            if (result != null && result.dataSet != null && requestedNodes != null) {
+                result = new FetchResult(result.dataSet, result.missingPrimitives, claimIncompleteNodes(result.dataSet));
+            }
+            return result;
+        }
+
+        /**
+         * Replies the ids of the incomplete nodes of the ways in <code>ds</code> which
+         * have not been requested yet, and marks them as requested.
+         *
+         * @param ds the fetched data
+         * @return the ids of the nodes to fetch
+         */
+        protected Set<Long> claimIncompleteNodes(DataSet ds) {
+            Set<Long> claimed = new LinkedHashSet<Long>();
+            for (Way w : ds.getWays()) {
+                if (w.hasIncompleteNodes()) {
+                    for (Node n : w.getNodes()) {
+                        if (n.isIncomplete() && requestedNodes.add(n.getId())) {
+                            claimed.add(n.getId());
+                        }
+                    }
+                }
+            }
+            return claimed;
         }
         
         /**
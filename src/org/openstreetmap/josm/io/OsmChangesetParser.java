@@ -148,7 +148,7 @@ public class OsmChangesetParser {
                 } catch(NumberFormatException e) {
                     throwException(tr("Illegal value for attribute ''{0}''. Got ''{1}''.", "max_lat", max_lat));
                 }
-                current.setMax(new LatLon(maxLon, maxLat));
+                current.setMax(new LatLon(maxLat, maxLon));
             }
         }
 
@@ -186,7 +186,7 @@ public class OsmReader extends AbstractReader {
         Node n = new Node(nd.getId(), nd.getVersion());
         n.setVisible(nd.isVisible());
         n.load(nd);
-        externalIdMap.put(nd.getPrimitiveId(), n);
+        externalIds.put(nd.getUniqueId(), OsmPrimitiveType.NODE, n);
         while (true) {
             int event = parser.next();
             if (event == XMLStreamConstants.START_ELEMENT) {
@@ -206,7 +206,7 @@ public class OsmReader extends AbstractReader {
         Way w = new Way(wd.getId(), wd.getVersion());
         w.setVisible(wd.isVisible());
         w.load(wd);
-        externalIdMap.put(wd.getPrimitiveId(), w);
+        externalIds.put(wd.getUniqueId(), OsmPrimitiveType.WAY, w);
 
         Collection<Long> nodeIds = new ArrayList<Long>();
         while (true) {
@@ -253,7 +253,7 @@ public class OsmReader extends AbstractReader {
         Relation r = new Relation(rd.getId(), rd.getVersion());
         r.setVisible(rd.isVisible());
         r.load(rd);
-        externalIdMap.put(rd.getPrimitiveId(), r);
+        externalIds.put(rd.getUniqueId(), OsmPrimitiveType.RELATION, r);
 
         Collection<RelationMemberData> members = new ArrayList<RelationMemberData>();
         while (true) {
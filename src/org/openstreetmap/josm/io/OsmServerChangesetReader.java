@@ -26,6 +26,9 @@ import org.openstreetmap.josm.tools.CheckParameterUtil;
  */
 public class OsmServerChangesetReader extends OsmServerReader {
 
+    /** the maximum number of changesets the server replies to a query, further ones are left out */
+    public static final int MAX_QUERY_RESULTS = 100;
+
     /**
      * constructor
      *
@@ -219,7 +219,7 @@ public class OsmWriter extends XmlWriter implements PrimitiveVisitor {
         out.print("  <changeset ");
         out.print(" id='"+cs.getId()+"'");
         if (cs.getUser() != null) {
-            out.print(" user='"+cs.getUser().getName() +"'");
+            out.print(" user='"+XmlWriter.encode(cs.getUser().getName()) +"'");
             out.print(" uid='"+cs.getUser().getId() +"'");
         }
         if (cs.getCreatedAt() != null) {
@@ -234,8 +234,8 @@ public class OsmWriter extends XmlWriter implements PrimitiveVisitor {
             out.print(" min_lat='"+ cs.getMin().latToString(CoordinateFormat.DECIMAL_DEGREES) +"'");
         }
         if (cs.getMax() != null) {
-            out.print(" max_lon='"+ cs.getMin().lonToString(CoordinateFormat.DECIMAL_DEGREES) +"'");
-            out.print(" max_lat='"+ cs.getMin().latToString(CoordinateFormat.DECIMAL_DEGREES) +"'");
+            out.print(" max_lon='"+ cs.getMax().lonToString(CoordinateFormat.DECIMAL_DEGREES) +"'");
+            out.print(" max_lat='"+ cs.getMax().latToString(CoordinateFormat.DECIMAL_DEGREES) +"'");
         }
         out.println(">");
         addTags(cs, "changeset", false); // also writes closing </changeset>
@@ -0,0 +1,368 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Version;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.tools.Utils;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * A cache of preparsed XML documents, like tagging presets and imagery lists.
+ *
+ * The SAX events a handler receives while a document is parsed (and validated, if
+ * requested) are recorded in a compact binary form and stored in the cache directory,
+ * keyed by the source URL. When the same content is read again (compared by its SHA-1
+ * hash), the events are replayed to the handler from the snapshot, which skips XML
+ * parsing and schema validation. Changed content is parsed again and replaces the snapshot.
+ *
+ * Replayed events have no document locator. Snapshots with another {@link #FORMAT_VERSION}
+ * or written by another version of JOSM are ignored, so documents are validated again
+ * against the schemas of a new version.
+ */
+public class SaxEventCache {
+
+    /** Enables the cache of preparsed documents */
+    public static final BooleanProperty PROP_ENABLED = new BooleanProperty("preparsed-cache.enabled", true);
+
+    /** The version of the snapshot format, to be increased on every change of the format */
+    public static final int FORMAT_VERSION = 2;
+
+    private static final int MAGIC = 0x4a4f5345; // "JOSE"
+
+    private static final byte EVENT_END_OF_DOCUMENT = 0;
+    private static final byte EVENT_START_ELEMENT = 1;
+    private static final byte EVENT_END_ELEMENT = 2;
+    private static final byte EVENT_CHARACTERS = 3;
+
+    /**
+     * Parses a document, i.e. feeds all its SAX events to a given handler.
+     */
+    public interface DocumentParser {
+        /**
+         * Parses the document.
+         * @param handler the handler to receive the SAX events
+         * @throws SAXException if the document cannot be parsed
+         * @throws IOException if an I/O error occurs
+         */
+        void parse(ContentHandler handler) throws SAXException, IOException;
+    }
+
+    /**
+     * Feeds the SAX events of a document to <code>handler</code>. They are replayed from the
+     * snapshot of <code>source</code>, if there is one for the same content, otherwise the
+     * document is parsed by <code>parser</code> and a new snapshot is stored.
+     *
+     * @param kind the kind of document (e.g. "presets"), part of the cache key
+     * @param source the source URL of the document
+     * @param content the content of the document
+     * @param handler the handler to receive the SAX events
+     * @param parser the parser to use if there is no valid snapshot
+     * @throws SAXException if the document cannot be parsed, or if the handler fails
+     * @throws IOException if an I/O error occurs while parsing
+     */
+    public static void parse(String kind, String source, byte[] content, ContentHandler handler, DocumentParser parser)
+            throws SAXException, IOException {
+        File file = getCacheFile(kind, source);
+        if (file == null) {
+            parser.parse(handler);
+            return;
+        }
+        String hash = sha1Hex(content);
+        if (file.exists()) {
+            List<Object> events = null;
+            try {
+                events = read(file, source, hash);
+            } catch (IOException e) {
+                System.err.println("Warning: failed to read preparsed cache file "+file+": "+e.getMessage());
+            }
+            if (events != null) {
+                replay(events, handler);
+                return;
+            }
+        }
+        Recorder recorder = new Recorder(handler);
+        parser.parse(recorder);
+        try {
+            write(file, source, hash, recorder);
+        } catch (IOException e) {
+            System.err.println("Warning: failed to write preparsed cache file "+file+": "+e.getMessage());
+            file.delete();
+        }
+    }
+
+    /**
+     * Reads a stream completely.
+     * @param in the stream, closed afterwards
+     * @return the content of the stream
+     * @throws IOException if an I/O error occurs
+     */
+    public static byte[] readContent(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Utils.copyStream(in, out);
+            return out.toByteArray();
+        } finally {
+            Utils.close(in);
+        }
+    }
+
+    private static File getCacheFile(String kind, String source) {
+        if (Main.pref == null || !PROP_ENABLED.get())
+            return null;
+        File dir = new File(Main.pref.getCacheDirectory(), "preparsed");
+        if (!dir.exists() && !dir.mkdirs())
+            return null;
+        return new File(dir, kind + "-" + Utils.md5Hex(source) + ".bin");
+    }
+
+    private static String sha1Hex(byte[] content) {
+        try {
+            return Utils.toHexString(MessageDigest.getInstance("SHA-1").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Records the SAX events passing through it, with strings written to a table on first use.
+     */
+    private static class Recorder extends XMLFilterImpl {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+        private StringBuilder characters;
+
+        Recorder(ContentHandler handler) {
+            setContentHandler(handler);
+        }
+
+        private void writeString(String s) throws SAXException {
+            try {
+                if (s == null) {
+                    out.writeInt(-1);
+                    return;
+                }
+                Integer index = strings.get(s);
+                if (index != null) {
+                    out.writeInt(index);
+                } else {
+                    strings.put(s, strings.size());
+                    out.writeInt(-2);
+                    byte[] b = s.getBytes("UTF-8");
+                    out.writeInt(b.length);
+                    out.write(b);
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private void writeEvent(byte event) throws SAXException {
+            try {
+                if (characters != null) {
+                    // adjacent chunks of characters are recorded as one
+                    out.writeByte(EVENT_CHARACTERS);
+                    String s = characters.toString();
+                    characters = null;
+                    writeString(s);
+                }
+                out.writeByte(event);
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            writeEvent(EVENT_START_ELEMENT);
+            writeString(uri);
+            writeString(localName);
+            writeString(qName);
+            try {
+                out.writeInt(atts.getLength());
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+            for (int i = 0; i < atts.getLength(); i++) {
+                writeString(atts.getURI(i));
+                writeString(atts.getLocalName(i));
+                writeString(atts.getQName(i));
+                writeString(atts.getType(i));
+                writeString(atts.getValue(i));
+            }
+            super.startElement(uri, localName, qName, atts);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            writeEvent(EVENT_END_ELEMENT);
+            writeString(uri);
+            writeString(localName);
+            writeString(qName);
+            super.endElement(uri, localName, qName);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (characters == null) {
+                characters = new StringBuilder(length);
+            }
+            characters.append(ch, start, length);
+            super.characters(ch, start, length);
+        }
+
+        byte[] getEvents() throws SAXException {
+            writeEvent(EVENT_END_OF_DOCUMENT);
+            return bytes.toByteArray();
+        }
+    }
+
+    private static void write(File file, String source, String hash, Recorder recorder) throws IOException {
+        byte[] events;
+        try {
+            events = recorder.getEvents();
+        } catch (SAXException e) {
+            throw new IOException(e.getMessage());
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(Version.getInstance().getVersion());
+            out.writeUTF(source);
+            out.writeUTF(hash);
+            out.write(events);
+        } finally {
+            Utils.close(out);
+        }
+    }
+
+    /**
+     * Reads the events of a snapshot.
+     * @return the events (see {@link #replay}), or null if the snapshot is outdated
+     */
+    private static List<Object> read(File file, String source, String hash) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readInt() != Version.getInstance().getVersion()
+                    || !source.equals(in.readUTF()) || !hash.equals(in.readUTF()))
+                return null;
+            List<String> strings = new ArrayList<String>();
+            List<Object> events = new ArrayList<Object>();
+            while (true) {
+                byte event = in.readByte();
+                switch (event) {
+                case EVENT_END_OF_DOCUMENT:
+                    return events;
+                case EVENT_START_ELEMENT:
+                    String uri = readString(in, strings);
+                    String localName = readString(in, strings);
+                    String qName = readString(in, strings);
+                    AttributesImpl atts = new AttributesImpl();
+                    int n = in.readInt();
+                    for (int i = 0; i < n; i++) {
+                        atts.addAttribute(readString(in, strings), readString(in, strings), readString(in, strings),
+                                readString(in, strings), readString(in, strings));
+                    }
+                    events.add(new StartElement(uri, localName, qName, atts));
+                    break;
+                case EVENT_END_ELEMENT:
+                    events.add(new EndElement(readString(in, strings), readString(in, strings), readString(in, strings)));
+                    break;
+                case EVENT_CHARACTERS:
+                    events.add(readString(in, strings).toCharArray());
+                    break;
+                default:
+                    throw new IOException("Unknown event "+event);
+                }
+            }
+        } finally {
+            Utils.close(in);
+        }
+    }
+
+    private static String readString(DataInputStream in, List<String> strings) throws IOException {
+        int index = in.readInt();
+        if (index == -1)
+            return null;
+        if (index == -2) {
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            String s = new String(b, "UTF-8");
+            strings.add(s);
+            return s;
+        }
+        if (index < 0 || index >= strings.size())
+            throw new IOException("Invalid string reference "+index);
+        return strings.get(index);
+    }
+
+    private static class StartElement {
+        final String uri;
+        final String localName;
+        final String qName;
+        final Attributes atts;
+
+        StartElement(String uri, String localName, String qName, Attributes atts) {
+            this.uri = uri;
+            this.localName = localName;
+            this.qName = qName;
+            this.atts = atts;
+        }
+    }
+
+    private static class EndElement {
+        final String uri;
+        final String localName;
+        final String qName;
+
+        EndElement(String uri, String localName, String qName) {
+            this.uri = uri;
+            this.localName = localName;
+            this.qName = qName;
+        }
+    }
+
+    /**
+     * Replays the events, which are read completely beforehand, so a broken snapshot
+     * does not leave the handler with half a document.
+     */
+    private static void replay(List<Object> events, ContentHandler handler) throws SAXException {
+        handler.startDocument();
+        for (Object event : events) {
+            if (event instanceof StartElement) {
+                StartElement e = (StartElement) event;
+                handler.startElement(e.uri, e.localName, e.qName, e.atts);
+            } else if (event instanceof EndElement) {
+                EndElement e = (EndElement) event;
+                handler.endElement(e.uri, e.localName, e.qName);
+            } else {
+                char[] ch = (char[]) event;
+                handler.characters(ch, 0, ch.length);
+            }
+        }
+        handler.endDocument();
+    }
+}
@@ -4,8 +4,8 @@ package org.openstreetmap.josm.io.imagery;
 import static org.openstreetmap.josm.tools.I18n.tr;
 import static org.openstreetmap.josm.tools.Utils.equal;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -19,10 +19,13 @@ import org.openstreetmap.josm.data.imagery.ImageryInfo.ImageryBounds;
 import org.openstreetmap.josm.data.imagery.ImageryInfo.ImageryType;
 import org.openstreetmap.josm.data.imagery.Shape;
 import org.openstreetmap.josm.io.MirroredInputStream;
+import org.openstreetmap.josm.io.SaxEventCache;
 import org.openstreetmap.josm.io.UTFInputStreamReader;
 import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 
 public class ImageryReader {
@@ -47,19 +50,23 @@ public class ImageryReader {
 
     public List<ImageryInfo> parse() throws SAXException, IOException {
         Parser parser = new Parser();
-        try {
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            factory.setNamespaceAware(true);
-            InputStream in = new MirroredInputStream(source);
-            InputSource is = new InputSource(UTFInputStreamReader.create(in, "UTF-8"));
-            factory.newSAXParser().parse(is, parser);
-            return parser.entries;
-        } catch (SAXException e) {
-            throw e;
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace(); // broken SAXException chaining
-            throw new SAXException(e);
-        }
+        final byte[] content = SaxEventCache.readContent(new MirroredInputStream(source));
+        SaxEventCache.parse("imagery", source, content, parser, new SaxEventCache.DocumentParser() {
+            public void parse(ContentHandler handler) throws SAXException, IOException {
+                try {
+                    SAXParserFactory factory = SAXParserFactory.newInstance();
+                    factory.setNamespaceAware(true);
+                    InputSource is = new InputSource(UTFInputStreamReader.create(new ByteArrayInputStream(content), "UTF-8"));
+                    XMLReader reader = factory.newSAXParser().getXMLReader();
+                    reader.setContentHandler(handler);
+                    reader.parse(is);
+                } catch (ParserConfigurationException e) {
+                    e.printStackTrace(); // broken SAXException chaining
+                    throw new SAXException(e);
+                }
+            }
+        });
+        return parser.entries;
     }
 
     private static class Parser extends DefaultHandler {
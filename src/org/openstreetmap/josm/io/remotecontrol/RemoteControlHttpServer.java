@@ -4,15 +4,27 @@ package org.openstreetmap.josm.io.remotecontrol;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.BindException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.InetAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 
 /**
- * Simple HTTP server that spawns a {@link RequestProcessor} for every
- * connection.
+ * Simple HTTP server that hands every connection to a {@link RequestProcessor}.
+ *
+ * The connections are processed by a bounded pool of threads. Connections that
+ * arrive while all threads are busy wait in a bounded queue; if the queue is full
+ * too, the client gets a "503 Service Unavailable" response. Connections are kept
+ * alive between requests unless other connections are waiting.
  *
  * Taken from YWMS plugin by frsantos.
  */
@@ -21,9 +33,17 @@ public class RemoteControlHttpServer extends Thread {
     /** Default port for the HTTP server */
     public static final int DEFAULT_PORT = 8111;
 
+    /** The maximum number of connections processed at the same time */
+    public static final IntegerProperty PROP_MAX_THREADS = new IntegerProperty("remotecontrol.max-threads", 4);
+    /** The maximum number of connections waiting for a free thread */
+    public static final IntegerProperty PROP_QUEUE_SIZE = new IntegerProperty("remotecontrol.queue-size", 100);
+
     /** The server socket */
     private ServerSocket server;
 
+    /** The threads processing the connections */
+    private final ThreadPoolExecutor executor;
+
     private static RemoteControlHttpServer instance;
 
     /**
@@ -45,6 +65,14 @@ public class RemoteControlHttpServer extends Thread {
         }
     }
 
+    /**
+     * Replies the running server.
+     * @return the running server, or null if it is not started
+     */
+    static RemoteControlHttpServer getInstance() {
+        return instance;
+    }
+
     /**
      * Constructor
      * @param port The port this server will listen on
@@ -55,25 +83,35 @@ public class RemoteControlHttpServer extends Thread {
     {
         super("RemoteControl HTTP Server");
         this.setDaemon(true);
-        // Start the server socket with only 1 connection.
-        // Also make sure we only listen
-        // on the local interface so nobody from the outside can connect!
-        this.server = new ServerSocket(port, 1,
+        int threads = Math.max(1, PROP_MAX_THREADS.get());
+        int queueSize = Math.max(1, PROP_QUEUE_SIZE.get());
+        // Make sure we only listen on the local interface so nobody from the outside can connect!
+        this.server = new ServerSocket(port, queueSize,
             InetAddress.getByAddress(new byte[] { 127, 0, 0, 1 }));
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "RemoteControl request processor");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
     }
 
     /**
-     * The main loop, spawns a {@link RequestProcessor} for each connection
+     * The main loop, queues a {@link RequestProcessor} for each connection
      */
     public void run()
     {
         System.out.println("RemoteControl::Accepting connections on port " + server.getLocalPort());
-        while (true)
+        while (!server.isClosed())
         {
             try
             {
                 Socket request = server.accept();
-                RequestProcessor.processRequest(request);
+                process(request);
             }
             catch( SocketException se)
             {
@@ -87,6 +125,41 @@ public class RemoteControlHttpServer extends Thread {
         }
     }
 
+    /**
+     * Queues a connection for processing. If the queue is full, the client is told
+     * to retry later.
+     *
+     * @param request the connection
+     * @throws IOException if the connection can not be rejected properly
+     */
+    void process(Socket request) throws IOException {
+        try {
+            executor.execute(new RequestProcessor(request, this));
+        } catch (RejectedExecutionException e) {
+            try {
+                OutputStream out = request.getOutputStream();
+                out.write(("HTTP/1.1 503 Service Unavailable\r\n"
+                        + "Server: JOSM RemoteControl\r\n"
+                        + "Retry-After: 1\r\n"
+                        + "Content-length: 0\r\n"
+                        + "Connection: close\r\n\r\n").getBytes("ASCII"));
+                out.flush();
+            } finally {
+                request.close();
+            }
+        }
+    }
+
+    /**
+     * Determines if connections are waiting for a free thread. A connection should then
+     * not be kept alive once its current request is processed.
+     *
+     * @return true if connections are waiting
+     */
+    boolean hasWaitingConnections() {
+        return !executor.getQueue().isEmpty();
+    }
+
     /**
      * Stops the HTTP server
      *
@@ -95,5 +168,6 @@ public class RemoteControlHttpServer extends Thread {
     public void stopServer() throws IOException
     {
         server.close();
+        executor.shutdownNow();
     }
 }
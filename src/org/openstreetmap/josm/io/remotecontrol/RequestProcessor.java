@@ -4,20 +4,23 @@ package org.openstreetmap.josm.io.remotecontrol;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
 import java.io.Writer;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.io.remotecontrol.handler.AddNodeHandler;
+import org.openstreetmap.josm.io.remotecontrol.handler.AddNodesHandler;
 import org.openstreetmap.josm.io.remotecontrol.handler.AddWayHandler;
 import org.openstreetmap.josm.io.remotecontrol.handler.ImageryHandler;
 import org.openstreetmap.josm.io.remotecontrol.handler.ImportHandler;
@@ -33,8 +36,17 @@ import org.openstreetmap.josm.tools.Utils;
 
 /**
  * Processes HTTP "remote control" requests.
+ *
+ * The connection is kept alive after a request (HTTP/1.1 or "Connection: keep-alive")
+ * until the client closes it, it is idle for {@link #PROP_KEEP_ALIVE_TIMEOUT} milliseconds
+ * or {@link #PROP_MAX_KEEP_ALIVE_REQUESTS} requests have been processed. An idle connection
+ * is closed as well as soon as other connections are waiting for the server, so idle
+ * connections never keep the threads of the server from processing requests.
+ *
+ * Requests are sent with GET, or with POST and the parameters in the body
+ * (application/x-www-form-urlencoded) when they are too long for an URL.
  */
-public class RequestProcessor extends Thread {
+public class RequestProcessor implements Runnable {
     /**
      * RemoteControl protocol version. Change minor number for compatible
      * interface extensions. Change major number in case of incompatible
@@ -45,9 +57,26 @@ public class RequestProcessor extends Thread {
         RemoteControl.protocolMinorVersion +
         "}, \"application\": \"JOSM RemoteControl\"}";
 
+    /** Time in milliseconds an idle connection is kept alive */
+    public static final IntegerProperty PROP_KEEP_ALIVE_TIMEOUT = new IntegerProperty("remotecontrol.keep-alive-timeout", 5000);
+    /** The maximum number of requests processed on one connection */
+    public static final IntegerProperty PROP_MAX_KEEP_ALIVE_REQUESTS = new IntegerProperty("remotecontrol.keep-alive-max", 100);
+
+    /** The maximum length of the request line, of a header line and of a request body */
+    private static final int MAX_LENGTH = 1024 * 1024;
+
+    /** Time in milliseconds after which an idle connection checks for waiting connections */
+    private static final int IDLE_CHECK_INTERVAL = 100;
+
     /** The socket this processor listens on */
     private Socket request;
 
+    /** The server which accepted the connection, or null */
+    private final RemoteControlHttpServer server;
+
+    /** Whether the connection is kept alive after the current response */
+    private boolean keepAlive;
+
     /**
      * Collection of request handlers.
      * Will be initialized with default handlers here. Other plug-ins
@@ -61,17 +90,37 @@ public class RequestProcessor extends Thread {
      * @param request A socket to read the request.
      */
     public RequestProcessor(Socket request) {
-        super("RemoteControl request processor");
-        this.setDaemon(true);
+        this(request, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param request A socket to read the request.
+     * @param server The server which accepted the connection, or null
+     */
+    RequestProcessor(Socket request, RemoteControlHttpServer server) {
         this.request = request;
+        this.server = server;
     }
 
     /**
-     * Spawns a new thread for the request
+     * Processes the request by the threads of the running server, or by
+     * a new thread if the server is not running.
      */
     public static void processRequest(Socket request) {
-        RequestProcessor processor = new RequestProcessor(request);
-        processor.start();
+        RemoteControlHttpServer server = RemoteControlHttpServer.getInstance();
+        if (server != null) {
+            try {
+                server.process(request);
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        Thread t = new Thread(new RequestProcessor(request), "RemoteControl request processor");
+        t.setDaemon(true);
+        t.start();
     }
 
     /**
@@ -119,6 +168,7 @@ public class RequestProcessor extends Thread {
         addRequestHandlerClass(LoadAndZoomHandler.command2, LoadAndZoomHandler.class, true);
         addRequestHandlerClass(ImageryHandler.command, ImageryHandler.class, true);
         addRequestHandlerClass(AddNodeHandler.command, AddNodeHandler.class, true);
+        addRequestHandlerClass(AddNodesHandler.command, AddNodesHandler.class, true);
         addRequestHandlerClass(AddWayHandler.command, AddWayHandler.class, true);
         addRequestHandlerClass(ImportHandler.command, ImportHandler.class, true);
         addRequestHandlerClass(VersionHandler.command, VersionHandler.class, true);
@@ -132,101 +182,228 @@ public class RequestProcessor extends Thread {
     public void run() {
         Writer out = null;
         try {
+            request.setSoTimeout(PROP_KEEP_ALIVE_TIMEOUT.get());
             OutputStream raw = new BufferedOutputStream(
                     request.getOutputStream());
-            out = new OutputStreamWriter(raw);
-            Reader in = new InputStreamReader(new BufferedInputStream(
-                    request.getInputStream()), "ASCII");
+            out = new OutputStreamWriter(raw, "UTF-8");
+            InputStream in = new BufferedInputStream(request.getInputStream());
 
-            StringBuffer requestLine = new StringBuffer();
-            while (requestLine.length() < 1024 * 1024) {
-                int c = in.read();
-                if (c == -1 || c == '\r' || c == '\n')
-                    break;
-                requestLine.append((char) c);
+            int maxRequests = PROP_MAX_KEEP_ALIVE_REQUESTS.get();
+            for (int served = 1; ; served++) {
+                if (served > 1 && !waitForRequest(in))
+                    return;
+                String requestLine = readLine(in);
+                if (requestLine == null)
+                    return;
+                if (requestLine.length() == 0) {
+                    // tolerate empty lines between requests
+                    served--;
+                    continue;
+                }
+                keepAlive = served < maxRequests && (server == null || !server.hasWaitingConnections());
+                processRequest(requestLine, in, out);
+                if (!keepAlive)
+                    return;
             }
-
-            System.out.println("RemoteControl received: " + requestLine);
-            String get = requestLine.toString();
-            StringTokenizer st = new StringTokenizer(get);
-            if (!st.hasMoreTokens()) {
+        } catch (SocketTimeoutException e) {
+            // idle connection, close it
+        } catch (IOException ioe) {
+        } catch (Exception e) {
+            e.printStackTrace();
+            try {
+                keepAlive = false;
                 sendError(out);
-                return;
+            } catch (IOException e1) {
             }
-            String method = st.nextToken();
-            if (!st.hasMoreTokens()) {
-                sendError(out);
-                return;
+        } finally {
+            try {
+                request.close();
+            } catch (IOException e) {
             }
-            String url = st.nextToken();
+        }
+    }
 
-            if (!method.equals("GET")) {
-                sendNotImplemented(out);
-                return;
+    /**
+     * Waits for the next request on a kept alive connection.
+     *
+     * @param in the stream to read the request from, supporting marks
+     * @return true if a request arrives, false if the connection is closed by the client,
+     * idle for too long or other connections are waiting for the server
+     * @throws IOException if the connection can not be read
+     */
+    private boolean waitForRequest(InputStream in) throws IOException {
+        int timeout = PROP_KEEP_ALIVE_TIMEOUT.get();
+        long start = System.currentTimeMillis();
+        request.setSoTimeout(Math.min(IDLE_CHECK_INTERVAL, Math.max(1, timeout)));
+        try {
+            while (true) {
+                try {
+                    in.mark(1);
+                    if (in.read() == -1)
+                        return false;
+                    in.reset();
+                    return true;
+                } catch (SocketTimeoutException e) {
+                    if ((server != null && server.hasWaitingConnections())
+                            || System.currentTimeMillis() - start >= timeout)
+                        return false;
+                }
             }
+        } finally {
+            request.setSoTimeout(timeout);
+        }
+    }
 
-            String command = null;
-            int questionPos = url.indexOf('?');
-            if(questionPos < 0)
-            {
-                command = url;
+    /**
+     * Reads an ASCII line terminated by CRLF or LF.
+     *
+     * @param in the stream
+     * @return the line without terminator, or null at the end of the stream
+     * @throws IOException if the line can not be read
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (line.length() < MAX_LENGTH) {
+            int c = in.read();
+            if (c == -1) {
+                if (line.length() == 0)
+                    return null;
+                break;
             }
-            else
-            {
-                command = url.substring(0, questionPos);
+            if (c == '\n')
+                break;
+            if (c != '\r') {
+                line.append((char) c);
             }
+        }
+        return line.toString();
+    }
 
-            // find a handler for this command
-            Class<? extends RequestHandler> handlerClass = handlers.get(command);
-            if (handlerClass == null) {
-                // no handler found
-                StringBuilder usage = new StringBuilder(1024);
-                for (Entry<String, Class<? extends RequestHandler>> handler : handlers.entrySet()) {
-                    String[] mandatory = handler.getValue().newInstance().getMandatoryParams();
-                    usage.append("<li>");
-                    usage.append(handler.getKey());
-                    if (mandatory != null) {
-                        usage.append("<br/>mandatory parameter: ").append(Utils.join(", ", Arrays.asList(mandatory)));
-                    }
-                    usage.append("</li>");
+    /**
+     * Processes one request and sends the response.
+     *
+     * @param requestLine the request line
+     * @param in the stream to read the headers and the body from
+     * @param out the writer to write the response to
+     * @throws Exception if the request can not be processed
+     */
+    private void processRequest(String requestLine, InputStream in, Writer out) throws Exception {
+        System.out.println("RemoteControl received: " + requestLine);
+        StringTokenizer st = new StringTokenizer(requestLine);
+        if (!st.hasMoreTokens()) {
+            keepAlive = false;
+            sendError(out);
+            return;
+        }
+        String method = st.nextToken();
+        if (!st.hasMoreTokens()) {
+            keepAlive = false;
+            sendError(out);
+            return;
+        }
+        String url = st.nextToken();
+        // HTTP/0.9 requests have neither a version nor headers
+        boolean hasHeaders = st.hasMoreTokens();
+        String version = hasHeaders ? st.nextToken() : "HTTP/0.9";
+
+        // read all headers up to the blank line, then decide whether the connection is kept alive
+        boolean connectionKeepAlive = false;
+        boolean connectionClose = false;
+        int contentLength = 0;
+        String header;
+        while (hasHeaders && (header = readLine(in)) != null && header.length() > 0) {
+            int colon = header.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+            String value = header.substring(colon + 1).trim();
+            if (name.equals("connection")) {
+                for (String option : value.split(",")) {
+                    connectionClose |= option.trim().equalsIgnoreCase("close");
+                    connectionKeepAlive |= option.trim().equalsIgnoreCase("keep-alive");
                 }
-                String help = "No command specified! The following commands are available:<ul>"
-                        + usage.toString()
-                        + "</ul>";
-                sendBadRequest(out, help);
-            } else {
-                // create handler object
-                RequestHandler handler = handlerClass.newInstance();
+            } else if (name.equals("content-length")) {
                 try {
-                    handler.setCommand(command);
-                    handler.setUrl(url);
-                    handler.handle();
-                    sendHeader(out, "200 OK", handler.getContentType(), false);
-                    out.write("Content-length: " + handler.getContent().length()
-                            + "\r\n");
-                    out.write("\r\n");
-                    out.write(handler.getContent());
-                    out.flush();
-                } catch (RequestHandlerErrorException ex) {
-                    sendError(out);
-                } catch (RequestHandlerBadRequestException ex) {
-                    sendBadRequest(out, ex.getMessage());
-                } catch (RequestHandlerForbiddenException ex) {
-                    sendForbidden(out, ex.getMessage());
+                    contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    contentLength = -1;
                 }
             }
+        }
+        if (version.equals("HTTP/1.1")) {
+            keepAlive &= !connectionClose;
+        } else {
+            // HTTP/1.0 connections are closed unless the client asks otherwise
+            keepAlive &= connectionKeepAlive && !connectionClose && version.equals("HTTP/1.0");
+        }
 
-        } catch (IOException ioe) {
-        } catch (Exception e) {
-            e.printStackTrace();
-            try {
-                sendError(out);
-            } catch (IOException e1) {
+        if (method.equals("POST")) {
+            if (contentLength < 0 || contentLength > MAX_LENGTH) {
+                keepAlive = false;
+                sendBadRequest(out, "Invalid Content-Length");
+                return;
             }
-        } finally {
+            byte[] body = new byte[contentLength];
+            for (int read = 0; read < contentLength;) {
+                int n = in.read(body, read, contentLength - read);
+                if (n < 0)
+                    throw new IOException("Unexpected end of request body");
+                read += n;
+            }
+            // the body holds the parameters, just like the query of a GET request
+            if (contentLength > 0) {
+                url += (url.indexOf('?') < 0 ? "?" : "&") + new String(body, "ASCII").trim();
+            }
+        } else if (!method.equals("GET")) {
+            keepAlive = false;
+            sendNotImplemented(out);
+            return;
+        }
+
+        String command = null;
+        int questionPos = url.indexOf('?');
+        if(questionPos < 0)
+        {
+            command = url;
+        }
+        else
+        {
+            command = url.substring(0, questionPos);
+        }
+
+        // find a handler for this command
+        Class<? extends RequestHandler> handlerClass = handlers.get(command);
+        if (handlerClass == null) {
+            // no handler found
+            StringBuilder usage = new StringBuilder(1024);
+            for (Entry<String, Class<? extends RequestHandler>> handler : handlers.entrySet()) {
+                String[] mandatory = handler.getValue().newInstance().getMandatoryParams();
+                usage.append("<li>");
+                usage.append(handler.getKey());
+                if (mandatory != null) {
+                    usage.append("<br/>mandatory parameter: ").append(Utils.join(", ", Arrays.asList(mandatory)));
+                }
+                usage.append("</li>");
+            }
+            String help = "No command specified! The following commands are available:<ul>"
+                    + usage.toString()
+                    + "</ul>";
+            sendBadRequest(out, help);
+        } else {
+            // create handler object
+            RequestHandler handler = handlerClass.newInstance();
             try {
-                request.close();
-            } catch (IOException e) {
+                handler.setCommand(command);
+                handler.setUrl(url);
+                handler.handle();
+                sendResponse(out, "200 OK", handler.getContentType(), handler.getContent());
+            } catch (RequestHandlerErrorException ex) {
+                sendError(out);
+            } catch (RequestHandlerBadRequestException ex) {
+                sendBadRequest(out, ex.getMessage());
+            } catch (RequestHandlerForbiddenException ex) {
+                sendForbidden(out, ex.getMessage());
             }
         }
     }
@@ -240,14 +417,14 @@ public class RequestProcessor extends Thread {
      *             If the error can not be written
      */
     private void sendError(Writer out) throws IOException {
-        sendHeader(out, "500 Internal Server Error", "text/html", true);
-        out.write("<HTML>\r\n");
-        out.write("<HEAD><TITLE>Internal Error</TITLE>\r\n");
-        out.write("</HEAD>\r\n");
-        out.write("<BODY>");
-        out.write("<H1>HTTP Error 500: Internal Server Error</h2>\r\n");
-        out.write("</BODY></HTML>\r\n");
-        out.flush();
+        StringBuilder content = new StringBuilder();
+        content.append("<HTML>\r\n");
+        content.append("<HEAD><TITLE>Internal Error</TITLE>\r\n");
+        content.append("</HEAD>\r\n");
+        content.append("<BODY>");
+        content.append("<H1>HTTP Error 500: Internal Server Error</h2>\r\n");
+        content.append("</BODY></HTML>\r\n");
+        sendResponse(out, "500 Internal Server Error", "text/html", content.toString());
     }
 
     /**
@@ -259,14 +436,14 @@ public class RequestProcessor extends Thread {
      *             If the error can not be written
      */
     private void sendNotImplemented(Writer out) throws IOException {
-        sendHeader(out, "501 Not Implemented", "text/html", true);
-        out.write("<HTML>\r\n");
-        out.write("<HEAD><TITLE>Not Implemented</TITLE>\r\n");
-        out.write("</HEAD>\r\n");
-        out.write("<BODY>");
-        out.write("<H1>HTTP Error 501: Not Implemented</h2>\r\n");
-        out.write("</BODY></HTML>\r\n");
-        out.flush();
+        StringBuilder content = new StringBuilder();
+        content.append("<HTML>\r\n");
+        content.append("<HEAD><TITLE>Not Implemented</TITLE>\r\n");
+        content.append("</HEAD>\r\n");
+        content.append("<BODY>");
+        content.append("<H1>HTTP Error 501: Not Implemented</h2>\r\n");
+        content.append("</BODY></HTML>\r\n");
+        sendResponse(out, "501 Not Implemented", "text/html", content.toString());
     }
 
     /**
@@ -278,17 +455,17 @@ public class RequestProcessor extends Thread {
      *             If the error can not be written
      */
     private void sendForbidden(Writer out, String help) throws IOException {
-        sendHeader(out, "403 Forbidden", "text/html", true);
-        out.write("<HTML>\r\n");
-        out.write("<HEAD><TITLE>Forbidden</TITLE>\r\n");
-        out.write("</HEAD>\r\n");
-        out.write("<BODY>");
-        out.write("<H1>HTTP Error 403: Forbidden</h2>\r\n");
+        StringBuilder content = new StringBuilder();
+        content.append("<HTML>\r\n");
+        content.append("<HEAD><TITLE>Forbidden</TITLE>\r\n");
+        content.append("</HEAD>\r\n");
+        content.append("<BODY>");
+        content.append("<H1>HTTP Error 403: Forbidden</h2>\r\n");
         if (help != null) {
-            out.write(help);
+            content.append(help);
         }
-        out.write("</BODY></HTML>\r\n");
-        out.flush();
+        content.append("</BODY></HTML>\r\n");
+        sendResponse(out, "403 Forbidden", "text/html", content.toString());
     }
 
     /**
@@ -300,16 +477,39 @@ public class RequestProcessor extends Thread {
      *             If the error can not be written
      */
     private void sendBadRequest(Writer out, String help) throws IOException {
-        sendHeader(out, "400 Bad Request", "text/html", true);
-        out.write("<HTML>\r\n");
-        out.write("<HEAD><TITLE>Bad Request</TITLE>\r\n");
-        out.write("</HEAD>\r\n");
-        out.write("<BODY>");
-        out.write("<H1>HTTP Error 400: Bad Request</h2>\r\n");
+        StringBuilder content = new StringBuilder();
+        content.append("<HTML>\r\n");
+        content.append("<HEAD><TITLE>Bad Request</TITLE>\r\n");
+        content.append("</HEAD>\r\n");
+        content.append("<BODY>");
+        content.append("<H1>HTTP Error 400: Bad Request</h2>\r\n");
         if (help != null) {
-            out.write(help);
+            content.append(help);
         }
-        out.write("</BODY></HTML>\r\n");
+        content.append("</BODY></HTML>\r\n");
+        sendResponse(out, "400 Bad Request", "text/html", content.toString());
+    }
+
+    /**
+     * Sends a complete response to the client.
+     *
+     * @param out
+     *            The Writer
+     * @param status
+     *            The status string ("200 OK", "500", etc)
+     * @param contentType
+     *            The content type of the data sent
+     * @param content
+     *            The data sent
+     * @throws IOException
+     *             When error
+     */
+    private void sendResponse(Writer out, String status, String contentType,
+            String content) throws IOException {
+        sendHeader(out, status, contentType, false);
+        out.write("Content-length: " + content.getBytes("UTF-8").length + "\r\n");
+        out.write("\r\n");
+        out.write(content);
         out.flush();
     }
 
@@ -335,6 +535,7 @@ public class RequestProcessor extends Thread {
         out.write("Server: JOSM RemoteControl\r\n");
         out.write("Content-type: " + contentType + "\r\n");
         out.write("Access-Control-Allow-Origin: *\r\n");
+        out.write("Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n");
         if (endHeaders)
             out.write("\r\n");
     }
@@ -0,0 +1,102 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io.remotecontrol.handler;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+import static org.openstreetmap.josm.tools.I18n.trn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.AutoScaleAction;
+import org.openstreetmap.josm.command.AddCommand;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.SequenceCommand;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.io.remotecontrol.PermissionPrefWithDefault;
+
+/**
+ * Adds many nodes to the current dataset in one request, as a single undoable
+ * command and a single dataset update. For instance,
+ * {@code /add_nodes?nodes=lat1,lon1;lat2,lon2}. Long lists can be sent with POST.
+ */
+public class AddNodesHandler extends RequestHandler {
+
+    /**
+     * The remote control command name used to add nodes.
+     */
+    public static final String command = "add_nodes";
+
+    private final List<LatLon> allCoordinates = new ArrayList<LatLon>();
+
+    @Override
+    public String[] getMandatoryParams() {
+        return new String[]{"nodes"};
+    }
+
+    @Override
+    protected void handleRequest() throws RequestHandlerErrorException, RequestHandlerBadRequestException {
+        List<Command> commands = new ArrayList<Command>(allCoordinates.size());
+        List<Node> nodes = new ArrayList<Node>(allCoordinates.size());
+        for (LatLon ll : allCoordinates) {
+            Node node = new Node(ll);
+            nodes.add(node);
+            commands.add(new AddCommand(node));
+        }
+        allCoordinates.clear();
+        DataSet ds = Main.main.getCurrentDataSet();
+        ds.beginUpdate();
+        try {
+            Main.main.undoRedo.add(new SequenceCommand(trn("Add {0} node", "Add {0} nodes", nodes.size(), nodes.size()), commands));
+            ds.setSelected(nodes);
+        } finally {
+            ds.endUpdate();
+        }
+        if (PermissionPrefWithDefault.CHANGE_VIEWPORT.isAllowed()) {
+            AutoScaleAction.autoScale("selection");
+        } else {
+            Main.map.mapView.repaint();
+        }
+        // parse parameter addtags=tag1=value1|tag2=vlaue2
+        LoadAndZoomHandler.addTags(args);
+    }
+
+    @Override
+    public String getPermissionMessage() {
+        return trn("Remote Control has been asked to create {0} new node.",
+                "Remote Control has been asked to create {0} new nodes.", allCoordinates.size(), allCoordinates.size());
+    }
+
+    @Override
+    public PermissionPrefWithDefault getPermissionPref() {
+        return PermissionPrefWithDefault.CREATE_OBJECTS;
+    }
+
+    @Override
+    protected void validateRequest() throws RequestHandlerBadRequestException {
+        allCoordinates.clear();
+        for (String coordinatesString : args.get("nodes").split(";\\s*")) {
+            String[] coordinates = coordinatesString.split(",\\s*", 2);
+            if (coordinates.length < 2) {
+                throw new RequestHandlerBadRequestException(
+                        tr("Invalid coordinates: {0}", Arrays.toString(coordinates)));
+            }
+            try {
+                double lat = Double.parseDouble(coordinates[0]);
+                double lon = Double.parseDouble(coordinates[1]);
+                allCoordinates.add(new LatLon(lat, lon));
+            } catch (NumberFormatException e) {
+                throw new RequestHandlerBadRequestException("NumberFormatException ("+e.getMessage()+")");
+            }
+        }
+        if (allCoordinates.isEmpty()) {
+            throw new RequestHandlerBadRequestException(tr("No nodes"));
+        }
+        if (!Main.main.hasEditLayer()) {
+             throw new RequestHandlerBadRequestException(tr("There is no layer opened to add node"));
+        }
+    }
+}
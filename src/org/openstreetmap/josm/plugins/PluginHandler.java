@@ -29,10 +29,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.JarFile;
 
 import javax.swing.AbstractAction;
@@ -174,6 +177,41 @@ public class PluginHandler {
         }
     }
 
+    /**
+     * The time spent loading a plugin, see {@link #getPluginLoadingReport()}.
+     */
+    public static class PluginLoadingTime {
+        public final String name;
+        /** nanoseconds spent opening the jar of the plugin, i.e. finding its main class */
+        long jarOpening;
+        /** nanoseconds spent loading and initializing the main class */
+        long classLoading;
+        /** nanoseconds spent in the constructor of the main class */
+        long construction;
+
+        PluginLoadingTime(String name) {
+            this.name = name;
+        }
+
+        public long getJarOpening() {
+            return jarOpening;
+        }
+
+        public long getClassLoading() {
+            return classLoading;
+        }
+
+        public long getConstruction() {
+            return construction;
+        }
+
+        public long getTotal() {
+            return jarOpening + classLoading + construction;
+        }
+    }
+
+    private static final List<PluginLoadingTime> loadingTimes = new CopyOnWriteArrayList<PluginLoadingTime>();
+
     public static Collection<ClassLoader> getResourceClassLoaders() {
         return Collections.unmodifiableCollection(sources);
     }
@@ -501,12 +539,35 @@ public class PluginHandler {
      * @param pluginClassLoader the plugin class loader
      */
     public static void loadPlugin(Component parent, PluginInformation plugin, ClassLoader pluginClassLoader) {
+        PluginLoadingTime time = new PluginLoadingTime(plugin.name);
+        List<PluginProxy> loaded = new ArrayList<PluginProxy>(1);
+        String msg = instantiatePlugin(plugin, pluginClassLoader, time, loaded);
+        pluginList.addAll(loaded);
+        loadingTimes.add(time);
+        confirmDisablePluginIfFailed(parent, plugin, msg);
+    }
+
+    /**
+     * Instantiates the main class of a plugin. May be called on any thread.
+     *
+     * @param plugin the plugin
+     * @param pluginClassLoader the plugin class loader
+     * @param time the time spent is added here
+     * @param loaded the plugin is added here if it was instantiated
+     * @return the question whether to disable the plugin if it could not be loaded, null otherwise
+     */
+    private static String instantiatePlugin(PluginInformation plugin, ClassLoader pluginClassLoader,
+            PluginLoadingTime time, Collection<PluginProxy> loaded) {
         String msg = tr("Could not load plugin {0}. Delete from preferences?", plugin.name);
         try {
+            long start = System.nanoTime();
             Class<?> klass = plugin.loadClass(pluginClassLoader);
+            time.classLoading += System.nanoTime() - start;
             if (klass != null) {
                 System.out.println(tr("loading plugin ''{0}'' (version {1})", plugin.name, plugin.localversion));
-                pluginList.add(plugin.load(klass));
+                start = System.nanoTime();
+                loaded.add(plugin.load(klass));
+                time.construction += System.nanoTime() - start;
             }
             msg = null;
         } catch (PluginException e) {
@@ -523,15 +584,182 @@ public class PluginHandler {
         }  catch (Throwable e) {
             e.printStackTrace();
         }
+        return msg;
+    }
+
+    private static void confirmDisablePluginIfFailed(Component parent, PluginInformation plugin, String msg) {
         if(msg != null && confirmDisablePlugin(parent, msg, plugin.name)) {
             Main.pref.removeFromCollection("plugins", plugin.name);
         }
     }
 
+    private static ExecutorService createPluginLoadingExecutor(int tasks) {
+        int threads = Math.max(1, Math.min(tasks, Runtime.getRuntime().availableProcessors()));
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "plugin-loader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Opens the jars of the plugins and loads their main classes without initializing them.
+     * The jars are opened one after another, in the order of the class path, so the time spent
+     * opening them can be told apart. The classes are loaded concurrently.
+     */
+    private static void preloadPlugins(List<PluginInformation> plugins, final ClassLoader pluginClassLoader,
+            List<PluginLoadingTime> times) {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(plugins.size());
+        for (int i = 0; i < plugins.size(); i++) {
+            final PluginInformation info = plugins.get(i);
+            final PluginLoadingTime time = times.get(i);
+            if (info.className == null) {
+                continue;
+            }
+            long start = System.nanoTime();
+            pluginClassLoader.getResource(info.className.replace('.', '/') + ".class");
+            time.jarOpening = System.nanoTime() - start;
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    long start = System.nanoTime();
+                    try {
+                        Class.forName(info.className, false, pluginClassLoader);
+                    } catch (Throwable e) {
+                        // reported when the plugin is instantiated
+                    }
+                    time.classLoading += System.nanoTime() - start;
+                    return null;
+                }
+            });
+        }
+        ExecutorService service = createPluginLoadingExecutor(tasks.size());
+        try {
+            service.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * Instantiates the plugins concurrently. A plugin is instantiated once the plugins it requires
+     * and all plugins of lower stages have been instantiated.
+     */
+    private static void instantiatePluginsConcurrently(Component parent, List<PluginInformation> plugins,
+            final ClassLoader pluginClassLoader, List<PluginLoadingTime> times, ProgressMonitor monitor) {
+        List<Integer> remaining = new LinkedList<Integer>();
+        for (int i = 0; i < plugins.size(); i++) {
+            remaining.add(i);
+        }
+        Set<String> names = new HashSet<String>();
+        for (PluginInformation info : plugins) {
+            names.add(info.name);
+        }
+        Set<String> done = new HashSet<String>();
+        ExecutorService service = createPluginLoadingExecutor(plugins.size());
+        try {
+            while (!remaining.isEmpty()) {
+                // the plugins of the lowest stage left whose requirements are instantiated
+                int stage = plugins.get(remaining.get(0)).stage;
+                List<Integer> wave = new ArrayList<Integer>();
+                for (Integer i : remaining) {
+                    PluginInformation info = plugins.get(i);
+                    if (info.stage != stage) {
+                        break;
+                    }
+                    boolean ready = true;
+                    for (String required : info.getLocalRequiredPlugins()) {
+                        if (names.contains(required) && !done.contains(required)) {
+                            ready = false;
+                        }
+                    }
+                    if (ready) {
+                        wave.add(i);
+                    }
+                }
+                if (wave.isEmpty()) {
+                    // circular requirements, instantiate them in order
+                    wave.add(remaining.get(0));
+                }
+                remaining.removeAll(wave);
+
+                List<Future<String>> results = new ArrayList<Future<String>>(wave.size());
+                final List<List<PluginProxy>> loaded = new ArrayList<List<PluginProxy>>(wave.size());
+                for (Integer i : wave) {
+                    final PluginInformation info = plugins.get(i);
+                    final PluginLoadingTime time = times.get(i);
+                    final List<PluginProxy> proxies = new ArrayList<PluginProxy>(1);
+                    loaded.add(proxies);
+                    results.add(service.submit(new Callable<String>() {
+                        public String call() {
+                            return instantiatePlugin(info, pluginClassLoader, time, proxies);
+                        }
+                    }));
+                }
+                String[] msgs = new String[wave.size()];
+                for (int j = 0; j < wave.size(); j++) {
+                    try {
+                        msgs[j] = results.get(j).get();
+                    } catch (ExecutionException e) {
+                        e.printStackTrace();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                // add the plugins in the order they would have been loaded one after another
+                for (int j = 0; j < wave.size(); j++) {
+                    PluginInformation info = plugins.get(wave.get(j));
+                    pluginList.addAll(loaded.get(j));
+                    done.add(info.name);
+                    confirmDisablePluginIfFailed(parent, info, msgs[j]);
+                    monitor.worked(1);
+                }
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * Replies how long loading the plugins took, the slowest plugins first.
+     */
+    public static List<PluginLoadingTime> getPluginLoadingTimes() {
+        List<PluginLoadingTime> times = new ArrayList<PluginLoadingTime>(loadingTimes);
+        Collections.sort(times, new Comparator<PluginLoadingTime>() {
+            public int compare(PluginLoadingTime o1, PluginLoadingTime o2) {
+                long t1 = o1.getTotal();
+                long t2 = o2.getTotal();
+                return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        return times;
+    }
+
+    /**
+     * Replies a report of how long loading the plugins took, the slowest plugins first.
+     */
+    public static String getPluginLoadingReport() {
+        StringBuilder b = new StringBuilder("Plugin loading times in ms (jar, classes, constructor, total):\n");
+        for (PluginLoadingTime time : getPluginLoadingTimes()) {
+            b.append(String.format("%8.1f %8.1f %8.1f %8.1f  %s\n", time.jarOpening / 1e6, time.classLoading / 1e6,
+                    time.construction / 1e6, time.getTotal() / 1e6, time.name));
+        }
+        return b.toString();
+    }
+
     /**
      * Loads the plugin in <code>plugins</code> from locally available jar files into
      * memory.
      *
+     * The main classes of the plugins are loaded concurrently. The plugins are instantiated one after
+     * another, unless the preference <code>plugins.parallel-init</code> is set: then plugins that do
+     * not require each other are instantiated concurrently. If the preference
+     * <code>plugins.loading-report</code> is set, the time spent for each plugin is logged.
+     *
      * @param plugins the list of plugins
      * @param monitor the progress monitor. Defaults to {@link NullProgressMonitor#INSTANCE} if null.
      */
@@ -563,14 +791,35 @@ public class PluginHandler {
             );
             if (toLoad.isEmpty())
                 return;
+            toLoad = new ArrayList<PluginInformation>(toLoad);
 
             ClassLoader pluginClassLoader = createClassLoader(toLoad);
             sources.add(0, pluginClassLoader);
             monitor.setTicksCount(toLoad.size());
+            List<PluginLoadingTime> times = new ArrayList<PluginLoadingTime>(toLoad.size());
             for (PluginInformation info : toLoad) {
-                monitor.setExtraText(tr("Loading plugin ''{0}''...", info.name));
-                loadPlugin(parent, info, pluginClassLoader);
-                monitor.worked(1);
+                times.add(new PluginLoadingTime(info.name));
+            }
+            preloadPlugins(toLoad, pluginClassLoader, times);
+            if (Main.pref.getBoolean("plugins.parallel-init", false)) {
+                monitor.setExtraText(tr("Loading plugins ..."));
+                instantiatePluginsConcurrently(parent, toLoad, pluginClassLoader, times, monitor);
+            } else {
+                for (int i = 0; i < toLoad.size(); i++) {
+                    PluginInformation info = toLoad.get(i);
+                    monitor.setExtraText(tr("Loading plugin ''{0}''...", info.name));
+                    List<PluginProxy> loaded = new ArrayList<PluginProxy>(1);
+                    String msg = instantiatePlugin(info, pluginClassLoader, times.get(i), loaded);
+                    pluginList.addAll(loaded);
+                    confirmDisablePluginIfFailed(parent, info, msg);
+                    monitor.worked(1);
+                }
+            }
+            loadingTimes.addAll(times);
+            if (Main.pref.getBoolean("plugins.loading-report", false)) {
+                Main.info(getPluginLoadingReport());
+            } else if (Main.log_level >= 3) {
+                Main.debug(getPluginLoadingReport());
             }
         } finally {
             monitor.finishTask();
@@ -1,10 +1,8 @@
 // License: GPL. Copyright 2007 by Immanuel Scholz and others
 package org.openstreetmap.josm.tools;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.InputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.text.MessageFormat;
@@ -13,6 +11,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.jar.JarInputStream;
 import java.util.zip.ZipEntry;
 import java.util.Locale;
@@ -120,8 +120,13 @@ public class I18n {
         "OptionPane.noButtonText",
         "OptionPane.cancelButtonText"
     };
-    private static HashMap<String, String> strings = null;
-    private static HashMap<String, String[]> pstrings = null;
+    /** the translations of JOSM, null for english */
+    private static volatile TranslationCatalog catalog = null;
+    /** the translations of the plugins, consulted if JOSM has no translation */
+    private static final List<TranslationCatalog> pluginCatalogs = new CopyOnWriteArrayList<TranslationCatalog>();
+    /** the plugin jars whose translations are read on the first text JOSM has no translation for */
+    private static final List<File> pendingPluginTranslations = new ArrayList<File>();
+    private static volatile boolean pluginTranslationsPending;
     private static HashMap<String, PluralMode> languages = new HashMap<String, PluralMode>();
 
     /**
@@ -259,17 +264,9 @@ public class I18n {
             ctx = text.substring(2,i-1);
             text = text.substring(i+1);
         }
-        if(strings != null)
-        {
-            String trans = strings.get(ctx == null ? text : "_:"+ctx+"\n"+text);
-            if(trans != null)
-                return trans;
-        }
-        if(pstrings != null) {
-            String[] trans = pstrings.get(ctx == null ? text : "_:"+ctx+"\n"+text);
-            if(trans != null)
-                return trans[0];
-        }
+        String trans = translate(ctx == null ? text : "_:"+ctx+"\n"+text, -1);
+        if(trans != null)
+            return trans;
         return lazy ? gettext(text, null) : text;
     }
 
@@ -291,17 +288,42 @@ public class I18n {
             ctx = text.substring(2,i-1);
             text = text.substring(i+1);
         }
-        if(pstrings != null)
+        if(catalog != null)
         {
-            i = pluralEval(num);
-            String[] trans = pstrings.get(ctx == null ? text : "_:"+ctx+"\n"+text);
-            if(trans != null && trans.length > i)
-                return trans[i];
+            String trans = translate(ctx == null ? text : "_:"+ctx+"\n"+text, pluralEval(num));
+            if(trans != null)
+                return trans;
         }
 
         return num == 1 ? text : plural;
     }
 
+    /**
+     * Looks a text up in the translations of JOSM, then in the ones of the plugins.
+     * @param text the text, prefixed by the context if any
+     * @param index the index of the plural form, or -1 for single texts
+     * @return the translation, or null if there is none
+     */
+    private static String translate(String text, int index)
+    {
+        TranslationCatalog c = catalog;
+        if(c == null)
+            return null;
+        String trans = index < 0 ? c.translate(text) : c.translatePlural(text, index);
+        if(trans != null)
+            return trans;
+        if(pluginTranslationsPending) {
+            loadPluginTranslations();
+        }
+        for(TranslationCatalog p : pluginCatalogs)
+        {
+            trans = index < 0 ? p.translate(text) : p.translatePlural(text, index);
+            if(trans != null)
+                return trans;
+        }
+        return null;
+    }
+
     public static String escape(String msg) {
         if (msg == null) return null;
         return msg.replace("\'", "\'\'").replace("{", "\'{\'").replace("}", "\'}\'");
@@ -385,10 +407,38 @@ public class I18n {
         }
     }
 
+    /**
+     * Adds the translations of a plugin. They are read when they are needed first,
+     * i.e. when JOSM has no translation for a text.
+     * @param source the plugin jar
+     */
     public static void addTexts(File source)
     {
         if(loadedCode.equals("en"))
             return;
+        synchronized (pendingPluginTranslations) {
+            pendingPluginTranslations.add(source);
+            pluginTranslationsPending = true;
+        }
+    }
+
+    private static void loadPluginTranslations()
+    {
+        synchronized (pendingPluginTranslations) {
+            for(File source : pendingPluginTranslations)
+            {
+                TranslationCatalog c = loadPluginTranslations(source);
+                if(c != null) {
+                    pluginCatalogs.add(c);
+                }
+            }
+            pendingPluginTranslations.clear();
+            pluginTranslationsPending = false;
+        }
+    }
+
+    private static TranslationCatalog loadPluginTranslations(File source)
+    {
         FileInputStream fis = null;
         JarInputStream jar = null;
         FileInputStream fisTrans = null;
@@ -419,7 +469,7 @@ public class I18n {
                         found = true;
                 }
                 if(found)
-                    load(jar, jarTrans, true);
+                    return TranslationCatalog.read(jar, jarTrans);
             }
         }
         catch(IOException e)
@@ -442,14 +492,14 @@ public class I18n {
             {
             }
         }
+        return null;
     }
 
     private static boolean load(String l)
     {
         if(l.equals("en") || l.equals("en_US"))
         {
-            strings = null;
-            pstrings = null;
+            setCatalog(null);
             loadedCode = "en";
             pluralMode = PluralMode.MODE_NOTONE;
             return true;
@@ -470,8 +520,10 @@ public class I18n {
         }
         try
         {
-            if(load(en.openStream(), tr.openStream(), false))
+            TranslationCatalog c = TranslationCatalog.read(en.openStream(), tr.openStream());
+            if(c != null)
             {
+                setCatalog(c);
                 pluralMode = languages.get(l);
                 loadedCode = l;
                 return true;
@@ -483,153 +535,14 @@ public class I18n {
         return false;
     }
 
-    private static boolean load(InputStream en, InputStream tr, boolean add)
+    private static void setCatalog(TranslationCatalog c)
     {
-        HashMap<String, String> s;
-        HashMap<String, String[]> p;
-        if(add)
-        {
-            s = strings;
-            p = pstrings;
-        }
-        else
-        {
-            s = new HashMap<String, String>();
-            p = new HashMap<String, String[]>();
-        }
-        /* file format:
-           Files are always a group. English file and translated file must provide identical datasets.
-
-           for all single strings:
-           {
-             unsigned short (2 byte) stringlength
-               - length 0 indicates missing translation
-               - length 0xFFFE indicates translation equal to original, but otherwise is equal to length 0
-             string
-           }
-           unsigned short (2 byte) 0xFFFF (marks end of single strings)
-           for all multi strings:
-           {
-             unsigned char (1 byte) stringcount
-               - count 0 indicates missing translations
-               - count 0xFE indicates translations equal to original, but otherwise is equal to length 0
-             for stringcount
-               unsigned short (2 byte) stringlength
-               string
-           }
-         */
-        try
-        {
-            InputStream ens = new BufferedInputStream(en);
-            InputStream trs = new BufferedInputStream(tr);
-            byte[] enlen = new byte[2];
-            byte[] trlen = new byte[2];
-            boolean multimode = false;
-            byte[] str = new byte[4096];
-            for(;;)
-            {
-                if(multimode)
-                {
-                    int ennum = ens.read();
-                    int trnum = trs.read();
-                    if(trnum == 0xFE) /* marks identical string, handle equally to non-translated */
-                        trnum = 0;
-                    if((ennum == -1 && trnum != -1) || (ennum != -1 && trnum == -1)) /* files do not match */
-                        return false;
-                    if(ennum == -1) {
-                        break;
-                    }
-                    String[] enstrings = new String[ennum];
-                    String[] trstrings = new String[trnum];
-                    for(int i = 0; i < ennum; ++i)
-                    {
-                        int val = ens.read(enlen);
-                        if(val != 2) /* file corrupt */
-                            return false;
-                        val = (enlen[0] < 0 ? 256+enlen[0]:enlen[0])*256+(enlen[1] < 0 ? 256+enlen[1]:enlen[1]);
-                        if(val > str.length) {
-                            str = new byte[val];
-                        }
-                        int rval = ens.read(str, 0, val);
-                        if(rval != val) /* file corrupt */
-                            return false;
-                        enstrings[i] = new String(str, 0, val, "utf-8");
-                    }
-                    for(int i = 0; i < trnum; ++i)
-                    {
-                        int val = trs.read(trlen);
-                        if(val != 2) /* file corrupt */
-                            return false;
-                        val = (trlen[0] < 0 ? 256+trlen[0]:trlen[0])*256+(trlen[1] < 0 ? 256+trlen[1]:trlen[1]);
-                        if(val > str.length) {
-                            str = new byte[val];
-                        }
-                        int rval = trs.read(str, 0, val);
-                        if(rval != val) /* file corrupt */
-                            return false;
-                        trstrings[i] = new String(str, 0, val, "utf-8");
-                    }
-                    if(trnum > 0 && !p.containsKey(enstrings[0])) {
-                        p.put(enstrings[0], trstrings);
-                    }
-                }
-                else
-                {
-                    int enval = ens.read(enlen);
-                    int trval = trs.read(trlen);
-                    if(enval != trval) /* files do not match */
-                        return false;
-                    if(enval == -1) {
-                        break;
-                    }
-                    if(enval != 2) /* files corrupt */
-                        return false;
-                    enval = (enlen[0] < 0 ? 256+enlen[0]:enlen[0])*256+(enlen[1] < 0 ? 256+enlen[1]:enlen[1]);
-                    trval = (trlen[0] < 0 ? 256+trlen[0]:trlen[0])*256+(trlen[1] < 0 ? 256+trlen[1]:trlen[1]);
-                    if(trval == 0xFFFE) /* marks identical string, handle equally to non-translated */
-                        trval = 0;
-                    if(enval == 0xFFFF)
-                    {
-                        multimode = true;
-                        if(trval != 0xFFFF) /* files do not match */
-                            return false;
-                    }
-                    else
-                    {
-                        if(enval > str.length) {
-                            str = new byte[enval];
-                        }
-                        if(trval > str.length) {
-                            str = new byte[trval];
-                        }
-                        int val = ens.read(str, 0, enval);
-                        if(val != enval) /* file corrupt */
-                            return false;
-                        String enstr = new String(str, 0, enval, "utf-8");
-                        if(trval != 0)
-                        {
-                            val = trs.read(str, 0, trval);
-                            if(val != trval) /* file corrupt */
-                                return false;
-                            String trstr = new String(str, 0, trval, "utf-8");
-                            if(!s.containsKey(enstr))
-                                s.put(enstr, trstr);
-                        }
-                    }
-                }
-            }
+        synchronized (pendingPluginTranslations) {
+            catalog = c;
+            pluginCatalogs.clear();
+            pendingPluginTranslations.clear();
+            pluginTranslationsPending = false;
         }
-        catch(IOException e)
-        {
-            return false;
-        }
-        if(!s.isEmpty())
-        {
-            strings = s;
-            pstrings = p;
-            return true;
-        }
-        return false;
     }
 
     /**
@@ -651,8 +564,7 @@ public class I18n {
                     System.out.println(tr("Unable to find translation for the locale {0}. Reverting to {1}.",
                             l.getDisplayName(), Locale.getDefault().getDisplayName()));
                 } else {
-                    strings = null;
-                    pstrings = null;
+                    setCatalog(null);
                 }
             }
         }
@@ -0,0 +1,203 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.Main;
+
+/**
+ * Packs small images, like the icons on the map, into a few large images, the pages
+ * of the atlas. Accelerated graphics pipelines keep every image in a texture of its
+ * own, so painting thousands of icons from a few pages saves many texture switches.
+ *
+ * Pages are filled shelf by shelf, a shelf being a row as high as the highest image in it.
+ * Images that are too large or that do not fit into the atlas any more are painted as they are.
+ */
+public class ImageAtlas {
+
+    /**
+     * An image, painted from a page of the atlas or on its own.
+     */
+    public static class Region {
+        private final Image source;
+        private final Image page;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+
+        private Region(Image source, Image page, int x, int y, int width, int height) {
+            this.source = source;
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Replies a region that paints an image on its own, not from the atlas.
+         */
+        public static Region of(Image img) {
+            return new Region(img, img, 0, 0, img.getWidth(null), img.getHeight(null));
+        }
+
+        /**
+         * Replies the image this region was created for.
+         */
+        public Image getSource() {
+            return source;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Replies true if the image is painted from a page of the atlas.
+         */
+        public boolean isPacked() {
+            return page != source;
+        }
+
+        /**
+         * Paints the image.
+         *
+         * @param g the graphics to paint on
+         * @param x the x coordinate of the upper left corner
+         * @param y the y coordinate of the upper left corner
+         * @param observer notified when an image that is not loaded completely is painted
+         */
+        public void draw(Graphics2D g, int x, int y, ImageObserver observer) {
+            if (page == source) {
+                g.drawImage(source, x, y, observer);
+            } else {
+                g.drawImage(page, x, y, x + width, y + height,
+                        this.x, this.y, this.x + width, this.y + height, observer);
+            }
+        }
+    }
+
+    private static ImageAtlas instance;
+
+    /**
+     * Replies the atlas for the icons on the map. The number of its pages of 1024x1024 pixels
+     * is set by the preference <code>mappaint.icon-atlas.pages</code>, 0 disables the atlas.
+     */
+    public static synchronized ImageAtlas getInstance() {
+        if (instance == null) {
+            instance = new ImageAtlas(1024, Main.pref.getInteger("mappaint.icon-atlas.pages", 4), 64);
+        }
+        return instance;
+    }
+
+    /** space between the images, so they do not bleed into each other when painted transformed */
+    private static final int PADDING = 1;
+
+    private final int pageSize;
+    private final int maxPages;
+    private final int maxImageSize;
+
+    private final List<BufferedImage> pages = new ArrayList<BufferedImage>();
+    private final Map<Image, Region> regions = new IdentityHashMap<Image, Region>();
+    private int shelfX;
+    private int shelfY;
+    private int shelfHeight;
+
+    /**
+     * Creates an empty atlas.
+     *
+     * @param pageSize the width and height of the pages
+     * @param maxPages the maximum number of pages
+     * @param maxImageSize the maximum width and height of the images packed
+     */
+    public ImageAtlas(int pageSize, int maxPages, int maxImageSize) {
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.maxImageSize = Math.min(maxImageSize, pageSize - PADDING);
+    }
+
+    /**
+     * Replies the region to paint an image from. The image is packed into the atlas if it is
+     * a small {@link BufferedImage} and there is room left; the same image always gets the same region.
+     *
+     * The image must not be modified afterwards.
+     *
+     * @param img the image
+     * @return the region
+     */
+    public synchronized Region get(Image img) {
+        Region region = regions.get(img);
+        if (region != null)
+            return region;
+        int width = img.getWidth(null);
+        int height = img.getHeight(null);
+        if (!(img instanceof BufferedImage) || width > maxImageSize || height > maxImageSize || !allocate(width, height))
+            return Region.of(img);
+        BufferedImage page = pages.get(pages.size() - 1);
+        Graphics2D g = page.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(img, shelfX, shelfY, null);
+        g.dispose();
+        region = new Region(img, page, shelfX, shelfY, width, height);
+        regions.put(img, region);
+        shelfX += width + PADDING;
+        return region;
+    }
+
+    /**
+     * Finds room for an image of the given size at (shelfX, shelfY) of the last page.
+     */
+    private boolean allocate(int width, int height) {
+        if (!pages.isEmpty()) {
+            if (shelfX + width <= pageSize && shelfY + height <= pageSize) {
+                shelfHeight = Math.max(shelfHeight, height);
+                return true;
+            }
+            // next shelf
+            if (shelfY + shelfHeight + PADDING + height <= pageSize) {
+                shelfY += shelfHeight + PADDING;
+                shelfX = 0;
+                shelfHeight = height;
+                return true;
+            }
+        }
+        if (pages.size() >= maxPages)
+            return false;
+        pages.add(new BufferedImage(pageSize, pageSize, BufferedImage.TYPE_INT_ARGB));
+        shelfX = 0;
+        shelfY = 0;
+        shelfHeight = height;
+        return true;
+    }
+
+    /**
+     * Replies the number of pages in use.
+     */
+    public synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Forgets all images packed so far. Regions replied before remain valid.
+     */
+    public synchronized void clear() {
+        pages.clear();
+        regions.clear();
+        shelfX = 0;
+        shelfY = 0;
+        shelfHeight = 0;
+    }
+}
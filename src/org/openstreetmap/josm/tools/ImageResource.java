@@ -6,28 +6,28 @@ import com.kitfox.svg.SVGDiagram;
 import java.awt.Dimension;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
-import java.util.HashMap;
+import java.net.URI;
 import javax.swing.ImageIcon;
 
 /**
  * Holds data for one particular image.
  * It can be backed by a svg or raster image.
  * 
- * In the first case, 'svg' is not null and in the latter case, 'imgCache' has 
- * at least one entry for the key DEFAULT_DIMENSION.
+ * In the first case, 'svg' is not null and in the latter case, 'baseImage' is the
+ * image in its original size.
+ *
+ * Resized versions of the image are kept in the {@link RasterCache}, rendered SVG
+ * images also in the {@link SvgDiskCache}, if enabled.
  */
 class ImageResource {
     
-    /**
-     * Caches the image data for resized versions of the same image.
-     */
-    private HashMap<Dimension, BufferedImage> imgCache = new HashMap<Dimension, BufferedImage>();
+    private BufferedImage baseImage;
     private SVGDiagram svg;
     public static final Dimension DEFAULT_DIMENSION = new Dimension(-1, -1);
  
     public ImageResource(BufferedImage img) {
         CheckParameterUtil.ensureParameterNotNull(img);
-        imgCache.put(DEFAULT_DIMENSION, img);
+        this.baseImage = img;
     }
 
     public ImageResource(SVGDiagram svg) {
@@ -48,21 +48,19 @@ class ImageResource {
     public ImageIcon getImageIcon(Dimension dim) {
         if (dim.width < -1 || dim.width == 0 || dim.height < -1 || dim.height == 0)
             throw new IllegalArgumentException();
-        BufferedImage img = imgCache.get(dim);
+        if (baseImage != null && dim.equals(DEFAULT_DIMENSION))
+            return new ImageIcon(baseImage);
+        RasterCache rasterCache = RasterCache.getInstance();
+        BufferedImage img = rasterCache.get(this, dim);
         if (img != null) {
             return new ImageIcon(img);
         }
         if (svg != null) {
-            img = ImageProvider.createImageFromSvg(svg, dim);
-            imgCache.put(dim, img);
-            return new ImageIcon(img);
+            img = renderSvg(dim);
         } else {
-            BufferedImage base = imgCache.get(DEFAULT_DIMENSION);
-            if (base == null) throw new AssertionError();
-            
             int width = dim.width;
             int height = dim.height;
-            ImageIcon icon = new ImageIcon(base);
+            ImageIcon icon = new ImageIcon(baseImage);
             if (width == -1) {
                 width = icon.getIconWidth() * height / icon.getIconHeight();
             } else if (height == -1) {
@@ -71,9 +69,26 @@ class ImageResource {
             Image i = icon.getImage().getScaledInstance(width, height, Image.SCALE_SMOOTH);
             img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
             img.getGraphics().drawImage(i, 0, 0, null);
-            imgCache.put(dim, img);
-            return new ImageIcon(img);
         }
+        if (img != null) {
+            rasterCache.put(this, dim, img);
+        }
+        return new ImageIcon(img);
+    }
+
+    private BufferedImage renderSvg(Dimension dim) {
+        SvgDiskCache diskCache = SvgDiskCache.getInstance();
+        URI uri = svg.getXMLBase();
+        if (diskCache == null || uri == null)
+            return ImageProvider.createImageFromSvg(svg, dim);
+        BufferedImage img = diskCache.get(uri, dim);
+        if (img == null) {
+            img = ImageProvider.createImageFromSvg(svg, dim);
+            if (img != null) {
+                diskCache.put(uri, dim, img);
+            }
+        }
+        return img;
     }
 
     /**
@@ -92,9 +107,7 @@ class ImageResource {
             realWidth = svg.getWidth();
             realHeight = svg.getHeight();
         } else {
-            BufferedImage base = imgCache.get(DEFAULT_DIMENSION);
-            if (base == null) throw new AssertionError();
-            ImageIcon icon = new ImageIcon(base);
+            ImageIcon icon = new ImageIcon(baseImage);
             realWidth = icon.getIconWidth();
             realHeight = icon.getIconHeight();
         }
@@ -0,0 +1,127 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openstreetmap.josm.Main;
+
+/**
+ * Caches the rasters of images at the sizes they were requested in.
+ *
+ * The rasters may take up to a given number of bytes. When the budget is exceeded,
+ * the least recently used rasters are dropped; they are rendered again when needed.
+ */
+class RasterCache {
+
+    private static RasterCache instance;
+
+    /**
+     * Replies the cache shared by all images. Its budget in MiB is set by the preference
+     * <code>imagecache.raster-budget</code>.
+     */
+    static synchronized RasterCache getInstance() {
+        if (instance == null) {
+            instance = new RasterCache(Main.pref.getInteger("imagecache.raster-budget", 32) * 1024L * 1024L);
+        }
+        return instance;
+    }
+
+    private static class Key {
+        private final Object owner;
+        private final Dimension dim;
+
+        Key(Object owner, Dimension dim) {
+            this.owner = owner;
+            this.dim = dim;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(owner) * 31 + dim.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return owner == other.owner && dim.equals(other.dim);
+        }
+    }
+
+    private final long budget;
+    private final Map<Key, BufferedImage> rasters = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * Creates an empty cache.
+     * @param budget the number of bytes the rasters may take
+     */
+    RasterCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Replies the number of bytes taken by the pixels of an image.
+     */
+    static long getSize(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Replies the raster of an image at some size.
+     *
+     * @param owner the image, compared by identity
+     * @param dim the size
+     * @return the raster, or null if it is not cached
+     */
+    synchronized BufferedImage get(Object owner, Dimension dim) {
+        return rasters.get(new Key(owner, dim));
+    }
+
+    /**
+     * Adds the raster of an image at some size. A raster that is larger than the whole
+     * budget is not cached.
+     *
+     * @param owner the image, compared by identity
+     * @param dim the size
+     * @param img the raster
+     */
+    synchronized void put(Object owner, Dimension dim, BufferedImage img) {
+        long size = getSize(img);
+        if (size > budget)
+            return;
+        BufferedImage old = rasters.put(new Key(owner, new Dimension(dim)), img);
+        if (old != null) {
+            bytes -= getSize(old);
+        }
+        bytes += size;
+        Iterator<BufferedImage> it = rasters.values().iterator();
+        while (bytes > budget && it.hasNext()) {
+            bytes -= getSize(it.next());
+            it.remove();
+        }
+    }
+
+    synchronized int size() {
+        return rasters.size();
+    }
+
+    /**
+     * Replies the number of bytes taken by the cached rasters.
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized void clear() {
+        rasters.clear();
+        bytes = 0;
+    }
+}
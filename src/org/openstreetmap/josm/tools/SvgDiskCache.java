@@ -0,0 +1,98 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import javax.imageio.ImageIO;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Version;
+
+/**
+ * Keeps the rasters of SVG images on disk, so they do not have to be rendered again
+ * in the next session.
+ *
+ * Rasters are stored as PNG files, named by a hash of the location of the SVG image,
+ * the size and the JOSM version, so a new version of JOSM renders its icons again.
+ */
+class SvgDiskCache {
+
+    private static SvgDiskCache instance;
+    private static boolean initialized;
+
+    /**
+     * Replies the cache in the directory <code>svg</code> of the cache directory,
+     * or null if the preference <code>imagecache.svg-disk-cache</code> is not set.
+     */
+    static synchronized SvgDiskCache getInstance() {
+        if (!initialized) {
+            initialized = true;
+            if (Main.pref.getBoolean("imagecache.svg-disk-cache", false)) {
+                instance = new SvgDiskCache(new File(Main.pref.getCacheDirectory(), "svg"));
+            }
+        }
+        return instance;
+    }
+
+    private final File dir;
+
+    /**
+     * Creates a cache.
+     * @param dir the directory of the cache, created when needed
+     */
+    SvgDiskCache(File dir) {
+        this.dir = dir;
+    }
+
+    private File getFile(URI svg, Dimension dim) {
+        String key = Version.getInstance().getVersion() + "|" + svg + "|" + dim.width + "x" + dim.height;
+        return new File(dir, Utils.md5Hex(key) + ".png");
+    }
+
+    /**
+     * Replies the raster of an SVG image at some size.
+     *
+     * @param svg the location of the SVG image
+     * @param dim the size
+     * @return the raster, or null if it is not cached
+     */
+    BufferedImage get(URI svg, Dimension dim) {
+        File file = getFile(svg, dim);
+        if (!file.isFile())
+            return null;
+        try {
+            return ImageIO.read(file);
+        } catch (IOException e) {
+            System.err.println("Warning: failed to read cached image " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the raster of an SVG image at some size.
+     *
+     * @param svg the location of the SVG image
+     * @param dim the size
+     * @param img the raster
+     */
+    void put(URI svg, Dimension dim, BufferedImage img) {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            return;
+        File file = getFile(svg, dim);
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try {
+            // write a temporary file first, so others never read incomplete files
+            if (ImageIO.write(img, "png", tmp) && (file.delete() || !file.exists())) {
+                tmp.renameTo(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: failed to cache image " + file + ": " + e.getMessage());
+        } finally {
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The translations of one language, as read from a pair of <code>.lang</code> files.
+ *
+ * All texts are packed into a single char array, and the entries are found by binary search
+ * in an array of the hash codes of the original texts. Compared to maps of strings this takes
+ * a fraction of the memory, and a lookup creates a string for the translation only.
+ */
+final class TranslationCatalog {
+
+    /** marks the count of translations of plural entries */
+    private static final char PLURAL = 0x8000;
+
+    /** the sorted hash codes of the original texts */
+    private final int[] hashes;
+    /** the offsets of the entries in {@link #data}, in the order of {@link #hashes} */
+    private final int[] offsets;
+    /**
+     * the entries: the length of the original text, the original text, the count of translations
+     * (with {@link #PLURAL} set for plural entries), then the length and text of each translation
+     */
+    private final char[] data;
+
+    private TranslationCatalog(int[] hashes, int[] offsets, char[] data) {
+        this.hashes = hashes;
+        this.offsets = offsets;
+        this.data = data;
+    }
+
+    /**
+     * Replies the number of translated texts.
+     */
+    public int size() {
+        return hashes.length;
+    }
+
+    /**
+     * Replies the translation of a text, or the singular translation of a plural text if there is
+     * no translation of the text itself.
+     * @param text the original text, prefixed by the context if any
+     * @return the translation, or null if there is none
+     */
+    public String translate(String text) {
+        int plural = -1;
+        for (int i = first(text); i >= 0 && i < hashes.length && hashes[i] == text.hashCode(); i++) {
+            int offset = offsets[i];
+            if (matches(offset, text)) {
+                offset += text.length() + 1;
+                if ((data[offset] & PLURAL) == 0)
+                    return translation(offset, 0);
+                plural = offset;
+            }
+        }
+        return plural >= 0 ? translation(plural, 0) : null;
+    }
+
+    /**
+     * Replies one form of the translation of a plural text.
+     * @param text the original singular text, prefixed by the context if any
+     * @param index the index of the plural form
+     * @return the translation, or null if there is none
+     */
+    public String translatePlural(String text, int index) {
+        for (int i = first(text); i >= 0 && i < hashes.length && hashes[i] == text.hashCode(); i++) {
+            int offset = offsets[i];
+            if (matches(offset, text)) {
+                offset += text.length() + 1;
+                if ((data[offset] & PLURAL) != 0)
+                    return translation(offset, index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replies the index of the first entry with the hash code of the text, or -1.
+     */
+    private int first(String text) {
+        int hash = text.hashCode();
+        int low = 0;
+        int high = hashes.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (hashes[mid] < hash) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low < hashes.length && hashes[low] == hash ? low : -1;
+    }
+
+    private boolean matches(int offset, String text) {
+        if (data[offset] != text.length())
+            return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (data[offset + 1 + i] != text.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replies a translation of the entry whose count of translations is at <code>offset</code>.
+     */
+    private String translation(int offset, int index) {
+        int count = data[offset] & ~PLURAL;
+        if (index >= count)
+            return null;
+        offset++;
+        for (int i = 0; i < index; i++) {
+            offset += data[offset] + 1;
+        }
+        return new String(data, offset + 1, data[offset]);
+    }
+
+    /**
+     * Reads the translations of a language.
+     *
+     * @param en the english <code>.lang</code> file
+     * @param tr the <code>.lang</code> file of the language
+     * @return the catalog, or null if the files are corrupt, do not match or contain no translation
+     */
+    public static TranslationCatalog read(InputStream en, InputStream tr) {
+        Builder builder = new Builder();
+        /* file format:
+           Files are always a group. English file and translated file must provide identical datasets.
+
+           for all single strings:
+           {
+             unsigned short (2 byte) stringlength
+               - length 0 indicates missing translation
+               - length 0xFFFE indicates translation equal to original, but otherwise is equal to length 0
+             string
+           }
+           unsigned short (2 byte) 0xFFFF (marks end of single strings)
+           for all multi strings:
+           {
+             unsigned char (1 byte) stringcount
+               - count 0 indicates missing translations
+               - count 0xFE indicates translations equal to original, but otherwise is equal to length 0
+             for stringcount
+               unsigned short (2 byte) stringlength
+               string
+           }
+         */
+        try
+        {
+            InputStream ens = new BufferedInputStream(en);
+            InputStream trs = new BufferedInputStream(tr);
+            byte[] enlen = new byte[2];
+            byte[] trlen = new byte[2];
+            boolean multimode = false;
+            byte[] str = new byte[4096];
+            for(;;)
+            {
+                if(multimode)
+                {
+                    int ennum = ens.read();
+                    int trnum = trs.read();
+                    if(trnum == 0xFE) /* marks identical string, handle equally to non-translated */
+                        trnum = 0;
+                    if((ennum == -1 && trnum != -1) || (ennum != -1 && trnum == -1)) /* files do not match */
+                        return null;
+                    if(ennum == -1) {
+                        break;
+                    }
+                    String[] enstrings = new String[ennum];
+                    String[] trstrings = new String[trnum];
+                    for(int i = 0; i < ennum; ++i)
+                    {
+                        int val = ens.read(enlen);
+                        if(val != 2) /* file corrupt */
+                            return null;
+                        val = (enlen[0] < 0 ? 256+enlen[0]:enlen[0])*256+(enlen[1] < 0 ? 256+enlen[1]:enlen[1]);
+                        if(val > str.length) {
+                            str = new byte[val];
+                        }
+                        int rval = ens.read(str, 0, val);
+                        if(rval != val) /* file corrupt */
+                            return null;
+                        enstrings[i] = new String(str, 0, val, "utf-8");
+                    }
+                    for(int i = 0; i < trnum; ++i)
+                    {
+                        int val = trs.read(trlen);
+                        if(val != 2) /* file corrupt */
+                            return null;
+                        val = (trlen[0] < 0 ? 256+trlen[0]:trlen[0])*256+(trlen[1] < 0 ? 256+trlen[1]:trlen[1]);
+                        if(val > str.length) {
+                            str = new byte[val];
+                        }
+                        int rval = trs.read(str, 0, val);
+                        if(rval != val) /* file corrupt */
+                            return null;
+                        trstrings[i] = new String(str, 0, val, "utf-8");
+                    }
+                    if(trnum > 0) {
+                        builder.add(enstrings[0], trstrings, true);
+                    }
+                }
+                else
+                {
+                    int enval = ens.read(enlen);
+                    int trval = trs.read(trlen);
+                    if(enval != trval) /* files do not match */
+                        return null;
+                    if(enval == -1) {
+                        break;
+                    }
+                    if(enval != 2) /* files corrupt */
+                        return null;
+                    enval = (enlen[0] < 0 ? 256+enlen[0]:enlen[0])*256+(enlen[1] < 0 ? 256+enlen[1]:enlen[1]);
+                    trval = (trlen[0] < 0 ? 256+trlen[0]:trlen[0])*256+(trlen[1] < 0 ? 256+trlen[1]:trlen[1]);
+                    if(trval == 0xFFFE) /* marks identical string, handle equally to non-translated */
+                        trval = 0;
+                    if(enval == 0xFFFF)
+                    {
+                        multimode = true;
+                        if(trval != 0xFFFF) /* files do not match */
+                            return null;
+                    }
+                    else
+                    {
+                        if(enval > str.length) {
+                            str = new byte[enval];
+                        }
+                        if(trval > str.length) {
+                            str = new byte[trval];
+                        }
+                        int val = ens.read(str, 0, enval);
+                        if(val != enval) /* file corrupt */
+                            return null;
+                        String enstr = new String(str, 0, enval, "utf-8");
+                        if(trval != 0)
+                        {
+                            val = trs.read(str, 0, trval);
+                            if(val != trval) /* file corrupt */
+                                return null;
+                            builder.add(enstr, new String[] {new String(str, 0, trval, "utf-8")}, false);
+                        }
+                    }
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            return null;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects the entries of a catalog. Only the first translation of a text is kept.
+     */
+    static class Builder {
+        private final List<String> texts = new ArrayList<String>();
+        private final List<String[]> translations = new ArrayList<String[]>();
+        private final List<Boolean> plurals = new ArrayList<Boolean>();
+        private final Set<String> singles = new HashSet<String>();
+        private final Set<String> pluralTexts = new HashSet<String>();
+        private int length;
+
+        /**
+         * Adds a translation, unless the text has been translated before.
+         * @param text the original text, prefixed by the context if any
+         * @param trans the translation, or the plural forms for plural texts
+         * @param plural true for plural texts
+         */
+        void add(String text, String[] trans, boolean plural) {
+            if (text.length() >= PLURAL || trans.length >= PLURAL)
+                return;
+            for (String t : trans) {
+                if (t.length() >= PLURAL)
+                    return;
+            }
+            if (!(plural ? pluralTexts : singles).add(text))
+                return;
+            texts.add(text);
+            translations.add(trans);
+            plurals.add(plural);
+            length += text.length() + 2;
+            for (String t : trans) {
+                length += t.length() + 1;
+            }
+        }
+
+        /**
+         * Replies the catalog, or null if no translation was added.
+         */
+        TranslationCatalog build() {
+            if (texts.isEmpty())
+                return null;
+            Integer[] order = new Integer[texts.size()];
+            final int[] textHashes = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+                textHashes[i] = texts.get(i).hashCode();
+            }
+            // stable, so the lookup of a text finds the entries in the order they were added
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    int ha = textHashes[a];
+                    int hb = textHashes[b];
+                    return ha < hb ? -1 : (ha == hb ? 0 : 1);
+                }
+            });
+            int[] hashes = new int[order.length];
+            int[] offsets = new int[order.length];
+            char[] data = new char[length];
+            int pos = 0;
+            for (int i = 0; i < order.length; i++) {
+                int entry = order[i];
+                hashes[i] = textHashes[entry];
+                offsets[i] = pos;
+                pos = put(data, pos, texts.get(entry));
+                String[] trans = translations.get(entry);
+                data[pos++] = (char) (plurals.get(entry) ? trans.length | PLURAL : trans.length);
+                for (String t : trans) {
+                    pos = put(data, pos, t);
+                }
+            }
+            return new TranslationCatalog(hashes, offsets, data);
+        }
+
+        private static int put(char[] data, int pos, String s) {
+            data[pos++] = (char) s.length();
+            s.getChars(0, s.length(), data, pos);
+            return pos + s.length();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.openstreetmap.josm.tools;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.Reader;
 import java.lang.reflect.Field;
@@ -24,6 +25,8 @@ import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.ValidatorHandler;
 
 import org.openstreetmap.josm.io.MirroredInputStream;
+import org.openstreetmap.josm.io.SaxEventCache;
+import org.openstreetmap.josm.io.UTFInputStreamReader;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
@@ -319,20 +322,59 @@ public class XmlObjectParser implements Iterable<Object> {
 
     public Iterable<Object> startWithValidation(final Reader in, String namespace, String schemaSource) throws SAXException {
         try {
-            SchemaFactory factory =  SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
-            Schema schema = factory.newSchema(new StreamSource(new MirroredInputStream(schemaSource)));
-            ValidatorHandler validator = schema.newValidatorHandler();
-            validator.setContentHandler(parser);
-            validator.setErrorHandler(parser);
-
-            AddNamespaceFilter filter = new AddNamespaceFilter(namespace);
-            filter.setContentHandler(validator);
-            return start(in, filter);
+            return start(in, createValidatingFilter(parser, namespace, schemaSource));
         } catch(IOException e) {
             throw new SAXException(tr("Failed to load XML schema."), e);
         }
     }
 
+    private ContentHandler createValidatingFilter(ContentHandler handler, String namespace, String schemaSource) throws SAXException, IOException {
+        SchemaFactory factory =  SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
+        Schema schema = factory.newSchema(new StreamSource(new MirroredInputStream(schemaSource)));
+        ValidatorHandler validator = schema.newValidatorHandler();
+        validator.setContentHandler(handler);
+        validator.setErrorHandler(parser);
+
+        AddNamespaceFilter filter = new AddNamespaceFilter(namespace);
+        filter.setContentHandler(validator);
+        return filter;
+    }
+
+    /**
+     * Starts parsing like {@link #start(Reader)} or {@link #startWithValidation}, but restores
+     * the parsed document from the {@link SaxEventCache} if <code>content</code> has been parsed before.
+     *
+     * @param kind the kind of document, see {@link SaxEventCache#parse}
+     * @param source the source URL of the document
+     * @param content the content of the document, UTF-8 encoded
+     * @param namespace the namespace for validation, see {@link #startWithValidation}
+     * @param schemaSource the XML schema to validate against, or null to skip validation
+     * @return this
+     * @throws SAXException if the document cannot be parsed
+     */
+    public Iterable<Object> startCached(String kind, String source, final byte[] content, final String namespace, final String schemaSource) throws SAXException {
+        try {
+            SaxEventCache.parse(kind, source, content, parser, new SaxEventCache.DocumentParser() {
+                public void parse(ContentHandler handler) throws SAXException, IOException {
+                    Reader in = UTFInputStreamReader.create(new ByteArrayInputStream(content), "UTF-8");
+                    try {
+                        if (schemaSource != null) {
+                            start(in, createValidatingFilter(handler, namespace, schemaSource));
+                        } else {
+                            start(in, handler);
+                        }
+                    } finally {
+                        Utils.close(in);
+                    }
+                }
+            });
+            queueIterator = queue.iterator();
+            return this;
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
     public void map(String tagName, Class<?> klass) {
         mapping.put(tagName, new Entry(klass,false,false));
     }
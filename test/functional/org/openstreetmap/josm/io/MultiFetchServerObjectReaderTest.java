@@ -268,6 +268,43 @@ public class MultiFetchServerObjectReaderTest {
         assertTrue(reader.getMissingPrimitives().isEmpty());
     }
 
+    private void multiGetWaysWithoutNodes(boolean pipelined) throws OsmTransferException {
+        MultiFetchServerObjectReader.PROP_PIPELINED.put(pipelined);
+        MultiFetchServerObjectReader reader = new MultiFetchServerObjectReader();
+        ArrayList<Way> ways= new ArrayList<Way>(ds.getWays());
+        for (int i =0; i< 10; i++) {
+            // only the way ids, the nodes are found while fetching the ways
+            reader.remember(ways.get(i).getPrimitiveId());
+        }
+        DataSet out = reader.parseOsm(NullProgressMonitor.INSTANCE);
+        assertEquals(10, out.getWays().size());
+        for (Way w1: out.getWays()) {
+            Way w2 = (Way)ds.getPrimitiveById(w1);
+            assertNotNull(w2);
+            assertEquals(w2.getNodesCount(), w1.getNodesCount());
+            assertFalse(w1.hasIncompleteNodes());
+        }
+        assertTrue(reader.getMissingPrimitives().isEmpty());
+    }
+
+    @Test
+    public void testMultiGetWaysWithoutNodesPipelined() throws OsmTransferException {
+        try {
+            multiGetWaysWithoutNodes(true);
+        } finally {
+            MultiFetchServerObjectReader.PROP_PIPELINED.put(true);
+        }
+    }
+
+    @Test
+    public void testMultiGetWaysWithoutNodesSequential() throws OsmTransferException {
+        try {
+            multiGetWaysWithoutNodes(false);
+        } finally {
+            MultiFetchServerObjectReader.PROP_PIPELINED.put(true);
+        }
+    }
+
     @Test
     public void testMultiGet10Relations() throws OsmTransferException {
         MultiFetchServerObjectReader reader = new MultiFetchServerObjectReader();
@@ -0,0 +1,99 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.conflict;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSetMerger;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+
+/**
+ * Merges two large data sets where every other primitive is in conflict.
+ */
+public class ConflictCollectionPerformanceTest {
+
+    private static final int NODES = 450000;
+    private static final int WAYS = 50000;
+    private static final int NODES_PER_WAY = 5;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+    }
+
+    /**
+     * Builds a data set with {@code NODES} nodes and {@code WAYS} ways.
+     * @param version the version of the primitives
+     * @param modified true if every other primitive is to be modified
+     */
+    private static DataSet createDataSet(int version, boolean modified) {
+        DataSet ds = new DataSet();
+        ds.setVersion("0.6");
+        List<Node> nodes = new ArrayList<Node>(NODES);
+        for (int i = 1; i <= NODES; i++) {
+            Node n = new Node(i, version);
+            n.setCoor(new LatLon((i % 1000) / 1000.0 + version * 0.0001, (i / 1000) / 1000.0));
+            n.setModified(modified && i % 2 == 0);
+            ds.addPrimitive(n);
+            nodes.add(n);
+        }
+        for (int i = 1; i <= WAYS; i++) {
+            Way w = new Way(i, version);
+            List<Node> wayNodes = new ArrayList<Node>(NODES_PER_WAY);
+            for (int j = 0; j < NODES_PER_WAY; j++) {
+                wayNodes.add(nodes.get(((i - 1) * NODES_PER_WAY + j) % NODES));
+            }
+            w.setNodes(wayNodes);
+            w.put("highway", modified && i % 2 == 0 ? "residential" : "service");
+            w.setModified(modified && i % 2 == 0);
+            ds.addPrimitive(w);
+        }
+        return ds;
+    }
+
+    @Test
+    public void testMergeWithConflicts() {
+        DataSet my = createDataSet(1, true);
+        DataSet their = createDataSet(2, false);
+
+        long start = System.nanoTime();
+        DataSetMerger merger = new DataSetMerger(my, their);
+        merger.merge();
+        long mergeTime = System.nanoTime() - start;
+        ConflictCollection conflicts = merger.getConflicts();
+        System.out.println("Merged " + (NODES + WAYS) + " primitives with " + conflicts.size()
+                + " conflicts in " + mergeTime / 1000000.0 + " ms");
+        assertEquals((NODES + WAYS) / 2, conflicts.size());
+
+        start = System.nanoTime();
+        int found = 0;
+        for (Node n : their.getNodes()) {
+            if (conflicts.hasConflictForTheir(n)) {
+                found++;
+            }
+            if (conflicts.getConflictForMyId(n.getPrimitiveId()) != null) {
+                found++;
+            }
+        }
+        System.out.println("Looked up " + 2 * NODES + " conflicts in " + (System.nanoTime() - start) / 1000000.0 + " ms");
+        assertEquals(NODES, found);
+
+        start = System.nanoTime();
+        List<Conflict<?>> toRemove = new ArrayList<Conflict<?>>(conflicts.get());
+        conflicts.removeAll(toRemove);
+        System.out.println("Removed " + toRemove.size() + " conflicts in " + (System.nanoTime() - start) / 1000000.0 + " ms");
+        assertTrue(conflicts.isEmpty());
+    }
+}
@@ -0,0 +1,206 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.io.OsmReader;
+import org.openstreetmap.josm.io.OsmWriter;
+import org.openstreetmap.josm.io.OsmWriterFactory;
+
+public class AutosaveJournalTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:4326"));
+    }
+
+    private static void writeSnapshot(DataSet ds, File file) throws Exception {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        OsmWriter w = OsmWriterFactory.createOsmWriter(out, false, ds.getVersion());
+        w.header();
+        w.writeContent(ds);
+        w.footer();
+        out.close();
+    }
+
+    private static DataSet read(File file) throws Exception {
+        InputStream in = new FileInputStream(file);
+        try {
+            return OsmReader.parseDataSet(in, null);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Node findNode(DataSet ds, String name) {
+        for (Node n : ds.getNodes()) {
+            if (name.equals(n.get("name")))
+                return n;
+        }
+        return null;
+    }
+
+    private static Node newNode(DataSet ds, String name, double lat, double lon) {
+        Node n = new Node(new LatLon(lat, lon));
+        n.put("name", name);
+        ds.addPrimitive(n);
+        return n;
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        File snapshot = File.createTempFile("josm-autosave", ".osm");
+        File journalFile = new File(snapshot.getPath().replaceFirst("\\.osm$", ".journal"));
+        snapshot.deleteOnExit();
+        journalFile.deleteOnExit();
+        try {
+            DataSet ds = new DataSet();
+            Node a = newNode(ds, "a", 1, 1);
+            a.setOsmId(1, 3);
+            Node b = newNode(ds, "b", 2, 2);
+            Node c = newNode(ds, "c", 3, 3);
+            Way w = new Way();
+            w.setNodes(Arrays.asList(a, b));
+            w.put("highway", "path");
+            ds.addPrimitive(w);
+
+            final AutosaveJournal journal = new AutosaveJournal();
+            ds.addDataSetListener(new DataSetListenerAdapter(new DataSetListenerAdapter.Listener() {
+                public void processDatasetEvent(AbstractDatasetChangedEvent event) {
+                    journal.record(event);
+                }
+            }));
+            journal.startSnapshot(ds);
+            writeSnapshot(ds, snapshot);
+            AutosaveJournal.create(journalFile);
+            assertFalse(journal.hasChanges());
+
+            // first chunk: move, retag, extend the way with a new node
+            a.setCoor(new LatLon(1.5, 1.5));
+            b.put("amenity", "bench");
+            Node d = newNode(ds, "d", 4, 4);
+            w.addNode(d);
+            assertTrue(journal.hasChanges());
+            AutosaveJournal.append(journalFile, journal.collect(ds));
+
+            // second chunk: remove a new node, upload another one
+            ds.removePrimitive(c);
+            b.setOsmId(4711, 1);
+            b.setModified(false);
+            AutosaveJournal.Changes changes = journal.collect(ds);
+            assertEquals(3, changes.size());
+            AutosaveJournal.append(journalFile, changes);
+
+            // third chunk is incomplete, as after a crash
+            d.put("name", "lost");
+            AutosaveJournal.append(journalFile, journal.collect(ds));
+            RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+            raf.setLength(raf.length() - 3);
+            raf.close();
+
+            assertEquals(2, AutosaveJournal.replay(snapshot, journalFile));
+            assertFalse(journalFile.exists());
+
+            DataSet recovered = read(snapshot);
+            assertEquals(3, recovered.getNodes().size());
+            assertEquals(1, recovered.getWays().size());
+            Node ra = (Node) recovered.getPrimitiveById(1, OsmPrimitiveType.NODE);
+            assertEquals(new LatLon(1.5, 1.5), ra.getCoor());
+            Node rb = (Node) recovered.getPrimitiveById(4711, OsmPrimitiveType.NODE);
+            assertNotNull(rb);
+            assertEquals("bench", rb.get("amenity"));
+            assertEquals(1, rb.getVersion());
+            assertNull(findNode(recovered, "c"));
+            Node rd = findNode(recovered, "d");
+            assertNotNull(rd);
+            assertTrue(rd.isNew());
+            Way rw = recovered.getWays().iterator().next();
+            assertEquals(Arrays.asList(ra, rb, rd), rw.getNodes());
+            assertEquals("path", rw.get("highway"));
+            for (OsmPrimitive p : recovered.allPrimitives()) {
+                assertFalse(p.isIncomplete());
+            }
+        } finally {
+            snapshot.delete();
+            journalFile.delete();
+        }
+    }
+
+    @Test
+    public void testUpload() throws Exception {
+        File snapshot = File.createTempFile("josm-autosave", ".osm");
+        File journalFile = new File(snapshot.getPath().replaceFirst("\\.osm$", ".journal"));
+        snapshot.deleteOnExit();
+        journalFile.deleteOnExit();
+        try {
+            DataSet ds = new DataSet();
+            Node a = newNode(ds, "a", 1, 1);
+            a.setOsmId(1, 3);
+            Node b = newNode(ds, "b", 2, 2);
+            b.setOsmId(2, 5);
+
+            final AutosaveJournal journal = new AutosaveJournal();
+            ds.addDataSetListener(new DataSetListenerAdapter(new DataSetListenerAdapter.Listener() {
+                public void processDatasetEvent(AbstractDatasetChangedEvent event) {
+                    journal.record(event);
+                }
+            }));
+            journal.startSnapshot(ds);
+            writeSnapshot(ds, snapshot);
+            AutosaveJournal.create(journalFile);
+
+            a.put("amenity", "bench");
+            b.setDeleted(true);
+            AutosaveJournal.append(journalFile, journal.collect(ds));
+
+            // the upload and the cleanup after it fire no events
+            a.setOsmId(1, 4);
+            b.setVisible(false);
+            a.setModified(false);
+            ds.cleanupDeletedPrimitives();
+            assertFalse(journal.hasChanges());
+            journal.touch(Arrays.asList(a, b));
+            AutosaveJournal.Changes changes = journal.collect(ds);
+            assertEquals(2, changes.size());
+            AutosaveJournal.append(journalFile, changes);
+
+            assertEquals(2, AutosaveJournal.replay(snapshot, journalFile));
+            DataSet recovered = read(snapshot);
+            assertEquals(1, recovered.getNodes().size());
+            Node ra = (Node) recovered.getPrimitiveById(1, OsmPrimitiveType.NODE);
+            assertEquals("bench", ra.get("amenity"));
+            assertEquals(4, ra.getVersion());
+            assertFalse(ra.isModified());
+            assertNull(recovered.getPrimitiveById(2, OsmPrimitiveType.NODE));
+        } finally {
+            snapshot.delete();
+            journalFile.delete();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+
+public class PreferencesTest {
+
+    private File dir;
+
+    private class TestPreferences extends Preferences {
+        @Override
+        public File getPreferencesDirFile() {
+            return dir;
+        }
+    }
+
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Main.pref = new Preferences();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("josm-preferences", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static List<String> largeList(String prefix) {
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(prefix + i);
+        }
+        return list;
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        Preferences pref = new TestPreferences();
+        pref.put("test.a", "1");
+        pref.put("test.b", "2");
+        pref.putCollection("test.list", Arrays.asList("x", "y"));
+        // the changes are written a moment later, at once
+        assertFalse(pref.getPreferenceFile().exists());
+        pref.flush();
+        assertTrue(pref.getPreferenceFile().exists());
+        assertFalse(new File(pref.getPreferenceFile() + "_tmp").exists());
+
+        Preferences loaded = new TestPreferences();
+        loaded.load();
+        assertEquals("1", loaded.get("test.a"));
+        assertEquals("2", loaded.get("test.b"));
+        assertEquals(Arrays.asList("x", "y"), loaded.getCollection("test.list"));
+    }
+
+    @Test
+    public void testExternalSettings() throws Exception {
+        Preferences pref = new TestPreferences();
+        pref.putInteger("preferences.external-threshold", 8192);
+        pref.putCollection("test.large", largeList("entry "));
+        pref.putCollection("test.small", Collections.singletonList("small"));
+        pref.save();
+
+        File external = new File(pref.getExternalSettingsDirectory(), "test.large.xml");
+        assertTrue(external.isFile());
+        assertEquals(1, pref.getExternalSettingsDirectory().list().length);
+
+        Preferences loaded = new TestPreferences();
+        loaded.load();
+        assertEquals(Collections.singletonList("small"), loaded.getCollection("test.small"));
+
+        // unchanged large settings are not written again, whether they have been read or not
+        external.setLastModified(0);
+        loaded.put("test.a", "1");
+        loaded.save();
+        assertEquals(0, external.lastModified());
+        assertEquals(largeList("entry "), loaded.getCollection("test.large"));
+        loaded.put("test.a", "2");
+        loaded.save();
+        assertEquals(0, external.lastModified());
+
+        // the settings are read when the preferences are exported
+        Preferences other = new TestPreferences();
+        other.load();
+        assertTrue(other.toXML(false).contains("entry 999"));
+
+        loaded.putCollection("test.large", largeList("changed "));
+        loaded.save();
+        assertTrue(external.lastModified() != 0);
+        other = new TestPreferences();
+        other.load();
+        assertEquals(largeList("changed "), other.getCollection("test.large"));
+
+        // files of settings that became small are removed
+        loaded.putCollection("test.large", Collections.singletonList("small"));
+        loaded.save();
+        assertFalse(external.exists());
+        other = new TestPreferences();
+        other.load();
+        assertEquals(Collections.singletonList("small"), other.getCollection("test.large"));
+    }
+
+    @Test
+    public void testNoExternalSettingsByDefault() throws Exception {
+        Preferences pref = new TestPreferences();
+        pref.putCollection("test.large", largeList("entry "));
+        pref.save();
+        assertFalse(pref.getExternalSettingsDirectory().exists());
+    }
+
+    @Test
+    public void testUnreadableExternalSetting() throws Exception {
+        Preferences pref = new TestPreferences();
+        pref.putInteger("preferences.external-threshold", 8192);
+        pref.putCollection("test.large", largeList("entry "));
+        pref.save();
+        File external = new File(pref.getExternalSettingsDirectory(), "test.large.xml");
+        File saved = new File(dir, "test.large.xml");
+        assertTrue(external.renameTo(saved));
+        assertTrue(external.mkdir());
+
+        Preferences loaded = new TestPreferences();
+        loaded.load();
+        assertTrue(loaded.getCollection("test.large").isEmpty());
+        loaded.put("test.a", "1");
+        loaded.save();
+        // the setting is still referenced, its file is not removed
+        assertTrue(external.isDirectory());
+        assertTrue(external.delete());
+        assertTrue(saved.renameTo(external));
+
+        loaded = new TestPreferences();
+        loaded.load();
+        assertEquals(largeList("entry "), loaded.getCollection("test.large"));
+    }
+
+    @Test
+    public void testInterruptedReplace() throws Exception {
+        Preferences pref = new TestPreferences();
+        pref.put("test.a", "1");
+        pref.save();
+        // as if JOSM stopped after deleting the old file, before renaming the new one
+        assertTrue(pref.getPreferenceFile().renameTo(new File(pref.getPreferenceFile() + "_tmp")));
+
+        Preferences loaded = new TestPreferences();
+        loaded.init(false);
+        assertEquals("1", loaded.get("test.a"));
+        assertFalse(new File(pref.getPreferenceFile() + "_tmp").exists());
+    }
+}
@@ -0,0 +1,120 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.conflict;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
+
+public class ConflictCollectionTest {
+
+    private ConflictCollection conflicts;
+    private int added;
+    private int removed;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+    }
+
+    @Before
+    public void setUp() {
+        conflicts = new ConflictCollection();
+        added = removed = 0;
+        conflicts.addConflictListener(new IConflictListener() {
+            public void onConflictsAdded(ConflictCollection conflicts) {
+                added++;
+            }
+            public void onConflictsRemoved(ConflictCollection conflicts) {
+                removed++;
+            }
+        });
+    }
+
+    @Test
+    public void testLookup() {
+        Node my = new Node(1);
+        Node their = new Node(1);
+        conflicts.add(my, their);
+        assertSame(my, conflicts.getConflictForMy(my).getMy());
+        assertSame(their, conflicts.getConflictForTheir(their).getTheir());
+        // lookups by primitive are by identity ...
+        assertFalse(conflicts.hasConflictForMy(their));
+        assertFalse(conflicts.hasConflictForTheir(my));
+        // ... lookups by id are not
+        assertSame(my, conflicts.getConflictForMyId(new SimplePrimitiveId(1, OsmPrimitiveType.NODE)).getMy());
+        assertTrue(conflicts.isParticipating(their.getPrimitiveId()));
+        assertNull(conflicts.getConflictForTheirId(new SimplePrimitiveId(1, OsmPrimitiveType.WAY)));
+
+        conflicts.remove(my);
+        assertTrue(conflicts.isEmpty());
+        assertNull(conflicts.getConflictForTheir(their));
+        assertFalse(conflicts.isParticipating(my.getPrimitiveId()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateMy() {
+        Node my = new Node(1);
+        conflicts.add(my, new Node(1));
+        conflicts.add(my, new Node(1));
+    }
+
+    @Test
+    public void testSharedTheir() {
+        Node their = new Node(1);
+        Node my1 = new Node(1);
+        Node my2 = new Node(1);
+        conflicts.add(my1, their);
+        conflicts.add(my2, their);
+        assertSame(my1, conflicts.getConflictForTheir(their).getMy());
+
+        conflicts.remove(conflicts.getConflictForMy(my1));
+        assertSame(my2, conflicts.getConflictForTheir(their).getMy());
+        assertSame(my2, conflicts.getConflictForMyId(my1.getPrimitiveId()).getMy());
+
+        conflicts.add(my1, their);
+        conflicts.removeForTheir(their);
+        assertTrue(conflicts.isEmpty());
+        assertNull(conflicts.getConflictForMyId(my1.getPrimitiveId()));
+    }
+
+    @Test
+    public void testBulkOperations() {
+        ConflictCollection other = new ConflictCollection();
+        for (int i = 1; i <= 10; i++) {
+            other.add(new Node(i), new Node(i));
+        }
+        conflicts.add(other);
+        assertEquals(1, added);
+        assertEquals(10, conflicts.size());
+
+        conflicts.removeAll(Arrays.asList(conflicts.get(1), conflicts.get(3)));
+        assertEquals(1, removed);
+        assertEquals(8, conflicts.size());
+        assertFalse(conflicts.isParticipating(new SimplePrimitiveId(2, OsmPrimitiveType.NODE)));
+        assertTrue(conflicts.isParticipating(new SimplePrimitiveId(3, OsmPrimitiveType.NODE)));
+
+        Iterator<Conflict<?>> it = conflicts.iterator();
+        while (it.hasNext()) {
+            if (it.next().getMy().getUniqueId() % 2 == 1) {
+                it.remove();
+            }
+        }
+        assertEquals(3, conflicts.size());
+        assertNull(conflicts.getConflictForMyId(new SimplePrimitiveId(1, OsmPrimitiveType.NODE)));
+        assertTrue(conflicts.isParticipating(new SimplePrimitiveId(6, OsmPrimitiveType.NODE)));
+    }
+}
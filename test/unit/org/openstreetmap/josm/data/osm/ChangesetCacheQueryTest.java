@@ -0,0 +1,194 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.io.ChangesetQuery;
+
+public class ChangesetCacheQueryTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+    private static final long START = 1300000000000L;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+    }
+
+    private static List<Changeset> createChangesets(int n) {
+        Random r = new Random(42);
+        List<Changeset> ret = new ArrayList<Changeset>();
+        for (int i = 1; i <= n; i++) {
+            Changeset cs = new Changeset(i);
+            cs.setIncomplete(false);
+            cs.setUser(User.createOsmUser(1 + r.nextInt(5), "cs-user-" + (1 + r.nextInt(5))));
+            cs.setCreatedAt(new Date(START + r.nextInt(100) * DAY));
+            cs.setOpen(r.nextInt(10) == 0);
+            if (!cs.isOpen()) {
+                cs.setClosedAt(new Date(cs.getCreatedAt().getTime() + r.nextInt(5) * DAY));
+            }
+            if (r.nextInt(10) > 0) {
+                // with OSM precision, as written by the OSM server
+                double lat = Math.round((r.nextDouble() * 160 - 80) * 1e7) / 1e7;
+                double lon = Math.round((r.nextDouble() * 340 - 170) * 1e7) / 1e7;
+                double size = r.nextInt(4) == 0 ? 30 : 0.1;
+                cs.setMin(new LatLon(lat, lon));
+                cs.setMax(new LatLon(Math.min(90, lat + size), Math.min(180, lon + size)));
+            }
+            cs.put("comment", "changeset " + i);
+            ret.add(cs);
+        }
+        return ret;
+    }
+
+    private static void assertQuery(ChangesetCache cache, List<Changeset> changesets, ChangesetQuery query) {
+        HashSet<Changeset> expected = new HashSet<Changeset>();
+        for (Changeset cs : changesets) {
+            if (query.matches(cs)) {
+                expected.add(cs);
+            }
+        }
+        assertEquals(query.toString(), expected, new HashSet<Changeset>(cache.query(query)));
+    }
+
+    @Test
+    public void testQuery() {
+        List<Changeset> changesets = createChangesets(2000);
+        ChangesetCache cache = new ChangesetCache(null);
+        cache.update(changesets);
+        assertQuery(cache, changesets, new ChangesetQuery());
+        assertQuery(cache, changesets, new ChangesetQuery().forUser(3));
+        assertQuery(cache, changesets, new ChangesetQuery().forUser("cs-user-2"));
+        assertQuery(cache, changesets, new ChangesetQuery().beingOpen(true));
+        assertQuery(cache, changesets, new ChangesetQuery().beingClosed(true).forUser(1));
+        assertQuery(cache, changesets, new ChangesetQuery().closedAfter(new Date(START + 90 * DAY)));
+        assertQuery(cache, changesets, new ChangesetQuery().closedAfterAndCreatedBefore(
+                new Date(START + 10 * DAY), new Date(START + 20 * DAY)));
+        assertQuery(cache, changesets, new ChangesetQuery().inBbox(new Bounds(40, 0, 60, 20)));
+        assertQuery(cache, changesets, new ChangesetQuery().inBbox(new Bounds(-90, -180, 90, 180)).forUser(2));
+
+        // the index follows modified changesets
+        Changeset cs = new Changeset(changesets.get(0));
+        cs.setOpen(true);
+        cs.setClosedAt(null);
+        cs.setUser(User.createOsmUser(4711, "cs-user-new"));
+        cache.update(cs);
+        assertEquals(1, cache.query(new ChangesetQuery().forUser(4711)).size());
+        assertQuery(cache, changesets, new ChangesetQuery().beingOpen(true));
+        cache.remove(cs);
+        assertEquals(0, cache.query(new ChangesetQuery().forUser(4711)).size());
+    }
+
+    @Test
+    public void testModifiedSince() {
+        Date since = new Date(START + 50 * DAY);
+        ChangesetQuery q = new ChangesetQuery().forUser(5).closedAfter(new Date(START));
+        ChangesetQuery delta = q.modifiedSince(since);
+        assertEquals(since, delta.getClosedAfter());
+        assertEquals(Integer.valueOf(5), delta.getUserId());
+        // a later restriction is kept
+        assertEquals(new Date(START + 60 * DAY), new ChangesetQuery().closedAfter(new Date(START + 60 * DAY)).modifiedSince(since).getClosedAfter());
+    }
+
+    /**
+     * Creates a cache and waits until the changesets of the storage file have been added.
+     */
+    private static ChangesetCache load(File storage) throws Exception {
+        ChangesetCache cache = new ChangesetCache(storage);
+        waitForLoad(cache);
+        return cache;
+    }
+
+    private static void waitForLoad(ChangesetCache cache) throws Exception {
+        cache.flush();
+        // they are added on the EDT
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+            }
+        });
+    }
+
+    @Test
+    public void testStorage() throws Exception {
+        File storage = File.createTempFile("josm-changesets", ".osm");
+        storage.deleteOnExit();
+        storage.delete();
+        try {
+            List<Changeset> changesets = createChangesets(200);
+            changesets.get(0).setUser(User.createOsmUser(4712, "O'Reilly & <Co>"));
+            ChangesetCache cache = load(storage);
+            cache.update(changesets);
+            ChangesetQuery query = new ChangesetQuery().forUser(1);
+            Date queryTime = new Date(START + 100 * DAY);
+            cache.rememberQuery(query, queryTime);
+            cache.flush();
+
+            ChangesetCache loaded = load(storage);
+            assertEquals(changesets.size(), loaded.size());
+            for (Changeset cs : changesets) {
+                Changeset l = loaded.get(cs.getId());
+                assertNotNull(l);
+                assertEquals(cs.getUser(), l.getUser());
+                assertEquals(cs.isOpen(), l.isOpen());
+                assertEquals(cs.getCreatedAt(), l.getCreatedAt());
+                assertEquals(cs.getClosedAt(), l.getClosedAt());
+                assertEquals(cs.getBounds(), l.getBounds());
+                assertEquals(cs.getKeys(), l.getKeys());
+            }
+            assertNotNull(loaded.getModifiedSince(query));
+            assertNull(loaded.getModifiedSince(new ChangesetQuery().forUser(2)));
+
+            // removing a changeset invalidates the remembered queries
+            loaded.remove(changesets.get(0));
+            assertNull(loaded.getModifiedSince(query));
+        } finally {
+            storage.delete();
+            new File(storage.getPath() + ".queries").delete();
+        }
+    }
+
+    @Test
+    public void testStorageLimit() throws Exception {
+        File storage = File.createTempFile("josm-changesets", ".osm");
+        storage.deleteOnExit();
+        storage.delete();
+        try {
+            ChangesetCache.PROP_MAX_PERSISTENT.put(50);
+            // changed before the file is loaded, written afterwards
+            ChangesetCache cache = new ChangesetCache(storage);
+            cache.update(createChangesets(200));
+            cache.rememberQuery(new ChangesetQuery().forUser(1), new Date());
+            waitForLoad(cache);
+            cache.flush();
+
+            ChangesetCache loaded = load(storage);
+            // the latest changesets are kept, without the queries which may have included the others
+            assertEquals(50, loaded.size());
+            assertTrue(loaded.contains(200));
+            assertTrue(loaded.contains(151));
+            assertNull(loaded.getModifiedSince(new ChangesetQuery().forUser(1)));
+        } finally {
+            ChangesetCache.PROP_MAX_PERSISTENT.remove();
+            storage.delete();
+            new File(storage.getPath() + ".queries").delete();
+        }
+    }
+}
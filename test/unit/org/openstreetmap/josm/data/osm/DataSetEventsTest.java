@@ -0,0 +1,180 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent.DatasetEventType;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter;
+import org.openstreetmap.josm.data.osm.event.DatasetChanges;
+import org.openstreetmap.josm.data.projection.Projections;
+
+public class DataSetEventsTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        Main.setProjection(Projections.getProjectionByCode("EPSG:4326"));
+    }
+
+    private static List<AbstractDatasetChangedEvent> listen(DataSet ds) {
+        final List<AbstractDatasetChangedEvent> events = new ArrayList<AbstractDatasetChangedEvent>();
+        ds.addDataSetListener(new DataSetListenerAdapter(new DataSetListenerAdapter.Listener() {
+            public void processDatasetEvent(AbstractDatasetChangedEvent event) {
+                events.add(event);
+            }
+        }));
+        return events;
+    }
+
+    @Test
+    public void testSingleEvents() {
+        DataSet ds = new DataSet();
+        List<AbstractDatasetChangedEvent> events = listen(ds);
+        ds.addPrimitive(new Node(new LatLon(1, 1)));
+        assertEquals(1, events.size());
+        assertEquals(DatasetEventType.PRIMITIVES_ADDED, events.get(0).getType());
+        assertEquals(1, DatasetChanges.of(events.get(0)).getPrimitives(DatasetEventType.PRIMITIVES_ADDED).size());
+    }
+
+    @Test
+    public void testCoalescedEvents() {
+        DataSet ds = new DataSet();
+        Way way = new Way();
+        ds.addPrimitive(way);
+        List<AbstractDatasetChangedEvent> events = listen(ds);
+
+        ds.beginUpdate();
+        try {
+            for (int i = 0; i < 1500; i++) {
+                Node n = new Node(new LatLon(i / 100.0, 1));
+                ds.addPrimitive(n);
+                n.setCoor(new LatLon(i / 100.0, 2));
+                way.addNode(n);
+            }
+            way.put("highway", "path");
+        } finally {
+            ds.endUpdate();
+        }
+
+        assertEquals(1, events.size());
+        DataChangedEvent event = (DataChangedEvent) events.get(0);
+        assertNull(event.getEvents());
+        DatasetChanges changes = event.getChanges();
+        assertNotNull(changes);
+        assertEquals(1500, changes.getPrimitives(DatasetEventType.PRIMITIVES_ADDED, Node.class).size());
+        assertEquals(1500, changes.getPrimitives(DatasetEventType.NODE_MOVED).size());
+        assertEquals(1, changes.getPrimitives(DatasetEventType.WAY_NODES_CHANGED).size());
+        assertTrue(changes.getPrimitives(DatasetEventType.TAGS_CHANGED).contains(way));
+        assertTrue(changes.contains(DatasetEventType.TAGS_CHANGED, Way.class));
+        assertFalse(changes.contains(DatasetEventType.TAGS_CHANGED, Node.class));
+        assertFalse(changes.contains(DatasetEventType.PRIMITIVES_REMOVED));
+        assertEquals(1501, changes.getPrimitives().size());
+    }
+
+    @Test
+    public void testEventList() {
+        DataSet ds = new DataSet();
+        List<AbstractDatasetChangedEvent> events = listen(ds);
+
+        ds.beginUpdate();
+        try {
+            for (int i = 0; i < 100; i++) {
+                ds.addPrimitive(new Node(new LatLon(i / 100.0, 1)));
+            }
+        } finally {
+            ds.endUpdate();
+        }
+
+        assertEquals(1, events.size());
+        DataChangedEvent event = (DataChangedEvent) events.get(0);
+        assertEquals(100, event.getEvents().size());
+        assertEquals(100, event.getChanges().getPrimitives(DatasetEventType.PRIMITIVES_ADDED).size());
+        assertNull(new DataChangedEvent(ds).getChanges());
+    }
+
+    @Test
+    public void testSetEastNorths() {
+        DataSet ds = new DataSet();
+        Way way = new Way();
+        List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < 100; i++) {
+            Node n = new Node(new LatLon(1, i / 100.0));
+            ds.addPrimitive(n);
+            nodes.add(n);
+        }
+        way.setNodes(nodes);
+        ds.addPrimitive(way);
+        List<AbstractDatasetChangedEvent> events = listen(ds);
+
+        Map<Node, EastNorth> positions = new HashMap<Node, EastNorth>();
+        for (Node n : nodes) {
+            positions.put(n, Projections.project(new LatLon(10, n.getCoor().lon())));
+        }
+        ds.setEastNorths(positions);
+
+        assertEquals(1, events.size());
+        DatasetChanges changes = ((DataChangedEvent) events.get(0)).getChanges();
+        assertEquals(100, changes.getPrimitives(DatasetEventType.NODE_MOVED).size());
+        assertEquals(10, nodes.get(50).getCoor().lat(), 1e-9);
+
+        // the index has been updated
+        BBox bbox = new BBox(0, 9.5, 1, 10.5);
+        assertEquals(100, ds.searchNodes(bbox).size());
+        assertEquals(Collections.singletonList(way), ds.searchWays(bbox));
+        assertTrue(ds.searchNodes(new BBox(0, 0.5, 1, 1.5)).isEmpty());
+        assertTrue(ds.searchWays(new BBox(0, 0.5, 1, 1.5)).isEmpty());
+
+        // few nodes are moved with single events
+        events.clear();
+        Map<Node, LatLon> coors = new HashMap<Node, LatLon>();
+        coors.put(nodes.get(0), new LatLon(1, 0));
+        ds.setCoors(coors);
+        assertEquals(1, events.size());
+        assertEquals(DatasetEventType.NODE_MOVED, events.get(0).getType());
+        assertEquals(1, ds.searchNodes(new BBox(0, 0.5, 1, 1.5)).size());
+        assertEquals(Collections.singletonList(way), ds.searchWays(new BBox(0, 0.5, 0.001, 1.5)));
+    }
+
+    @Test
+    public void testSetCoorsOfForeignNode() {
+        DataSet ds = new DataSet();
+        Node n = new Node(new LatLon(1, 1));
+        ds.addPrimitive(n);
+        Node foreign = new Node(new LatLon(1, 1));
+        new DataSet().addPrimitive(foreign);
+        List<AbstractDatasetChangedEvent> events = listen(ds);
+
+        Map<Node, LatLon> coors = new LinkedHashMap<Node, LatLon>();
+        coors.put(n, new LatLon(10, 10));
+        coors.put(foreign, new LatLon(10, 10));
+        try {
+            ds.setCoors(coors);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // no node has been moved
+            assertEquals(1, n.getCoor().lat(), 1e-9);
+            assertEquals(1, ds.searchNodes(new BBox(0.5, 0.5, 1.5, 1.5)).size());
+            assertTrue(events.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Area;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+
+public class DataSourceAreaIndexTest {
+
+    @Test
+    public void testContains() {
+        DataSet ds = new DataSet();
+        assertTrue(ds.getDataSourceAreaIndex().isEmpty());
+        assertNull(ds.getDataSourceArea());
+
+        ds.dataSources.add(new DataSource(new Bounds(0, 0, 1, 1), "test"));
+        DataSourceAreaIndex index = ds.getDataSourceAreaIndex();
+        assertTrue(index.contains(new LatLon(0.5, 0.5)));
+        assertFalse(index.contains(new LatLon(0.5, 1.5)));
+
+        // adding a data source extends the cached index
+        ds.dataSources.add(new DataSource(new Bounds(0, 1, 1, 2), "test"));
+        index = ds.getDataSourceAreaIndex();
+        assertTrue(index.contains(new LatLon(0.5, 1.5)));
+        assertFalse(index.contains(new LatLon(1.5, 1.5)));
+        // spans both data sources
+        assertTrue(index.contains(new BBox(0.5, 0.2, 1.5, 0.8)));
+        assertFalse(index.contains(new BBox(0.5, 0.2, 2.5, 0.8)));
+        assertEquals(new Bounds(0, 0, 1, 2), index.getExtent());
+
+        // removing a data source invalidates it
+        Iterator<DataSource> it = ds.dataSources.iterator();
+        it.next();
+        it.remove();
+        index = ds.getDataSourceAreaIndex();
+        assertFalse(index.contains(new LatLon(0.5, 0.5)));
+        assertTrue(index.contains(new LatLon(0.5, 1.5)));
+
+        ds.dataSources.clear();
+        assertTrue(ds.getDataSourceAreaIndex().isEmpty());
+    }
+
+    @Test
+    public void testSameAsArea() {
+        Random random = new Random(42);
+        DataSet ds = new DataSet();
+        for (int i = 0; i < 200; i++) {
+            double lat = random.nextDouble() * 10;
+            double lon = random.nextDouble() * 10;
+            ds.dataSources.add(new DataSource(new Bounds(lat, lon, lat + random.nextDouble(), lon + random.nextDouble()), "test"));
+        }
+        DataSourceAreaIndex index = ds.getDataSourceAreaIndex();
+        Area area = ds.getDataSourceArea();
+        for (int i = 0; i < 10000; i++) {
+            LatLon ll = new LatLon(random.nextDouble() * 12 - 1, random.nextDouble() * 12 - 1);
+            assertEquals(ll.toString(), area.contains(ll), index.contains(ll));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class PrimitiveIdMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        PrimitiveIdMap<String> map = new PrimitiveIdMap<String>();
+        map.put(1, OsmPrimitiveType.NODE, "n1");
+        map.put(new SimplePrimitiveId(1, OsmPrimitiveType.WAY), "w1");
+        map.put(-1, OsmPrimitiveType.NODE, "n-1");
+        assertEquals(3, map.size());
+        assertEquals("n1", map.get(1, OsmPrimitiveType.NODE));
+        assertEquals("w1", map.get(new SimplePrimitiveId(1, OsmPrimitiveType.WAY)));
+        assertEquals("n-1", map.get(-1, OsmPrimitiveType.NODE));
+        assertNull(map.get(1, OsmPrimitiveType.RELATION));
+        assertFalse(map.containsKey(2, OsmPrimitiveType.NODE));
+
+        assertEquals("n1", map.put(1, OsmPrimitiveType.NODE, "n1'"));
+        assertEquals(3, map.size());
+        assertEquals("n1'", map.remove(new SimplePrimitiveId(1, OsmPrimitiveType.NODE)));
+        assertNull(map.get(1, OsmPrimitiveType.NODE));
+        assertEquals(2, map.size());
+        assertEquals(2, map.values().size());
+        assertEquals(2, map.entrySet().size());
+        assertTrue(map.containsKey(new SimplePrimitiveId(1, OsmPrimitiveType.WAY)));
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        PrimitiveIdMap<Long> map = new PrimitiveIdMap<Long>();
+        Map<PrimitiveId, Long> expected = new HashMap<PrimitiveId, Long>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long id = random.nextInt(5000) - 1000;
+            OsmPrimitiveType type = random.nextBoolean() ? OsmPrimitiveType.NODE : OsmPrimitiveType.WAY;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(new SimplePrimitiveId(id, type)), map.remove(id, type));
+            } else {
+                assertEquals(expected.put(new SimplePrimitiveId(id, type), (long) i), map.put(id, type, (long) i));
+            }
+        }
+        assertEquals(expected, map);
+        assertEquals(expected.size(), map.size());
+    }
+
+    @Test
+    public void testStorageLookups() throws Exception {
+        final Storage<OsmPrimitive> storage = new Storage<OsmPrimitive>(new Storage.PrimitiveIdHash(), true);
+        final Map<PrimitiveId, OsmPrimitive> byId = storage.foreignKey(new Storage.PrimitiveIdHash());
+        final Storage.PrimitiveIdLongHash nodeHash = new Storage.PrimitiveIdLongHash(OsmPrimitiveType.NODE);
+        final Node[] permanent = new Node[1000];
+        for (int i = 0; i < permanent.length; i++) {
+            permanent[i] = new Node(i + 1);
+            storage.add(permanent[i]);
+        }
+        assertSame(permanent[41], storage.get(42, nodeHash));
+        assertSame(permanent[41], byId.get(new SimplePrimitiveId(42, OsmPrimitiveType.NODE)));
+        assertNull(storage.get(42, new Storage.PrimitiveIdLongHash(OsmPrimitiveType.WAY)));
+
+        // permanent entries are always found while other entries are added and removed
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int round = 0; round < 200 && failure.get() == null; round++) {
+                    for (int i = 0; i < permanent.length; i++) {
+                        if (storage.get(i + 1, nodeHash) != permanent[i] || !storage.contains(permanent[i])) {
+                            failure.set("node " + (i + 1) + " not found");
+                        }
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < 50000; i++) {
+            Node n = new Node(100000 + i);
+            storage.add(n);
+            if (i % 2 == 0) {
+                storage.remove(n);
+            }
+        }
+        reader.join();
+        assertNull(failure.get());
+        assertEquals(1000 + 25000, storage.size());
+    }
+}
@@ -5,7 +5,11 @@ import java.io.FileInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.fest.reflect.core.Reflection;
 import org.fest.reflect.reference.TypeRef;
@@ -82,4 +86,119 @@ public class QuadBucketsTest {
         removeAllTest(ds);
     }
 
+    @Test
+    public void testSearchNearest() throws Exception {
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/restriction.osm"), NullProgressMonitor.INSTANCE);
+        QuadBuckets<Node> nodes = Reflection.field("nodes").ofType(new TypeRef<QuadBuckets<Node>>() {}).in(ds).get();
+
+        // plain lat/lon distance, the nearest point of a bbox is found by clamping
+        final LatLon center = ds.getNodes().iterator().next().getCoor();
+        QuadBuckets.NearestMetric<Node> metric = new QuadBuckets.NearestMetric<Node>() {
+            public double minDistanceSq(BBox bbox) {
+                double lat = Math.max(bbox.getBottomRight().lat(), Math.min(bbox.getTopLeft().lat(), center.lat()));
+                double lon = Math.max(bbox.getTopLeft().lon(), Math.min(bbox.getBottomRight().lon(), center.lon()));
+                return distanceSq(lat, lon);
+            }
+            public double distanceSq(Node n) {
+                return distanceSq(n.getCoor().lat(), n.getCoor().lon());
+            }
+            private double distanceSq(double lat, double lon) {
+                return (lat - center.lat()) * (lat - center.lat()) + (lon - center.lon()) * (lon - center.lon());
+            }
+        };
+        BBox world = new BBox(-180, -90, 180, 90);
+
+        List<Node> all = nodes.searchNearest(world, metric, Integer.MAX_VALUE, Double.POSITIVE_INFINITY);
+        Assert.assertEquals(nodes.size(), all.size());
+        for (int i = 1; i < all.size(); i++) {
+            Assert.assertTrue(metric.distanceSq(all.get(i - 1)) <= metric.distanceSq(all.get(i)));
+        }
+
+        List<Node> nearest = nodes.searchNearest(world, metric, 5, Double.POSITIVE_INFINITY);
+        Assert.assertEquals(all.subList(0, 5), nearest);
+
+        double maxDistanceSq = metric.distanceSq(all.get(10));
+        List<Node> inRange = nodes.searchNearest(world, metric, Integer.MAX_VALUE, maxDistanceSq);
+        for (Node n : all) {
+            Assert.assertEquals(metric.distanceSq(n) < maxDistanceSq, inRange.contains(n));
+        }
+    }
+
+    private static Set<Node> bruteForce(Collection<Node> nodes, BBox bbox) {
+        Set<Node> result = new HashSet<Node>();
+        for (Node n : nodes) {
+            if (n.getBBox().intersects(bbox)) {
+                result.add(n);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testSearchVisitor() throws Exception {
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        final QuadBuckets<Node> nodes = new QuadBuckets<Node>();
+        final List<Node> all = new ArrayList<Node>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            Node n = new Node(new LatLon(random.nextDouble() * 2, random.nextDouble() * 2));
+            nodes.add(n);
+            all.add(n);
+        }
+
+        final List<BBox> boxes = new ArrayList<BBox>();
+        for (int i = 0; i < 50; i++) {
+            double lat = random.nextDouble() * 2;
+            double lon = random.nextDouble() * 2;
+            double size = random.nextDouble() * random.nextDouble();
+            boxes.add(new BBox(lon, lat, lon + size, lat + size));
+        }
+        boxes.add(new BBox(-180, -90, 180, 90));
+
+        List<Node> reused = new ArrayList<Node>();
+        for (BBox bbox : boxes) {
+            Set<Node> expected = bruteForce(all, bbox);
+            Assert.assertEquals(expected, new HashSet<Node>(nodes.search(bbox)));
+            Assert.assertEquals(expected.size(), nodes.count(bbox));
+            reused.clear();
+            nodes.search(bbox, reused);
+            Assert.assertEquals(expected.size(), reused.size());
+        }
+
+        // the visitor stops the search
+        final int[] visited = new int[1];
+        nodes.search(new BBox(-180, -90, 180, 90), new QuadBuckets.SearchVisitor<Node>() {
+            public boolean visit(Node o) {
+                visited[0]++;
+                return visited[0] < 3;
+            }
+        });
+        Assert.assertEquals(3, visited[0]);
+
+        // concurrent searches do not disturb each other
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < 20; round++) {
+                        for (int i = 0; i < boxes.size(); i++) {
+                            BBox bbox = boxes.get((i + offset * 7) % boxes.size());
+                            if (nodes.count(bbox) != bruteForce(all, bbox).size()) {
+                                failure.set("wrong result for " + bbox);
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+    }
 }
@@ -0,0 +1,188 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.PrimitiveId;
+import org.openstreetmap.josm.data.osm.RelationMemberData;
+import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
+import org.openstreetmap.josm.data.osm.User;
+
+public class HistoryStoreTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+    }
+
+    private static void assertSameVersion(HistoryOsmPrimitive expected, HistoryOsmPrimitive actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.isVisible(), actual.isVisible());
+        assertSame(expected.getUser(), actual.getUser());
+        assertEquals(expected.getChangesetId(), actual.getChangesetId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getTags(), actual.getTags());
+        if (expected instanceof HistoryNode) {
+            assertEquals(((HistoryNode) expected).getCoords(), ((HistoryNode) actual).getCoords());
+        } else if (expected instanceof HistoryWay) {
+            assertEquals(((HistoryWay) expected).getNodes(), ((HistoryWay) actual).getNodes());
+        } else {
+            assertEquals(((HistoryRelation) expected).getMembers(), ((HistoryRelation) actual).getMembers());
+        }
+    }
+
+    private static void assertSameVersions(List<HistoryOsmPrimitive> expected, List<HistoryOsmPrimitive> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameVersion(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static List<HistoryOsmPrimitive> nodeVersions() {
+        User user = User.createOsmUser(1001, "history-user");
+        List<HistoryOsmPrimitive> versions = new ArrayList<HistoryOsmPrimitive>();
+        HistoryNode n1 = new HistoryNode(5, 1, true, user, 10, new Date(1300000000000L), new LatLon(52.5, 13.4), false);
+        n1.put("amenity", "cafe");
+        n1.put("name", "Café");
+        versions.add(n1);
+        HistoryNode n2 = new HistoryNode(5, 2, true, user, 12, new Date(1300000500000L), new LatLon(52.5, 13.4), false);
+        n2.put("amenity", "restaurant");
+        versions.add(n2);
+        HistoryNode n3 = new HistoryNode(5, 3, false, User.getAnonymous(), 9, null, null, false);
+        versions.add(n3);
+        return versions;
+    }
+
+    @Test
+    public void testNodes() throws Exception {
+        HistoryStore store = HistoryStore.createTemporary();
+        try {
+            PrimitiveId id = new SimplePrimitiveId(5, OsmPrimitiveType.NODE);
+            List<HistoryOsmPrimitive> versions = nodeVersions();
+            store.write(id, versions);
+            assertTrue(store.contains(id));
+            assertSameVersions(versions, store.read(id));
+            assertNull(store.read(new SimplePrimitiveId(5, OsmPrimitiveType.WAY)));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testWaysAndRelations() throws Exception {
+        HistoryStore store = HistoryStore.createTemporary();
+        try {
+            User user = User.createLocalUser("local-history-user");
+            List<HistoryOsmPrimitive> ways = new ArrayList<HistoryOsmPrimitive>();
+            for (int v = 1; v <= 3; v++) {
+                HistoryWay w = new HistoryWay(7, v, true, user, 100 + v, new Date(1300000000000L + v), false);
+                w.addNode(1000);
+                w.addNode(20);
+                if (v != 2) {
+                    w.addNode(4000000000L);
+                }
+                w.put("highway", "residential");
+                ways.add(w);
+            }
+            List<HistoryOsmPrimitive> relations = new ArrayList<HistoryOsmPrimitive>();
+            for (int v = 1; v <= 2; v++) {
+                HistoryRelation r = new HistoryRelation(8, v, true, user, 200, new Date(1300000000000L), false);
+                r.addMember(new RelationMemberData("outer", OsmPrimitiveType.WAY, 7));
+                r.addMember(new RelationMemberData("", OsmPrimitiveType.NODE, 5));
+                r.put("type", "multipolygon");
+                relations.add(r);
+            }
+            PrimitiveId wayId = new SimplePrimitiveId(7, OsmPrimitiveType.WAY);
+            PrimitiveId relationId = new SimplePrimitiveId(8, OsmPrimitiveType.RELATION);
+            store.write(wayId, ways);
+            store.write(relationId, relations);
+            assertSameVersions(ways, store.read(wayId));
+            assertSameVersions(relations, store.read(relationId));
+
+            // replacing a record keeps the others
+            store.write(wayId, ways.subList(0, 1));
+            assertSameVersions(ways.subList(0, 1), store.read(wayId));
+            assertSameVersions(relations, store.read(relationId));
+
+            store.clear();
+            assertNull(store.read(wayId));
+            assertEquals(0, store.getSize());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testUsers() throws Exception {
+        HistoryStore store = HistoryStore.createTemporary();
+        try {
+            User local = User.createLocalUser("local-history-user");
+            List<HistoryOsmPrimitive> versions = new ArrayList<HistoryOsmPrimitive>();
+            versions.add(new HistoryNode(6, 1, true, null, 0, null, new LatLon(1, 2), false));
+            versions.add(new HistoryNode(6, 2, true, local, 0, null, new LatLon(1, 2), false));
+            versions.add(new HistoryNode(6, 3, true, null, 0, null, new LatLon(1, 2), false));
+            PrimitiveId id = new SimplePrimitiveId(6, OsmPrimitiveType.NODE);
+            store.write(id, versions);
+            assertSameVersions(versions, store.read(id));
+            assertSameVersions(versions, store.read(id));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testDiskBackedDataSet() throws Exception {
+        HistoryStore store = HistoryStore.createTemporary();
+        try {
+            HistoryDataSet loaded = new HistoryDataSet();
+            for (HistoryOsmPrimitive p : nodeVersions()) {
+                loaded.put(p);
+            }
+            HistoryDataSet ds = new HistoryDataSet(store);
+            ds.mergeInto(loaded);
+            // more histories than the cache holds, the first ones are read back from the store
+            int n = HistoryDataSet.PROP_CACHE_SIZE.get() + 10;
+            for (int i = 1; i <= n; i++) {
+                ds.put(new HistoryWay(1000 + i, 1, true, User.getAnonymous(), 1, new Date(), false));
+            }
+            assertEquals(n + 1, ds.getIds().size());
+
+            History h = ds.getHistory(5, OsmPrimitiveType.NODE);
+            assertSameVersions(nodeVersions(), toList(h));
+            assertEquals(3, h.getLatest().getVersion());
+            assertEquals(1, h.getEarliest().getVersion());
+            assertEquals("cafe", h.getByVersion(1).get("amenity"));
+
+            ds.put(new HistoryNode(5, 4, true, User.getAnonymous(), 20, new Date(), new LatLon(1, 2), false));
+            assertEquals(4, ds.getHistory(5, OsmPrimitiveType.NODE).getNumVersions());
+            // histories handed out before are not changed
+            assertEquals(3, h.getNumVersions());
+            assertEquals(1, ds.get(1001, OsmPrimitiveType.WAY, 1).getVersion());
+        } finally {
+            store.close();
+        }
+    }
+
+    private static List<HistoryOsmPrimitive> toList(History h) {
+        List<HistoryOsmPrimitive> list = new ArrayList<HistoryOsmPrimitive>();
+        for (int i = 0; i < h.getNumVersions(); i++) {
+            list.add(h.get(i));
+        }
+        return list;
+    }
+}
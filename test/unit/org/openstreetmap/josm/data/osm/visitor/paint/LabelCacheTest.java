@@ -0,0 +1,74 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Rectangle2D;
+
+import org.junit.Test;
+
+public class LabelCacheTest {
+
+    private static final FontRenderContext FRC = new FontRenderContext(null, true, true);
+
+    @Test
+    public void testCache() {
+        LabelCache cache = new LabelCache(2);
+        Font font = new Font("Dialog", Font.PLAIN, 12);
+        LabelCache.Label a = cache.get(font, "Main Street", FRC);
+        assertSame(a, cache.get(font, "Main Street", FRC));
+        assertNotSame(a, cache.get(font.deriveFont(Font.BOLD), "Main Street", FRC));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+
+        // "Main Street" in plain font was used last, so the bold one is evicted
+        cache.get(font, "Main Street", FRC);
+        cache.get(font, "High Street", FRC);
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get(font, "Main Street", FRC));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitRate(), 0);
+    }
+
+    @Test
+    public void testLabel() {
+        Font font = new Font("Dialog", Font.PLAIN, 12);
+        LabelCache.Label label = new LabelCache(10).get(font, "Main Street", FRC);
+        assertEquals(font.getStringBounds("Main Street", FRC), label.getBounds());
+        assertEquals(font.getLineMetrics("Main Street", FRC).getAscent(), label.getAscent(), 0);
+
+        GlyphVector expected = font.createGlyphVector(FRC, "Main Street");
+        GlyphVector gv = label.createGlyphVector();
+        assertNotSame(gv, label.createGlyphVector());
+        assertEquals(expected.getNumGlyphs(), label.getNumGlyphs());
+        for (int i = 0; i < label.getNumGlyphs(); i++) {
+            assertEquals(expected.getGlyphCode(i), gv.getGlyphCode(i));
+            assertEquals(expected.getGlyphLogicalBounds(i).getBounds2D(), label.getGlyphBounds(i));
+        }
+    }
+
+    @Test
+    public void testCollisionGrid() {
+        LabelCollisionGrid grid = new LabelCollisionGrid(200, 100, 32);
+        assertTrue(grid.tryTake(new Rectangle2D.Double(10, 10, 100, 10)));
+        assertFalse(grid.tryTake(new Rectangle2D.Double(100, 15, 50, 10)));
+        assertTrue(grid.tryTake(new Rectangle2D.Double(100, 25, 50, 10)));
+        // labels partly outside of the screen
+        assertTrue(grid.tryTake(new Rectangle2D.Double(-50, -50, 55, 55)));
+        assertFalse(grid.isFree(new Rectangle2D.Double(-100, -100, 110, 110)));
+        assertTrue(grid.tryTake(new Rectangle2D.Double(190, 90, 100, 100)));
+        assertFalse(grid.isFree(new Rectangle2D.Double(250, 150, 10, 10)));
+        assertTrue(grid.isFree(new Rectangle2D.Double(500, 500, 10, 10)));
+        assertTrue(grid.isFree(new Rectangle2D.Double(150, 50, 10, 10)));
+    }
+}
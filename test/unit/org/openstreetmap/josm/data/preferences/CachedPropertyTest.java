@@ -0,0 +1,97 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.preferences;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+
+public class CachedPropertyTest {
+
+    @Before
+    public void init() {
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // keep the test settings in memory
+            }
+        };
+    }
+
+    @Test
+    public void testCachedValues() {
+        CachedIntegerProperty size = Main.pref.getCachedInteger("test.size", 10);
+        assertSame(size, Main.pref.getCachedInteger("test.size", 10));
+        assertEquals(10, (int) size.get());
+        assertEquals("10", Main.pref.getDefaults().get("test.size"));
+
+        Main.pref.putInteger("test.size", 12);
+        assertEquals(12, (int) size.get());
+        Main.pref.put("test.size", "twelve");
+        assertEquals(10, (int) size.get());
+        Main.pref.put("test.size", null);
+        assertEquals(10, (int) size.get());
+
+        CachedBooleanProperty flag = Main.pref.getCachedBoolean("test.flag", true);
+        assertTrue(flag.get());
+        Main.pref.put("test.flag", false);
+        assertFalse(flag.get());
+
+        CachedDoubleProperty delay = Main.pref.getCachedDouble("test.delay", 1.5);
+        assertEquals(1.5, delay.get(), 0);
+        Main.pref.putDouble("test.delay", 0.25);
+        assertEquals(0.25, delay.get(), 0);
+
+        // the values are updated when all settings are replaced
+        Main.pref.resetToDefault();
+        assertTrue(flag.get());
+        assertEquals(1.5, delay.get(), 0);
+    }
+
+    @Test
+    public void testProperties() {
+        IntegerProperty size = new IntegerProperty("test.property.size", 5);
+        BooleanProperty flag = new BooleanProperty("test.property.flag", false);
+        assertEquals(5, (int) size.get());
+        size.put(7);
+        assertEquals(7, (int) size.get());
+        assertEquals(7, (int) Main.pref.getCachedInteger("test.property.size", 5).get());
+        flag.put(true);
+        assertTrue(flag.get());
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final CachedIntegerProperty value = Main.pref.getCachedInteger("test.concurrent", 0);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                int last = 0;
+                while (last < 999) {
+                    int v = value.get();
+                    if (v < last) {
+                        failure.set("went back from " + last + " to " + v);
+                        return;
+                    }
+                    last = v;
+                }
+            }
+        };
+        reader.start();
+        for (int i = 1; i < 1000; i++) {
+            Main.pref.putInteger("test.concurrent", i);
+        }
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,115 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.dialogs.properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.tagging.TaggingPreset.PresetType;
+
+public class SelectionStatisticsTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        Main.pref = new Preferences();
+    }
+
+    private static Map<String, Map<String, Integer>> valueCount(SelectionStatistics stats) {
+        Map<String, Map<String, Integer>> valueCount = new HashMap<String, Map<String, Integer>>();
+        stats.fillValueCount(valueCount);
+        return valueCount;
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        DataSet ds = new DataSet();
+        Node n1 = new Node(new LatLon(0, 0));
+        n1.put("amenity", "parking");
+        Node n2 = new Node(new LatLon(1, 1));
+        n2.put("amenity", "bench");
+        Way w = new Way();
+        w.setNodes(Arrays.asList(n1, n2));
+        Relation r = new Relation();
+        r.addMember(new RelationMember("", n1));
+        ds.addPrimitive(n1);
+        ds.addPrimitive(n2);
+        ds.addPrimitive(w);
+        ds.addPrimitive(r);
+
+        SelectionStatistics stats = new SelectionStatistics();
+        stats.setPrimitives(Arrays.<OsmPrimitive>asList(n1, n2));
+        Map<String, Map<String, Integer>> valueCount = valueCount(stats);
+        assertEquals(1, valueCount.size());
+        assertEquals(Integer.valueOf(1), valueCount.get("amenity").get("parking"));
+        assertEquals(Integer.valueOf(1), valueCount.get("amenity").get("bench"));
+        assertEquals(EnumSet.of(PresetType.NODE), stats.getTypes());
+        assertEquals(Collections.singleton(r), stats.getReferrers());
+
+        // the way is added, n2 is removed
+        stats.setPrimitives(Arrays.<OsmPrimitive>asList(n1, w));
+        valueCount = valueCount(stats);
+        assertEquals(Integer.valueOf(1), valueCount.get("amenity").get("parking"));
+        assertEquals(Integer.valueOf(1), valueCount.get("amenity").get(""));
+        assertFalse(valueCount.get("amenity").containsKey("bench"));
+        assertEquals(EnumSet.of(PresetType.NODE, PresetType.WAY), stats.getTypes());
+
+        // tags changed after they were counted
+        n1.put("amenity", "cafe");
+        assertTrue(stats.refresh(n1));
+        valueCount = valueCount(stats);
+        assertEquals(Integer.valueOf(1), valueCount.get("amenity").get("cafe"));
+        assertFalse(valueCount.get("amenity").containsKey("parking"));
+        assertFalse(stats.refresh(n2));
+
+        // membership changed after it was counted
+        r.removeMembersFor(n1);
+        stats.refreshMembersOf(r);
+        assertTrue(stats.getReferrers().isEmpty());
+
+        stats.setPrimitives(Collections.<OsmPrimitive>emptyList());
+        assertEquals(0, stats.size());
+        assertTrue(valueCount(stats).isEmpty());
+    }
+
+    @Test
+    public void testAddedOrRemovedRelation() {
+        DataSet ds = new DataSet();
+        Node n = new Node(new LatLon(0, 0));
+        ds.addPrimitive(n);
+        Relation r = new Relation();
+        r.addMember(new RelationMember("", n));
+
+        SelectionStatistics stats = new SelectionStatistics();
+        stats.setPrimitives(Collections.<OsmPrimitive>singletonList(n));
+        assertTrue(stats.getReferrers().isEmpty());
+
+        ds.addPrimitive(r);
+        stats.refreshAddedOrRemoved(r);
+        assertEquals(Collections.singleton(r), stats.getReferrers());
+
+        r.setMembers(null);
+        ds.removePrimitive(r);
+        stats.refreshAddedOrRemoved(r);
+        assertTrue(stats.getReferrers().isEmpty());
+        assertEquals(1, stats.size());
+    }
+}
@@ -0,0 +1,117 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.gpx.GpxData;
+import org.openstreetmap.josm.data.gpx.ImmutableGpxTrack;
+import org.openstreetmap.josm.data.gpx.WayPoint;
+import org.openstreetmap.josm.tools.PrimaryDateParser;
+
+public class GpxTimeIndexTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+    }
+
+    private static WayPoint wp(double lat, double lon, String time, String ele) {
+        WayPoint wp = new WayPoint(new LatLon(lat, lon));
+        if (time != null) {
+            wp.attr.put("time", "2012-06-01T" + time + "Z");
+        }
+        if (ele != null) {
+            wp.attr.put("ele", ele);
+        }
+        return wp;
+    }
+
+    private static void addTrack(GpxData gpx, WayPoint... points) {
+        Collection<Collection<WayPoint>> segments = new ArrayList<Collection<WayPoint>>();
+        List<WayPoint> segment = new ArrayList<WayPoint>();
+        Collections.addAll(segment, points);
+        segments.add(segment);
+        gpx.tracks.add(new ImmutableGpxTrack(segments, new HashMap<String, Object>()));
+    }
+
+    private static long time(String time) throws Exception {
+        return new PrimaryDateParser().parse("2012-06-01T" + time + "Z").getTime();
+    }
+
+    private static ImageEntry correlate(GpxTimeIndex index, String time) throws Exception {
+        ImageEntry e = new ImageEntry();
+        return index.correlate(e, time(time)) ? e : null;
+    }
+
+    @Test
+    public void testCorrelate() throws Exception {
+        GpxData gpx = new GpxData();
+        addTrack(gpx,
+                wp(0, 0, "10:00:00", "100"),
+                wp(0, 1, "10:00:10", "200"),
+                wp(1, 1, "10:00:20", null),
+                wp(2, 2, null, null),
+                wp(3, 3, "10:00:40", null));
+        // overlaps the first track, which wins
+        addTrack(gpx,
+                wp(50, 50, "10:00:00", null),
+                wp(50, 51, "10:01:00", null));
+        GpxTimeIndex index = new GpxTimeIndex(gpx);
+        assertEquals(6, index.size());
+        assertEquals(time("10:00:00"), index.getFirstTime());
+
+        ImageEntry e = correlate(index, "10:00:05");
+        assertEquals(0, e.getPos().lat(), EPSILON);
+        assertEquals(0.5, e.getPos().lon(), EPSILON);
+        assertEquals(150, e.getElevation(), EPSILON);
+        assertNotNull(e.getSpeed());
+
+        // up to 5 seconds before the first point
+        e = correlate(index, "09:59:56");
+        assertTrue(new LatLon(0, 0).equalsEpsilon(e.getPos()));
+        assertNull(e.getSpeed());
+        assertNull(correlate(index, "09:59:54"));
+
+        e = correlate(index, "10:00:20");
+        assertEquals(1, e.getPos().lat(), EPSILON);
+        assertEquals(1, e.getPos().lon(), EPSILON);
+
+        // the point without time splits the segment
+        e = correlate(index, "10:00:36");
+        assertTrue(new LatLon(3, 3).equalsEpsilon(e.getPos()));
+
+        // only the second track covers this time
+        e = correlate(index, "10:00:30");
+        assertEquals(50, e.getPos().lat(), EPSILON);
+        assertEquals(50.5, e.getPos().lon(), EPSILON);
+
+        assertNull(correlate(index, "10:01:01"));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        GpxTimeIndex index = new GpxTimeIndex(new GpxData());
+        assertEquals(-1, index.getFirstTime());
+        assertFalse(index.correlate(new ImageEntry(), time("10:00:00")));
+        GpxData gpx = new GpxData();
+        addTrack(gpx, wp(1, 1, null, null));
+        assertEquals(0, new GpxTimeIndex(gpx).size());
+    }
+}
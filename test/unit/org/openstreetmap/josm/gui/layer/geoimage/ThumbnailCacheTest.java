@@ -0,0 +1,100 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class ThumbnailCacheTest {
+
+    private static BufferedImage createImage(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.ORANGE);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        return img;
+    }
+
+    private static File createFile() throws Exception {
+        File file = File.createTempFile("josm-thumbnails", ".cache");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        File file = createFile();
+        try {
+            ThumbnailCache cache = new ThumbnailCache(file, 1024 * 1024);
+            cache.put("a", createImage(120, 90));
+            cache.put("b", createImage(90, 120));
+            BufferedImage a = cache.get("a");
+            assertNotNull(a);
+            assertEquals(120, a.getWidth());
+            assertEquals(90, a.getHeight());
+            assertNull(cache.get("c"));
+            cache.close();
+
+            // the index is rebuilt from the file
+            cache = new ThumbnailCache(file, 1024 * 1024);
+            assertEquals(2, cache.size());
+            assertEquals(120, cache.get("b").getHeight());
+            cache.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        File file = createFile();
+        try {
+            ThumbnailCache cache = new ThumbnailCache(file, 1024 * 1024);
+            cache.put("a", createImage(120, 90));
+            cache.put("b", createImage(120, 90));
+            cache.close();
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(raf.length() - 10);
+            raf.close();
+
+            cache = new ThumbnailCache(file, 1024 * 1024);
+            assertEquals(1, cache.size());
+            assertNotNull(cache.get("a"));
+            assertNull(cache.get("b"));
+            cache.put("c", createImage(100, 100));
+            assertNotNull(cache.get("c"));
+            cache.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        File file = createFile();
+        try {
+            ThumbnailCache cache = new ThumbnailCache(file, 2000);
+            for (int i = 0; i < 20; i++) {
+                cache.put("img" + i, createImage(120, 90));
+            }
+            // the cache was emptied when it became full
+            assertNull(cache.get("img0"));
+            assertNotNull(cache.get("img19"));
+            cache.close();
+            assertTrue(file.length() <= 2000);
+        } finally {
+            file.delete();
+        }
+    }
+}
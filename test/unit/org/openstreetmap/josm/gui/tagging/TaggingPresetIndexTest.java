@@ -0,0 +1,101 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.tagging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.gui.tagging.TaggingPreset.Item;
+import org.openstreetmap.josm.gui.tagging.TaggingPreset.Key;
+import org.openstreetmap.josm.gui.tagging.TaggingPreset.KeyedItem;
+import org.openstreetmap.josm.gui.tagging.TaggingPreset.PresetType;
+import org.openstreetmap.josm.io.MirroredInputStream;
+
+public class TaggingPresetIndexTest {
+
+    private static Collection<TaggingPreset> presets;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        Main.pref = new Preferences();
+        Reader in = new InputStreamReader(new MirroredInputStream("resource://data/defaultpresets.xml"), "UTF-8");
+        try {
+            presets = TaggingPreset.readAll(in, false);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static List<TaggingPreset> filter(Collection<PresetType> t, Map<String, String> tags, boolean onlyShowable) {
+        List<TaggingPreset> result = new ArrayList<TaggingPreset>();
+        for (TaggingPreset p : presets) {
+            if (p.matches(t, tags, onlyShowable)) {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compares the indexed matching with testing every preset, for the tags of every preset.
+     */
+    @Test
+    public void testSameAsFilter() {
+        TaggingPresetIndex index = new TaggingPresetIndex(presets);
+        int matched = 0;
+        for (TaggingPreset p : presets) {
+            Map<String, String> tags = new HashMap<String, String>();
+            for (Item item : p.data) {
+                if (item instanceof Key) {
+                    tags.put(((Key) item).key, ((Key) item).value);
+                } else if (item instanceof KeyedItem && ((KeyedItem) item).key != null) {
+                    tags.put(((KeyedItem) item).key, "yes");
+                }
+            }
+            if (tags.isEmpty()) {
+                continue;
+            }
+            List<TaggingPreset> expected = filter(null, tags, false);
+            assertEquals(expected, index.getMatchingPresets(null, tags, false));
+            assertEquals(filter(EnumSet.of(PresetType.NODE), tags, true),
+                    index.getMatchingPresets(EnumSet.of(PresetType.NODE), tags, true));
+            if (!expected.isEmpty()) {
+                matched++;
+            }
+        }
+        assertTrue(matched > 100);
+    }
+
+    @Test
+    public void testNoMatch() {
+        TaggingPresetIndex index = new TaggingPresetIndex(presets);
+        assertTrue(index.getMatchingPresets(null, Collections.<String, String>emptyMap(), false).isEmpty());
+        assertTrue(index.getMatchingPresets(null, Collections.singletonMap("no such key", "x"), false).isEmpty());
+        assertFalse(index.getMatchingPresets(null, Collections.singletonMap("highway", "residential"), false).isEmpty());
+        assertTrue(new TaggingPresetIndex(null).getMatchingPresets(null, Collections.singletonMap("highway", "residential"), false).isEmpty());
+    }
+
+    @Test
+    public void testAddedPresets() {
+        List<TaggingPreset> list = new ArrayList<TaggingPreset>();
+        Map<String, String> tags = Collections.singletonMap("highway", "residential");
+        assertTrue(TaggingPresetIndex.get(list).getMatchingPresets(null, tags, false).isEmpty());
+        // presets added to the same collection later are indexed too
+        list.addAll(presets);
+        assertEquals(filter(null, tags, false), TaggingPresetIndex.get(list).getMatchingPresets(null, tags, false));
+    }
+}
@@ -0,0 +1,125 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.tagging.ac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.projection.Projections;
+
+public class AutoCompletionManagerTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.setProjection(Projections.getProjectionByCode("EPSG:3857")); // Mercator
+        Main.pref = new Preferences();
+    }
+
+    private static Node addNode(DataSet ds, String key, String value) {
+        Node n = new Node(new LatLon(0, 0));
+        n.put(key, value);
+        ds.addPrimitive(n);
+        return n;
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        DataSet ds = new DataSet();
+        AutoCompletionManager ac = ds.getAutoCompletionManager();
+        Node n1 = addNode(ds, "highway", "bus_stop");
+        addNode(ds, "highway", "bus_stop");
+        addNode(ds, "highway", "crossing");
+        addNode(ds, "historic", "memorial");
+
+        assertEquals(Arrays.asList("highway", "historic"), ac.getDataKeys());
+        assertEquals(Arrays.asList("bus_stop", "crossing"), ac.getDataValues("highway"));
+
+        // the cache is now built, further changes are applied incrementally
+        Node n5 = addNode(ds, "historic", "castle");
+        assertEquals(Arrays.asList("castle", "memorial"), ac.getDataValues("historic"));
+
+        n1.put("highway", "crossing");
+        n5.put("historic", "memorial");
+        assertEquals(Arrays.asList("bus_stop", "crossing"), ac.getDataValues("highway"));
+        assertEquals(Arrays.asList("memorial"), ac.getDataValues("historic"));
+
+        // values are kept as long as another primitive uses them
+        ds.removePrimitive(n5);
+        n1.setDeleted(true);
+        assertEquals(Arrays.asList("memorial"), ac.getDataValues("historic"));
+        assertEquals(Arrays.asList("bus_stop", "crossing"), ac.getDataValues("highway"));
+
+        n1.setDeleted(false);
+        n1.put("highway", "platform");
+        assertEquals(Arrays.asList("bus_stop", "crossing", "platform"), ac.getDataValues("highway"));
+        n1.remove("highway");
+        assertEquals(Arrays.asList("bus_stop", "crossing"), ac.getDataValues("highway"));
+
+        Relation r = new Relation();
+        r.addMember(new RelationMember("stop", n1));
+        ds.addPrimitive(r);
+        assertEquals(Collections.singletonList("stop"), ac.getMemberRoles());
+        r.setMembers(Collections.singletonList(new RelationMember("platform", n1)));
+        assertEquals(Collections.singletonList("platform"), ac.getMemberRoles());
+    }
+
+    private static List<String> values(AutoCompletionList list) {
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < list.getFilteredSize(); i++) {
+            values.add(list.getFilteredItem(i).getValue());
+        }
+        return values;
+    }
+
+    @Test
+    public void testRankingAndPrefix() {
+        DataSet ds = new DataSet();
+        AutoCompletionManager ac = ds.getAutoCompletionManager();
+        addNode(ds, "surface", "paved");
+        addNode(ds, "surface", "paving_stones");
+        addNode(ds, "surface", "paving_stones");
+        addNode(ds, "surface", "gravel");
+        AutoCompletionList list = new AutoCompletionList();
+        ac.populateWithTagValues(list, "surface");
+        // the most used values first
+        assertEquals("paving_stones", values(list).get(0));
+        list.applyFilter("pav");
+        assertEquals(Arrays.asList("paving_stones", "paved"), values(list));
+        list.applyFilter("paved");
+        assertEquals(Arrays.asList("paved"), values(list));
+        list.applyFilter("x");
+        assertTrue(values(list).isEmpty());
+    }
+
+    @Test
+    public void testUploadedPrimitive() {
+        DataSet ds = new DataSet();
+        AutoCompletionManager ac = ds.getAutoCompletionManager();
+        Node n = addNode(ds, "highway", "bus_stop");
+        assertEquals(Arrays.asList("bus_stop"), ac.getDataValues("highway"));
+        // the id of a new primitive changes when it is uploaded, the events are fired afterwards
+        ds.beginUpdate();
+        try {
+            n.setOsmId(1234, 1);
+        } finally {
+            ds.endUpdate();
+        }
+        n.put("highway", "crossing");
+        assertEquals(Arrays.asList("crossing"), ac.getDataValues("highway"));
+        n.remove("highway");
+        assertTrue(ac.getDataKeys().isEmpty());
+    }
+}
@@ -0,0 +1,172 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.Version;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class SaxEventCacheTest {
+
+    @BeforeClass
+    public static void init() throws IOException {
+        Main.pref = new Preferences();
+        File dir = File.createTempFile("josm-cache", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        System.setProperty("josm.cache", dir.getAbsolutePath());
+    }
+
+    /** Logs the events it receives */
+    private static class LogHandler extends DefaultHandler {
+        final StringBuilder log = new StringBuilder();
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            log.append('<').append(qName);
+            for (int i = 0; i < atts.getLength(); i++) {
+                log.append(' ').append(atts.getQName(i)).append('=').append(atts.getValue(i));
+            }
+            log.append('>');
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            log.append("</").append(qName).append('>');
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            log.append(ch, start, length);
+        }
+    }
+
+    /** Parses with a SAX parser and counts how often it is used */
+    private static class CountingParser implements SaxEventCache.DocumentParser {
+        private final byte[] content;
+        int count;
+
+        CountingParser(byte[] content) {
+            this.content = content;
+        }
+
+        public void parse(ContentHandler handler) throws SAXException, IOException {
+            count++;
+            try {
+                XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+                reader.setContentHandler(handler);
+                reader.parse(new InputSource(new ByteArrayInputStream(content)));
+            } catch (ParserConfigurationException e) {
+                throw new SAXException(e);
+            }
+        }
+    }
+
+    private static String parse(String source, String xml, CountingParser[] parserOut) throws Exception {
+        byte[] content = xml.getBytes("UTF-8");
+        CountingParser parser = new CountingParser(content);
+        LogHandler handler = new LogHandler();
+        SaxEventCache.parse("test", source, content, handler, parser);
+        parserOut[0] = parser;
+        return handler.log.toString();
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        String xml = "<root a=\"1\" b=\"ä\"><item name=\"x\">text &amp; more</item><item name=\"x\"/></root>";
+        CountingParser[] parser = new CountingParser[1];
+        String first = parse("http://example.com/replay.xml", xml, parser);
+        assertEquals(1, parser[0].count);
+        assertEquals("<root a=1 b=ä><item name=x>text & more</item><item name=x></item></root>", first);
+
+        String second = parse("http://example.com/replay.xml", xml, parser);
+        assertEquals(0, parser[0].count);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void testChangedContent() throws Exception {
+        CountingParser[] parser = new CountingParser[1];
+        parse("http://example.com/changed.xml", "<root><a/></root>", parser);
+        assertEquals("<root><b></b></root>", parse("http://example.com/changed.xml", "<root><b/></root>", parser));
+        assertEquals(1, parser[0].count);
+        // the same content from another source is parsed too
+        parse("http://example.com/other.xml", "<root><b/></root>", parser);
+        assertEquals(1, parser[0].count);
+    }
+
+    @Test
+    public void testBrokenSnapshot() throws Exception {
+        String source = "http://example.com/broken.xml";
+        CountingParser[] parser = new CountingParser[1];
+        parse(source, "<root><a/></root>", parser);
+        File dir = new File(Main.pref.getCacheDirectory(), "preparsed");
+        File[] files = dir.listFiles();
+        assertTrue(files.length > 0);
+        for (File f : files) {
+            // keep the header, truncate the events
+            byte[] truncated = new byte[(int) f.length() - 10];
+            FileInputStream in = new FileInputStream(f);
+            try {
+                in.read(truncated);
+            } finally {
+                in.close();
+            }
+            FileOutputStream out = new FileOutputStream(f);
+            try {
+                out.write(truncated);
+            } finally {
+                out.close();
+            }
+        }
+        LogHandler handler = new LogHandler();
+        byte[] content = "<root><a/></root>".getBytes("UTF-8");
+        CountingParser p = new CountingParser(content);
+        SaxEventCache.parse("test", source, content, handler, p);
+        assertEquals(1, p.count);
+        assertEquals("<root><a></a></root>", handler.log.toString());
+    }
+
+    @Test
+    public void testOtherJosmVersion() throws Exception {
+        String source = "http://example.com/version.xml";
+        CountingParser[] parser = new CountingParser[1];
+        parse(source, "<root><a/></root>", parser);
+        File dir = new File(Main.pref.getCacheDirectory(), "preparsed");
+        for (File f : dir.listFiles()) {
+            // the JOSM version follows the magic number and the format version
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                raf.seek(8);
+                raf.writeInt(Version.getInstance().getVersion() + 1);
+            } finally {
+                raf.close();
+            }
+        }
+        assertEquals("<root><a></a></root>", parse(source, "<root><a/></root>", parser));
+        assertEquals(1, parser[0].count);
+        parse(source, "<root><a/></root>", parser);
+        assertEquals(0, parser[0].count);
+    }
+}
@@ -0,0 +1,100 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+
+public class PluginHandlerTest {
+
+    private static final List<String> constructed = Collections.synchronizedList(new ArrayList<String>());
+
+    public static class PluginA {
+        public PluginA(PluginInformation info) throws InterruptedException {
+            // give the plugins that do not wait for this one time to start
+            Thread.sleep(50);
+            constructed.add(info.name);
+        }
+    }
+
+    public static class PluginB {
+        public PluginB(PluginInformation info) {
+            // requires a
+            assertTrue(constructed.contains("a"));
+            constructed.add(info.name);
+        }
+    }
+
+    private static PluginInformation plugin(String name, Class<?> klass, String requires) throws PluginException {
+        String manifest = "Manifest-Version: 1.0\nPlugin-Class: " + klass.getName() + "\n";
+        PluginInformation info = new PluginInformation(new ByteArrayInputStream(manifest.getBytes()), name, null);
+        info.localrequires = requires;
+        return info;
+    }
+
+    @Before
+    public void setUp() {
+        Main.pref = new Preferences() {
+            @Override
+            public void save() {
+                // keep the test settings in memory
+            }
+        };
+        constructed.clear();
+    }
+
+    @After
+    public void tearDown() {
+        PluginHandler.pluginList.clear();
+    }
+
+    private List<String> loadedPlugins() {
+        List<String> names = new ArrayList<String>();
+        for (PluginProxy p : PluginHandler.pluginList) {
+            names.add(p.getPluginInformation().name);
+        }
+        return names;
+    }
+
+    @Test
+    public void testLoadPlugins() throws PluginException {
+        PluginHandler.loadPlugins(null, Arrays.asList(
+                plugin("a", PluginA.class, null),
+                plugin("b", PluginB.class, "a"),
+                plugin("c", PluginB.class, "a")), null);
+        assertEquals(Arrays.asList("a", "b", "c"), constructed);
+        assertEquals(Arrays.asList("a", "b", "c"), loadedPlugins());
+    }
+
+    @Test
+    public void testLoadPluginsConcurrently() throws PluginException {
+        Main.pref.put("plugins.parallel-init", true);
+        PluginHandler.loadPlugins(null, Arrays.asList(
+                plugin("a", PluginA.class, null),
+                plugin("b", PluginB.class, "a"),
+                plugin("c", PluginA.class, null),
+                plugin("d", PluginB.class, "a;c")), null);
+        // b waits for a, d for a and c
+        assertEquals(4, constructed.size());
+        assertTrue(constructed.indexOf("b") > constructed.indexOf("a"));
+        assertEquals("d", constructed.get(3));
+        // the plugins that do not require each other are added in order
+        assertEquals(Arrays.asList("a", "c", "b", "d"), loadedPlugins());
+
+        String report = PluginHandler.getPluginLoadingReport();
+        for (String name : Arrays.asList("a", "b", "c", "d")) {
+            assertTrue(report.contains("  " + name + "\n"));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URI;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+
+public class ImageCacheTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+    }
+
+    private static BufferedImage image(int width, int height, int rgb) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                img.setRGB(x, y, rgb);
+            }
+        }
+        return img;
+    }
+
+    @Test
+    public void testRasterCache() {
+        // room for two 10x10 images
+        RasterCache cache = new RasterCache(800);
+        Object a = new Object();
+        Object b = new Object();
+        BufferedImage img1 = image(10, 10, 0);
+        BufferedImage img2 = image(10, 10, 0);
+        assertEquals(400, RasterCache.getSize(img1));
+
+        cache.put(a, new Dimension(10, 10), img1);
+        cache.put(b, new Dimension(10, 10), img2);
+        assertSame(img1, cache.get(a, new Dimension(10, 10)));
+        assertNull(cache.get(a, new Dimension(10, -1)));
+        assertEquals(800, cache.getBytes());
+
+        // img2 is the least recently used one
+        cache.put(a, new Dimension(10, -1), image(10, 10, 0));
+        assertNull(cache.get(b, new Dimension(10, 10)));
+        assertSame(img1, cache.get(a, new Dimension(10, 10)));
+        assertEquals(2, cache.size());
+        assertEquals(800, cache.getBytes());
+
+        // too large to be cached at all
+        cache.put(b, new Dimension(20, 20), image(20, 20, 0));
+        assertNull(cache.get(b, new Dimension(20, 20)));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testImageResource() {
+        ImageResource resource = new ImageResource(image(16, 8, 0xff00ff00));
+        assertEquals(16, resource.getImageIcon().getIconWidth());
+        BufferedImage scaled = (BufferedImage) resource.getImageIcon(new Dimension(8, -1)).getImage();
+        assertEquals(4, scaled.getHeight());
+        assertSame(scaled, resource.getImageIcon(new Dimension(8, -1)).getImage());
+        assertSame(scaled, RasterCache.getInstance().get(resource, new Dimension(8, -1)));
+    }
+
+    @Test
+    public void testSvgDiskCache() throws Exception {
+        File dir = File.createTempFile("josm-svg", "");
+        dir.delete();
+        try {
+            SvgDiskCache cache = new SvgDiskCache(dir);
+            URI uri = new URI("file:/icons/bench.svg");
+            assertNull(cache.get(uri, new Dimension(16, 16)));
+            cache.put(uri, new Dimension(16, 16), image(16, 16, 0xff0000ff));
+            BufferedImage img = cache.get(uri, new Dimension(16, 16));
+            assertNotNull(img);
+            assertEquals(16, img.getWidth());
+            assertEquals(0xff0000ff, img.getRGB(5, 5));
+            assertNull(cache.get(uri, new Dimension(32, 32)));
+            assertNull(cache.get(new URI("file:/icons/other.svg"), new Dimension(16, 16)));
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testImageAtlas() {
+        ImageAtlas atlas = new ImageAtlas(64, 2, 32);
+        BufferedImage red = image(30, 20, 0xffff0000);
+        ImageAtlas.Region r = atlas.get(red);
+        assertTrue(r.isPacked());
+        assertSame(r, atlas.get(red));
+        assertSame(red, r.getSource());
+        assertEquals(30, r.getWidth());
+
+        // too large
+        assertFalse(atlas.get(image(40, 10, 0)).isPacked());
+
+        // fill the two pages, 4 images of 30x30 fit on each
+        for (int i = 0; i < 7; i++) {
+            assertTrue(atlas.get(image(30, 30, 0)).isPacked());
+        }
+        assertEquals(2, atlas.getPageCount());
+        assertFalse(atlas.get(image(30, 30, 0)).isPacked());
+
+        // regions paint the right pixels
+        BufferedImage target = new BufferedImage(40, 40, BufferedImage.TYPE_INT_ARGB);
+        r.draw(target.createGraphics(), 5, 5, null);
+        assertEquals(0xffff0000, target.getRGB(5, 5));
+        assertEquals(0xffff0000, target.getRGB(34, 24));
+        assertEquals(0, target.getRGB(35, 25));
+        assertEquals(0, target.getRGB(4, 4));
+
+        atlas.clear();
+        assertEquals(0, atlas.getPageCount());
+        assertNotSame(r, atlas.get(red));
+    }
+}
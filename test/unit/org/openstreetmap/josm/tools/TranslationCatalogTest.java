@@ -0,0 +1,124 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class TranslationCatalogTest {
+
+    /**
+     * Writes a pair of .lang files.
+     */
+    private static class LangWriter {
+        final ByteArrayOutputStream en = new ByteArrayOutputStream();
+        final ByteArrayOutputStream tr = new ByteArrayOutputStream();
+
+        private static void writeString(ByteArrayOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes("utf-8");
+            writeLength(out, bytes.length);
+            out.write(bytes);
+        }
+
+        private static void writeLength(ByteArrayOutputStream out, int length) {
+            out.write(length >> 8);
+            out.write(length & 0xFF);
+        }
+
+        LangWriter single(String text, String trans) throws IOException {
+            writeString(en, text);
+            if (trans == null) {
+                writeLength(tr, 0);
+            } else {
+                writeString(tr, trans);
+            }
+            return this;
+        }
+
+        LangWriter endSingles() {
+            writeLength(en, 0xFFFF);
+            writeLength(tr, 0xFFFF);
+            return this;
+        }
+
+        LangWriter plural(String text, String plural, String... trans) throws IOException {
+            en.write(2);
+            writeString(en, text);
+            writeString(en, plural);
+            tr.write(trans.length);
+            for (String t : trans) {
+                writeString(tr, t);
+            }
+            return this;
+        }
+
+        TranslationCatalog read() {
+            return TranslationCatalog.read(new ByteArrayInputStream(en.toByteArray()), new ByteArrayInputStream(tr.toByteArray()));
+        }
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        TranslationCatalog catalog = new LangWriter()
+                .single("Cancel", "Abbrechen")
+                .single("Untranslated", null)
+                // same hash code
+                .single("Aa", "aa")
+                .single("BB", "bb")
+                .single("_:menu\nOpen", "Öffnen")
+                .single("Cancel", "ignored")
+                .single("node", "Knoten")
+                .endSingles()
+                .plural("{0} node", "{0} nodes", "{0} Knoten", "{0} Knoten (viele)")
+                .plural("{0} way", "{0} ways", "{0} Weg", "{0} Wege")
+                .read();
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertEquals(7, catalog.size());
+
+        assertEquals("Abbrechen", catalog.translate("Cancel"));
+        assertNull(catalog.translate("Untranslated"));
+        assertNull(catalog.translate("Missing"));
+        assertEquals("aa", catalog.translate("Aa"));
+        assertEquals("bb", catalog.translate("BB"));
+        assertEquals("Öffnen", catalog.translate("_:menu\nOpen"));
+
+        // the singular form of plural texts
+        assertEquals("{0} Weg", catalog.translate("{0} way"));
+        assertEquals("{0} Weg", catalog.translatePlural("{0} way", 0));
+        assertEquals("{0} Wege", catalog.translatePlural("{0} way", 1));
+        assertNull(catalog.translatePlural("{0} way", 2));
+        assertEquals("{0} Knoten (viele)", catalog.translatePlural("{0} node", 1));
+        // single texts are no plural texts
+        assertNull(catalog.translatePlural("Cancel", 0));
+    }
+
+    @Test
+    public void testCorruptFiles() throws IOException {
+        LangWriter w = new LangWriter().single("Cancel", "Abbrechen").endSingles();
+        w.en.write(2);
+        assertNull(w.read());
+        // no translation at all
+        assertNull(new LangWriter().single("Cancel", null).endSingles().read());
+    }
+
+    @Test
+    public void testLanguageFiles() throws IOException {
+        InputStream en = getClass().getResourceAsStream("/data/en.lang");
+        InputStream de = getClass().getResourceAsStream("/data/de.lang");
+        try {
+            TranslationCatalog catalog = TranslationCatalog.read(en, de);
+            assertTrue(catalog.size() > 1000);
+            assertEquals("Abbrechen", catalog.translate("Cancel"));
+        } finally {
+            en.close();
+            de.close();
+        }
+    }
+}